@@ -40,6 +40,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.values.ItemscriptCreator;
 import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.JsonWriter;
 import org.itemscript.standard.MinimalConfig;
 
 public class PostEncapServlet extends HttpServlet {
@@ -73,8 +74,9 @@ public class PostEncapServlet extends HttpServlet {
         JsonSystem system = MinimalConfig.createSystem();
         JsonValue value = system.parseReader(req.getReader());
         resp.setContentType("application/json");
-        resp.getWriter()
-                .write(value.toCompactJsonString());
+        JsonWriter writer = new JsonWriter(resp.getWriter());
+        writer.write(value);
+        writer.flush();
     }
 
     private JsonValue putValue(JsonValue value) {
@@ -30,7 +30,6 @@
 package examples.org.itemscript.gwt.server;
 
 import java.io.IOException;
-import java.io.Writer;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -39,6 +38,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.JsonWriter;
 import org.itemscript.standard.MinimalConfig;
 
 /**
@@ -64,8 +64,9 @@ public class ReflectJsonServlet extends HttpServlet {
         }
         resp.setContentType("application/json");
         if (value != null) {
-            Writer writer = resp.getWriter();
-            writer.write(value.toCompactJsonString());
+            JsonWriter writer = new JsonWriter(resp.getWriter());
+            writer.write(value);
+            writer.flush();
         }
     }
 
@@ -74,7 +75,8 @@ public class ReflectJsonServlet extends HttpServlet {
         JsonSystem system = MinimalConfig.createSystem();
         JsonValue value = system.parseReader(req.getReader());
         resp.setContentType("application/json");
-        Writer writer = resp.getWriter();
-        writer.write(value.toCompactJsonString());
+        JsonWriter writer = new JsonWriter(resp.getWriter());
+        writer.write(value);
+        writer.flush();
     }
 }
\ No newline at end of file
@@ -53,7 +53,7 @@ import org.itemscript.core.url.Query;
 import org.itemscript.core.url.Url;
 import org.itemscript.core.url.UrlFactory;
 import org.itemscript.core.util.JsonAccessHelper;
-import org.itemscript.core.values.ItemscriptContainer;
+import org.itemscript.core.values.ItemscriptCreator;
 import org.itemscript.core.values.ItemscriptPutResponse;
 import org.itemscript.core.values.JsonArray;
 import org.itemscript.core.values.JsonBoolean;
@@ -114,6 +114,17 @@ public final class ItemscriptSystem implements JsonSystem {
                 fullUrl + ""); }
     }
 
+    /**
+     * Test whether objects created in this system are compact, as set on its {@link ItemscriptCreator}.
+     * 
+     * @return True if objects are compact.
+     * @see ItemscriptCreator#setCompactObjects(boolean)
+     */
+    public boolean compactObjects() {
+        if (factory instanceof ItemscriptCreator) { return ((ItemscriptCreator) factory).compactObjects(); }
+        return true;
+    }
+
     //@Override
     public String constant(String name) {
         String value = constants.get(name);
@@ -123,7 +134,7 @@ public final class ItemscriptSystem implements JsonSystem {
 
     //@Override
     public PutResponse copy(JsonValue value, String toUrl) {
-        return put(toUrl, parse(value.toCompactJsonString()));
+        return put(toUrl, value.copy());
     }
 
     //@Override
@@ -198,6 +209,11 @@ public final class ItemscriptSystem implements JsonSystem {
         return factory().createNumber(value);
     }
 
+    //@Override
+    public JsonNumber createNumber(Long value) {
+        return factory().createNumber(value);
+    }
+
     //@Override
     public JsonObject createObject() {
         return factory().createObject();
@@ -396,7 +412,7 @@ public final class ItemscriptSystem implements JsonSystem {
                     .size() == 0) { return value; }
             if (value == null) { return null; }
             if (value.isContainer()) {
-                return ((ItemscriptContainer) value).getByFragment(fullUrl.fragment());
+                return JsonAccessHelper.getByFragment(value.asContainer(), fullUrl.fragment());
             } else {
                 throw ItemscriptError.internalError(this, "get.had.fragment.but.value.was.not.a.container",
                         new Params().p("url", fullUrl + "")
@@ -412,11 +428,45 @@ public final class ItemscriptSystem implements JsonSystem {
                 .equals(Url.MEM_SCHEME) && url.hasFragment();
     }
 
+    /**
+     * Get the length of the longest compact JSON text that an object or array in this system keeps after it is
+     * serialized, as set on its {@link ItemscriptCreator}.
+     * 
+     * @return The limit, in chars; 0 if no text is kept.
+     * @see ItemscriptCreator#setJsonStringCacheLimit(int)
+     */
+    public int jsonStringCacheLimit() {
+        if (factory instanceof ItemscriptCreator) { return ((ItemscriptCreator) factory).jsonStringCacheLimit(); }
+        return 0;
+    }
+
+    /**
+     * Test whether arrays in this system keep their values as plain longs or doubles while they only hold numbers,
+     * as set on its {@link ItemscriptCreator}.
+     * 
+     * @return True if arrays of numbers are kept as longs or doubles.
+     * @see ItemscriptCreator#setNumericArrays(boolean)
+     */
+    public boolean numericArrays() {
+        if (factory instanceof ItemscriptCreator) { return ((ItemscriptCreator) factory).numericArrays(); }
+        return true;
+    }
+
     //@Override
     public JsonValue parse(String json) {
         return factory().parse(json);
     }
 
+    //@Override
+    public JsonValue parseCbor(byte[] cbor) {
+        return factory().parseCbor(cbor);
+    }
+
+    //@Override
+    public JsonNumber parseNumber(String text) {
+        return factory().parseNumber(text);
+    }
+
     //@Override
     public JsonValue parseReader(Object reader) {
         return factory().parseReader(reader);
@@ -591,6 +641,11 @@ public final class ItemscriptSystem implements JsonSystem {
         return this;
     }
 
+    //@Override
+    public byte[] toCbor(JsonValue value) {
+        return factory().toCbor(value);
+    }
+
     //@Override
     public String toString() {
         return "[JsonSystem]";
@@ -128,6 +128,9 @@ public interface JsonSystem extends JsonGetAccess, JsonPutAccess, HasSystem, Jso
      * <p>
      * The argument is specified as Object only because GWT does not contain Reader.
      * <p>
+     * In the standard Java environment, an {@link java.io.InputStream} or byte[] containing UTF-8 encoded JSON is
+     * also accepted.
+     * <p>
      * Note: this method is inoperative in the GWT environment.
      * 
      * @param reader The Reader to parse.
@@ -34,6 +34,7 @@ import java.util.Comparator;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.FragmentPath;
 import org.itemscript.core.url.Pagination;
 import org.itemscript.core.url.Path;
 import org.itemscript.core.url.Query;
@@ -137,7 +138,7 @@ public final class MemConnector extends ConnectorBase
             ItemNode next = removedNode.get(key);
             notifyAllOfRemove(next);
         }
-        ((ItemscriptItem) removedNode.item()).notifyRemove("#");
+        ((ItemscriptItem) removedNode.item()).notifyRemove(FragmentPath.ROOT);
     }
 
     private final ItemNode root;
@@ -344,9 +345,9 @@ public final class MemConnector extends ConnectorBase
         if (fragmentString == null) {
             fragmentString = "";
         }
-        node.item()
+        PutResponse response = node.item()
                 .put("#" + fragmentString, value);
-        return new ItemscriptPutResponse(url + "", null, value);
+        return new ItemscriptPutResponse(url + "", null, response.value());
     }
 
     //@Override
@@ -29,6 +29,7 @@
 
 package org.itemscript.core.events;
 
+import org.itemscript.core.url.FragmentPath;
 import org.itemscript.core.values.JsonItem;
 import org.itemscript.core.values.JsonValue;
 
@@ -40,9 +41,23 @@ import org.itemscript.core.values.JsonValue;
  */
 public class Event {
     private final EventType eventType;
-    private final String fragment;
+    private String fragment;
+    private FragmentPath path;
     private final JsonValue value;
 
+    /**
+     * Create a new Event.
+     * 
+     * @param eventType The EventType of this event.
+     * @param path The path identifying the value that changed.
+     * @param value The value of the item in which this event occurred.
+     */
+    public Event(EventType eventType, FragmentPath path, JsonValue value) {
+        this.eventType = eventType;
+        this.path = path;
+        this.value = value;
+    }
+
     /**
      * Create a new Event.
      * 
@@ -71,9 +86,25 @@ public class Event {
      * @return The URL fragment.
      */
     public final String fragment() {
+        if (fragment == null && path != null) {
+            fragment = path.toString();
+        }
         return fragment;
     }
 
+    /**
+     * Get the path of the value that changed or was removed. Handlers that only care about part of the item should
+     * compare this against the paths they care about, rather than parsing the fragment.
+     * 
+     * @return The path.
+     */
+    public final FragmentPath path() {
+        if (path == null && fragment != null) {
+            path = FragmentPath.decode(fragment);
+        }
+        return path;
+    }
+
     /**
      * Get the value of the item where the change occurred. If the event was the
      * removal of the entire item, this will be null.
@@ -0,0 +1,207 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.core.url;
+
+/**
+ * The position of a value within the value of its item, as the list of keys leading to it from the root; the
+ * structured form of {@link org.itemscript.core.values.JsonValue#fragment()}.
+ * <p>
+ * A path is immutable and shares its keys with the path of the container it was made from, so making the path of a
+ * value from the path of its container costs a single object. The fragment string is only encoded when
+ * {@link #toString()} is first called. Compare paths with {@link #equals(Object)} and {@link #startsWith(FragmentPath)},
+ * which compare the keys themselves, so unlike fragment strings they can't be confused by keys containing ".".
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class FragmentPath {
+    /**
+     * The path of the root value of an item, with no keys.
+     */
+    public static final FragmentPath ROOT = new FragmentPath(null, null);
+
+    /**
+     * Decode a fragment string, as returned from {@link org.itemscript.core.values.JsonValue#fragment()}, into a
+     * path. Since "." is not encoded in keys, a key containing "." is read as more than one key.
+     * 
+     * @param fragment The fragment string, with or without the leading "#".
+     * @return The path.
+     */
+    public static FragmentPath decode(String fragment) {
+        int start = fragment.startsWith("#") ? 1 : 0;
+        FragmentPath path = ROOT;
+        if (start == fragment.length()) { return path; }
+        for (int i = start; i <= fragment.length(); ++i) {
+            if (i == fragment.length() || fragment.charAt(i) == '.') {
+                path = path.child(Url.decode(fragment.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        return path;
+    }
+
+    private final FragmentPath parent;
+    private final String key;
+    private final int size;
+    private String encoded;
+
+    private FragmentPath(FragmentPath parent, String key) {
+        this.parent = parent;
+        this.key = key;
+        this.size = parent == null ? 0 : parent.size + 1;
+    }
+
+    /**
+     * Get the path of the value under the given key in the value at this path.
+     * 
+     * @param key The key.
+     * @return The new path.
+     */
+    public FragmentPath child(String key) {
+        if (key == null) { throw new NullPointerException("key"); }
+        return new FragmentPath(this, key);
+    }
+
+    //@Override
+    public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if (!(other instanceof FragmentPath)) { return false; }
+        FragmentPath otherPath = (FragmentPath) other;
+        if (otherPath.size != size) { return false; }
+        FragmentPath path = this;
+        while (path != otherPath) {
+            if (!path.key.equals(otherPath.key)) { return false; }
+            path = path.parent;
+            otherPath = otherPath.parent;
+        }
+        return true;
+    }
+
+    //@Override
+    public int hashCode() {
+        int hash = 0;
+        for (FragmentPath path = this; path.parent != null; path = path.parent) {
+            hash = hash * 31 + path.key.hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Get one of the keys in this path.
+     * 
+     * @param index The index of the key, from 0 for the key in the root value.
+     * @return The key.
+     */
+    public String key(int index) {
+        if (index < 0 || index >= size) { throw new IndexOutOfBoundsException(index + ""); }
+        FragmentPath path = this;
+        for (int i = size - 1; i > index; --i) {
+            path = path.parent;
+        }
+        return path.key;
+    }
+
+    /**
+     * Get the keys in this path.
+     * 
+     * @return A new array of the keys, from the key in the root value on.
+     */
+    public String[] keys() {
+        String[] keys = new String[size];
+        FragmentPath path = this;
+        for (int i = size - 1; i >= 0; --i) {
+            keys[i] = path.key;
+            path = path.parent;
+        }
+        return keys;
+    }
+
+    /**
+     * Get the last key in this path.
+     * 
+     * @return The last key, or null if this is the root path.
+     */
+    public String lastKey() {
+        return key;
+    }
+
+    /**
+     * Get the path of the container of the value at this path.
+     * 
+     * @return The parent path, or null if this is the root path.
+     */
+    public FragmentPath parent() {
+        return parent;
+    }
+
+    /**
+     * Get the number of keys in this path.
+     * 
+     * @return The number of keys; 0 for the root path.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Test whether this path is the given path or leads through it, that is, whether the value at this path is the
+     * value at the given path or inside it.
+     * 
+     * @param prefix The path to test against.
+     * @return True if this path starts with the given path.
+     */
+    public boolean startsWith(FragmentPath prefix) {
+        if (prefix.size > size) { return false; }
+        FragmentPath path = this;
+        while (path.size > prefix.size) {
+            path = path.parent;
+        }
+        return path.equals(prefix);
+    }
+
+    /**
+     * Get the fragment string for this path, in the same form as
+     * {@link org.itemscript.core.values.JsonValue#fragment()}: "#" followed by the URL-encoded keys separated by ".".
+     * 
+     * @return The fragment string.
+     */
+    //@Override
+    public String toString() {
+        if (encoded == null) {
+            if (parent == null) {
+                encoded = "#";
+            } else if (parent.parent == null) {
+                encoded = "#" + Url.encode(key);
+            } else {
+                encoded = parent.toString() + "." + Url.encode(key);
+            }
+        }
+        return encoded;
+    }
+}
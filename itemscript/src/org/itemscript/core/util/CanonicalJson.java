@@ -0,0 +1,416 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.util;
+
+import java.util.Arrays;
+
+import org.itemscript.core.values.ItemscriptContainer;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Canonical JSON text and content hashes for values, for ETags, de-duplication and change detection.
+ * <p>
+ * The canonical text of a value is its compact JSON text with the keys of every object sorted (by
+ * {@link String#compareTo}), and every number written in one form for its value, whatever text or type it was
+ * created from: integers in the range of a long in plain decimal, other numbers from their shortest significant
+ * digits the way JavaScript prints them. Only quotes, backslashes and control characters are escaped in strings.
+ * Two values with the same canonical text are equal, so a digest of it makes a stable ETag. For doubles this
+ * follows RFC 8785, as far as Double.toString gives the shortest digits. The text is streamed to an {@link Output}
+ * piece by piece, so it can go straight into a digest without being built up as a String first; see
+ * org.itemscript.standard.StandardUtil#digest for that.
+ * <p>
+ * The content hash, {@link #contentHash(JsonValue)}, is a 64-bit hash built up from the hashes of the parts of a
+ * value rather than from its text, so that an object or array can keep its hash and reuse it in the hash of the
+ * container it is in. An {@link ItemscriptContainer} keeps its hash until it or anything inside it is changed, so
+ * after a change only the containers above it are hashed again. Values that are equal have the same content hash,
+ * so two values whose hashes are already known and differ are known to be unequal without comparing them; see
+ * {@link #knownHashesDiffer(JsonValue, JsonValue)}.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class CanonicalJson {
+    /**
+     * Receives canonical JSON text as it is written.
+     */
+    public interface Output {
+        /**
+         * Append a character.
+         * 
+         * @param c The character to append.
+         */
+        public void append(char c);
+
+        /**
+         * Append a string.
+         * 
+         * @param string The string to append.
+         */
+        public void append(String string);
+    }
+
+    private static final class StringBuilderOutput implements Output {
+        private final StringBuilder sb = new StringBuilder();
+
+        public void append(char c) {
+            sb.append(c);
+        }
+
+        public void append(String string) {
+            sb.append(string);
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final double TWO_TO_THE_53 = 9007199254740992.0;
+    /**
+     * Numbers whose point is further than this from their first digit are written with an exponent.
+     */
+    private static final int MAX_PLAIN_EXPONENT = 21;
+    private static final int MIN_PLAIN_EXPONENT = -6;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+    private static final long NULL_HASH = 0x5bd1e9955bd1e995L;
+    private static final long TRUE_HASH = 0x27d4eb2f165667c5L;
+    private static final long FALSE_HASH = 0x165667b19e3779f9L;
+    private static final long STRING_SEED = 0x85ebca6bL;
+    private static final long NUMBER_SEED = 0xc2b2ae35L;
+    private static final long ARRAY_SEED = 0x7fb5d329728ea185L;
+    private static final long OBJECT_SEED = 0x81dadef4bc2dd44dL;
+
+    /**
+     * Get the canonical form of the text of a decimal number: its shortest significant digits, with the point
+     * placed the way JavaScript prints numbers. Accepts JSON number text and the output of Double.toString.
+     * 
+     * @param text The number text.
+     * @return The canonical text.
+     */
+    public static String canonicalDecimal(String text) {
+        int i = 0;
+        boolean negative = false;
+        if (text.charAt(0) == '-') {
+            negative = true;
+            ++i;
+        }
+        StringBuilder digits = new StringBuilder();
+        int pointPosition = 0;
+        int leadingZeros = 0;
+        boolean afterPoint = false;
+        for (; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                afterPoint = true;
+            } else if (c >= '0' && c <= '9') {
+                if (!afterPoint) {
+                    ++pointPosition;
+                }
+                if (c == '0' && digits.length() == 0) {
+                    ++leadingZeros;
+                } else {
+                    digits.append(c);
+                }
+            } else {
+                break;
+            }
+        }
+        long exponent = 0;
+        if (i < text.length()) {
+            // Skip the 'e' or 'E', and a '+', which Long.parseLong doesn't take everywhere.
+            ++i;
+            if (text.charAt(i) == '+') {
+                ++i;
+            }
+            exponent = Long.parseLong(text.substring(i));
+        }
+        int length = digits.length();
+        while (length > 0 && digits.charAt(length - 1) == '0') {
+            --length;
+        }
+        if (length == 0) { return "0"; }
+        digits.setLength(length);
+        // The value is 0.digits times ten to the power of n.
+        long n = pointPosition - leadingZeros + exponent;
+        StringBuilder sb = new StringBuilder();
+        if (negative) {
+            sb.append('-');
+        }
+        if (length <= n && n <= MAX_PLAIN_EXPONENT) {
+            sb.append(digits);
+            for (long zeros = n - length; zeros > 0; --zeros) {
+                sb.append('0');
+            }
+        } else if (0 < n && n <= MAX_PLAIN_EXPONENT) {
+            sb.append(digits, 0, (int) n)
+                    .append('.')
+                    .append(digits, (int) n, length);
+        } else if (MIN_PLAIN_EXPONENT < n && n <= 0) {
+            sb.append("0.");
+            for (long zeros = -n; zeros > 0; --zeros) {
+                sb.append('0');
+            }
+            sb.append(digits);
+        } else {
+            sb.append(digits.charAt(0));
+            if (length > 1) {
+                sb.append('.')
+                        .append(digits, 1, length);
+            }
+            sb.append(n > 0 ? "e+" : "e-")
+                    .append(Math.abs(n - 1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the canonical text of a number.
+     * 
+     * @param number The number.
+     * @return The canonical text; "null" for a number that is not finite, as in JavaScript.
+     */
+    public static String canonicalNumber(JsonNumber number) {
+        if (number.isLong()) { return Long.toString(number.toLong()); }
+        if (number.isDouble()) {
+            double d = number.toDouble();
+            if (Double.isNaN(d) || Double.isInfinite(d)) { return "null"; }
+        }
+        return canonicalDecimal(number.toJsonString());
+    }
+
+    /**
+     * Compute the content hash of a value, without using any hash kept by the value itself. The hashes kept by
+     * the objects and arrays inside it are used.
+     * <p>
+     * This method is not intended for general use; it has to be public because {@link ItemscriptContainer} uses it
+     * to fill in the hash it keeps. Use {@link #contentHash(JsonValue)} instead.
+     * 
+     * @param value The value to hash.
+     * @return The content hash.
+     */
+    public static long computeContentHash(JsonValue value) {
+        if (value.isObject()) {
+            JsonObject object = value.asObject();
+            // Adding up the hashes of the entries makes the hash independent of the order of the keys, without
+            // sorting them.
+            long sum = 0;
+            for (String key : object.keySet()) {
+                sum += mix(stringHash(key) * GOLDEN_RATIO + contentHash(object.get(key)));
+            }
+            return mix(OBJECT_SEED ^ sum ^ object.size());
+        } else if (value.isArray()) {
+            JsonArray array = value.asArray();
+            long hash = ARRAY_SEED;
+            int size = array.size();
+            for (int i = 0; i < size; ++i) {
+                hash = (hash ^ contentHash(array.get(i))) * FNV_PRIME;
+            }
+            return mix(hash ^ size);
+        } else if (value.isString()) {
+            return mix(STRING_SEED ^ stringHash(value.stringValue()));
+        } else if (value.isNumber()) {
+            return mix(NUMBER_SEED ^ numberHash(value.asNumber()));
+        } else if (value.isBoolean()) {
+            return value.booleanValue() ? TRUE_HASH : FALSE_HASH;
+        } else if (value.isNull()) {
+            return NULL_HASH;
+        } else {
+            return mix(value.hashCode());
+        }
+    }
+
+    /**
+     * Get the content hash of a value. Values that are equal have the same hash. An object or array that keeps its
+     * hash returns the one it has, if it has one.
+     * 
+     * @param value The value to hash.
+     * @return The content hash.
+     */
+    public static long contentHash(JsonValue value) {
+        if (value instanceof ItemscriptContainer) { return ((ItemscriptContainer) value).contentHash(); }
+        return computeContentHash(value);
+    }
+
+    /**
+     * Test whether two values are known to be unequal from content hashes that they have already kept, without
+     * computing any hashes. A false result says nothing about whether they are equal.
+     * 
+     * @param a A value.
+     * @param b Another value.
+     * @return True if both values kept their content hashes and the hashes differ.
+     */
+    public static boolean knownHashesDiffer(JsonValue a, JsonValue b) {
+        if (!(a instanceof ItemscriptContainer) || !(b instanceof ItemscriptContainer)) { return false; }
+        ItemscriptContainer containerA = (ItemscriptContainer) a;
+        ItemscriptContainer containerB = (ItemscriptContainer) b;
+        return containerA.hasContentHash() && containerB.hasContentHash()
+                && containerA.contentHash() != containerB.contentHash();
+    }
+
+    /**
+     * The finalizer of MurmurHash3, to spread the bits of a combined hash.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hash a number by its value as a double, since that is what equal numbers of different kinds have in common.
+     */
+    private static long numberHash(JsonNumber number) {
+        double d = number.toDouble();
+        if (d == Math.floor(d) && Math.abs(d) <= TWO_TO_THE_53) {
+            // Also makes 0 and -0 the same.
+            return (long) d;
+        }
+        return stringHash(Double.toString(d));
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of a string.
+     */
+    private static long stringHash(String string) {
+        long hash = FNV_OFFSET_BASIS;
+        int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Get the canonical JSON text of a value as a String.
+     * 
+     * @param value The value.
+     * @return The canonical JSON text.
+     */
+    public static String toCanonicalString(JsonValue value) {
+        StringBuilderOutput out = new StringBuilderOutput();
+        write(out, value);
+        return out.sb.toString();
+    }
+
+    /**
+     * Write the canonical JSON text of a value.
+     * 
+     * @param out The Output to write to.
+     * @param value The value.
+     */
+    public static void write(Output out, JsonValue value) {
+        if (value.isObject()) {
+            JsonObject object = value.asObject();
+            String[] keys = object.keySet()
+                    .toArray(new String[object.size()]);
+            Arrays.sort(keys);
+            out.append('{');
+            for (int i = 0; i < keys.length; ++i) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeString(out, keys[i]);
+                out.append(':');
+                write(out, object.get(keys[i]));
+            }
+            out.append('}');
+        } else if (value.isArray()) {
+            JsonArray array = value.asArray();
+            out.append('[');
+            int size = array.size();
+            for (int i = 0; i < size; ++i) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                write(out, array.get(i));
+            }
+            out.append(']');
+        } else if (value.isString()) {
+            writeString(out, value.stringValue());
+        } else if (value.isNumber()) {
+            out.append(canonicalNumber(value.asNumber()));
+        } else {
+            out.append(value.toCompactJsonString());
+        }
+    }
+
+    private static void writeString(Output out, String string) {
+        out.append('"');
+        int length = string.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            if (i > start) {
+                out.append(string.substring(start, i));
+            }
+            start = i + 1;
+            out.append('\\');
+            switch (c) {
+                case '"' :
+                case '\\' :
+                    out.append(c);
+                    break;
+                case '\b' :
+                    out.append('b');
+                    break;
+                case '\t' :
+                    out.append('t');
+                    break;
+                case '\n' :
+                    out.append('n');
+                    break;
+                case '\f' :
+                    out.append('f');
+                    break;
+                case '\r' :
+                    out.append('r');
+                    break;
+                default :
+                    out.append("u00");
+                    out.append(HEX_DIGITS[c >> 4]);
+                    out.append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        if (start == 0) {
+            out.append(string);
+        } else if (start < length) {
+            out.append(string.substring(start));
+        }
+        out.append('"');
+    }
+}
@@ -4,15 +4,15 @@ package org.itemscript.core.util;
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.Params;
 import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.Fragment;
 import org.itemscript.core.url.Url;
 import org.itemscript.core.values.ItemscriptContainer;
-import org.itemscript.core.values.ItemscriptCreator;
 import org.itemscript.core.values.JsonArray;
 import org.itemscript.core.values.JsonContainer;
 import org.itemscript.core.values.JsonGetAccess;
+import org.itemscript.core.values.JsonNumber;
 import org.itemscript.core.values.JsonObject;
 import org.itemscript.core.values.JsonValue;
-import org.itemscript.core.values.ToJsonStringWithIndent;
 
 /**
  * Contains methods for implementing the {@link JsonGetAccess} interface and other container interfaces. 
@@ -25,23 +25,7 @@ import org.itemscript.core.values.ToJsonStringWithIndent;
  */
 public final class JsonAccessHelper {
     public static String arrayToCompactJsonString(JsonArray array) {
-        int size = array.size();
-        if (size == 0) { return "[]"; }
-        StringBuffer sb = new StringBuffer("[");
-        for (int i = 0; i < size; ++i) {
-            JsonValue value = array.get(i);
-            if (value.isContainer()) {
-                sb.append(value.asContainer()
-                        .toCompactJsonString());
-            } else {
-                sb.append(value.toCompactJsonString());
-            }
-            if (i + 1 != size) {
-                sb.append(",");
-            }
-        }
-        sb.append("]");
-        return sb.toString();
+        return JsonSerializer.toCompactJsonString(array);
     }
 
     public static JsonObject copyObject(JsonSystem system, JsonObject object) {
@@ -65,25 +49,7 @@ public final class JsonAccessHelper {
     }
 
     public static String arrayToJsonString(JsonArray array, int indent) {
-        int size = array.size();
-        if (size == 0) { return "[]"; }
-        StringBuffer sb = new StringBuffer("[");
-        sb.append("\n");
-        for (int i = 0; i < size; ++i) {
-            JsonValue value = array.get(i);
-            sb.append(JsonAccessHelper.indent(indent + 1));
-            if (value.isContainer()) {
-                sb.append(((ToJsonStringWithIndent) value).toJsonString(indent + 1));
-            } else {
-                sb.append(value.toJsonString());
-            }
-            if (i + 1 != size) {
-                sb.append(",");
-            }
-            sb.append("\n");
-        }
-        sb.append(JsonAccessHelper.indent(indent) + "]");
-        return sb.toString();
+        return JsonSerializer.toJsonString(array, indent);
     }
 
     public static JsonArray asArray(JsonValue value) {
@@ -123,7 +89,7 @@ public final class JsonAccessHelper {
 
     public static Long asLong(JsonValue value) {
         if (value == null) { return null; }
-        if (!value.isString()) { return null; }
+        if (!value.isString() && !value.isNumber()) { return null; }
         return value.longValue();
     }
 
@@ -144,6 +110,23 @@ public final class JsonAccessHelper {
         return value.stringValue();
     }
 
+    public static JsonValue getByFragment(JsonContainer container, Fragment fragment) {
+        JsonValue next = container;
+        for (int i = 0; i < fragment.size(); ++i) {
+            String key = fragment.get(i);
+            if (next == null) { return null; }
+            if (next.isContainer()) {
+                next = next.asContainer()
+                        .getValue(key);
+            } else {
+                throw ItemscriptError.internalError(container, "getByFragment.next.was.not.a.container",
+                        new Params().p("next", next + "")
+                                .p("key", key));
+            }
+        }
+        return next;
+    }
+
     public static JsonValue getByPath(final JsonContainer container, String path) {
         if (path == null || path.length() == 0) { throw ItemscriptError.internalError(container,
                 "getByPath.path.was.empty"); }
@@ -221,6 +204,13 @@ public final class JsonAccessHelper {
     public static Long getRequiredLong(JsonContainer container, Object key, JsonValue value) {
         if (value == null) { throw ItemscriptError.internalError(container, "getRequiredLong.not.present",
                 keyValueParams(container, key, value)); }
+        if (value.isNumber()) {
+            if (value.asNumber()
+                    .isLong()) { return value.asNumber()
+                    .toLong(); }
+            throw ItemscriptError.internalError(container, "getRequiredLong.existed.but.was.not.an.integer",
+                    keyValueParams(container, key, value));
+        }
         if (value.isString()) {
             try {
                 return Long.parseLong(value.asString()
@@ -259,11 +249,7 @@ public final class JsonAccessHelper {
     }
 
     public static String indent(int indent) {
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < indent; ++i) {
-            sb.append("    ");
-        }
-        return sb.toString();
+        return JsonSerializer.indent(indent);
     }
 
     public static Params keyValueParams(JsonContainer container, Object key, JsonValue value) {
@@ -273,50 +259,11 @@ public final class JsonAccessHelper {
     }
 
     public static String objectToCompactJsonString(JsonObject object) {
-        int size = object.size();
-        if (size == 0) { return "{}"; }
-        StringBuffer sb = new StringBuffer("{");
-        int i = 0;
-        for (String key : object.keySet()) {
-            JsonValue value = object.get(key);
-            sb.append(ItemscriptCreator.quotedString(key) + ":");
-            if (value.isContainer()) {
-                sb.append(value.asContainer()
-                        .toCompactJsonString());
-            } else {
-                sb.append(value.toCompactJsonString());
-            }
-            if (i + 1 != size) {
-                sb.append(",");
-            }
-            ++i;
-        }
-        sb.append("}");
-        return sb.toString();
+        return JsonSerializer.toCompactJsonString(object);
     }
 
     public static String objectToJsonString(JsonObject object, int indent) {
-        int size = object.size();
-        if (size == 0) { return "{}"; }
-        StringBuffer sb = new StringBuffer("{");
-        sb.append("\n");
-        int i = 0;
-        for (String key : object.keySet()) {
-            JsonValue value = object.get(key);
-            sb.append(indent(indent + 1) + ItemscriptCreator.quotedString(key) + " : ");
-            if (value.isContainer()) {
-                sb.append(((ToJsonStringWithIndent) value).toJsonString(indent + 1));
-            } else {
-                sb.append(value.toJsonString());
-            }
-            if (i + 1 != size) {
-                sb.append(",");
-            }
-            sb.append("\n");
-            ++i;
-        }
-        sb.append(indent(indent) + "}");
-        return sb.toString();
+        return JsonSerializer.toJsonString(object, indent);
     }
 
     public static void putByPath(final JsonContainer container, String path, JsonValue value) {
@@ -358,4 +305,35 @@ public final class JsonAccessHelper {
         // Then remove the value from that container.
         lastContainer.removeValue(pathComponents[pathComponents.length - 1]);
     }
+
+    private static JsonNumber requiredNumber(JsonArray array, int index, String method) {
+        JsonValue value = array.get(index);
+        if (value == null || !value.isNumber()) { throw ItemscriptError.internalError(array, method
+                + ".value.was.not.a.number", index + ""); }
+        return value.asNumber();
+    }
+
+    public static double sum(JsonArray array) {
+        double sum = 0;
+        for (int i = 0, s = array.size(); i < s; ++i) {
+            sum += requiredNumber(array, i, "sum").toDouble();
+        }
+        return sum;
+    }
+
+    public static double[] toDoubleArray(JsonArray array) {
+        double[] doubles = new double[array.size()];
+        for (int i = 0; i < doubles.length; ++i) {
+            doubles[i] = requiredNumber(array, i, "toDoubleArray").toDouble();
+        }
+        return doubles;
+    }
+
+    public static long[] toLongArray(JsonArray array) {
+        long[] longs = new long[array.size()];
+        for (int i = 0; i < longs.length; ++i) {
+            longs[i] = requiredNumber(array, i, "toLongArray").toLong();
+        }
+        return longs;
+    }
 }
\ No newline at end of file
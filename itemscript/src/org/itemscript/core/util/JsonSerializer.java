@@ -0,0 +1,264 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.util;
+
+import org.itemscript.core.values.ItemscriptContainer;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Writes JSON text for values into a single StringBuilder.
+ * <p>
+ * The whole tree is written into the one buffer that is passed down through the recursion, so each character of the
+ * output is copied once no matter how deeply it is nested. This is what {@link JsonValue#toCompactJsonString()} and
+ * {@link JsonValue#toJsonString()} use for every value type.
+ * <p>
+ * Strings are escaped with a lookup table; see {@link #escape(char)}. In compact text, an object or array whose text is
+ * already known is copied as a whole; see {@link ItemscriptContainer#knownCompactJsonString()}.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class JsonSerializer {
+    private static final String INDENT = "    ";
+    private static final String[] INDENTS = new String[16];
+    private static final String[] LOW_ESCAPES = new String[0xa0];
+    private static final String[] HIGH_ESCAPES = new String[0x100];
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    static {
+        INDENTS[0] = "";
+        for (int i = 1; i < INDENTS.length; ++i) {
+            INDENTS[i] = INDENTS[i - 1] + INDENT;
+        }
+        for (char c = 0; c < ' '; ++c) {
+            LOW_ESCAPES[c] = unicodeEscape(c);
+        }
+        for (char c = '\u0080'; c < '\u00a0'; ++c) {
+            LOW_ESCAPES[c] = unicodeEscape(c);
+        }
+        for (int i = 0; i < HIGH_ESCAPES.length; ++i) {
+            HIGH_ESCAPES[i] = unicodeEscape((char) ('\u2000' + i));
+        }
+        LOW_ESCAPES['\b'] = "\\b";
+        LOW_ESCAPES['\t'] = "\\t";
+        LOW_ESCAPES['\n'] = "\\n";
+        LOW_ESCAPES['\f'] = "\\f";
+        LOW_ESCAPES['\r'] = "\\r";
+        LOW_ESCAPES['"'] = "\\\"";
+        LOW_ESCAPES['\\'] = "\\\\";
+    }
+
+    /**
+     * Append the compact JSON text for a value.
+     * 
+     * @param sb The StringBuilder to append to.
+     * @param value The value to write.
+     */
+    public static void appendCompact(StringBuilder sb, JsonValue value) {
+        if (value instanceof ItemscriptContainer) {
+            String text = ((ItemscriptContainer) value).knownCompactJsonString();
+            if (text != null) {
+                sb.append(text);
+                return;
+            }
+        }
+        if (value.isObject()) {
+            boolean first = true;
+            JsonObject object = value.asObject();
+            // OverlayObject computes its keySet each time, so the keys are only asked for once, not for size() too.
+            for (String key : object.keySet()) {
+                sb.append(first ? '{' : ',');
+                first = false;
+                appendQuoted(sb, key);
+                sb.append(':');
+                appendCompact(sb, object.get(key));
+            }
+            sb.append(first ? "{}" : "}");
+        } else if (value.isArray()) {
+            JsonArray array = value.asArray();
+            int size = array.size();
+            sb.append('[');
+            for (int i = 0; i < size; ++i) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendCompact(sb, array.get(i));
+            }
+            sb.append(']');
+        } else if (value.isString()) {
+            appendQuoted(sb, value.stringValue());
+        } else {
+            sb.append(value.toCompactJsonString());
+        }
+    }
+
+    /**
+     * Append the indented JSON text for a value, as nested at the given level.
+     * 
+     * @param sb The StringBuilder to append to.
+     * @param value The value to write.
+     * @param indent The nesting level.
+     */
+    public static void appendIndented(StringBuilder sb, JsonValue value, int indent) {
+        if (value.isObject()) {
+            boolean first = true;
+            JsonObject object = value.asObject();
+            String keyIndent = indent(indent + 1);
+            for (String key : object.keySet()) {
+                sb.append(first ? "{\n" : ",\n");
+                first = false;
+                sb.append(keyIndent);
+                appendQuoted(sb, key);
+                sb.append(" : ");
+                appendIndented(sb, object.get(key), indent + 1);
+            }
+            if (first) {
+                sb.append("{}");
+            } else {
+                sb.append('\n');
+                sb.append(indent(indent));
+                sb.append('}');
+            }
+        } else if (value.isArray()) {
+            JsonArray array = value.asArray();
+            int size = array.size();
+            if (size == 0) {
+                sb.append("[]");
+                return;
+            }
+            String elementIndent = indent(indent + 1);
+            for (int i = 0; i < size; ++i) {
+                sb.append(i == 0 ? "[\n" : ",\n");
+                sb.append(elementIndent);
+                appendIndented(sb, array.get(i), indent + 1);
+            }
+            sb.append('\n');
+            sb.append(indent(indent));
+            sb.append(']');
+        } else if (value.isString()) {
+            appendQuoted(sb, value.stringValue());
+        } else {
+            sb.append(value.toJsonString());
+        }
+    }
+
+    /**
+     * Append a string as a quoted and escaped JSON string. A null string is written as an empty one.
+     * 
+     * @param sb The StringBuilder to append to.
+     * @param string The string to write.
+     */
+    public static void appendQuoted(StringBuilder sb, String string) {
+        sb.append('"');
+        if (string != null) {
+            int start = 0;
+            char c = 0;
+            for (int i = 0, length = string.length(); i < length; ++i) {
+                char previous = c;
+                c = string.charAt(i);
+                String escape = escape(c);
+                if (escape == null) {
+                    if (c != '/' || previous != '<') {
+                        continue;
+                    }
+                    // Keep "</" out of the text, so that it can be put inside an HTML script element.
+                    escape = "\\/";
+                }
+                sb.append(string, start, i);
+                sb.append(escape);
+                start = i + 1;
+            }
+            sb.append(string, start, string.length());
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Get the escape sequence for a character in a JSON string.
+     * <p>
+     * Besides quotes, backslashes and control characters, the C1 controls U+0080 to U+009F and everything in U+2000 to
+     * U+20FF are escaped, since some JavaScript engines have treated the line and paragraph separators there as
+     * newlines. A '/' is only escaped after a '<', which is left to the caller.
+     * 
+     * @param c The character.
+     * @return The escape sequence, or null if the character can be written as-is.
+     */
+    public static String escape(char c) {
+        if (c < '\u00a0') { return LOW_ESCAPES[c]; }
+        if (c >= '\u2000' && c < '\u2100') { return HIGH_ESCAPES[c - '\u2000']; }
+        return null;
+    }
+
+    /**
+     * Get the indent string for the given nesting level, four spaces per level.
+     * 
+     * @param indent The nesting level.
+     * @return The indent string.
+     */
+    public static String indent(int indent) {
+        if (indent < INDENTS.length) { return INDENTS[indent]; }
+        StringBuilder sb = new StringBuilder(INDENTS[INDENTS.length - 1]);
+        for (int i = INDENTS.length - 1; i < indent; ++i) {
+            sb.append(INDENT);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the compact JSON text for a value.
+     * 
+     * @param value The value.
+     * @return The compact JSON text.
+     */
+    public static String toCompactJsonString(JsonValue value) {
+        StringBuilder sb = new StringBuilder(64);
+        appendCompact(sb, value);
+        return sb.toString();
+    }
+
+    /**
+     * Get the indented JSON text for a value, as nested at the given level.
+     * 
+     * @param value The value.
+     * @param indent The nesting level.
+     * @return The indented JSON text.
+     */
+    public static String toJsonString(JsonValue value, int indent) {
+        StringBuilder sb = new StringBuilder(64);
+        appendIndented(sb, value, indent);
+        return sb.toString();
+    }
+
+    private static String unicodeEscape(char c) {
+        return new String(new char[] { '\\', 'u', HEX_DIGITS[(c >> 12) & 0xf], HEX_DIGITS[(c >> 8) & 0xf],
+                HEX_DIGITS[(c >> 4) & 0xf], HEX_DIGITS[c & 0xf] });
+    }
+}
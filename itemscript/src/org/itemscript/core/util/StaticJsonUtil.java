@@ -109,6 +109,10 @@ public final class StaticJsonUtil {
 	 * JsonObject that was not present in the original JsonObject. The values in
 	 * the new JsonObject are undefined; only the presence or absence of a key
 	 * is significant.
+	 * <p>
+	 * Values whose content hashes are already known (see
+	 * {@link CanonicalJson#contentHash(JsonValue)}) and differ are taken as
+	 * changed without comparing them.
 	 * 
 	 * @param original
 	 *            The original JsonObject.
@@ -125,7 +129,8 @@ public final class StaticJsonUtil {
 			} else {
 				JsonValue origValue = original.get(key);
 				JsonValue updatedValue = updated.get(key);
-				if (!origValue.equals(updatedValue)) {
+				if (CanonicalJson.knownHashesDiffer(origValue, updatedValue)
+						|| !origValue.equals(updatedValue)) {
 					changedKeys.put(key, true);
 				}
 			}
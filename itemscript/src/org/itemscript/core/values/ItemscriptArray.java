@@ -35,11 +35,16 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.itemscript.core.ItemscriptSystem;
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.FragmentPath;
+import org.itemscript.core.util.CanonicalJson;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * The implementation class for JsonArray.
@@ -47,7 +52,30 @@ import org.itemscript.core.util.JsonAccessHelper;
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
 final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
-    private final ArrayList<JsonValue> values = new ArrayList<JsonValue>();
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static boolean numericArrays(JsonSystem system) {
+        if (system instanceof ItemscriptSystem) { return ((ItemscriptSystem) system).numericArrays(); }
+        return true;
+    }
+
+    /*
+     * While every value in the array is a number that can be kept as a plain long or double without changing how
+     * it is written out, the values are kept in longs or doubles, count says how many there are, and values is null.
+     * get(int) then hands out a new JsonNumber each time it is called, placed in the array at its index like any
+     * other value, but only a copy of it; see {@link #holds(ItemscriptValue)}. The first value that doesn't fit
+     * widens the array into a list of JsonValues, which it stays.
+     */
+    private ArrayList<JsonValue> values;
+    private long[] longs;
+    private double[] doubles;
+    private int count;
+    /**
+     * The values in the list keep their position as an index, rather than a key. An insert or remove only notes the
+     * first index whose values have moved here, and the indexes from there on are brought up to date, all at once,
+     * when a key is next asked for; see {@link #keyOf(ItemscriptValue)}.
+     */
+    private int renumberFrom = Integer.MAX_VALUE;
 
     /**
      * Create a new ItemscriptArray.
@@ -56,6 +84,9 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
      */
     protected ItemscriptArray(JsonSystem system) {
         super(system);
+        if (!numericArrays(system)) {
+            values = new ArrayList<JsonValue>();
+        }
     }
 
     /**
@@ -65,8 +96,8 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
      * @param values The values to initalize the list with.
      */
     protected ItemscriptArray(JsonSystem system, List<JsonValue> values) {
-        super(system);
-        values.addAll(values);
+        this(system);
+        addAll(values);
     }
 
     //@Override
@@ -119,7 +150,8 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public void add(Boolean value) {
-        add(system().createBoolean(value));
+        // A value created here is the one held, rather than a shared one that is handed out as a new copy each time.
+        add(((ItemscriptValue) system().createBoolean(value)).unshared());
     }
 
     //@Override
@@ -139,9 +171,23 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public void add(int index, JsonValue value) {
-        prepareValueForPut(index + "", value);
-        values.add(index, value);
-        renumberEntriesFrom(index);
+        change();
+        prepareValueForPut(index, value);
+        if (canStore(value)) {
+            if (index < 0 || index > count) { throw new IndexOutOfBoundsException(index + ""); }
+            ensureCapacity(count + 1);
+            if (longs != null) {
+                System.arraycopy(longs, index, longs, index + 1, count - index);
+            } else {
+                System.arraycopy(doubles, index, doubles, index + 1, count - index);
+            }
+            store(index, value);
+            ++count;
+        } else {
+            widen();
+            values.add(index, value);
+            renumberEntriesFrom(index);
+        }
     }
 
     //@Override
@@ -155,13 +201,18 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
             value = system().createNull();
         }
         if (value.system() != system()) { throw ItemscriptError.internalError(this, "add.system.mismatch"); }
-        int index = values.size();
-        boolean ret = values.add(value);
-        prepareValueForPut(index + "", value);
-        if (item() != null) {
-            ((ItemscriptItem) item()).notifyPut(value.fragment());
+        int index = size();
+        change(index);
+        append(value);
+        prepareValueForPut(index, value);
+        if (values == null) {
+            // Only the number was kept; see store().
+            updateRemovedValue(value);
         }
-        return ret;
+        if (hasHandlers()) {
+            ((ItemscriptItem) item()).notifyPut(path().child(index + ""));
+        }
+        return true;
     }
 
     //@Override
@@ -174,6 +225,21 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         add(system().createString(value));
     }
 
+    /**
+     * Add a value read from the text this array was lazily created from.
+     */
+    void addLoaded(JsonValue value) {
+        if (canStore(value)) {
+            ensureCapacity(count + 1);
+            store(count, value);
+            ++count;
+        } else {
+            prepareValueForPut(size(), value);
+            widen();
+            values.add(value);
+        }
+    }
+
     //@Override
     public boolean addAll(Collection<? extends JsonValue> c) {
         for (JsonValue value : c) {
@@ -201,11 +267,54 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         return object;
     }
 
+    private void append(JsonValue value) {
+        // Keep the number only as a long or double if possible, rather than the value itself.
+        if (canStore(value)) {
+            ensureCapacity(count + 1);
+            store(count, value);
+            ++count;
+        } else {
+            widen();
+            values.add(value);
+        }
+    }
+
     //@Override
     public JsonArray asArray() {
         return this;
     }
 
+    /**
+     * Test whether the given value can be kept in this array's longs or doubles, and if so, get them ready to hold
+     * it, switching from longs to doubles if need be.
+     */
+    private boolean canStore(JsonValue value) {
+        if (values != null || !(value instanceof ItemscriptNumber)) { return false; }
+        ItemscriptNumber number = (ItemscriptNumber) value;
+        if (doubles == null && number.isLongStorable()) {
+            if (longs == null) {
+                longs = new long[INITIAL_CAPACITY];
+            }
+            return true;
+        }
+        if (!number.isDoubleStorable()) { return false; }
+        if (doubles == null) {
+            if (longs == null) {
+                doubles = new double[INITIAL_CAPACITY];
+            } else {
+                for (int i = 0; i < count; ++i) {
+                    if (!ItemscriptNumber.isDoubleSafe(longs[i])) { return false; }
+                }
+                doubles = new double[longs.length];
+                for (int i = 0; i < count; ++i) {
+                    doubles[i] = longs[i];
+                }
+                longs = null;
+            }
+        }
+        return true;
+    }
+
     /**
      * Parse the given string as an index, throw an error if it can't be parsed.
      * 
@@ -222,17 +331,27 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public void clear() {
-        values.clear();
+        change();
+        if (values != null) {
+            values.clear();
+        } else {
+            longs = null;
+            doubles = null;
+            count = 0;
+        }
     }
 
     //@Override
     public boolean contains(Object o) {
-        return values.contains(o);
+        return indexOf(o) >= 0;
     }
 
     //@Override
     public boolean containsAll(Collection<?> c) {
-        return values.containsAll(c);
+        for (Object o : c) {
+            if (!contains(o)) { return false; }
+        }
+        return true;
     }
 
     //@Override
@@ -248,6 +367,8 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public JsonArray copy() {
+        JsonContainer copy = copySource();
+        if (copy != null) { return copy.asArray(); }
         return JsonAccessHelper.copyArray(system(), this);
     }
 
@@ -261,6 +382,21 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         return createObject(index + "");
     }
 
+    private void ensureCapacity(int capacity) {
+        int length = longs != null ? longs.length : doubles.length;
+        if (capacity <= length) { return; }
+        int newLength = Math.max(capacity, length + (length >> 1));
+        if (longs != null) {
+            long[] newLongs = new long[newLength];
+            System.arraycopy(longs, 0, newLongs, 0, count);
+            longs = newLongs;
+        } else {
+            double[] newDoubles = new double[newLength];
+            System.arraycopy(doubles, 0, newDoubles, 0, count);
+            doubles = newDoubles;
+        }
+    }
+
     private void enlargeValues(int index) {
         while (index >= size()) {
             add(system().createNull());
@@ -271,9 +407,10 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
     public boolean equals(Object other) {
         if (other instanceof JsonArray) {
             JsonArray otherArray = (JsonArray) other;
+            if (CanonicalJson.knownHashesDiffer(this, otherArray)) { return false; }
             if (otherArray.size() == size()) {
                 for (int i = 0; i < size(); ++i) {
-                    if (!get(i).equals(otherArray.get(i))) { return false; }
+                    if (!held(i).equals(otherArray.get(i))) { return false; }
                 }
                 return true;
             }
@@ -283,7 +420,14 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public JsonValue get(int index) {
-        return values.get(index);
+        load();
+        if (values != null) {
+            JsonValue value = values.get(index);
+            if (((ItemscriptValue) value).isShared()) { return positionedAt(index, value); }
+            return value;
+        }
+        if (index < 0 || index >= count) { throw new IndexOutOfBoundsException(index + ""); }
+        return number(index);
     }
 
     //@Override
@@ -298,27 +442,27 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public Boolean getBoolean(int index) {
-        return JsonAccessHelper.asBoolean(get(index));
+        return JsonAccessHelper.asBoolean(held(index));
     }
 
     //@Override
     public Double getDouble(int index) {
-        return JsonAccessHelper.asDouble(get(index));
+        return JsonAccessHelper.asDouble(held(index));
     }
 
     //@Override
     public Float getFloat(int index) {
-        return JsonAccessHelper.asFloat(get(index));
+        return JsonAccessHelper.asFloat(held(index));
     }
 
     //@Override
     public Integer getInt(int index) {
-        return JsonAccessHelper.asInt(get(index));
+        return JsonAccessHelper.asInt(held(index));
     }
 
     //@Override
     public Long getLong(int index) {
-        return JsonAccessHelper.asLong(get(index));
+        return JsonAccessHelper.asLong(held(index));
     }
 
     //@Override
@@ -364,27 +508,27 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public final Boolean getRequiredBoolean(int index) {
-        return JsonAccessHelper.getRequiredBoolean(this, index, get(index));
+        return JsonAccessHelper.getRequiredBoolean(this, index, held(index));
     }
 
     //@Override
     public final Double getRequiredDouble(int index) {
-        return JsonAccessHelper.getRequiredDouble(this, index, get(index));
+        return JsonAccessHelper.getRequiredDouble(this, index, held(index));
     }
 
     //@Override
     public final Float getRequiredFloat(int index) {
-        return JsonAccessHelper.getRequiredFloat(this, index, get(index));
+        return JsonAccessHelper.getRequiredFloat(this, index, held(index));
     }
 
     //@Override
     public final Integer getRequiredInt(int index) {
-        return JsonAccessHelper.getRequiredInt(this, index, get(index));
+        return JsonAccessHelper.getRequiredInt(this, index, held(index));
     }
 
     //@Override
     public final Long getRequiredLong(int index) {
-        return JsonAccessHelper.getRequiredLong(this, index, get(index));
+        return JsonAccessHelper.getRequiredLong(this, index, held(index));
     }
 
     //@Override
@@ -417,14 +561,41 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         }
     }
 
+    /**
+     * Get the value at the given index as this array holds it; see {@link #heldValue(String)}.
+     */
+    private JsonValue held(int index) {
+        load();
+        if (values != null) { return values.get(index); }
+        return get(index);
+    }
+
+    //@Override
+    JsonValue heldValue(String key) {
+        try {
+            return held(Integer.valueOf(key));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     //@Override
-    public int hashCode() {
-        return values.hashCode();
+    boolean holds(ItemscriptValue value) {
+        // Numbers kept in longs or doubles are only ever handed out as copies.
+        if (values == null) { return false; }
+        int position = positionOf(value);
+        return position < values.size() && values.get(position) == value;
     }
 
     //@Override
     public int indexOf(Object o) {
-        return values.indexOf(o);
+        load();
+        if (values != null) { return values.indexOf(o); }
+        if (!(o instanceof JsonNumber)) { return -1; }
+        for (int i = 0; i < count; ++i) {
+            if (o.equals(number(i))) { return i; }
+        }
+        return -1;
     }
 
     //@Override
@@ -434,12 +605,22 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public boolean isEmpty() {
-        return values.isEmpty();
+        return size() == 0;
     }
 
     //@Override
     public Iterator<JsonValue> iterator() {
-        return values.iterator();
+        return listIterator(0);
+    }
+
+    /**
+     * Get the key of a value in this array from its position; see {@link #positionOf(ItemscriptValue)}.
+     * 
+     * @param value A value whose parent is this array.
+     * @return The key.
+     */
+    String keyOf(ItemscriptValue value) {
+        return positionOf(value) + "";
     }
 
     //@Override
@@ -453,17 +634,192 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public int lastIndexOf(Object o) {
-        return values.lastIndexOf(o);
+        load();
+        if (values != null) { return values.lastIndexOf(o); }
+        if (!(o instanceof JsonNumber)) { return -1; }
+        for (int i = count - 1; i >= 0; --i) {
+            if (o.equals(number(i))) { return i; }
+        }
+        return -1;
     }
 
     //@Override
     public ListIterator<JsonValue> listIterator() {
-        return values.listIterator();
+        return listIterator(0);
     }
 
     //@Override
-    public ListIterator<JsonValue> listIterator(int index) {
-        return values.listIterator(index);
+    public ListIterator<JsonValue> listIterator(final int index) {
+        load();
+        if (index < 0 || index > size()) { throw new IndexOutOfBoundsException(index + ""); }
+        // The iterator can be used to change the array, so it changes it through set(), add() and remove(), which
+        // check and keep track of each change.
+        return new ListIterator<JsonValue>() {
+            private int next = index;
+            private int last = -1;
+
+            //@Override
+            public void add(JsonValue value) {
+                ItemscriptArray.this.add(next++, value);
+                last = -1;
+            }
+
+            //@Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            //@Override
+            public boolean hasPrevious() {
+                return next > 0;
+            }
+
+            //@Override
+            public JsonValue next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+                last = next++;
+                return get(last);
+            }
+
+            //@Override
+            public int nextIndex() {
+                return next;
+            }
+
+            //@Override
+            public JsonValue previous() {
+                if (!hasPrevious()) { throw new NoSuchElementException(); }
+                last = --next;
+                return get(last);
+            }
+
+            //@Override
+            public int previousIndex() {
+                return next - 1;
+            }
+
+            //@Override
+            public void remove() {
+                if (last < 0) { throw new IllegalStateException(); }
+                ItemscriptArray.this.remove(last);
+                if (last < next) {
+                    --next;
+                }
+                last = -1;
+            }
+
+            //@Override
+            public void set(JsonValue value) {
+                if (last < 0) { throw new IllegalStateException(); }
+                ItemscriptArray.this.set(last, value);
+            }
+        };
+    }
+
+    //@Override
+    void loadCopy(ItemscriptContainer from) {
+        ItemscriptArray array = (ItemscriptArray) from;
+        array.load();
+        if (array.values == null && values == null) {
+            // Numbers kept as longs or doubles can be copied all at once.
+            count = array.count;
+            if (array.longs != null) {
+                longs = new long[Math.max(count, INITIAL_CAPACITY)];
+                System.arraycopy(array.longs, 0, longs, 0, count);
+            } else if (array.doubles != null) {
+                doubles = new double[Math.max(count, INITIAL_CAPACITY)];
+                System.arraycopy(array.doubles, 0, doubles, 0, count);
+            }
+            return;
+        }
+        for (int i = 0, size = array.size(); i < size; ++i) {
+            addLoaded(array.held(i)
+                    .copy());
+        }
+    }
+
+    //@Override
+    void loadNode(Object from) {
+        PersistentVector node = (PersistentVector) from;
+        for (int i = 0, size = node.size(); i < size; ++i) {
+            addLoaded(fromNode(system(), node.get(i)));
+        }
+    }
+
+    //@Override
+    Object makeNode() {
+        PersistentVector node = PersistentVector.EMPTY;
+        for (int i = 0, size = size(); i < size; ++i) {
+            node = node.add(nodeOf(held(i)));
+        }
+        return node;
+    }
+
+    /**
+     * Make a list of new JsonNumbers for the values kept in longs or doubles, placed in this array.
+     */
+    private ArrayList<JsonValue> numbers() {
+        ArrayList<JsonValue> list = new ArrayList<JsonValue>(Math.max(count, INITIAL_CAPACITY));
+        for (int i = 0; i < count; ++i) {
+            list.add(number(i));
+        }
+        return list;
+    }
+
+    /**
+     * Make a new JsonNumber for a value kept in longs or doubles, placed in this array at the given index.
+     */
+    private JsonValue number(int index) {
+        ItemscriptNumber number;
+        if (longs != null) {
+            number = new ItemscriptNumber(system(), Long.valueOf(longs[index]));
+        } else {
+            number = new ItemscriptNumber(system(), Double.valueOf(doubles[index]));
+        }
+        number.setParent(this);
+        number.setIndex(index);
+        return number;
+    }
+
+    /**
+     * Get the position of a value in this array from its index, first bringing the indexes of the values that have
+     * moved since the last insert or remove up to date. That changes the values even though the array is only being
+     * read, so it is done under a lock, for threads reading the same array at once.
+     * 
+     * @param value A value whose parent is this array.
+     * @return The position.
+     */
+    synchronized int positionOf(ItemscriptValue value) {
+        if (values != null && renumberFrom < values.size()) {
+            for (int i = renumberFrom; i < values.size(); ++i) {
+                ItemscriptValue next = (ItemscriptValue) values.get(i);
+                if (!next.isShared()) {
+                    next.setIndex(i);
+                }
+            }
+        }
+        renumberFrom = Integer.MAX_VALUE;
+        return value.index();
+    }
+
+    /**
+     * Like {@link #positioned(String, JsonValue)}, for a value at the given index.
+     */
+    private JsonValue positionedAt(int index, JsonValue value) {
+        JsonValue positioned = positioned(null, value);
+        ((ItemscriptValue) positioned).setIndex(index);
+        return positioned;
+    }
+
+    /**
+     * Like {@link #prepareValueForPut(String, JsonValue)}, for a value put at the given index, which it keeps
+     * instead of a key.
+     */
+    private void prepareValueForPut(int index, JsonValue value) {
+        prepareValueForPut((String) null, value);
+        if (!((ItemscriptValue) value).isShared()) {
+            ((ItemscriptValue) value).setIndex(index);
+        }
     }
 
     //@Override
@@ -473,17 +829,26 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public JsonValue remove(int index) {
-        String fragment = null;
-        if (item() != null) {
-            JsonValue value = get(index);
-            if (value != null) {
-                fragment = value.fragment();
+        change();
+        FragmentPath removedPath = null;
+        if (hasHandlers() && index >= 0 && index < size()) {
+            removedPath = path().child(index + "");
+        }
+        JsonValue ret;
+        if (values != null) {
+            ret = values.remove(index);
+        } else {
+            ret = get(index);
+            if (longs != null) {
+                System.arraycopy(longs, index + 1, longs, index, count - index - 1);
+            } else {
+                System.arraycopy(doubles, index + 1, doubles, index, count - index - 1);
             }
+            --count;
         }
-        JsonValue ret = values.remove(index);
         updateRemovedValue(ret);
-        if (item() != null && fragment != null) {
-            ((ItemscriptItem) item()).notifyRemove(fragment);
+        if (removedPath != null) {
+            ((ItemscriptItem) item()).notifyRemove(removedPath);
         }
         renumberEntriesFrom(index);
         return ret;
@@ -510,11 +875,9 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
     }
 
     private void renumberEntriesFrom(int index) {
-        for (int i = index; i < size(); ++i) {
-            ItemscriptValue value = (ItemscriptValue) get(i);
-            value.setKey(null);
-            value.setKey(i + "");
-        }
+        // Numbers kept in longs or doubles are given their index when they are handed out.
+        if (values == null) { return; }
+        renumberFrom = Math.min(renumberFrom, index);
     }
 
     //@Override
@@ -524,7 +887,7 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public void set(int index, Boolean value) {
-        set(index, system().createBoolean(value));
+        set(index, ((ItemscriptValue) system().createBoolean(value)).unshared());
     }
 
     //@Override
@@ -555,11 +918,19 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         if (value.system() != system()) { throw ItemscriptError.internalError(this, "set.system.mismatch", index
                 + ""); }
         enlargeValues(index);
-        prepareValueForPut(index + "", value);
-        JsonValue previous = values.set(index, value);
+        change(index);
+        prepareValueForPut(index, value);
+        JsonValue previous;
+        if (values == null && canStore(value)) {
+            previous = get(index);
+            store(index, value);
+        } else {
+            widen();
+            previous = values.set(index, value);
+        }
         updateRemovedValue(previous);
-        if (item() != null) {
-            ((ItemscriptItem) item()).notifyPut(value.fragment());
+        if (hasHandlers()) {
+            ((ItemscriptItem) item()).notifyPut(path().child(index + ""));
         }
         return previous;
     }
@@ -576,7 +947,23 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public int size() {
-        return values.size();
+        load();
+        return values != null ? values.size() : count;
+    }
+
+    /**
+     * Keep a number in longs or doubles; {@link #canStore(JsonValue)} must have been called first. Only the number
+     * is kept, not the value itself, so the value is left out of this array and can be put somewhere else.
+     */
+    private void store(int index, JsonValue value) {
+        if (longs != null) {
+            longs[index] = value.asNumber()
+                    .toLong();
+        } else {
+            doubles[index] = value.asNumber()
+                    .toDouble();
+        }
+        updateRemovedValue(value);
     }
 
     //@Override
@@ -585,19 +972,36 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
         throw new UnsupportedOperationException("error.itemscript.ItemscriptArray.subList.not.supported");
     }
 
+    //@Override
+    public double sum() {
+        load();
+        if (values != null) { return JsonAccessHelper.sum(this); }
+        double sum = 0;
+        for (int i = 0; i < count; ++i) {
+            sum += longs != null ? longs[i] : doubles[i];
+        }
+        return sum;
+    }
+
     //@Override
     public Object[] toArray() {
-        return values.toArray();
+        return valueList().toArray();
     }
 
     //@Override
     public <T> T[] toArray(T[] a) {
-        return values.toArray(a);
+        return valueList().toArray(a);
     }
 
     //@Override
-    public String toCompactJsonString() {
-        return JsonAccessHelper.arrayToCompactJsonString(this);
+    public double[] toDoubleArray() {
+        load();
+        if (values != null) { return JsonAccessHelper.toDoubleArray(this); }
+        double[] array = new double[count];
+        for (int i = 0; i < count; ++i) {
+            array[i] = longs != null ? longs[i] : doubles[i];
+        }
+        return array;
     }
 
     //@Override
@@ -607,6 +1011,59 @@ final class ItemscriptArray extends ItemscriptContainer implements JsonArray {
 
     //@Override
     public String toJsonString(int indent) {
-        return JsonAccessHelper.arrayToJsonString(this, indent);
+        return JsonSerializer.toJsonString(this, indent);
+    }
+
+    //@Override
+    public long[] toLongArray() {
+        load();
+        if (values != null) { return JsonAccessHelper.toLongArray(this); }
+        long[] array = new long[count];
+        for (int i = 0; i < count; ++i) {
+            array[i] = longs != null ? longs[i] : (long) doubles[i];
+        }
+        return array;
+    }
+
+    //@Override
+    Object updateNode(Object from, Set<String> keys) {
+        PersistentVector node = (PersistentVector) from;
+        int size = size();
+        // Only set() and add() at the end change single keys; anything that moves values makes the node again.
+        if (size < node.size()) { return makeNode(); }
+        for (String key : keys) {
+            int index = Integer.parseInt(key);
+            if (index < node.size() && index < size) {
+                node = node.set(index, nodeOf(held(index)));
+            }
+        }
+        for (int i = node.size(); i < size; ++i) {
+            node = node.add(nodeOf(held(i)));
+        }
+        return node;
+    }
+
+    /**
+     * Get the values in this array as they are handed out, in a new list, without widening it.
+     */
+    private List<JsonValue> valueList() {
+        load();
+        if (values == null) { return numbers(); }
+        ArrayList<JsonValue> list = new ArrayList<JsonValue>(values.size());
+        for (int i = 0; i < values.size(); ++i) {
+            list.add(get(i));
+        }
+        return list;
+    }
+
+    /**
+     * Move the values out of longs or doubles into a list of JsonValues, so that it can hold values of any kind.
+     */
+    private void widen() {
+        if (values != null) { return; }
+        values = numbers();
+        longs = null;
+        doubles = null;
+        count = 0;
     }
 }
\ No newline at end of file
@@ -35,7 +35,11 @@ final class ItemscriptBoolean extends ItemscriptScalar implements JsonBoolean {
     private final boolean value;
 
     protected ItemscriptBoolean(JsonSystem system, Boolean value) {
-        super(system);
+        this(system, value, false);
+    }
+
+    ItemscriptBoolean(JsonSystem system, Boolean value, boolean shared) {
+        super(system, shared);
         this.value = value;
     }
 
@@ -65,6 +69,11 @@ final class ItemscriptBoolean extends ItemscriptScalar implements JsonBoolean {
         return true;
     }
 
+    //@Override
+    ItemscriptValue makeUnshared() {
+        return new ItemscriptBoolean(system(), value);
+    }
+
     //@Override
     public String toJsonString() {
         return value + "";
@@ -29,11 +29,17 @@
 
 package org.itemscript.core.values;
 
+import java.util.HashSet;
+import java.util.Set;
+
+import org.itemscript.core.ItemscriptSystem;
 import org.itemscript.core.JsonSystem;
-import org.itemscript.core.Params;
 import org.itemscript.core.exceptions.ItemscriptError;
 import org.itemscript.core.url.Fragment;
+import org.itemscript.core.url.FragmentPath;
+import org.itemscript.core.util.CanonicalJson;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * The implementation class for {@link JsonContainer}. Base class of {@link ItemscriptObject} and {@link ItemscriptArray}.
@@ -41,6 +47,79 @@ import org.itemscript.core.util.JsonAccessHelper;
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
 public abstract class ItemscriptContainer extends ItemscriptValue implements JsonContainer, ToJsonStringWithIndent {
+    /**
+     * The text this container was lazily created from, or null if it wasn't or if it has been changed since.
+     */
+    private LazySource source;
+    private int sourceStart;
+    /**
+     * Whether the contents have been loaded. It is only set once they all have been, so a thread that sees it set
+     * also sees them; see {@link #load()}.
+     */
+    private volatile boolean loaded = true;
+    private boolean loading;
+    /**
+     * The compact JSON text of this container, if it has been serialized and kept, or null.
+     */
+    private String jsonString;
+    /**
+     * The content hash of this container, if it has been computed and kept; see {@link #contentHash()}. Frozen
+     * containers are hashed from many threads at once, so the flag is volatile and is set after the hash.
+     */
+    private long contentHash;
+    private volatile boolean hasContentHash;
+    private boolean frozen;
+    /**
+     * The frozen container this container is a copy of, if it is one and has not been changed since; it loads its
+     * contents from there.
+     */
+    private ItemscriptContainer original;
+    /**
+     * The contents of this container as a {@link PersistentMap} or {@link PersistentVector}, as of the last time a
+     * snapshot was taken of a value that includes it, or null if it has to be made from scratch.
+     */
+    private Object node;
+    /**
+     * The keys that have been changed since node was made, or null if none have.
+     */
+    private HashSet<String> changedKeys;
+    /**
+     * The path of this container as of the last time it was asked for, or null if it has not been; see
+     * {@link #path()}.
+     */
+    private FragmentPath path;
+    /**
+     * The position this container was at in its parent array when path was made.
+     */
+    private int pathPosition;
+
+    /**
+     * Create an unloaded, frozen container that loads its contents from the given persistent node, or a copy of the
+     * value if it is a scalar.
+     * 
+     * @param system The associated JsonSystem.
+     * @param node The node, from {@link #persistentNode()}.
+     * @return The value.
+     */
+    static JsonValue fromNode(JsonSystem system, Object node) {
+        if (!(node instanceof PersistentMap) && !(node instanceof PersistentVector)) { return ((JsonValue) node)
+                .copy(); }
+        ItemscriptContainer container = node instanceof PersistentMap ? new ItemscriptObject(system)
+                : new ItemscriptArray(system);
+        container.node = node;
+        container.loaded = false;
+        container.frozen = true;
+        return container;
+    }
+
+    /**
+     * Get the persistent node for a value: its persistent contents if it is a container, or the value itself.
+     */
+    static Object nodeOf(JsonValue value) {
+        if (value instanceof ItemscriptContainer) { return ((ItemscriptContainer) value).persistentNode(); }
+        return value;
+    }
+
     protected ItemscriptContainer(JsonSystem system) {
         super(system);
     }
@@ -50,6 +129,91 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
         return this;
     }
 
+    /**
+     * Load the contents of this container and drop its link to the text it was lazily created from, its kept JSON
+     * text and its kept content hash, along with those of the containers it is in, since its contents are about to
+     * be changed. Call this before changing the contents.
+     */
+    protected final void change() {
+        change(null);
+    }
+
+    /**
+     * Like {@link #change(String)}, for a change to the value at one index of an array. The key is only made if this
+     * container keeps track of its changed keys, so that changing an array does not allocate a key each time.
+     * 
+     * @param index The index that is about to be changed.
+     */
+    protected final void change(int index) {
+        change(node != null ? index + "" : null);
+    }
+
+    /**
+     * Like {@link #change()}, for a change to the value under just one key.
+     * 
+     * @param key The key that is about to be changed, or null if the change is to the whole container.
+     */
+    protected final void change(String key) {
+        if (isFrozen()) { throw ItemscriptError.internalError(this, "change.value.is.frozen", fragment()); }
+        load();
+        ItemscriptContainer container = this;
+        while (true) {
+            container.source = null;
+            container.original = null;
+            container.jsonString = null;
+            container.hasContentHash = false;
+            if (container.node != null) {
+                if (key == null) {
+                    container.node = null;
+                    container.changedKeys = null;
+                } else {
+                    if (container.changedKeys == null) {
+                        container.changedKeys = new HashSet<String>();
+                    }
+                    container.changedKeys.add(key);
+                }
+            }
+            if (!(container.parent() instanceof ItemscriptContainer)) {
+                break;
+            }
+            ItemscriptContainer parent = (ItemscriptContainer) container.parent();
+            // The key is only needed where there is a node to update.
+            key = parent.node != null ? container.key() : null;
+            container = parent;
+        }
+    }
+
+    /**
+     * Get the content hash of this container, as described in {@link CanonicalJson#contentHash(JsonValue)}. It is
+     * kept until this container or anything in it is changed.
+     * 
+     * @return The content hash.
+     */
+    public final long contentHash() {
+        if (!hasContentHash) {
+            contentHash = original != null ? original.contentHash() : CanonicalJson.computeContentHash(this);
+            hasContentHash = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * If this container is unchanged since it was lazily created, create an unloaded copy of it from the same text.
+     * If it is frozen, or an unchanged copy of a frozen container, create an unloaded copy that loads its contents
+     * from the frozen container.
+     * 
+     * @return The copy, or null if this container is none of those.
+     */
+    protected final JsonContainer copySource() {
+        if (source != null) { return source.createContainer(sourceStart); }
+        ItemscriptContainer from = original != null ? original : isFrozen() ? this : null;
+        if (from == null) { return null; }
+        ItemscriptContainer copy = from.isArray() ? new ItemscriptArray(system()) : new ItemscriptObject(system());
+        copy.original = from;
+        copy.loaded = false;
+        return copy;
+    }
+
     //@Override
     public final JsonArray createArray(String key) {
         JsonArray array = system().createArray();
@@ -64,6 +228,11 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
         return object;
     }
 
+    //@Override
+    public final void freeze() {
+        frozen = true;
+    }
+
     //@Override
     public final JsonArray getArray(String key) {
         return JsonAccessHelper.asArray(getValue(key));
@@ -76,16 +245,11 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
 
     //@Override
     public final Boolean getBoolean(String key) {
-        return JsonAccessHelper.asBoolean(getValue(key));
+        return JsonAccessHelper.asBoolean(heldValue(key));
     }
 
     public JsonValue getByFragment(Fragment fragment) {
-        JsonValue next = this;
-        for (int i = 0; i < fragment.size(); ++i) {
-            String key = fragment.get(i);
-            next = getNext(next, key);
-        }
-        return next;
+        return JsonAccessHelper.getByFragment(this, fragment);
     }
 
     //@Override
@@ -95,22 +259,22 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
 
     //@Override
     public final Double getDouble(String key) {
-        return JsonAccessHelper.asDouble(getValue(key));
+        return JsonAccessHelper.asDouble(heldValue(key));
     }
 
     //@Override
     public final Float getFloat(String key) {
-        return JsonAccessHelper.asFloat(getValue(key));
+        return JsonAccessHelper.asFloat(heldValue(key));
     }
 
     //@Override
     public final Integer getInt(String key) {
-        return JsonAccessHelper.asInt(getValue(key));
+        return JsonAccessHelper.asInt(heldValue(key));
     }
 
     //@Override
     public final Long getLong(String key) {
-        return JsonAccessHelper.asLong(getValue(key));
+        return JsonAccessHelper.asLong(heldValue(key));
     }
 
     //@Override
@@ -118,19 +282,6 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
         return JsonAccessHelper.asNative(getValue(key));
     }
 
-    private JsonValue getNext(JsonValue next, String key) {
-        if (next == null) { return null; }
-        if (next.isContainer()) {
-            next = next.asContainer()
-                    .getValue(key);
-        } else {
-            throw new ItemscriptError("error.itemscript.ItemscriptContainer.getNext.next.was.not.a.container",
-                    new Params().p("next", next + "")
-                            .p("key", key));
-        }
-        return next;
-    }
-
     //@Override
     public final JsonObject getObject(String key) {
         return JsonAccessHelper.asObject(getValue(key));
@@ -174,27 +325,27 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
 
     //@Override
     public final Boolean getRequiredBoolean(String key) {
-        return JsonAccessHelper.getRequiredBoolean(this, key, getValue(key));
+        return JsonAccessHelper.getRequiredBoolean(this, key, heldValue(key));
     }
 
     //@Override
     public final Double getRequiredDouble(String key) {
-        return JsonAccessHelper.getRequiredDouble(this, key, getValue(key));
+        return JsonAccessHelper.getRequiredDouble(this, key, heldValue(key));
     }
 
     //@Override
     public final Float getRequiredFloat(String key) {
-        return JsonAccessHelper.getRequiredFloat(this, key, getValue(key));
+        return JsonAccessHelper.getRequiredFloat(this, key, heldValue(key));
     }
 
     //@Override
     public final Integer getRequiredInt(String key) {
-        return JsonAccessHelper.getRequiredInt(this, key, getValue(key));
+        return JsonAccessHelper.getRequiredInt(this, key, heldValue(key));
     }
 
     //@Override
     public final Long getRequiredLong(String key) {
-        return JsonAccessHelper.getRequiredLong(this, key, getValue(key));
+        return JsonAccessHelper.getRequiredLong(this, key, heldValue(key));
     }
 
     //@Override
@@ -219,62 +370,249 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
 
     //@Override
     public final boolean hasArray(String key) {
-        JsonValue value = getValue(key);
+        JsonValue value = heldValue(key);
         if (value == null) { return false; }
         return value.isArray();
     }
 
     //@Override
     public final boolean hasBoolean(String key) {
-        JsonValue value = getValue(key);
+        JsonValue value = heldValue(key);
         if (value == null) { return false; }
         return value.isBoolean();
     }
 
     //@Override
     public final boolean hasNumber(String key) {
-        JsonValue value = getValue(key);
+        JsonValue value = heldValue(key);
         if (value == null) { return false; }
         return value.isNumber();
     }
 
     //@Override
     public final boolean hasObject(String key) {
-        JsonValue value = getValue(key);
+        JsonValue value = heldValue(key);
         if (value == null) { return false; }
         return value.isObject();
     }
 
     //@Override
     public final boolean hasString(String key) {
-        JsonValue value = getValue(key);
+        JsonValue value = heldValue(key);
         if (value == null) { return false; }
         return value.isString();
     }
 
+    /**
+     * Test whether this container has kept its content hash, so that {@link #contentHash()} will not compute it.
+     * 
+     * @return True if the content hash is kept.
+     */
+    public final boolean hasContentHash() {
+        return hasContentHash;
+    }
+
+    /**
+     * Get the value under the given key as this container holds it, without copying a shared value to give it its
+     * position (see {@link #positioned(String, JsonValue)}); for reading a scalar out of it.
+     * 
+     * @param key The key.
+     * @return The value as it is held, or null if there is none.
+     */
+    abstract JsonValue heldValue(String key);
+
+    /**
+     * Test whether the given value, whose parent is this container, is held by it, rather than being a copy that was
+     * handed out in its place and that only has the position it was handed out at.
+     * 
+     * @param value A value whose parent is this container.
+     * @return True if this container holds the value itself.
+     */
+    abstract boolean holds(ItemscriptValue value);
+
+    /**
+     * Test whether this container is in an item that has event handlers, and so has to tell it about changes.
+     * 
+     * @return True if there are handlers to notify.
+     */
+    protected final boolean hasHandlers() {
+        return item() != null && ((ItemscriptItem) item()).hasHandlers();
+    }
+
     //@Override
     public final boolean isContainer() {
         return true;
     }
 
+    private int jsonStringCacheLimit() {
+        JsonSystem system = system();
+        if (system instanceof ItemscriptSystem) { return ((ItemscriptSystem) system).jsonStringCacheLimit(); }
+        return 0;
+    }
+
+    /**
+     * Get the compact JSON text of this container without serializing it, if it is already known: either because it
+     * was kept the last time it was serialized, or because the container is unchanged since it was lazily created.
+     * <p>
+     * This method is not intended for general use; it has to be public because it is used by the serializers.
+     * 
+     * @return The compact JSON text, or null if it is not known.
+     */
+    public final String knownCompactJsonString() {
+        if (jsonString != null) { return jsonString; }
+        if (original != null) { return original.knownCompactJsonString(); }
+        return sourceText();
+    }
+
+    //@Override
+    public final boolean isFrozen() {
+        for (JsonValue value = this; value instanceof ItemscriptContainer; value = value.parent()) {
+            if (((ItemscriptContainer) value).frozen) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Load the contents of this container from the text it was lazily created from, or from the frozen container it
+     * is a copy of, if that hasn't been done yet. Call this before reading the contents.
+     * <p>
+     * Threads reading the same unloaded container at once, such as a frozen one, wait for the first of them to load
+     * it. Adding the contents reads this container too, so that thread can come back here while loading.
+     */
+    protected final void load() {
+        if (loaded) { return; }
+        synchronized (this) {
+            if (loaded || loading) { return; }
+            loading = true;
+            try {
+                if (original != null) {
+                    loadCopy(original);
+                } else if (source != null) {
+                    source.load(this, sourceStart);
+                } else {
+                    loadNode(node);
+                }
+            } finally {
+                loading = false;
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * Load the contents of this container with a copy of each value in the given frozen container.
+     * 
+     * @param from The frozen container.
+     */
+    abstract void loadCopy(ItemscriptContainer from);
+
+    /**
+     * Load the contents of this container from the given persistent node.
+     * 
+     * @param from The node, from {@link #persistentNode()}.
+     */
+    abstract void loadNode(Object from);
+
+    /**
+     * Make the persistent node for the contents of this container from scratch.
+     * 
+     * @return The node.
+     */
+    abstract Object makeNode();
+
+    /**
+     * Get the contents of this container as a {@link PersistentMap} or a {@link PersistentVector}, whose values are
+     * the nodes of the values in it. This is kept, along with the keys changed since, so getting it again after a
+     * few changes only costs O(log n) time and memory for each change, and the new node shares the rest with the
+     * old one.
+     * 
+     * @return The node.
+     */
+    final Object persistentNode() {
+        if (node == null) {
+            load();
+            node = makeNode();
+        } else if (changedKeys != null) {
+            node = updateNode(node, changedKeys);
+        }
+        changedKeys = null;
+        return node;
+    }
+
+    /**
+     * Get the path of this container within the value of its item. It is kept, and only made again if this container
+     * has been moved since, which is seen by its parent's path or its own key or position having changed; so getting
+     * the path of a value deep in an item, or its {@link #fragment()}, only costs the keys that are new.
+     * 
+     * @return The path.
+     */
+    //@Override
+    final FragmentPath path() {
+        JsonContainer parent = parent();
+        if (parent == null) { return FragmentPath.ROOT; }
+        FragmentPath parentPath = pathOf(parent);
+        int position = parent instanceof ItemscriptArray ? ((ItemscriptArray) parent).positionOf(this) : -1;
+        // Threads reading the same value at once may all ask for its path, so the kept path and the position it was
+        // made for are read and replaced together.
+        synchronized (this) {
+            if (position >= 0) {
+                if (path == null || path.parent() != parentPath || position != pathPosition) {
+                    path = parentPath.child(position + "");
+                    pathPosition = position;
+                }
+            } else if (path == null || path.parent() != parentPath || !path.lastKey()
+                    .equals(key())) {
+                path = parentPath.child(key());
+            }
+            return path;
+        }
+    }
+
     //@Override
     public void putByPath(String path, JsonValue value) {
         JsonAccessHelper.putByPath(this, path, value);
     }
 
     protected void prepareValueForPut(String key, JsonValue value) {
-        if (value.parent() != null) { throw ItemscriptError.internalError(this,
-                "prepareValueForPut.value.is.in.another.container"); }
+        JsonContainer parent = value.parent();
+        if (parent != null) {
+            if (!(parent instanceof ItemscriptContainer)
+                    || ((ItemscriptContainer) parent).holds((ItemscriptValue) value)) { throw ItemscriptError
+                    .internalError(this, "prepareValueForPut.value.is.in.another.container"); }
+            // A copy handed out in place of a value its parent holds some other way can be put anywhere.
+            updateRemovedValue(value);
+        }
+        // A shared value's position is kept by this container instead.
+        if (((ItemscriptValue) value).isShared()) { return; }
         ((ItemscriptValue) value).setItem(null);
         ((ItemscriptValue) value).setParent(this);
         ((ItemscriptValue) value).setKey(key);
     }
 
+    /**
+     * Get a value held by this container the way it is handed out: a shared value (see
+     * {@link ItemscriptValue#isShared()}) is copied and given its position in this container, and any other value is
+     * returned as it is. The copy is not kept, so that reading a container never changes it, and any number of
+     * threads can read it at once; a new copy is handed out each time, which can be put into another container like
+     * any other copy (see {@link #holds(ItemscriptValue)}).
+     * 
+     * @param key The key the value is held under.
+     * @param value The value as it is held.
+     * @return The value to hand out.
+     */
+    protected final JsonValue positioned(String key, JsonValue value) {
+        if (!(value instanceof ItemscriptValue) || !((ItemscriptValue) value).isShared()) { return value; }
+        ItemscriptValue positioned = ((ItemscriptValue) value).makeUnshared();
+        positioned.setParent(this);
+        positioned.setKey(key);
+        return positioned;
+    }
+
     //@Override
     public final JsonBoolean put(String key, Boolean value) {
-        JsonBoolean jsonValue = system().createBoolean(value);
+        JsonValue jsonValue = ((ItemscriptValue) system().createBoolean(value)).unshared();
         putValue(key, jsonValue);
-        return jsonValue;
+        return getValue(key).asBoolean();
     }
 
     //@Override
@@ -329,8 +667,54 @@ public abstract class ItemscriptContainer extends ItemscriptValue implements Jso
     //@Override
     public abstract void putValue(String key, JsonValue value);
 
+    /**
+     * Make this container lazily load its contents from the given text when they are first accessed.
+     * 
+     * @param source The text to load from.
+     * @param start The offset of this container in the text.
+     */
+    final void setSource(LazySource source, int start) {
+        this.source = source;
+        this.sourceStart = start;
+        this.loaded = false;
+    }
+
+    /**
+     * If this container is unchanged since it was lazily created, get its compact JSON text straight from the text
+     * it was created from.
+     * 
+     * @return The compact JSON text, or null if this container was not lazily created, has been changed, or its text
+     *         would not be written the same way as its contents.
+     */
+    protected final String sourceText() {
+        if (source == null) { return null; }
+        return source.compactText(sourceStart);
+    }
+
+    /**
+     * Make a new persistent node from the given one with the values under the given keys brought up to date.
+     * 
+     * @param from The node as it was.
+     * @param keys The keys changed since.
+     * @return The new node.
+     */
+    abstract Object updateNode(Object from, Set<String> keys);
+
+    //@Override
+    public final String toCompactJsonString() {
+        String text = knownCompactJsonString();
+        if (text != null) { return text; }
+        // An unchanged copy of a frozen container is written the same, and the original may keep the text.
+        if (original != null) { return original.toCompactJsonString(); }
+        text = JsonSerializer.toCompactJsonString(this);
+        if (text.length() <= jsonStringCacheLimit()) {
+            jsonString = text;
+        }
+        return text;
+    }
+
     protected final void updateRemovedValue(JsonValue value) {
-        if (value == null) { return; }
+        if (value == null || ((ItemscriptValue) value).isShared()) { return; }
         ((ItemscriptValue) value).setParent(null);
         ((ItemscriptValue) value).setKey(null);
         ((ItemscriptValue) value).setItem(null);
@@ -31,7 +31,9 @@ package org.itemscript.core.values;
 
 import org.itemscript.core.HasSystem;
 import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
 import org.itemscript.core.url.Url;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * The implementation class for a {@link JsonCreator}. Subclass this to create a new JsonCreator type.
@@ -39,59 +41,28 @@ import org.itemscript.core.url.Url;
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
 public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
+    /**
+     * The smallest and largest numbers that are shared, when they are created from longs.
+     */
+    private static final int MIN_SHARED_NUMBER = -128;
+    private static final int MAX_SHARED_NUMBER = 1023;
+
     public static String quotedString(String value) {
         if (value == null || value.length() == 0) { return "\"\""; }
-        char b;
-        char c = 0;
-        int i;
-        int len = value.length();
-        StringBuffer sb = new StringBuffer(len + 4);
-        String t;
-        sb.append('"');
-        for (i = 0; i < len; i += 1) {
-            b = c;
-            c = value.charAt(i);
-            switch (c) {
-                case '\\' :
-                case '"' :
-                    sb.append('\\');
-                    sb.append(c);
-                    break;
-                case '/' :
-                    if (b == '<') {
-                        sb.append('\\');
-                    }
-                    sb.append(c);
-                    break;
-                case '\b' :
-                    sb.append("\\b");
-                    break;
-                case '\t' :
-                    sb.append("\\t");
-                    break;
-                case '\n' :
-                    sb.append("\\n");
-                    break;
-                case '\f' :
-                    sb.append("\\f");
-                    break;
-                case '\r' :
-                    sb.append("\\r");
-                    break;
-                default :
-                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
-                        t = "000" + Integer.toHexString(c);
-                        sb.append("\\u" + t.substring(t.length() - 4));
-                    } else {
-                        sb.append(c);
-                    }
-            }
-        }
-        sb.append('"');
+        StringBuilder sb = new StringBuilder(value.length() + 4);
+        JsonSerializer.appendQuoted(sb, value);
         return sb.toString();
     }
 
     private final JsonSystem system;
+    private int jsonStringCacheLimit;
+    private boolean compactObjects = true;
+    private boolean numericArrays = true;
+    private boolean sharedScalars = true;
+    private final ItemscriptNull sharedNull;
+    private final ItemscriptBoolean sharedTrue;
+    private final ItemscriptBoolean sharedFalse;
+    private final ItemscriptNumber[] sharedNumbers;
 
     /**
      * Call this constructor from sub-classes.
@@ -100,6 +71,24 @@ public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
      */
     public ItemscriptCreator(JsonSystem system) {
         this.system = system;
+        sharedNull = new ItemscriptNull(system, true);
+        sharedTrue = new ItemscriptBoolean(system, true, true);
+        sharedFalse = new ItemscriptBoolean(system, false, true);
+        sharedNumbers = new ItemscriptNumber[MAX_SHARED_NUMBER - MIN_SHARED_NUMBER + 1];
+        for (int i = 0; i < sharedNumbers.length; ++i) {
+            sharedNumbers[i] = new ItemscriptNumber(system, Long.valueOf(i + MIN_SHARED_NUMBER), true);
+        }
+    }
+
+    /**
+     * Test whether objects created in this system share the layout of their keys with other objects that have the
+     * same keys.
+     * 
+     * @return True if objects are compact.
+     * @see #setCompactObjects(boolean)
+     */
+    public final boolean compactObjects() {
+        return compactObjects;
     }
 
     //@Override
@@ -109,6 +98,7 @@ public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
 
     //@Override
     public final JsonBoolean createBoolean(Boolean value) {
+        if (sharedScalars) { return value ? sharedTrue : sharedFalse; }
         return new ItemscriptBoolean(system, value);
     }
 
@@ -143,6 +133,7 @@ public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
 
     //@Override
     public final JsonNull createNull() {
+        if (sharedScalars) { return sharedNull; }
         return new ItemscriptNull(system);
     }
 
@@ -161,6 +152,14 @@ public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
         return createNumber((double) value);
     }
 
+    //@Override
+    public final JsonNumber createNumber(Long value) {
+        if (sharedScalars && value >= MIN_SHARED_NUMBER && value <= MAX_SHARED_NUMBER) {
+            return sharedNumbers[(int) (value - MIN_SHARED_NUMBER)];
+        }
+        return new ItemscriptNumber(system, value);
+    }
+
     //@Override
     public final JsonObject createObject() {
         return new ItemscriptObject(system);
@@ -181,8 +180,169 @@ public abstract class ItemscriptCreator implements JsonCreator, HasSystem {
         return new ItemscriptString(system, value);
     }
 
+    /**
+     * Get the length of the longest compact JSON text that an object or array keeps after it is serialized.
+     * 
+     * @return The limit, in chars; 0 if no text is kept.
+     * @see #setJsonStringCacheLimit(int)
+     */
+    public final int jsonStringCacheLimit() {
+        return jsonStringCacheLimit;
+    }
+
+    /**
+     * Test whether arrays created in this system keep their values as plain longs or doubles while they only hold
+     * numbers.
+     * 
+     * @return True if arrays of numbers are kept as longs or doubles.
+     * @see #setNumericArrays(boolean)
+     */
+    public final boolean numericArrays() {
+        return numericArrays;
+    }
+
+    /**
+     * This implementation does not support CBOR, and always throws an {@link ItemscriptError}. The standard-Java
+     * creators override it.
+     */
+    public JsonValue parseCbor(byte[] cbor) {
+        throw new ItemscriptError("error.itemscript.ItemscriptCreator.parseCbor.not.supported");
+    }
+
+    /**
+     * Parse the given UTF-8 encoded JSON text into a value whose objects and arrays are only read from the text
+     * when they are first accessed. As long as they are unchanged, their compact JSON text is copied straight from
+     * the given text too. The text must not be changed afterwards.
+     * <p>
+     * Errors in the structure of the text are reported immediately; other errors are only reported when the object
+     * or array containing them is first accessed.
+     * 
+     * @param json The UTF-8 encoded JSON text.
+     * @return A new JsonValue.
+     */
+    public final JsonValue parseLazy(byte[] json) {
+        return new LazySource(system, json).root();
+    }
+
+    //@Override
+    public final JsonNumber parseNumber(String text) {
+        if (!ItemscriptNumber.isNumberText(text)) { throw new ItemscriptError(
+                "error.itemscript.ItemscriptCreator.parseNumber.text.was.not.a.number", text); }
+        return new ItemscriptNumber(system, text);
+    }
+
+    /**
+     * Set whether objects created in this system share the layout of their keys with other objects that have the
+     * same keys.
+     * <p>
+     * When this is true, an object keeps its values in an array, laid out by a "shape" that it shares with every
+     * other object that was given the same keys in the same order, rather than in a HashMap of its own. This takes
+     * much less memory for the many objects of the same few keys that make up most large documents, and an object
+     * whose keys don't fit the pattern, because it has many keys or has keys removed, switches to a HashMap by
+     * itself. Compact objects keep their keys in the order they were added; HashMap-based ones in no particular
+     * order. Either way they behave the same through {@link JsonObject}. Set it on the creator returned from
+     * {@link org.itemscript.core.config.JsonConfig#createJsonCreator}, as for
+     * {@link #setJsonStringCacheLimit(int)}.
+     * <p>
+     * The default is true.
+     * 
+     * @param compactObjects True to make objects compact, false to give each object a HashMap.
+     */
+    public final void setCompactObjects(boolean compactObjects) {
+        this.compactObjects = compactObjects;
+    }
+
+    /**
+     * Set the length of the longest compact JSON text that an object or array keeps after it is serialized.
+     * <p>
+     * When this is more than 0, an object or array that is serialized with {@link JsonValue#toCompactJsonString()}
+     * keeps the text if it is no longer than this, and returns the same text until it or anything inside it is
+     * changed. This suits values that are served many times and rarely changed, such as those stored under
+     * <code>mem:</code>. To use it, set it on the creator returned from
+     * {@link org.itemscript.core.config.JsonConfig#createJsonCreator}:
+     * 
+     * <pre>
+     * JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+     *     public JsonCreator createJsonCreator(JsonSystem system) {
+     *         StandardJsonCreator creator = new StandardJsonCreator(system);
+     *         creator.setJsonStringCacheLimit(64 * 1024);
+     *         return creator;
+     *     }
+     * });
+     * </pre>
+     * 
+     * The default is 0.
+     * 
+     * @param jsonStringCacheLimit The limit, in chars.
+     */
+    public final void setJsonStringCacheLimit(int jsonStringCacheLimit) {
+        this.jsonStringCacheLimit = jsonStringCacheLimit;
+    }
+
+    /**
+     * Set whether arrays created in this system keep their values as plain longs or doubles while they only hold
+     * numbers.
+     * <p>
+     * When this is true, an array whose values are all numbers, such as a list of measurements read by a parser,
+     * keeps them in a long[] or a double[] rather than as one JsonNumber each, which takes a fraction of the memory,
+     * and makes a new JsonNumber for a value each time one is asked for. The first value that isn't a number, or is
+     * a number that would be written differently once kept as a long or a double, turns the array into an ordinary
+     * list of values. Either way it behaves the same through {@link JsonArray}, but {@link JsonArray#sum()},
+     * {@link JsonArray#toDoubleArray()} and {@link JsonArray#toLongArray()} are much faster on an array of numbers.
+     * Set it on the creator returned from {@link org.itemscript.core.config.JsonConfig#createJsonCreator}, as for
+     * {@link #setJsonStringCacheLimit(int)}.
+     * <p>
+     * The default is true.
+     * 
+     * @param numericArrays True to keep arrays of numbers as longs or doubles, false to keep each value.
+     */
+    public final void setNumericArrays(boolean numericArrays) {
+        this.numericArrays = numericArrays;
+    }
+
+    /**
+     * Set whether values created in this system share one instance for every null, every true and false, and every
+     * small whole number created from a long.
+     * <p>
+     * When this is true, {@link #createNull()}, {@link #createBoolean(Boolean)} and, for numbers from -128 to 1023,
+     * {@link #createNumber(Long)} return the same instance each time, so the nulls, booleans and small numbers read
+     * by a parser cost nothing beyond their place in the object or array that holds them. A shared value does not
+     * know its own position, so it has no key, parent or item until it is put somewhere: the object or array it is
+     * put in keeps its position instead. Each time it is asked for the value, it hands out a new copy that knows its
+     * position, so reading an object or array never changes it. {@link JsonValue#fragment()}, {@link JsonValue#key()}
+     * and {@link JsonValue#parent()} work as usual for a value got from a container. Set it on
+     * the creator returned from {@link org.itemscript.core.config.JsonConfig#createJsonCreator}, as for
+     * {@link #setJsonStringCacheLimit(int)}.
+     * <p>
+     * The default is true.
+     * 
+     * @param sharedScalars True to share null, boolean and small number values, false to create a new one each time.
+     */
+    public final void setSharedScalars(boolean sharedScalars) {
+        this.sharedScalars = sharedScalars;
+    }
+
+    /**
+     * Test whether values created in this system share one instance for every null, every true and false, and every
+     * small whole number created from a long.
+     * 
+     * @return True if these values are shared.
+     * @see #setSharedScalars(boolean)
+     */
+    public final boolean sharedScalars() {
+        return sharedScalars;
+    }
+
     //@Override
     public JsonSystem system() {
         return system;
     }
+
+    /**
+     * This implementation does not support CBOR, and always throws an {@link ItemscriptError}. The standard-Java
+     * creators override it.
+     */
+    public byte[] toCbor(JsonValue value) {
+        throw new ItemscriptError("error.itemscript.ItemscriptCreator.toCbor.not.supported");
+    }
 }
\ No newline at end of file
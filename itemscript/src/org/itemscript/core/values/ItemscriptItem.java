@@ -29,6 +29,7 @@
 
 package org.itemscript.core.values;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,6 +46,7 @@ import org.itemscript.core.events.Handler;
 import org.itemscript.core.events.HandlerReg;
 import org.itemscript.core.exceptions.ItemscriptError;
 import org.itemscript.core.url.Fragment;
+import org.itemscript.core.url.FragmentPath;
 import org.itemscript.core.url.Url;
 import org.itemscript.core.util.JsonAccessHelper;
 
@@ -59,6 +61,7 @@ public final class ItemscriptItem implements JsonItem {
     private JsonValue value;
     private final JsonObject meta;
     private Map<String, Handler> handlers;
+    private ArrayList<Object> versions;
 
     protected ItemscriptItem(JsonSystem system, Url source, JsonObject meta, JsonValue value) {
         this.system = system;
@@ -66,7 +69,7 @@ public final class ItemscriptItem implements JsonItem {
         this.source = source;
         this.meta = meta;
         if (value == null) { throw ItemscriptError.internalError(this, "constructor.value.was.null"); }
-        ((ItemscriptValue) value).setItem(this);
+        this.value = attach(value);
     }
 
     protected ItemscriptItem(JsonSystem system, Url source, JsonValue value) {
@@ -84,6 +87,18 @@ public final class ItemscriptItem implements JsonItem {
         return new HandlerReg(this, id);
     }
 
+    /**
+     * Get the value to hold as the value of this item, and tell it about this item. A value that is not one of ours,
+     * such as a read-only view of a document held elsewhere, is held as it is and never knows its item.
+     */
+    private JsonValue attach(JsonValue newValue) {
+        if (!(newValue instanceof ItemscriptValue)) { return newValue; }
+        // The value needs to know its item, which a shared value can't.
+        ItemscriptValue attached = ((ItemscriptValue) newValue).unshared();
+        attached.setItem(this);
+        return attached;
+    }
+
     //@Override
     public PutResponse createArray(String url) {
         return put(url, system().createArray());
@@ -97,11 +112,17 @@ public final class ItemscriptItem implements JsonItem {
     //@Override
     public void detachValue() {
         if (value() == null) { return; }
-        ((ItemscriptValue) value).setItem(null);
+        detach(value);
         this.value = null;
         this.handlers = null;
     }
 
+    private void detach(JsonValue oldValue) {
+        if (oldValue instanceof ItemscriptValue) {
+            ((ItemscriptValue) oldValue).setItem(null);
+        }
+    }
+
     /**
      * Detach the value from this JsonItem. Only called by {@link ItemscriptValue#detachFromItem}.
      */
@@ -141,7 +162,7 @@ public final class ItemscriptItem implements JsonItem {
         if (isFragmentOnly(url)) {
             if (url.fragmentString()
                     .length() == 0) { return value; }
-            return ((ItemscriptContainer) value).getByPath(url.fragmentString());
+            return ((JsonContainer) value).getByPath(url.fragmentString());
         } else {
             return ((ItemscriptSystem) system).get(system().util()
                     .createRelativeUrl(source, url));
@@ -230,7 +251,7 @@ public final class ItemscriptItem implements JsonItem {
     }
 
     boolean hasHandlers() {
-        return handlers != null;
+        return handlers != null && handlers.size() > 0;
     }
 
     private boolean isFragmentOnly(Url url) {
@@ -243,6 +264,18 @@ public final class ItemscriptItem implements JsonItem {
         return meta;
     }
 
+    /**
+     * Notify this item that the value attached to it has had something put in it.
+     * 
+     * @param path The path of the value that has been put; {@link FragmentPath#ROOT} if we put a new value for this
+     *            item.
+     */
+    public void notifyPut(FragmentPath path) {
+        if (handlers != null && handlers.size() > 0) {
+            dispatchEvent(new Event(EventType.PUT, path, value()));
+        }
+    }
+
     /**
      * Notify this item that the value attached to it has had something put in it.
      * 
@@ -254,6 +287,18 @@ public final class ItemscriptItem implements JsonItem {
         }
     }
 
+    /**
+     * Notify this item that the value attached to it has had something removed from it.
+     * 
+     * @param path The path of the value that has been removed; {@link FragmentPath#ROOT} if we are removing this
+     *            item.
+     */
+    public void notifyRemove(FragmentPath path) {
+        if (handlers != null && handlers.size() > 0) {
+            dispatchEvent(new Event(EventType.REMOVE, path, value()));
+        }
+    }
+
     /**
      * Notify this item that the value attached to it has had something removed from it.
      * 
@@ -350,13 +395,16 @@ public final class ItemscriptItem implements JsonItem {
                         "putValue.value.was.not.a.container", "#" + url.fragmentString()); }
                 JsonContainer container = value().asContainer();
                 container.putByPath(url.fragmentString(), value);
+                if (value instanceof ItemscriptValue && ((ItemscriptValue) value).isShared()) {
+                    // Hand back the value as it is now held, which knows its position.
+                    value = container.getByPath(url.fragmentString());
+                }
             } else {
                 // If the fragment was of zero length, replace the root value of this item with the supplied value.
-                JsonValue prevValue = value();
-                ((ItemscriptValue) prevValue).setItem(null);
-                ((ItemscriptValue) value).setItem(this);
+                detach(value());
+                value = attach(value);
                 this.value = value;
-                notifyPut("#");
+                notifyPut(FragmentPath.ROOT);
             }
             return new ItemscriptPutResponse(system().util()
                     .createRelativeUrl(source(), url + "") + "", null, value);
@@ -438,6 +486,16 @@ public final class ItemscriptItem implements JsonItem {
         return new ItemscriptRemoveResponse(null);
     }
 
+    //@Override
+    public int snapshot() {
+        if (value == null) { throw ItemscriptError.internalError(this, "snapshot.item.has.no.value", source + ""); }
+        if (versions == null) {
+            versions = new ArrayList<Object>();
+        }
+        versions.add(ItemscriptContainer.nodeOf(value));
+        return versions.size() - 1;
+    }
+
     //@Override
     public String source() {
         return source + "";
@@ -457,4 +515,16 @@ public final class ItemscriptItem implements JsonItem {
     public JsonValue value() {
         return value;
     }
+
+    //@Override
+    public JsonValue version(int version) {
+        if (version < 0 || version >= versionCount()) { throw ItemscriptError.internalError(this,
+                "version.no.such.version", version + ""); }
+        return ItemscriptContainer.fromNode(system, versions.get(version));
+    }
+
+    //@Override
+    public int versionCount() {
+        return versions == null ? 0 : versions.size();
+    }
 }
\ No newline at end of file
@@ -36,6 +36,10 @@ final class ItemscriptNull extends ItemscriptScalar implements JsonNull {
         super(system);
     }
 
+    ItemscriptNull(JsonSystem system, boolean shared) {
+        super(system, shared);
+    }
+
     //@Override
     public JsonNull asNull() {
         return this;
@@ -57,6 +61,11 @@ final class ItemscriptNull extends ItemscriptScalar implements JsonNull {
         return true;
     }
 
+    //@Override
+    ItemscriptValue makeUnshared() {
+        return new ItemscriptNull(system());
+    }
+
     //@Override
     public String toJsonString() {
         return "null";
@@ -30,12 +30,128 @@
 package org.itemscript.core.values;
 
 import org.itemscript.core.JsonSystem;
+import org.itemscript.core.util.CanonicalJson;
 
 final class ItemscriptNumber extends ItemscriptScalar implements JsonNumber {
-    private final double value;
+    private static final byte FROM_DOUBLE = 0;
+    private static final byte FROM_LONG = 1;
+    private static final byte FROM_TEXT = 2;
+    private static final byte LONG_UNKNOWN = 0;
+    private static final byte LONG_EXACT = 1;
+    private static final byte NOT_LONG = 2;
+    private static final double TWO_TO_THE_63 = 9223372036854775808.0;
+    private static final double TWO_TO_THE_53 = 9007199254740992.0;
+    /**
+     * Decimal numbers with no more than this many significant digits survive conversion to a double and back.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    /**
+     * No double needs more than this many significant digits to be printed so that it reads back the same.
+     */
+    private static final int MAX_DOUBLE_DIGITS = 17;
+    /**
+     * Doubles at least this large are written with an exponent.
+     */
+    private static final long MAX_PLAIN_DOUBLE = 10000000L;
+
+    /**
+     * Test whether the given string is a JSON number. Leading zeros are allowed; they are dropped when a number is
+     * created from the text.
+     * 
+     * @param text The string to test.
+     * @return True if it is a JSON number.
+     */
+    static boolean isNumberText(String text) {
+        int length = text.length();
+        int i = 0;
+        if (i < length && text.charAt(i) == '-') {
+            ++i;
+        }
+        int digitsStart = i;
+        i = skipDigits(text, i);
+        if (i == digitsStart) { return false; }
+        if (i < length && text.charAt(i) == '.') {
+            int fractionStart = ++i;
+            i = skipDigits(text, i);
+            if (i == fractionStart) { return false; }
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            ++i;
+            if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                ++i;
+            }
+            int exponentStart = i;
+            i = skipDigits(text, i);
+            if (i == exponentStart) { return false; }
+        }
+        return i == length;
+    }
+
+    /**
+     * Write a double the way a number created from a double is written.
+     */
+    private static String formatDouble(double value) {
+        String s = value + "";
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            while (s.endsWith("0")) {
+                s = s.substring(0, s.length() - 1);
+            }
+            if (s.endsWith(".")) {
+                s = s.substring(0, s.length() - 1);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Test whether a number created from the given long would be written the same if it were created from a double
+     * instead; true when it is small enough for a double to be written without an exponent.
+     */
+    static boolean isDoubleSafe(long value) {
+        return value > -MAX_PLAIN_DOUBLE && value < MAX_PLAIN_DOUBLE;
+    }
+
+    /**
+     * Drop any leading zeros from the whole part of a JSON number's text, which JSON does not allow.
+     */
+    private static String withoutLeadingZeros(String text) {
+        int start = text.length() > 0 && text.charAt(0) == '-' ? 1 : 0;
+        int end = start;
+        while (end + 1 < text.length() && text.charAt(end) == '0' && text.charAt(end + 1) >= '0'
+                && text.charAt(end + 1) <= '9') {
+            ++end;
+        }
+        if (end == start) { return text; }
+        return text.substring(0, start) + text.substring(end);
+    }
+
+    private static int skipDigits(String text, int i) {
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            ++i;
+        }
+        return i;
+    }
+
+    /*
+     * A number is created from a double, from a long, or from its JSON text. A number created from text keeps the
+     * text, and only decodes it when its value is asked for; it is written back out as the same text, so no
+     * precision is lost. A number created from a long keeps the exact long.
+     * 
+     * Numbers are read from many threads at once, for instance in frozen values, so the flags saying whether the
+     * text has been decoded are volatile, and are set only after the values they guard. Numbers created from a long
+     * or a double never touch them, so creating one writes no volatile field.
+     */
+    private final byte source;
+    private final String text;
+    private double value;
+    private volatile boolean decoded;
+    private long longValue;
+    private volatile byte longState;
 
     protected ItemscriptNumber(JsonSystem system, Double value) {
         super(system);
+        this.source = FROM_DOUBLE;
+        this.text = null;
         this.value = value;
     }
 
@@ -52,7 +168,24 @@ final class ItemscriptNumber extends ItemscriptScalar implements JsonNumber {
     }
 
     public ItemscriptNumber(JsonSystem system, Long value) {
-        this(system, (double) value);
+        this(system, value, false);
+    }
+
+    ItemscriptNumber(JsonSystem system, Long value, boolean shared) {
+        super(system, shared);
+        this.source = FROM_LONG;
+        this.text = null;
+        this.value = value;
+        this.longValue = value;
+    }
+
+    /**
+     * Create a number from its JSON text, which must already have been checked with {@link #isNumberText}.
+     */
+    ItemscriptNumber(JsonSystem system, String text) {
+        super(system);
+        this.source = FROM_TEXT;
+        this.text = withoutLeadingZeros(text);
     }
 
     //@Override
@@ -62,28 +195,198 @@ final class ItemscriptNumber extends ItemscriptScalar implements JsonNumber {
 
     //@Override
     public JsonNumber copy() {
-        return system().createNumber(value);
+        switch (source) {
+            case FROM_LONG :
+                return system().createNumber(longValue);
+            case FROM_TEXT :
+                return new ItemscriptNumber(system(), text);
+            default :
+                return system().createNumber(value);
+        }
+    }
+
+    private boolean decodeLong() {
+        if (source != FROM_TEXT) {
+            if (value != Math.floor(value) || value < -TWO_TO_THE_63 || value >= TWO_TO_THE_63) { return false; }
+            longValue = (long) value;
+            return true;
+        }
+        if (text.indexOf('e') >= 0 || text.indexOf('E') >= 0) { return decodeLongFromExponent(); }
+        // Accumulate negatively, so Long.MIN_VALUE can be reached; the same way Long.parseLong does.
+        int length = text.length();
+        int i = 0;
+        boolean negative = text.charAt(0) == '-';
+        if (negative) {
+            ++i;
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9'; ++i) {
+            int digit = text.charAt(i) - '0';
+            if (result < multiplyLimit) { return false; }
+            result *= 10;
+            if (result < limit + digit) { return false; }
+            result -= digit;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            // A fraction of all zeros still makes an integer.
+            for (++i; i < length && text.charAt(i) == '0'; ++i) {}
+        }
+        // Anything left is a non-zero fraction.
+        if (i < length) { return false; }
+        longValue = negative ? result : -result;
+        return true;
+    }
+
+    /**
+     * A number written with an exponent. It is an integer only if the exponent is at least the number of digits
+     * after the point, not counting trailing zeros; the double can't tell, since a small enough fraction rounds to
+     * zero. As with a double, only integers up to 2^53 are decoded.
+     */
+    private boolean decodeLongFromExponent() {
+        boolean negative = text.charAt(0) == '-';
+        int exponentAt = Math.max(text.indexOf('e'), text.indexOf('E'));
+        int i = exponentAt + 1;
+        boolean negativeExponent = text.charAt(i) == '-';
+        if (negativeExponent || text.charAt(i) == '+') {
+            ++i;
+        }
+        int exponent = 0;
+        for (; i < text.length(); ++i) {
+            // Any exponent this large is far outside the range of a long either way.
+            exponent = Math.min(exponent * 10 + text.charAt(i) - '0', 100000);
+        }
+        String mantissa = text.substring(negative ? 1 : 0, exponentAt);
+        int point = mantissa.indexOf('.');
+        String digits = mantissa;
+        int scale = negativeExponent ? -exponent : exponent;
+        if (point >= 0) {
+            digits = mantissa.substring(0, point) + mantissa.substring(point + 1);
+            scale -= mantissa.length() - point - 1;
+        }
+        int start = 0;
+        while (start < digits.length() && digits.charAt(start) == '0') {
+            ++start;
+        }
+        int end = digits.length();
+        while (end > start && digits.charAt(end - 1) == '0') {
+            --end;
+            ++scale;
+        }
+        if (start == end) {
+            longValue = 0;
+            return true;
+        }
+        if (scale < 0 || end - start + scale > 16) { return false; }
+        long result = Long.parseLong(digits.substring(start, end));
+        for (int j = 0; j < scale; ++j) {
+            result *= 10;
+        }
+        if (result > TWO_TO_THE_53) { return false; }
+        longValue = negative ? -result : result;
+        return true;
     }
 
     //@Override
     public Double doubleValue() {
-        return value;
+        return toDouble();
     }
 
     //@Override
     public boolean equals(Object other) {
-        if (other instanceof JsonNumber) { return value == ((JsonNumber) other).doubleValue(); }
+        if (other instanceof JsonNumber) {
+            JsonNumber number = (JsonNumber) other;
+            if (isLong() && number.isLong()) { return toLong() == number.toLong(); }
+            return toDouble() == number.toDouble();
+        }
         return false;
     }
 
     //@Override
     public Float floatValue() {
-        return (float) value;
+        return (float) toDouble();
     }
 
     //@Override
     public Integer intValue() {
-        return (int) value;
+        // Values out of range are clamped, as they are for a double.
+        return isLong() && longValue == (int) longValue ? (int) longValue : (int) toDouble();
+    }
+
+    //@Override
+    public boolean isDouble() {
+        switch (source) {
+            case FROM_DOUBLE :
+                return true;
+            case FROM_LONG :
+                return longValue >= -TWO_TO_THE_53 && longValue <= TWO_TO_THE_53;
+            default :
+                int digits = 0;
+                for (int i = 0; i < text.length() && text.charAt(i) != 'e' && text.charAt(i) != 'E'; ++i) {
+                    char c = text.charAt(i);
+                    // Leading zeros are not significant.
+                    if (c >= '0' && c <= '9' && (c != '0' || digits > 0)) {
+                        ++digits;
+                    }
+                }
+                if (digits > MAX_DOUBLE_DIGITS) { return false; }
+                // An exponent can still take the value out of the range of a double.
+                double d = toDouble();
+                if (Double.isInfinite(d) || (d == 0 && digits > 0)) { return false; }
+                if (digits <= MAX_EXACT_DIGITS) { return true; }
+                // A longer number may still be just what the double prints as.
+                return CanonicalJson.canonicalDecimal(text)
+                        .equals(CanonicalJson.canonicalDecimal(Double.toString(d)));
+        }
+    }
+
+    //@Override
+    public boolean isLong() {
+        if (source == FROM_LONG) { return true; }
+        if (longState == LONG_UNKNOWN) {
+            longState = decodeLong() ? LONG_EXACT : NOT_LONG;
+        }
+        return longState == LONG_EXACT;
+    }
+
+    /**
+     * Test whether this number can be kept in a double and created again from it without changing how it is written
+     * out or what it equals.
+     * 
+     * @return True if this number can be kept as a double.
+     */
+    boolean isDoubleStorable() {
+        switch (source) {
+            case FROM_DOUBLE :
+                return true;
+            case FROM_LONG :
+                return isDoubleSafe(longValue);
+            default :
+                return text.equals(formatDouble(toDouble()));
+        }
+    }
+
+    /**
+     * Test whether this number can be kept in a long and created again from it without changing how it is written
+     * out or what it equals.
+     * 
+     * @return True if this number can be kept as a long.
+     */
+    boolean isLongStorable() {
+        switch (source) {
+            case FROM_DOUBLE :
+                return false;
+            case FROM_LONG :
+                return true;
+            default :
+                // Only a plain integer is written the same way as the long it holds.
+                int start = text.charAt(0) == '-' ? 1 : 0;
+                int length = text.length();
+                if (skipDigits(text, start) != length) { return false; }
+                if (text.charAt(start) == '0' && (length > start + 1 || start > 0)) { return false; }
+                return isLong();
+        }
     }
 
     //@Override
@@ -92,16 +395,34 @@ final class ItemscriptNumber extends ItemscriptScalar implements JsonNumber {
     }
 
     //@Override
-    public String toJsonString() {
-        String s = value + "";
-        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
-            while (s.endsWith("0")) {
-                s = s.substring(0, s.length() - 1);
-            }
-            if (s.endsWith(".")) {
-                s = s.substring(0, s.length() - 1);
-            }
+    public Long longValue() {
+        return isLong() ? Long.valueOf(longValue) : null;
+    }
+
+    //@Override
+    ItemscriptValue makeUnshared() {
+        // Only numbers created from longs are shared.
+        return new ItemscriptNumber(system(), Long.valueOf(longValue));
+    }
+
+    //@Override
+    public double toDouble() {
+        if (source == FROM_TEXT && !decoded) {
+            value = Double.parseDouble(text);
+            decoded = true;
         }
-        return s;
+        return value;
+    }
+
+    //@Override
+    public String toJsonString() {
+        if (source == FROM_TEXT) { return text; }
+        if (source == FROM_LONG) { return Long.toString(longValue); }
+        return formatDouble(value);
+    }
+
+    //@Override
+    public long toLong() {
+        return isLong() ? longValue : (long) toDouble();
     }
 }
\ No newline at end of file
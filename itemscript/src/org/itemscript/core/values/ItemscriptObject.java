@@ -29,24 +29,109 @@
 
 package org.itemscript.core.values;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
+import org.itemscript.core.ItemscriptSystem;
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.FragmentPath;
+import org.itemscript.core.util.CanonicalJson;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
-    private final HashMap<String, JsonValue> values = new HashMap<String, JsonValue>();
+    /**
+     * An entry that hands out its value with its position in this object.
+     */
+    private final class PositionedEntry implements Map.Entry<String, JsonValue> {
+        private final Map.Entry<String, JsonValue> entry;
+
+        PositionedEntry(Map.Entry<String, JsonValue> entry) {
+            this.entry = entry;
+        }
+
+        //@Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) { return false; }
+            Map.Entry<?, ?> otherEntry = (Map.Entry<?, ?>) other;
+            return getKey().equals(otherEntry.getKey()) && entry.getValue()
+                    .equals(otherEntry.getValue());
+        }
+
+        //@Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        //@Override
+        public JsonValue getValue() {
+            return get(entry.getKey());
+        }
+
+        //@Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        //@Override
+        public JsonValue setValue(JsonValue value) {
+            return put(entry.getKey(), value);
+        }
+    }
+
+    /**
+     * Iterates over the entries of this object for its key, entry and value views. Removing through it goes through
+     * {@link ItemscriptObject#remove(Object)}, so that it is checked and kept track of like any other change.
+     */
+    private abstract class ViewIterator<T> implements Iterator<T> {
+        private final Iterator<Map.Entry<String, JsonValue>> iterator = values.entrySet()
+                .iterator();
+        private String last;
+        private boolean removable;
+
+        abstract T get(Map.Entry<String, JsonValue> entry);
+
+        //@Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        //@Override
+        public T next() {
+            Map.Entry<String, JsonValue> entry = iterator.next();
+            last = entry.getKey();
+            removable = true;
+            return get(entry);
+        }
+
+        //@Override
+        public void remove() {
+            if (!removable) { throw new IllegalStateException(); }
+            ItemscriptObject.this.remove(last, iterator);
+            removable = false;
+        }
+    }
+
+    private static boolean compactObjects(JsonSystem system) {
+        if (system instanceof ItemscriptSystem) { return ((ItemscriptSystem) system).compactObjects(); }
+        return true;
+    }
+
+    private final ShapedMap values;
 
     public ItemscriptObject(JsonSystem system) {
         super(system);
+        values = new ShapedMap(compactObjects(system));
     }
 
     public ItemscriptObject(JsonSystem system, Map<String, JsonValue> value) {
-        super(system);
+        this(system);
         putAll(value);
     }
 
@@ -57,43 +142,67 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public void clear() {
-        for (String key : values.keySet()) {
+        change();
+        // Copy the keys, since removing them while iterating over them would fail.
+        for (String key : new ArrayList<String>(values.keySet())) {
             remove(key);
         }
     }
 
     //@Override
     public boolean containsKey(Object key) {
+        load();
         return values.containsKey(key);
     }
 
     //@Override
     public boolean containsKey(String key) {
+        load();
         return values.containsKey(key);
     }
 
     //@Override
     public boolean containsValue(Object key) {
+        load();
         return values.containsValue(key);
     }
 
     //@Override
     public JsonObject copy() {
+        JsonContainer copy = copySource();
+        if (copy != null) { return copy.asObject(); }
         return JsonAccessHelper.copyObject(system(), this);
     }
 
     //@Override
     public Set<java.util.Map.Entry<String, JsonValue>> entrySet() {
-        return values.entrySet();
+        load();
+        return new AbstractSet<Map.Entry<String, JsonValue>>() {
+            //@Override
+            public Iterator<Map.Entry<String, JsonValue>> iterator() {
+                return new ViewIterator<Map.Entry<String, JsonValue>>() {
+                    //@Override
+                    Map.Entry<String, JsonValue> get(Map.Entry<String, JsonValue> entry) {
+                        return new PositionedEntry(entry);
+                    }
+                };
+            }
+
+            //@Override
+            public int size() {
+                return values.size();
+            }
+        };
     }
 
     //@Override
     public boolean equals(Object other) {
         if (other instanceof JsonObject) {
             JsonObject otherObject = (JsonObject) other;
+            if (CanonicalJson.knownHashesDiffer(this, otherObject)) { return false; }
             if (otherObject.size() == size()) {
                 for (String key : keySet()) {
-                    if (!get(key).equals(otherObject.get(key))) { return false; }
+                    if (!heldValue(key).equals(otherObject.get(key))) { return false; }
                 }
                 return true;
             }
@@ -103,7 +212,9 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public JsonValue get(Object key) {
-        return values.get(key);
+        load();
+        JsonValue value = values.get(key);
+        return positioned((String) key, value);
     }
 
     //@Override
@@ -111,8 +222,20 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
         return get(key);
     }
 
+    //@Override
+    JsonValue heldValue(String key) {
+        load();
+        return values.get(key);
+    }
+
+    //@Override
+    boolean holds(ItemscriptValue value) {
+        return heldValue(value.key()) == value;
+    }
+
     //@Override
     public boolean isEmpty() {
+        load();
         return values.isEmpty();
     }
 
@@ -123,7 +246,62 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public Set<String> keySet() {
-        return values.keySet();
+        load();
+        return new AbstractSet<String>() {
+            //@Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            //@Override
+            public Iterator<String> iterator() {
+                return new ViewIterator<String>() {
+                    //@Override
+                    String get(Map.Entry<String, JsonValue> entry) {
+                        return entry.getKey();
+                    }
+                };
+            }
+
+            //@Override
+            public boolean remove(Object key) {
+                if (!containsKey(key)) { return false; }
+                ItemscriptObject.this.remove(key);
+                return true;
+            }
+
+            //@Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    //@Override
+    void loadCopy(ItemscriptContainer from) {
+        for (String key : from.asObject()
+                .keySet()) {
+            putLoaded(key, from.heldValue(key)
+                    .copy());
+        }
+    }
+
+    //@Override
+    void loadNode(Object from) {
+        ((PersistentMap) from).visit(new PersistentMap.Visitor() {
+            public void visit(String key, Object value) {
+                putLoaded(key, fromNode(system(), value));
+            }
+        });
+    }
+
+    //@Override
+    Object makeNode() {
+        PersistentMap node = PersistentMap.EMPTY;
+        for (Map.Entry<String, JsonValue> entry : values.entrySet()) {
+            node = node.put(entry.getKey(), nodeOf(entry.getValue()));
+        }
+        return node;
     }
 
     //@Override
@@ -174,17 +352,24 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
             value = system().createNull();
         }
         if (value.system() != system()) { throw ItemscriptError.internalError(this, "put.system.mismatch", key); }
+        change(key);
         prepareValueForPut(key, value);
         JsonValue previous = values.put(key, value);
         updateRemovedValue(previous);
-        if (item() != null) {
-            if (((ItemscriptItem) item()).hasHandlers()) {
-                ((ItemscriptItem) item()).notifyPut(value.fragment());
-            }
+        if (hasHandlers()) {
+            ((ItemscriptItem) item()).notifyPut(path().child(key));
         }
         return previous;
     }
 
+    /**
+     * Put a value read from the text this object was lazily created from.
+     */
+    void putLoaded(String key, JsonValue value) {
+        prepareValueForPut(key, value);
+        updateRemovedValue(values.put(key, value));
+    }
+
     //@Override
     public void putAll(Map<? extends String, ? extends JsonValue> other) {
         for (String key : other.keySet()) {
@@ -200,19 +385,34 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public JsonValue remove(Object key) {
-        String fragment = null;
-        if (item() != null) {
-            JsonValue value = get(key);
-            if (value != null) {
-                fragment = value.fragment();
-            }
+        return remove(key, null);
+    }
+
+    /**
+     * Remove the value under a key.
+     * 
+     * @param key The key to remove.
+     * @param iterator An iterator over the values that has just returned that key, to remove it through so that the
+     *            iterator can go on; or null to remove it directly.
+     * @return The value that was removed, or null if there was none.
+     */
+    private JsonValue remove(Object key, Iterator<Map.Entry<String, JsonValue>> iterator) {
+        change(String.valueOf(key));
+        boolean notify = hasHandlers();
+        FragmentPath removedPath = null;
+        if (notify && values.containsKey(key)) {
+            removedPath = path().child(String.valueOf(key));
+        }
+        JsonValue ret;
+        if (iterator != null) {
+            ret = values.get(key);
+            iterator.remove();
+        } else {
+            ret = values.remove(key);
         }
-        JsonValue ret = values.remove(key);
         updateRemovedValue(ret);
-        if (item() != null) {
-            if (((ItemscriptItem) item()).hasHandlers()) {
-                ((ItemscriptItem) item()).notifyRemove(fragment);
-            }
+        if (notify) {
+            ((ItemscriptItem) item()).notifyRemove(removedPath);
         }
         return ret;
     }
@@ -224,14 +424,10 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public int size() {
+        load();
         return values.size();
     }
 
-    //@Override
-    public String toCompactJsonString() {
-        return JsonAccessHelper.objectToCompactJsonString(this);
-    }
-
     //@Override
     public String toJsonString() {
         return toJsonString(0) + "\n";
@@ -239,11 +435,37 @@ final class ItemscriptObject extends ItemscriptContainer implements JsonObject {
 
     //@Override
     public String toJsonString(int indent) {
-        return JsonAccessHelper.objectToJsonString(this, indent);
+        return JsonSerializer.toJsonString(this, indent);
+    }
+
+    //@Override
+    Object updateNode(Object from, Set<String> keys) {
+        PersistentMap node = (PersistentMap) from;
+        for (String key : keys) {
+            JsonValue value = values.get(key);
+            node = value == null ? node.remove(key) : node.put(key, nodeOf(value));
+        }
+        return node;
     }
 
     //@Override
     public Collection<JsonValue> values() {
-        return values.values();
+        load();
+        return new AbstractCollection<JsonValue>() {
+            //@Override
+            public Iterator<JsonValue> iterator() {
+                return new ViewIterator<JsonValue>() {
+                    //@Override
+                    JsonValue get(Map.Entry<String, JsonValue> entry) {
+                        return ItemscriptObject.this.get(entry.getKey());
+                    }
+                };
+            }
+
+            //@Override
+            public int size() {
+                return values.size();
+            }
+        };
     }
-}
\ No newline at end of file
+}
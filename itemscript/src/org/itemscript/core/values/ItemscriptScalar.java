@@ -36,6 +36,10 @@ abstract class ItemscriptScalar extends ItemscriptValue {
         super(system);
     }
 
+    protected ItemscriptScalar(JsonSystem system, boolean shared) {
+        super(system, shared);
+    }
+
     //@Override
     public String toCompactJsonString() {
         return toJsonString();
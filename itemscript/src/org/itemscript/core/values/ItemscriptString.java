@@ -38,17 +38,20 @@ final class ItemscriptString extends ItemscriptScalar implements JsonString {
     // access a binary value (if the original value was a string) or a string value (if the original value was binary).
     private String stringValue;
     private byte[] binaryValue;
+    private final boolean binary;
 
     protected ItemscriptString(JsonSystem system, byte[] value) {
         super(system);
         this.stringValue = null;
         this.binaryValue = value;
+        this.binary = true;
     }
 
     protected ItemscriptString(JsonSystem system, String value) {
         super(system);
         this.stringValue = value;
         this.binaryValue = null;
+        this.binary = false;
     }
 
     //@Override
@@ -66,7 +69,7 @@ final class ItemscriptString extends ItemscriptScalar implements JsonString {
 
     //@Override
     public JsonValue copy() {
-        if (stringValue == null && binaryValue != null) { return system().createString(binaryValue); }
+        if (binary) { return system().createString(binaryValue); }
         return system().createString(stringValue);
     }
 
@@ -76,6 +79,11 @@ final class ItemscriptString extends ItemscriptScalar implements JsonString {
         return false;
     }
 
+    //@Override
+    public boolean isBinary() {
+        return binary;
+    }
+
     //@Override
     public boolean isString() {
         return true;
@@ -31,16 +31,34 @@ package org.itemscript.core.values;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.exceptions.ItemscriptError;
-import org.itemscript.core.url.Url;
+import org.itemscript.core.url.FragmentPath;
 
 abstract class ItemscriptValue implements JsonValue {
     private final JsonSystem system;
+    private final boolean shared;
     private String key = null;
+    /**
+     * The position of this value in its parent, when that is an array, which keeps it instead of a key. The array
+     * only brings it up to date after an insert or remove when it is next asked for; see
+     * {@link ItemscriptArray#keyOf(ItemscriptValue)}.
+     */
+    private int index;
     private JsonContainer parent;
     private JsonItem item;
 
     protected ItemscriptValue(JsonSystem system) {
+        this(system, false);
+    }
+
+    /**
+     * Create a value that may be shared; see {@link #isShared()}.
+     * 
+     * @param system The associated JsonSystem.
+     * @param shared True if this value is to be shared.
+     */
+    protected ItemscriptValue(JsonSystem system, boolean shared) {
         this.system = system;
+        this.shared = shared;
     }
 
     //@Override
@@ -105,15 +123,12 @@ abstract class ItemscriptValue implements JsonValue {
 
     //@Override
     public final String fragment() {
-        if (parent() == null) {
-            return "#";
-        } else {
-            if (parent().parent() == null) {
-                return "#" + Url.encode(key());
-            } else {
-                return parent().fragment() + "." + Url.encode(key());
-            }
-        }
+        return path().toString();
+    }
+
+    //@Override
+    public void freeze() {
+        // Only containers can be changed.
     }
 
     //@Override
@@ -137,6 +152,11 @@ abstract class ItemscriptValue implements JsonValue {
         return false;
     }
 
+    //@Override
+    public boolean isFrozen() {
+        return true;
+    }
+
     //@Override
     public boolean isNative() {
         return false;
@@ -157,11 +177,30 @@ abstract class ItemscriptValue implements JsonValue {
         return false;
     }
 
+    /**
+     * Test whether this value is one of the scalars that its {@link ItemscriptCreator} hands out every time the same
+     * value is created. A shared value is put into any number of containers, so it never has a key, parent or item
+     * of its own; the container it is in keeps its position, and hands out a copy with that position when it is
+     * asked for the value.
+     * 
+     * @return True if this value is shared.
+     */
+    final boolean isShared() {
+        return shared;
+    }
+
     //@Override
     public boolean isString() {
         return false;
     }
 
+    /**
+     * Get the position of this value in its parent array, as it was last set.
+     */
+    final int index() {
+        return index;
+    }
+
     //@Override
     public final JsonItem item() {
         if (parent() == null) {
@@ -173,6 +212,8 @@ abstract class ItemscriptValue implements JsonValue {
 
     //@Override
     public final String key() {
+        // A value in an array has no key of its own; the key is worked out from its position.
+        if (parent instanceof ItemscriptArray) { return ((ItemscriptArray) parent).keyOf(this); }
         return key;
     }
 
@@ -181,6 +222,14 @@ abstract class ItemscriptValue implements JsonValue {
         throw new UnsupportedOperationException("longValue() called on a value that was not a JsonString");
     }
 
+    /**
+     * Make a copy of this value that is not shared, so that it can be given a position. Only the scalars that can be
+     * shared implement this.
+     */
+    ItemscriptValue makeUnshared() {
+        throw ItemscriptError.internalError(this, "makeUnshared.value.cannot.be.shared");
+    }
+
     //@Override
     public Object nativeValue() {
         throw new UnsupportedOperationException("nativeObject() called on a value that was not a JsonNative");
@@ -191,7 +240,33 @@ abstract class ItemscriptValue implements JsonValue {
         return parent;
     }
 
+    /**
+     * Get the path of this value within the value of its item; the structured form of {@link #fragment()}.
+     * Containers keep theirs; see {@link ItemscriptContainer#path()}.
+     */
+    FragmentPath path() {
+        if (parent == null) { return FragmentPath.ROOT; }
+        return pathOf(parent).child(key());
+    }
+
+    /**
+     * Get the path of the given container, which may not be one of ours.
+     */
+    static FragmentPath pathOf(JsonContainer container) {
+        if (container instanceof ItemscriptValue) { return ((ItemscriptValue) container).path(); }
+        return FragmentPath.decode(container.fragment());
+    }
+
+    /**
+     * Set the position of this value in its parent array.
+     */
+    final void setIndex(int newIndex) {
+        if (shared) { throw ItemscriptError.internalError(this, "setIndex.value.is.shared"); }
+        this.index = newIndex;
+    }
+
     protected final void setItem(JsonItem newItem) {
+        if (shared && newItem != null) { throw ItemscriptError.internalError(this, "setItem.value.is.shared"); }
         // If this item has a parent we need to set item on the parent, not on this...
         if (parent() != null) {
             ((ItemscriptValue) parent()).setItem(newItem);
@@ -206,6 +281,7 @@ abstract class ItemscriptValue implements JsonValue {
     }
 
     protected final void setKey(String newKey) {
+        if (shared && newKey != null) { throw ItemscriptError.internalError(this, "setKey.value.is.shared"); }
         // It's okay to set key to null if it's not null, but not to any other value.
         if (newKey != null && key() != null) {
             // Should not occur, but just in case...
@@ -215,6 +291,7 @@ abstract class ItemscriptValue implements JsonValue {
     }
 
     protected final void setParent(JsonContainer newParent) {
+        if (shared && newParent != null) { throw ItemscriptError.internalError(this, "setParent.value.is.shared"); }
         // It's not okay to change the parent of this value to a value that is a sub-value of it
         // (i.e. a cycle), only applies if this is a container of course.
         if (isContainer()) {
@@ -250,4 +327,11 @@ abstract class ItemscriptValue implements JsonValue {
     public final String toString() {
         return toJsonString();
     }
+
+    /**
+     * Get a value that can be given a position: a new copy of this value if it is shared, or else this value.
+     */
+    final ItemscriptValue unshared() {
+        return shared ? makeUnshared() : this;
+    }
 }
\ No newline at end of file
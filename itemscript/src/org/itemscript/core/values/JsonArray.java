@@ -453,4 +453,29 @@ public interface JsonArray extends JsonContainer, List<JsonValue> {
      * @param value The String value to set.
     */
     public void set(int index, String value);
+
+    /**
+     * Add up the numbers in this array.
+     * 
+     * @return The sum of the numbers in this array, as doubles.
+     * @throws ItemscriptError If a value in this array is not a JsonNumber.
+     */
+    public double sum();
+
+    /**
+     * Get the numbers in this array as doubles. An array whose values are all numbers keeps them as longs or
+     * doubles rather than as separate JsonNumbers, so this is cheap for the arrays of numbers that a parser reads.
+     * 
+     * @return A new array of the double value of each JsonNumber in this array.
+     * @throws ItemscriptError If a value in this array is not a JsonNumber.
+     */
+    public double[] toDoubleArray();
+
+    /**
+     * Get the numbers in this array as longs, as given by {@link JsonNumber#toLong()}.
+     * 
+     * @return A new array of the long value of each JsonNumber in this array.
+     * @throws ItemscriptError If a value in this array is not a JsonNumber.
+     */
+    public long[] toLongArray();
 }
\ No newline at end of file
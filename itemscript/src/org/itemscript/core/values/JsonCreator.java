@@ -44,7 +44,7 @@ public interface JsonCreator {
     public JsonArray createArray();
 
     /**
-     * Create a new JsonBoolean.
+     * Create a new JsonBoolean. The creator may return the same shared JsonBoolean each time for the same value.
      * 
      * @param value The boolean value of the JsonBoolean.
      * @return A new JsonBoolean.
@@ -79,7 +79,7 @@ public interface JsonCreator {
     public JsonNative createNative(Object nativeValue);
 
     /**
-     * Create a new JsonNull.
+     * Create a new JsonNull. The creator may return the same shared JsonNull each time.
      * 
      * @return A new JsonNull.
      */
@@ -109,6 +109,15 @@ public interface JsonCreator {
      */
     public JsonNumber createNumber(Integer value);
 
+    /**
+     * Create a new JsonNumber with the given long value. The exact value is kept, even where a double could not
+     * hold it. The creator may return the same shared JsonNumber each time for small values.
+     * 
+     * @param value The long value of the JsonNumber.
+     * @return A new JsonNumber.
+     */
+    public JsonNumber createNumber(Long value);
+
     /**
      * Create a new empty JsonObject.
      * 
@@ -116,6 +125,15 @@ public interface JsonCreator {
      */
     public JsonObject createObject();
 
+    /**
+     * Create a new JsonNumber from its JSON text, such as "12345678901234567890" or "0.1000". The text is only
+     * decoded when the number's value is asked for, and the JsonNumber is written back out as the same text.
+     * 
+     * @param text The JSON text of the number.
+     * @return A new JsonNumber.
+     */
+    public JsonNumber parseNumber(String text);
+
     /**
      * Create a new JsonString with the given binary value.
      * <p>
@@ -156,11 +174,32 @@ public interface JsonCreator {
      */
     public JsonValue parse(String json);
 
+    /**
+     * Decode the given CBOR (RFC 7049) data. Not every implementation supports CBOR; those that don't throw an
+     * exception.
+     * 
+     * @param cbor The CBOR data to decode.
+     * @return The JsonValue decoded from the data.
+     */
+    public JsonValue parseCbor(byte[] cbor);
+
     /**
      * Parse the given {@link java.io.Reader} as JSON. Note that this takes an Object argument for compatibility with GWT.
+     * <p>
+     * Implementations may also accept other sources of JSON text, such as an {@link java.io.InputStream} or byte[]
+     * containing UTF-8 encoded JSON.
      * 
      * @param reader The Reader to parse.
      * @return The JsonValue parsed from the Reader.
      */
     public JsonValue parseReader(Object reader);
+
+    /**
+     * Encode the given value as CBOR (RFC 7049). Not every implementation supports CBOR; those that don't throw an
+     * exception.
+     * 
+     * @param value The value to encode.
+     * @return The CBOR data.
+     */
+    public byte[] toCbor(JsonValue value);
 }
\ No newline at end of file
@@ -153,6 +153,19 @@ public interface JsonItem extends HasSystem, JsonGetAccess, JsonPutAccess {
      */
     public void detachValue();
 
+    /**
+     * Take a snapshot of the value of this item, which can be read back later with {@link #version(int)} however the
+     * value is changed in the meantime.
+     * <p>
+     * Snapshots share structure: the objects and arrays in the value keep their contents in persistent form from
+     * one snapshot to the next, so a snapshot only costs O(log n) time and memory for each value put or removed
+     * since the last one, rather than a copy of the whole value. The keys of objects in a snapshot come back in no
+     * particular order.
+     * 
+     * @return The number of the new version, counting from 0.
+     */
+    public int snapshot();
+
     /**
      * Get the source URL of this item.
      * 
@@ -166,4 +179,22 @@ public interface JsonItem extends HasSystem, JsonGetAccess, JsonPutAccess {
      * @return The JsonValue of this item.
      */
     public JsonValue value();
+
+    /**
+     * Get the value of this item as it was when a snapshot was taken with {@link #snapshot()}.
+     * <p>
+     * The value is frozen (see {@link JsonValue#freeze()}), so copy it to change it. Its objects and arrays are only
+     * read from the snapshot as they are accessed.
+     * 
+     * @param version The number of the version, as returned from {@link #snapshot()}.
+     * @return The value of this item at that version.
+     */
+    public JsonValue version(int version);
+
+    /**
+     * Get the number of snapshots that have been taken of this item.
+     * 
+     * @return The number of versions.
+     */
+    public int versionCount();
 }
\ No newline at end of file
@@ -31,8 +31,45 @@ package org.itemscript.core.values;
 
 /**
  * Represents a JSON number value.
+ * <p>
+ * A number parsed from JSON text keeps the exact text it was written as when its value can't be held exactly by a
+ * double, such as an integer of more than 15 digits or a long decimal fraction. The text is only decoded when the
+ * number's value is asked for, and the number is written back out as the same text, so it round-trips exactly.
+ * Integers in the range of a long can be read back exactly with {@link #toLong()}.
  * 
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  *
  */
-public interface JsonNumber extends JsonScalar {}
\ No newline at end of file
+public interface JsonNumber extends JsonScalar {
+    /**
+     * Test whether this number can be converted to a double and back without losing anything: true for a number
+     * created from a double, an integer of no more than 53 bits, text of no more than 15 significant digits, or
+     * longer text that has the same digits the double is printed with.
+     * 
+     * @return True if {@link #toDouble()} holds the whole value of this number.
+     */
+    public boolean isDouble();
+
+    /**
+     * Test whether this number is an integer in the range of a long, so that {@link #toLong()} returns its exact
+     * value.
+     * 
+     * @return True if this number is an integer in the range of a long.
+     */
+    public boolean isLong();
+
+    /**
+     * Get the value of this number as a double, without boxing it.
+     * 
+     * @return The double value.
+     */
+    public double toDouble();
+
+    /**
+     * Get the value of this number as a long. If {@link #isLong()} is true this is exact; otherwise it is the double
+     * value truncated toward zero.
+     * 
+     * @return The long value.
+     */
+    public long toLong();
+}
\ No newline at end of file
@@ -35,4 +35,12 @@ package org.itemscript.core.values;
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  *
  */
-public interface JsonString extends JsonScalar {}
\ No newline at end of file
+public interface JsonString extends JsonScalar {
+    /**
+     * Test whether this string was created from binary data. Its JSON text is the base-64 encoding of the data, but
+     * binary formats can hold the data itself.
+     * 
+     * @return True if this string was created from binary data.
+     */
+    public boolean isBinary();
+}
\ No newline at end of file
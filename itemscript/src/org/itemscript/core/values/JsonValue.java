@@ -171,6 +171,21 @@ public interface JsonValue extends HasSystem {
      */
     public String fragment();
 
+    /**
+     * Make this value and everything in it immutable.
+     * <p>
+     * Any attempt to change a frozen object or array, or one inside it, throws an ItemscriptError. Freezing takes
+     * constant time, since a value is frozen if it or any container it is in has been frozen. In return,
+     * {@link #copy()} of a frozen object or array takes constant time too: the copy holds nothing of its own until it
+     * is first accessed, and then only copies its own keys or elements from the frozen original, making the same
+     * kind of copy of any objects or arrays among them. So reading or changing one value deep inside the copy only
+     * copies the containers on the path to it, and the rest stays shared with the original. A copy is not itself
+     * frozen.
+     * <p>
+     * Scalar values cannot be changed anyway, so freezing one does nothing.
+     */
+    public void freeze();
+
     /**
      * If this value is a JsonNumber, return its int value.
      * 
@@ -201,6 +216,14 @@ public interface JsonValue extends HasSystem {
      */
     public boolean isContainer();
 
+    /**
+     * Test whether this value is frozen: either it is a scalar, or it or a container it is in has been frozen with
+     * {@link #freeze()}.
+     * 
+     * @return True if this value cannot be changed, false otherwise.
+     */
+    public boolean isFrozen();
+
     /**
      * Test whether this value is a JsonNative.
      * 
@@ -251,9 +274,10 @@ public interface JsonValue extends HasSystem {
     public String key();
 
     /**
-     * If this value is a JsonString, attempt to parse it as a long value, and return the result.
+     * If this value is a JsonString, attempt to parse it as a long value, and return the result. If this value is
+     * a JsonNumber, return its exact long value, or null if it is not an integer in the range of a long.
      * 
-     * If it is not a JsonString, or cannot be parsed as a long value, an exception will be thrown.
+     * If it is not a JsonString or a JsonNumber, an exception will be thrown.
      * 
      * @return The long value.
      */
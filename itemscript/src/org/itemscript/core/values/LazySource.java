@@ -0,0 +1,622 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.core.values;
+
+import java.util.Arrays;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.Params;
+import org.itemscript.core.exceptions.ItemscriptError;
+
+/**
+ * The UTF-8 encoded JSON text that lazily-loaded containers read their contents from.
+ * <p>
+ * When a LazySource is created the text is scanned once, to build an index of where each object and array in it
+ * starts and ends; nothing else is parsed. A container created from the source only reads its own members from
+ * the text when it is first accessed, creating scalars for them directly and new, unloaded containers for any
+ * nested objects and arrays. So reading a few fields from a large document only parses the containers on the way
+ * to those fields.
+ * <p>
+ * As long as a container has not been changed, its compact JSON text is copied straight from the source instead of
+ * being built from its contents. Changing a container, or any container inside it, drops its link to the source.
+ * The text is not copied if it would not be written the same way as the contents: if it holds a number with
+ * leading zeros, or an object with a key that has escapes or that may be repeated.
+ * <p>
+ * The scan checks the whole of the text is valid JSON, so errors are found when the source is created.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class LazySource {
+    /**
+     * Reads values from the text, keeping track of its position.
+     */
+    private final class Cursor {
+        private int pos;
+
+        private Cursor(int pos) {
+            this.pos = pos;
+        }
+
+        private void expect(char c) {
+            if (pos >= json.length || json[pos] != c) { throw unexpected(pos); }
+            ++pos;
+        }
+
+        private void expectLiteral(String literal) {
+            for (int i = 0; i < literal.length(); ++i) {
+                expect(literal.charAt(i));
+            }
+        }
+
+        private JsonValue readNumber() {
+            int start = pos;
+            while (pos < json.length) {
+                byte b = json[pos];
+                if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                    ++pos;
+                } else {
+                    break;
+                }
+            }
+            if (pos == start) { throw unexpected(pos); }
+            char[] chars = new char[pos - start];
+            for (int i = 0; i < chars.length; ++i) {
+                chars[i] = (char) json[start + i];
+            }
+            // The text was checked when the source was indexed. Keep it, and leave decoding it until the value is
+            // asked for.
+            return new ItemscriptNumber(system, new String(chars));
+        }
+
+        private String readString() {
+            expect('"');
+            // Fast path for strings of plain ASCII characters with no escapes.
+            int end = pos;
+            while (end < json.length && json[end] != '"' && json[end] != '\\' && json[end] >= 0) {
+                ++end;
+            }
+            if (end < json.length && json[end] == '"') {
+                char[] chars = new char[end - pos];
+                for (int i = 0; i < chars.length; ++i) {
+                    chars[i] = (char) json[pos + i];
+                }
+                pos = end + 1;
+                return new String(chars);
+            }
+            StringBuffer sb = new StringBuffer();
+            while (true) {
+                if (pos >= json.length) { throw unexpected(pos); }
+                byte b = json[pos];
+                if (b == '"') {
+                    ++pos;
+                    return sb.toString();
+                } else if (b == '\\') {
+                    readEscape(sb);
+                } else {
+                    pos = appendChar(sb, pos, json.length);
+                }
+            }
+        }
+
+        private void readEscape(StringBuffer sb) {
+            if (pos + 1 >= json.length) { throw unexpected(pos); }
+            byte c = json[pos + 1];
+            pos += 2;
+            switch (c) {
+                case '"' :
+                case '\\' :
+                case '/' :
+                    sb.append((char) c);
+                    break;
+                case 'b' :
+                    sb.append('\b');
+                    break;
+                case 'f' :
+                    sb.append('\f');
+                    break;
+                case 'n' :
+                    sb.append('\n');
+                    break;
+                case 'r' :
+                    sb.append('\r');
+                    break;
+                case 't' :
+                    sb.append('\t');
+                    break;
+                case 'u' :
+                    if (pos + 4 > json.length) { throw unexpected(pos - 2); }
+                    int ch = 0;
+                    for (int i = 0; i < 4; ++i) {
+                        int digit = Character.digit((char) json[pos + i], 16);
+                        if (digit < 0) { throw unexpected(pos + i); }
+                        ch = (ch << 4) | digit;
+                    }
+                    pos += 4;
+                    sb.append((char) ch);
+                    break;
+                default :
+                    throw unexpected(pos - 1);
+            }
+        }
+
+        private JsonValue readValue() {
+            if (pos >= json.length) { throw unexpected(pos); }
+            switch (json[pos]) {
+                case '{' :
+                case '[' :
+                    JsonValue container = createContainer(pos);
+                    pos = end(pos) + 1;
+                    return container;
+                case '"' :
+                    return system.createString(readString());
+                case 't' :
+                    expectLiteral("true");
+                    return system.createBoolean(Boolean.TRUE);
+                case 'f' :
+                    expectLiteral("false");
+                    return system.createBoolean(Boolean.FALSE);
+                case 'n' :
+                    expectLiteral("null");
+                    return system.createNull();
+                default :
+                    return readNumber();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length && isWhitespace(json[pos])) {
+                ++pos;
+            }
+        }
+    }
+
+    /*
+     * What the index scan expects next: a value, a key, the colon after a key, or the comma or closing bracket after
+     * a value. The FIRST_ states also allow the container to be closed straight away.
+     */
+    private static final int VALUE = 0;
+    private static final int FIRST_VALUE = 1;
+    private static final int KEY = 2;
+    private static final int FIRST_KEY = 3;
+    private static final int COLON = 4;
+    private static final int NEXT = 5;
+
+    /**
+     * Check whether any two of the given key hashes are the same.
+     */
+    private static boolean hasEqualHashes(int[] hashes, int from, int to) {
+        if (to - from <= 8) {
+            for (int i = from; i < to; ++i) {
+                for (int j = i + 1; j < to; ++j) {
+                    if (hashes[i] == hashes[j]) { return true; }
+                }
+            }
+            return false;
+        }
+        int[] sorted = new int[to - from];
+        System.arraycopy(hashes, from, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; ++i) {
+            if (sorted[i] == sorted[i - 1]) { return true; }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private final JsonSystem system;
+    private final byte[] json;
+    /**
+     * The offset of each object and array in the text, in order, and the offset of its closing bracket.
+     */
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    /**
+     * Whether the text of each object and array cannot be copied, because the text of its contents would not be
+     * written the same way.
+     */
+    private boolean[] uncopyable = new boolean[16];
+    private int count;
+    /**
+     * True if there is no whitespace in the text outside strings, so it can be copied without filtering.
+     */
+    private boolean compact = true;
+    private int rootStart;
+
+    /**
+     * Create a new LazySource, indexing the given text.
+     * 
+     * @param system The associated JsonSystem.
+     * @param json The UTF-8 encoded JSON text. It must not be changed afterwards.
+     */
+    LazySource(JsonSystem system, byte[] json) {
+        this.system = system;
+        this.json = json;
+        index();
+    }
+
+    /**
+     * Append the character encoded in UTF-8 at the given position, returning the position after it. Malformed
+     * sequences are replaced with U+FFFD.
+     */
+    private int appendChar(StringBuffer sb, int pos, int limit) {
+        int b = json[pos] & 0xff;
+        if (b < 0x80) {
+            sb.append((char) b);
+            return pos + 1;
+        }
+        int length;
+        int c;
+        if (b >= 0xc2 && b <= 0xdf) {
+            length = 1;
+            c = b & 0x1f;
+        } else if (b >= 0xe0 && b <= 0xef) {
+            length = 2;
+            c = b & 0x0f;
+        } else if (b >= 0xf0 && b <= 0xf4) {
+            length = 3;
+            c = b & 0x07;
+        } else {
+            sb.append('\uFFFD');
+            return pos + 1;
+        }
+        for (int i = 1; i <= length; ++i) {
+            if (pos + i >= limit || (json[pos + i] & 0xc0) != 0x80) {
+                sb.append('\uFFFD');
+                return pos + i;
+            }
+            c = (c << 6) | (json[pos + i] & 0x3f);
+        }
+        if ((length == 2 && c < 0x800) || (length == 3 && (c < 0x10000 || c > 0x10ffff))
+                || (c >= 0xd800 && c <= 0xdfff)) {
+            sb.append('\uFFFD');
+        } else if (c >= 0x10000) {
+            c -= 0x10000;
+            sb.append((char) (0xd800 + (c >> 10)));
+            sb.append((char) (0xdc00 + (c & 0x3ff)));
+        } else {
+            sb.append((char) c);
+        }
+        return pos + length + 1;
+    }
+
+    /**
+     * Get the compact JSON text of the object or array starting at the given offset.
+     * 
+     * @param start The offset of the container.
+     * @return Its compact JSON text, or null if it cannot be copied from the source.
+     */
+    String compactText(int start) {
+        int slot = slot(start);
+        if (uncopyable[slot]) { return null; }
+        int limit = ends[slot] + 1;
+        StringBuffer sb = new StringBuffer(limit - start);
+        boolean inString = false;
+        int pos = start;
+        while (pos < limit) {
+            byte b = json[pos];
+            if (inString) {
+                if (b == '\\') {
+                    sb.append('\\');
+                    ++pos;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (!compact && isWhitespace(b)) {
+                ++pos;
+                continue;
+            }
+            pos = appendChar(sb, pos, limit);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Create a new, unloaded container for the object or array starting at the given offset.
+     * 
+     * @param start The offset of the container.
+     * @return The new container.
+     */
+    ItemscriptContainer createContainer(int start) {
+        ItemscriptContainer container;
+        if (json[start] == '{') {
+            container = new ItemscriptObject(system);
+        } else {
+            container = new ItemscriptArray(system);
+        }
+        container.setSource(this, start);
+        return container;
+    }
+
+    private int end(int start) {
+        return ends[slot(start)];
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static boolean[] grow(boolean[] array) {
+        boolean[] newArray = new boolean[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Check the text is valid JSON, and record where each object and array in it starts and ends.
+     */
+    private void index() {
+        int[] stack = new int[16];
+        // The hashes of the keys of the objects being scanned, and where those of each object start.
+        int[] keyHashes = new int[16];
+        int[] keyBases = new int[16];
+        int keyCount = 0;
+        int depth = 0;
+        int state = VALUE;
+        int pos = 0;
+        // Skip a UTF-8 byte order mark.
+        if (json.length >= 3 && (json[0] & 0xff) == 0xef && (json[1] & 0xff) == 0xbb && (json[2] & 0xff) == 0xbf) {
+            pos = 3;
+        }
+        rootStart = -1;
+        while (true) {
+            while (pos < json.length && isWhitespace(json[pos])) {
+                compact = false;
+                ++pos;
+            }
+            if (pos == json.length) {
+                break;
+            }
+            if (depth == 0 && state == NEXT) { throw unexpected(pos); }
+            if (rootStart == -1) {
+                rootStart = pos;
+            }
+            byte b = json[pos];
+            if (state == COLON) {
+                if (b != ':') { throw unexpected(pos); }
+                state = VALUE;
+                ++pos;
+            } else if ((b == '}' && (state == NEXT || state == FIRST_KEY))
+                    || (b == ']' && (state == NEXT || state == FIRST_VALUE))) {
+                int slot = stack[--depth];
+                if ((b == '}') != (json[starts[slot]] == '{')) { throw unexpected(pos); }
+                ends[slot] = pos;
+                if (b == '}') {
+                    if (hasEqualHashes(keyHashes, keyBases[depth], keyCount)) {
+                        uncopyable[slot] = true;
+                    }
+                    keyCount = keyBases[depth];
+                }
+                if (uncopyable[slot] && depth > 0) {
+                    uncopyable[stack[depth - 1]] = true;
+                }
+                state = NEXT;
+                ++pos;
+            } else if (state == NEXT) {
+                if (b != ',') { throw unexpected(pos); }
+                state = json[starts[stack[depth - 1]]] == '{' ? KEY : VALUE;
+                ++pos;
+            } else if (state == KEY || state == FIRST_KEY) {
+                if (b != '"') { throw unexpected(pos); }
+                int end = skipString(pos);
+                int hash = 0;
+                for (int i = pos + 1; i < end; ++i) {
+                    if (json[i] == '\\') {
+                        uncopyable[stack[depth - 1]] = true;
+                    }
+                    hash = 31 * hash + json[i];
+                }
+                if (keyCount == keyHashes.length) {
+                    keyHashes = grow(keyHashes);
+                }
+                keyHashes[keyCount++] = hash;
+                state = COLON;
+                pos = end + 1;
+            } else {
+                switch (b) {
+                    case '{' :
+                    case '[' :
+                        if (count == starts.length) {
+                            starts = grow(starts);
+                            ends = grow(ends);
+                            uncopyable = grow(uncopyable);
+                        }
+                        if (depth == stack.length) {
+                            stack = grow(stack);
+                            keyBases = grow(keyBases);
+                        }
+                        starts[count] = pos;
+                        keyBases[depth] = keyCount;
+                        stack[depth++] = count++;
+                        state = b == '{' ? FIRST_KEY : FIRST_VALUE;
+                        ++pos;
+                        break;
+                    case '"' :
+                        pos = skipString(pos) + 1;
+                        state = NEXT;
+                        break;
+                    case 't' :
+                        pos = skipLiteral(pos, "true");
+                        state = NEXT;
+                        break;
+                    case 'f' :
+                        pos = skipLiteral(pos, "false");
+                        state = NEXT;
+                        break;
+                    case 'n' :
+                        pos = skipLiteral(pos, "null");
+                        state = NEXT;
+                        break;
+                    default :
+                        pos = skipNumber(pos, depth > 0 ? stack[depth - 1] : -1);
+                        state = NEXT;
+                }
+            }
+        }
+        if (depth != 0 || state != NEXT) { throw unexpected(json.length); }
+    }
+
+    /**
+     * Read the members of the container starting at the given offset into it.
+     * 
+     * @param container The container to load.
+     * @param start The offset of the container.
+     */
+    void load(ItemscriptContainer container, int start) {
+        int end = end(start);
+        boolean isObject = json[start] == '{';
+        Cursor cursor = new Cursor(start + 1);
+        cursor.skipWhitespace();
+        if (cursor.pos == end) { return; }
+        while (true) {
+            if (isObject) {
+                String key = cursor.readString();
+                cursor.skipWhitespace();
+                cursor.expect(':');
+                cursor.skipWhitespace();
+                ((ItemscriptObject) container).putLoaded(key, cursor.readValue());
+            } else {
+                ((ItemscriptArray) container).addLoaded(cursor.readValue());
+            }
+            cursor.skipWhitespace();
+            if (cursor.pos == end) { return; }
+            cursor.expect(',');
+            cursor.skipWhitespace();
+        }
+    }
+
+    /**
+     * Get the top-level value of the text. If it is an object or an array, it is returned unloaded.
+     * 
+     * @return The top-level value.
+     */
+    JsonValue root() {
+        Cursor cursor = new Cursor(rootStart);
+        JsonValue value = cursor.readValue();
+        cursor.skipWhitespace();
+        if (cursor.pos != json.length) { throw unexpected(cursor.pos); }
+        return value;
+    }
+
+    private int skipDigits(int pos) {
+        while (pos < json.length && json[pos] >= '0' && json[pos] <= '9') {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private int skipLiteral(int pos, String literal) {
+        for (int i = 0; i < literal.length(); ++i) {
+            if (pos + i >= json.length || json[pos + i] != literal.charAt(i)) { throw unexpected(pos + i); }
+        }
+        return pos + literal.length();
+    }
+
+    /**
+     * Check the number at the given position, the same way as {@link ItemscriptNumber#isNumberText}, returning the
+     * position after it. If it has leading zeros, the text of the container holding it cannot be copied.
+     */
+    private int skipNumber(int pos, int slot) {
+        if (pos < json.length && json[pos] == '-') {
+            ++pos;
+        }
+        int digitsStart = pos;
+        pos = skipDigits(pos);
+        if (pos == digitsStart) { throw unexpected(pos); }
+        if (json[digitsStart] == '0' && pos - digitsStart > 1 && slot != -1) {
+            uncopyable[slot] = true;
+        }
+        if (pos < json.length && json[pos] == '.') {
+            int fractionStart = ++pos;
+            pos = skipDigits(pos);
+            if (pos == fractionStart) { throw unexpected(pos); }
+        }
+        if (pos < json.length && (json[pos] == 'e' || json[pos] == 'E')) {
+            ++pos;
+            if (pos < json.length && (json[pos] == '+' || json[pos] == '-')) {
+                ++pos;
+            }
+            int exponentStart = pos;
+            pos = skipDigits(pos);
+            if (pos == exponentStart) { throw unexpected(pos); }
+        }
+        return pos;
+    }
+
+    /**
+     * Check the string starting at the given position, returning the position of its closing quote.
+     */
+    private int skipString(int pos) {
+        for (++pos; pos < json.length && json[pos] != '"'; ++pos) {
+            if (json[pos] != '\\') {
+                continue;
+            }
+            if (++pos >= json.length) {
+                break;
+            }
+            if (json[pos] == 'u') {
+                for (int i = pos + 1; i <= pos + 4; ++i) {
+                    if (i >= json.length || Character.digit((char) json[i], 16) < 0) { throw unexpected(i); }
+                }
+                pos += 4;
+            } else if ("\"\\/bfnrt".indexOf((char) json[pos]) < 0) { throw unexpected(pos); }
+        }
+        if (pos >= json.length) { throw unexpected(json.length); }
+        return pos;
+    }
+
+    private int slot(int start) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < start) {
+                low = mid + 1;
+            } else if (starts[mid] > start) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw ItemscriptError.internalError(this, "slot.no.container.at.offset", start + "");
+    }
+
+    private ItemscriptError unexpected(int pos) {
+        return new ItemscriptError("error.itemscript.LazySource.unexpected.input", new Params().p("offset",
+                pos + "")
+                .p("input", pos < json.length ? (char) (json[pos] & 0xff) + "" : "end of input"));
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Set;
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.exceptions.ItemscriptError;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * A pseudo-JsonObject that wraps a list of other JsonObjects. When a value is requested from this
@@ -202,7 +203,7 @@ public class OverlayObject extends WeakContainer implements JsonObject, ToJsonSt
 
     //@Override
     public String toCompactJsonString() {
-        return JsonAccessHelper.objectToCompactJsonString(this);
+        return JsonSerializer.toCompactJsonString(this);
     }
 
     //@Override
@@ -212,7 +213,7 @@ public class OverlayObject extends WeakContainer implements JsonObject, ToJsonSt
 
     //@Override
     public String toJsonString(int indent) {
-        return JsonAccessHelper.objectToJsonString(this, indent);
+        return JsonSerializer.toJsonString(this, indent);
     }
 
     //@Override
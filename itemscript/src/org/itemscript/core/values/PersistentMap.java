@@ -0,0 +1,274 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.values;
+
+/**
+ * An immutable map from strings to values, as a hash array mapped trie. Putting or removing a key makes a new map
+ * that shares all but the path to that key with the old one, so it takes O(log n) time and memory.
+ * <p>
+ * Each node of the trie has up to 32 slots, picked by 5 bits of the hash code of the key at each level; a bitmap
+ * says which slots are in use, and the array holds just those, as a key and a value, or as null and the node below.
+ * Keys whose hash codes are all the same go in a node below the last level, which is searched in order.
+ * <p>
+ * Used to keep the contents of containers in snapshots; see {@link ItemscriptContainer#persistentNode()}. Values
+ * may not be null.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class PersistentMap {
+    /**
+     * Called with each key and value in a map.
+     */
+    interface Visitor {
+        void visit(String key, Object value);
+    }
+
+    private static final class Node {
+        private final int bitmap;
+        private final Object[] array;
+
+        private Node(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    private static final int BITS = 5;
+    private static final int MASK = 31;
+    /**
+     * Nodes at this shift or deeper hold keys whose hash codes are all the same.
+     */
+    private static final int COLLISION_SHIFT = 35;
+    static final PersistentMap EMPTY = new PersistentMap(null, 0);
+
+    private static Object[] copy(Object[] array) {
+        Object[] newArray = new Object[array.length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static int index(int bitmap, int bit) {
+        return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static Object[] insertPair(Object[] array, int i, Object key, Object value) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        newArray[i] = key;
+        newArray[i + 1] = value;
+        System.arraycopy(array, i, newArray, i + 2, array.length - i);
+        return newArray;
+    }
+
+    /**
+     * Make a node holding two keys that share the same slot at the level above.
+     */
+    private static Node pair(int shift, String key1, Object value1, String key2, Object value2) {
+        if (shift >= COLLISION_SHIFT) { return new Node(0, new Object[] {key1, value1, key2, value2}); }
+        int slot1 = (key1.hashCode() >>> shift) & MASK;
+        int slot2 = (key2.hashCode() >>> shift) & MASK;
+        if (slot1 == slot2) { return new Node(1 << slot1, new Object[] {null,
+                pair(shift + BITS, key1, value1, key2, value2)}); }
+        int bitmap = (1 << slot1) | (1 << slot2);
+        if (slot1 < slot2) { return new Node(bitmap, new Object[] {key1, value1, key2, value2}); }
+        return new Node(bitmap, new Object[] {key2, value2, key1, value1});
+    }
+
+    private static Node put(Node node, int shift, int hash, String key, Object value, boolean[] added) {
+        Object[] array = node.array;
+        if (shift >= COLLISION_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) { return replace(node, i + 1, value); }
+            }
+            added[0] = true;
+            return new Node(0, insertPair(array, array.length, key, value));
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int i = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return new Node(node.bitmap | bit, insertPair(array, i, key, value));
+        }
+        Object k = array[i];
+        Object v = array[i + 1];
+        if (k == null) {
+            Node sub = put((Node) v, shift + BITS, hash, key, value, added);
+            return replace(node, i + 1, sub);
+        }
+        if (key.equals(k)) { return replace(node, i + 1, value); }
+        added[0] = true;
+        Object[] newArray = copy(array);
+        newArray[i] = null;
+        newArray[i + 1] = pair(shift + BITS, (String) k, v, key, value);
+        return new Node(node.bitmap, newArray);
+    }
+
+    /**
+     * Remove a key from a node.
+     * 
+     * @return The new node, the same node if the key was not there, or null if the node is now empty.
+     */
+    private static Node remove(Node node, int shift, int hash, String key) {
+        Object[] array = node.array;
+        if (shift >= COLLISION_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array.length == 2) { return null; }
+                    return new Node(0, removePair(array, i));
+                }
+            }
+            return node;
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) { return node; }
+        int i = index(node.bitmap, bit);
+        Object k = array[i];
+        if (k == null) {
+            Node sub = (Node) array[i + 1];
+            Node newSub = remove(sub, shift + BITS, hash, key);
+            if (newSub == sub) { return node; }
+            if (newSub != null) {
+                if (newSub.array.length == 2 && newSub.array[0] != null) {
+                    // Pull a lone key up into this node.
+                    Object[] newArray = copy(array);
+                    newArray[i] = newSub.array[0];
+                    newArray[i + 1] = newSub.array[1];
+                    return new Node(node.bitmap, newArray);
+                }
+                return replace(node, i + 1, newSub);
+            }
+        } else if (!key.equals(k)) { return node; }
+        if (node.bitmap == bit) { return null; }
+        return new Node(node.bitmap ^ bit, removePair(array, i));
+    }
+
+    private static Object[] removePair(Object[] array, int i) {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+        return newArray;
+    }
+
+    private static Node replace(Node node, int i, Object value) {
+        if (node.array[i] == value) { return node; }
+        Object[] newArray = copy(node.array);
+        newArray[i] = value;
+        return new Node(node.bitmap, newArray);
+    }
+
+    private static void visit(Node node, Visitor visitor) {
+        Object[] array = node.array;
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] == null) {
+                visit((Node) array[i + 1], visitor);
+            } else {
+                visitor.visit((String) array[i], array[i + 1]);
+            }
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Get the value for a key.
+     * 
+     * @param key The key.
+     * @return The value, or null if the key is not in this map.
+     */
+    Object get(String key) {
+        if (root == null) { return null; }
+        int hash = key.hashCode();
+        Node node = root;
+        int shift = 0;
+        while (shift < COLLISION_SHIFT) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) { return null; }
+            int i = index(node.bitmap, bit);
+            Object k = node.array[i];
+            if (k != null) { return key.equals(k) ? node.array[i + 1] : null; }
+            node = (Node) node.array[i + 1];
+            shift += BITS;
+        }
+        for (int i = 0; i < node.array.length; i += 2) {
+            if (key.equals(node.array[i])) { return node.array[i + 1]; }
+        }
+        return null;
+    }
+
+    /**
+     * Make a map with the given key set to the given value.
+     * 
+     * @param key The key.
+     * @param value The value.
+     * @return The new map, or this map if the key was already set to that value.
+     */
+    PersistentMap put(String key, Object value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = put(root == null ? new Node(0, new Object[0]) : root, 0, key.hashCode(), key, value, added);
+        if (newRoot == root) { return this; }
+        return new PersistentMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Make a map without the given key.
+     * 
+     * @param key The key.
+     * @return The new map, or this map if the key was not in it.
+     */
+    PersistentMap remove(String key) {
+        if (root == null) { return this; }
+        Node newRoot = remove(root, 0, key.hashCode(), key);
+        if (newRoot == root) { return this; }
+        if (newRoot == null) { return EMPTY; }
+        return new PersistentMap(newRoot, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Call the visitor with each key and value in this map, in no particular order.
+     * 
+     * @param visitor The visitor.
+     */
+    void visit(Visitor visitor) {
+        if (root != null) {
+            visit(root, visitor);
+        }
+    }
+}
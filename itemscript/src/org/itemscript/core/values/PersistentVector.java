@@ -0,0 +1,170 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.values;
+
+/**
+ * An immutable list of values, as a trie with 32 values or sub-nodes per node, plus a tail array holding the last
+ * up to 32 values. Setting or appending a value makes a new list that shares all but the path to that value with the
+ * old one, so it takes O(log n) time and memory; appending usually only copies the tail.
+ * <p>
+ * Used to keep the contents of arrays in snapshots; see {@link ItemscriptContainer#persistentNode()}.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class PersistentVector {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private static Object[] copy(Object[] array) {
+        Object[] newArray = new Object[array.length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static Object[] newPath(int shift, Object[] node) {
+        if (shift == 0) { return node; }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(shift - BITS, node);
+        return path;
+    }
+
+    private static Object[] set(int level, Object[] node, int index, Object value) {
+        Object[] newNode = copy(node);
+        if (level == 0) {
+            newNode[index & MASK] = value;
+        } else {
+            int subIndex = (index >>> level) & MASK;
+            newNode[subIndex] = set(level - BITS, (Object[]) node[subIndex], index, value);
+        }
+        return newNode;
+    }
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Make a list with the given value added to the end.
+     * 
+     * @param value The value.
+     * @return The new list.
+     */
+    PersistentVector add(Object value) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = new Object[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = value;
+            return new PersistentVector(size + 1, shift, root, newTail);
+        }
+        // The tail is full: move it into the trie, adding a level if the trie is full too.
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root);
+        }
+        return new PersistentVector(size + 1, newShift, newRoot, new Object[] {value});
+    }
+
+    /**
+     * Get the value at an index.
+     * 
+     * @param index The index, which must be at least 0 and less than {@link #size()}.
+     * @return The value.
+     */
+    Object get(int index) {
+        return nodeFor(index)[index & MASK];
+    }
+
+    private Object[] nodeFor(int index) {
+        if (index < 0 || index >= size) { throw new IndexOutOfBoundsException(index + ""); }
+        if (index >= tailOffset()) { return tail; }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent) {
+        int subIndex = ((size - 1) >>> level) & MASK;
+        Object[] newParent = copy(parent);
+        Object[] child;
+        if (level == BITS) {
+            child = tail;
+        } else {
+            Object[] existing = (Object[]) parent[subIndex];
+            child = existing != null ? pushTail(level - BITS, existing) : newPath(level - BITS, tail);
+        }
+        newParent[subIndex] = child;
+        return newParent;
+    }
+
+    /**
+     * Make a list with the value at an index replaced.
+     * 
+     * @param index The index, which must be at least 0 and less than {@link #size()}.
+     * @param value The new value.
+     * @return The new list.
+     */
+    PersistentVector set(int index, Object value) {
+        if (index < 0 || index >= size) { throw new IndexOutOfBoundsException(index + ""); }
+        if (index >= tailOffset()) {
+            Object[] newTail = copy(tail);
+            newTail[index & MASK] = value;
+            return new PersistentVector(size, shift, root, newTail);
+        }
+        return new PersistentVector(size, shift, set(shift, root, index, value), tail);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.values;
+
+import java.util.HashMap;
+
+/**
+ * The set of keys of an object stored by {@link ShapedMap}, and the slot each key's value is in.
+ * <p>
+ * Shapes form a tree: the empty shape is the root, and each shape has a child for every key that has been added
+ * to an object of that shape, whose slots are the parent's slots plus one for the new key. So all the objects that
+ * had the same keys added in the same order share one Shape, and an object's values can be kept in a plain array
+ * indexed by slot. Shapes never change once created, apart from gaining and losing children; they are shared
+ * between all systems and threads.
+ * <p>
+ * To keep the tree from growing without limit when objects are used as dictionaries, with many different keys, a
+ * shape only gets so many slots and so many children, and only so many shapes are created in all. An object that
+ * would need a shape beyond those limits keeps its entries in a HashMap instead.
+ * <p>
+ * The first key or two of an object usually say what type of object it is, so the root and the shapes just below
+ * it get many more children, and when they are full their oldest child is evicted to make room for the new one.
+ * Objects that already have an evicted shape, or one below it, keep it, but it gets no new children; new objects
+ * with those keys get new shapes.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class Shape {
+    private static final int MAX_SLOTS = 32;
+    private static final int MAX_CHILDREN = 16;
+    private static final int MAX_ROOT_CHILDREN = 1024;
+    private static final int MAX_SECOND_CHILDREN = 128;
+    /**
+     * Shapes with fewer slots than this evict their oldest child when they are full.
+     */
+    private static final int EVICTING_SLOTS = 2;
+    private static final int MAX_SHAPES = 64 * 1024;
+    /**
+     * Shapes with more slots than this look up keys in a HashMap rather than by scanning.
+     */
+    private static final int MAX_SCANNED_SLOTS = 8;
+    /**
+     * Shapes with more children than this look up children in a HashMap rather than by scanning.
+     */
+    private static final int MAX_SCANNED_CHILDREN = 16;
+    private static final Shape[] NO_CHILDREN = new Shape[0];
+    /**
+     * The shape of an empty object.
+     */
+    static final Shape EMPTY = new Shape(null, null);
+    private static int shapeCount;
+    private final Shape parent;
+    /**
+     * The key of each slot.
+     */
+    private final String[] keys;
+    private final HashMap<String, Integer> slots;
+    /**
+     * Oldest first. Only ever replaced by a new array, never changed, so it can be read without locking.
+     */
+    private volatile Shape[] children = NO_CHILDREN;
+    /**
+     * The children by key, once there are too many to scan; like children, only ever replaced, never changed.
+     */
+    private volatile HashMap<String, Shape> childMap;
+    /**
+     * The number of shapes in the tree from this one down, including this one. Only used under the lock.
+     */
+    private int treeSize = 1;
+    /**
+     * Whether this shape has been evicted from its parent's children. Only used under the lock.
+     */
+    private boolean evicted;
+
+    private Shape(Shape parent, String key) {
+        this.parent = parent;
+        if (parent == null) {
+            keys = new String[0];
+        } else {
+            int size = parent.keys.length;
+            keys = new String[size + 1];
+            System.arraycopy(parent.keys, 0, keys, 0, size);
+            keys[size] = key;
+        }
+        if (keys.length > MAX_SCANNED_SLOTS) {
+            slots = new HashMap<String, Integer>();
+            for (int i = 0; i < keys.length; ++i) {
+                slots.put(keys[i], i);
+            }
+        } else {
+            slots = null;
+        }
+    }
+
+    /**
+     * Get the shape with the given key added after this shape's keys.
+     * 
+     * @param key The key to add, which must not already be in this shape.
+     * @return The shape, or null if an object of this shape should switch to a map instead.
+     */
+    Shape add(String key) {
+        int size = keys.length;
+        if (size == MAX_SLOTS) { return null; }
+        Shape child = child(key);
+        if (child != null) { return child; }
+        synchronized (Shape.class) {
+            // Another thread may have added it in the meantime.
+            child = child(key);
+            if (child != null) { return child; }
+            if (isEvicted()) { return null; }
+            Shape[] current = children;
+            int kept = current.length;
+            if (kept == maxChildren()) {
+                if (size >= EVICTING_SLOTS) { return null; }
+                evict(current[0]);
+                --kept;
+            }
+            if (shapeCount == MAX_SHAPES) { return null; }
+            child = new Shape(this, key);
+            Shape[] grown = new Shape[kept + 1];
+            System.arraycopy(current, current.length - kept, grown, 0, kept);
+            grown[kept] = child;
+            if (grown.length > MAX_SCANNED_CHILDREN) {
+                HashMap<String, Shape> map = new HashMap<String, Shape>();
+                for (int i = 0; i < grown.length; ++i) {
+                    map.put(grown[i].keys[size], grown[i]);
+                }
+                childMap = map;
+            }
+            children = grown;
+            for (Shape shape = this; shape != null; shape = shape.parent) {
+                ++shape.treeSize;
+            }
+            ++shapeCount;
+            return child;
+        }
+    }
+
+    private Shape child(String key) {
+        HashMap<String, Shape> map = childMap;
+        if (map != null) { return map.get(key); }
+        Shape[] current = children;
+        int slot = keys.length;
+        for (int i = 0; i < current.length; ++i) {
+            String childKey = current[i].keys[slot];
+            if (childKey == key || childKey.equals(key)) { return current[i]; }
+        }
+        return null;
+    }
+
+    /**
+     * Evict a child of this shape, so that its tree no longer counts towards the limit on shapes. Called under the
+     * lock; the caller takes it out of the children.
+     */
+    private void evict(Shape child) {
+        child.evicted = true;
+        shapeCount -= child.treeSize;
+        for (Shape shape = this; shape != null; shape = shape.parent) {
+            shape.treeSize -= child.treeSize;
+        }
+    }
+
+    /**
+     * Test whether this shape, or any shape above it, has been evicted. Called under the lock.
+     */
+    private boolean isEvicted() {
+        for (Shape shape = this; shape != null; shape = shape.parent) {
+            if (shape.evicted) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Get the key of a slot.
+     * 
+     * @param slot The slot.
+     * @return The key.
+     */
+    String key(int slot) {
+        return keys[slot];
+    }
+
+    private int maxChildren() {
+        if (keys.length == 0) { return MAX_ROOT_CHILDREN; }
+        if (keys.length == 1) { return MAX_SECOND_CHILDREN; }
+        return MAX_CHILDREN;
+    }
+
+    /**
+     * Get the shape with this shape's last key removed.
+     * 
+     * @return The parent shape.
+     */
+    Shape parent() {
+        return parent;
+    }
+
+    /**
+     * Get the number of slots in this shape.
+     * 
+     * @return The number of slots.
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the slot of a key.
+     * 
+     * @param key The key.
+     * @return The slot, or -1 if the key is not in this shape.
+     */
+    int slot(Object key) {
+        if (slots != null) {
+            Integer slot = slots.get(key);
+            return slot == null ? -1 : slot;
+        }
+        // Keys are often the same String instances as the shape's, so try that first.
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == key) { return i; }
+        }
+        if (key == null) { return -1; }
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].equals(key)) { return i; }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.core.values;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map that holds the entries of an {@link ItemscriptObject}.
+ * <p>
+ * Most objects in a large document have the same few keys as many others, such as the rows of a table or the
+ * records in a store. Rather than a HashMap of its own, with an entry object for every key, a ShapedMap keeps a
+ * {@link Shape} shared with all the other objects that have the same keys, and its values in an array indexed by
+ * the shape's slots. Looking up a key is a scan of a few keys, and an object of eight keys takes around a fifth of
+ * the memory of a HashMap. The entries are kept in the order their keys were added.
+ * <p>
+ * An object that has a key other than its last one removed, or that gets more keys than a shape holds, switches to
+ * a HashMap for good, and from then on is just like one.
+ * <p>
+ * Its views work as those of any Map, but their iterators do not detect changes made to the map during iteration.
+ * Not thread-safe.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class ShapedMap extends AbstractMap<String, JsonValue> {
+    private final class EntryIterator extends SlotIterator<Map.Entry<String, JsonValue>> {
+        //@Override
+        Map.Entry<String, JsonValue> get(Shape shape, JsonValue[] values, int slot) {
+            return new SlotEntry(shape, values, slot);
+        }
+    }
+
+    private final class KeyIterator extends SlotIterator<String> {
+        //@Override
+        String get(Shape shape, JsonValue[] values, int slot) {
+            return shape.key(slot);
+        }
+    }
+
+    private final class SlotEntry implements Map.Entry<String, JsonValue> {
+        private final Shape entryShape;
+        private final JsonValue[] entryValues;
+        private final int slot;
+
+        SlotEntry(Shape shape, JsonValue[] values, int slot) {
+            this.entryShape = shape;
+            this.entryValues = values;
+            this.slot = slot;
+        }
+
+        //@Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) { return false; }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return getKey().equals(entry.getKey()) && getValue().equals(entry.getValue());
+        }
+
+        public String getKey() {
+            return entryShape.key(slot);
+        }
+
+        public JsonValue getValue() {
+            return entryValues[slot];
+        }
+
+        //@Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        public JsonValue setValue(JsonValue value) {
+            return put(getKey(), value);
+        }
+
+        //@Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Iterates over the slots the map had when the iterator was created.
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private final Shape iteratorShape = shape;
+        private final JsonValue[] iteratorValues = values;
+        private int next;
+        private int last = -1;
+
+        abstract T get(Shape shape, JsonValue[] values, int slot);
+
+        public boolean hasNext() {
+            return next < iteratorShape.size();
+        }
+
+        public T next() {
+            if (next == iteratorShape.size()) { throw new NoSuchElementException(); }
+            last = next++;
+            return get(iteratorShape, iteratorValues, last);
+        }
+
+        public void remove() {
+            if (last < 0) { throw new IllegalStateException(); }
+            ShapedMap.this.remove(iteratorShape.key(last));
+            last = -1;
+        }
+    }
+
+    private final class ValueIterator extends SlotIterator<JsonValue> {
+        //@Override
+        JsonValue get(Shape shape, JsonValue[] values, int slot) {
+            return values[slot];
+        }
+    }
+
+    private static final JsonValue[] NO_VALUES = new JsonValue[0];
+    private Shape shape;
+    private JsonValue[] values;
+    /**
+     * Holds the entries instead of the shape and values, once the map has switched to a HashMap.
+     */
+    private HashMap<String, JsonValue> map;
+
+    /**
+     * Create a new ShapedMap.
+     * 
+     * @param shaped False to start out as a HashMap, rather than sharing shapes.
+     */
+    ShapedMap(boolean shaped) {
+        if (shaped) {
+            shape = Shape.EMPTY;
+            values = NO_VALUES;
+        } else {
+            map = new HashMap<String, JsonValue>();
+        }
+    }
+
+    //@Override
+    public void clear() {
+        if (map != null) {
+            map.clear();
+        } else {
+            shape = Shape.EMPTY;
+            values = NO_VALUES;
+        }
+    }
+
+    //@Override
+    public boolean containsKey(Object key) {
+        if (map != null) { return map.containsKey(key); }
+        return shape.slot(key) >= 0;
+    }
+
+    //@Override
+    public Set<Map.Entry<String, JsonValue>> entrySet() {
+        return new AbstractSet<Map.Entry<String, JsonValue>>() {
+            //@Override
+            public Iterator<Map.Entry<String, JsonValue>> iterator() {
+                if (map != null) { return map.entrySet()
+                        .iterator(); }
+                return new EntryIterator();
+            }
+
+            //@Override
+            public int size() {
+                return ShapedMap.this.size();
+            }
+        };
+    }
+
+    //@Override
+    public JsonValue get(Object key) {
+        if (map != null) { return map.get(key); }
+        int slot = shape.slot(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    //@Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            //@Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            //@Override
+            public Iterator<String> iterator() {
+                if (map != null) { return map.keySet()
+                        .iterator(); }
+                return new KeyIterator();
+            }
+
+            //@Override
+            public boolean remove(Object key) {
+                if (!containsKey(key)) { return false; }
+                ShapedMap.this.remove(key);
+                return true;
+            }
+
+            //@Override
+            public int size() {
+                return ShapedMap.this.size();
+            }
+        };
+    }
+
+    //@Override
+    public JsonValue put(String key, JsonValue value) {
+        if (map != null) { return map.put(key, value); }
+        int slot = shape.slot(key);
+        if (slot >= 0) {
+            JsonValue previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        Shape next = key == null ? null : shape.add(key);
+        if (next == null) {
+            switchToMap();
+            return map.put(key, value);
+        }
+        int size = shape.size();
+        if (size == values.length) {
+            JsonValue[] grown = new JsonValue[size < 4 ? 4 : size * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size] = value;
+        shape = next;
+        return null;
+    }
+
+    //@Override
+    public JsonValue remove(Object key) {
+        if (map != null) { return map.remove(key); }
+        int slot = shape.slot(key);
+        if (slot < 0) { return null; }
+        JsonValue previous = values[slot];
+        if (slot == shape.size() - 1) {
+            // Removing the last key just goes back to the parent shape. Iterators hold on to the old array, so
+            // make a new one rather than clearing the slot.
+            shape = shape.parent();
+            JsonValue[] shrunk = new JsonValue[values.length];
+            System.arraycopy(values, 0, shrunk, 0, slot);
+            values = shrunk;
+            return previous;
+        }
+        switchToMap();
+        map.remove(key);
+        return previous;
+    }
+
+    //@Override
+    public int size() {
+        if (map != null) { return map.size(); }
+        return shape.size();
+    }
+
+    private void switchToMap() {
+        int size = shape.size();
+        map = new HashMap<String, JsonValue>(size * 2);
+        for (int i = 0; i < size; ++i) {
+            map.put(shape.key(i), values[i]);
+        }
+        shape = null;
+        values = null;
+    }
+
+    //@Override
+    public Collection<JsonValue> values() {
+        return new AbstractCollection<JsonValue>() {
+            //@Override
+            public Iterator<JsonValue> iterator() {
+                if (map != null) { return map.values()
+                        .iterator(); }
+                return new ValueIterator();
+            }
+
+            //@Override
+            public int size() {
+                return ShapedMap.this.size();
+            }
+        };
+    }
+}
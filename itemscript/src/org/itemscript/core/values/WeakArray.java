@@ -39,6 +39,7 @@ import java.util.Set;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * A WeakArray implements a JsonArray that does not change the state of values contained within it,
@@ -441,6 +442,11 @@ public class WeakArray extends WeakContainer implements JsonArray, ToJsonStringW
         throw new UnsupportedOperationException();
     }
 
+    //@Override
+    public double sum() {
+        return JsonAccessHelper.sum(this);
+    }
+
     //@Override
     public Object[] toArray() {
         return values.toArray();
@@ -453,7 +459,12 @@ public class WeakArray extends WeakContainer implements JsonArray, ToJsonStringW
 
     //@Override
     public String toCompactJsonString() {
-        return JsonAccessHelper.arrayToCompactJsonString(this);
+        return JsonSerializer.toCompactJsonString(this);
+    }
+
+    //@Override
+    public double[] toDoubleArray() {
+        return JsonAccessHelper.toDoubleArray(this);
     }
 
     //@Override
@@ -463,7 +474,12 @@ public class WeakArray extends WeakContainer implements JsonArray, ToJsonStringW
 
     //@Override
     public String toJsonString(int indent) {
-        return JsonAccessHelper.arrayToJsonString(this, indent);
+        return JsonSerializer.toJsonString(this, indent);
+    }
+
+    //@Override
+    public long[] toLongArray() {
+        return JsonAccessHelper.toLongArray(this);
     }
 
     //@Override
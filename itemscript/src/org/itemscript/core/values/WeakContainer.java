@@ -86,6 +86,11 @@ public abstract class WeakContainer implements JsonContainer {
         return null;
     }
 
+    //@Override
+    public final void freeze() {
+        throw new UnsupportedOperationException();
+    }
+
     //@Override
     public final JsonArray getArray(String key) {
         return JsonAccessHelper.asArray(getValue(key));
@@ -256,6 +261,11 @@ public abstract class WeakContainer implements JsonContainer {
         return true;
     }
 
+    //@Override
+    public final boolean isFrozen() {
+        return false;
+    }
+
     //@Override
     public final boolean isNative() {
         return false;
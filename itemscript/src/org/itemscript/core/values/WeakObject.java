@@ -36,6 +36,7 @@ import java.util.Set;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
 
 /**
  * A WeakObject implements a JsonObject that does not change the state of the values contained within it,
@@ -175,7 +176,7 @@ public class WeakObject extends WeakContainer implements JsonObject, ToJsonStrin
 
     //@Override
     public String toCompactJsonString() {
-        return JsonAccessHelper.objectToCompactJsonString(this);
+        return JsonSerializer.toCompactJsonString(this);
     }
 
     //@Override
@@ -185,7 +186,7 @@ public class WeakObject extends WeakContainer implements JsonObject, ToJsonStrin
 
     //@Override
     public String toJsonString(int indent) {
-        return JsonAccessHelper.objectToJsonString(this, indent);
+        return JsonSerializer.toJsonString(this, indent);
     }
 
     //@Override
@@ -37,6 +37,10 @@ class DecimalType extends TypeBase {
 	private final String lessThanOrEqualTo;
 	private final List<String> inArray;
 	private final List<String> notInArray;
+	private final double greaterThanValue;
+	private final double greaterThanOrEqualToValue;
+	private final double lessThanValue;
+	private final double lessThanOrEqualToValue;
 	
 	/**
 	 * Create a new DecimalType. Sets all associated ".keys" that are specified.
@@ -69,8 +73,10 @@ class DecimalType extends TypeBase {
 					throw ItemscriptError.internalError(this,
 							"DecimalType.value.greaterThan.was.not.a.decimal", def.toCompactJsonString());
 				}
+				greaterThanValue = Double.parseDouble(greaterThan);
 			} else {
 				greaterThan = null;
+				greaterThanValue = 0;
 			}
 			if (def.containsKey(GREATER_THAN_OR_EQUAL_TO_KEY)) {
 				greaterThanOrEqualTo = def.getRequiredString(GREATER_THAN_OR_EQUAL_TO_KEY);
@@ -78,8 +84,10 @@ class DecimalType extends TypeBase {
 					throw ItemscriptError.internalError(this,
 							"DecimalType.value.greaterThanOrEqualTo.was.not.a.decimal", def.toCompactJsonString());
 				}
+				greaterThanOrEqualToValue = Double.parseDouble(greaterThanOrEqualTo);
 			} else {
 				greaterThanOrEqualTo = null;
+				greaterThanOrEqualToValue = 0;
 			}
 			if (def.containsKey(LESS_THAN_KEY)) {
 				lessThan = def.getRequiredString(LESS_THAN_KEY);
@@ -87,8 +95,10 @@ class DecimalType extends TypeBase {
 					throw ItemscriptError.internalError(this,
 							"DecimalType.value.lessThan.was.not.a.decimal", def.toCompactJsonString());
 				}
+				lessThanValue = Double.parseDouble(lessThan);
 			} else {
 				lessThan = null;
+				lessThanValue = 0;
 			}
 			if (def.containsKey(LESS_THAN_OR_EQUAL_TO_KEY)) {
 				lessThanOrEqualTo = def.getRequiredString(LESS_THAN_OR_EQUAL_TO_KEY);
@@ -96,8 +106,10 @@ class DecimalType extends TypeBase {
 					throw ItemscriptError.internalError(this,
 							"DecimalType.value.lessThanOrEqualTo.was.not.a.decimal", def.toCompactJsonString());
 				}
+				lessThanOrEqualToValue = Double.parseDouble(lessThanOrEqualTo);
 			} else {
 				lessThanOrEqualTo = null;
+				lessThanOrEqualToValue = 0;
 			}
 			if (def.containsKey(EVEN_KEY)) {
 				hasEven = true;
@@ -149,6 +161,10 @@ class DecimalType extends TypeBase {
 			greaterThanOrEqualTo = null;
 			lessThan = null;
 			lessThanOrEqualTo = null;
+			greaterThanValue = 0;
+			greaterThanOrEqualToValue = 0;
+			lessThanValue = 0;
+			lessThanOrEqualToValue = 0;
 			even = false;
 			hasEven = false;
 			odd = false;
@@ -187,10 +203,6 @@ class DecimalType extends TypeBase {
 
 	private void validateDecimal(String path, String dec) {
 		double decValue;
-		double greaterThanValue;
-		double greaterThanOrEqualToValue;
-		double lessThanValue;
-		double lessThanOrEqualToValue;
 		
 		try {
 			decValue = Double.parseDouble(dec);
@@ -217,14 +229,7 @@ class DecimalType extends TypeBase {
 							.p("input", numFractionDigits(dec)));
 			}
 		}
-		if (greaterThan != null) {;
-			try {
-				greaterThanValue = Double.parseDouble(greaterThan);
-			} catch (NumberFormatException e) {
-				throw ItemscriptError.internalError(this,
-						"validateDecimal.value.greaterThan.could.not.be.parsed.into.double",
-						pathValueParams(path, dec));
-			}
+		if (greaterThan != null) {
 			if (decValue <= greaterThanValue) {
 				throw ItemscriptError.internalError(this,
 						"validateDecimal.value.is.less.than.or.equal.to.min",
@@ -234,14 +239,6 @@ class DecimalType extends TypeBase {
 			}
 		}
 		if (greaterThanOrEqualTo != null) {
-			try {
-				greaterThanOrEqualToValue = Double
-						.parseDouble(greaterThanOrEqualTo);
-			} catch (NumberFormatException e) {
-				throw ItemscriptError.internalError(this,
-						"validateDecimal.value.greaterThanOrEqualTo.could.not.be.parsed.into.double",
-						pathValueParams(path, dec));
-			}
 			if (decValue <= greaterThanOrEqualToValue && !decimalEquals(dec, greaterThanOrEqualTo)) {
 				throw ItemscriptError.internalError(this,
 						"validateDecimal.value.is.less.than.min",
@@ -251,13 +248,6 @@ class DecimalType extends TypeBase {
 			}
 		}
 		if (lessThan != null) {
-			try {
-				lessThanValue = Double.parseDouble(lessThan);
-			} catch (NumberFormatException e) {
-				throw ItemscriptError.internalError(this,
-						"validateDecimal.value.lessThan.could.not.be.parsed.into.double",
-						pathValueParams(path, dec));
-			}
 			if (decValue >= lessThanValue) {
 				throw ItemscriptError.internalError(this,
 						"validateDecimal.value.is.greater.than.or.equal.to.max",
@@ -267,13 +257,6 @@ class DecimalType extends TypeBase {
 			}
 		}
 		if (lessThanOrEqualTo != null) {
-			try {
-				lessThanOrEqualToValue = Double.parseDouble(lessThanOrEqualTo);
-			} catch (NumberFormatException e) {
-				throw ItemscriptError.internalError(this,
-						"validateDecimal.value.lessThanOrEqualTo.could.not.be.parsed.into.double",
-						pathValueParams(path, dec));
-			}
 			if (decValue >= lessThanOrEqualToValue && !decimalEquals(dec, lessThanOrEqualTo)) {
 				throw ItemscriptError.internalError(this,
 						"validateDecimal.value.is.greater.than.max",
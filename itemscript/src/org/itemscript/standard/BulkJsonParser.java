@@ -0,0 +1,495 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.Params;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.ParseException;
+import org.itemscript.standard.parser.Utf8JsonParser;
+
+/**
+ * Parses large collections of JSON records on several threads at once.
+ * <p>
+ * The input is either newline-delimited JSON (one record per line, as in .jsonl and .ndjson files), or a single
+ * top-level JSON array whose elements are the records. It is read from an {@link InputStream} of UTF-8 encoded JSON
+ * and split into chunks at record boundaries on the calling thread. The chunks are parsed by a pool of worker
+ * threads, each with its own {@link Utf8JsonParser}. Records are handed back in input order: either collected into
+ * a {@link JsonArray}, or passed one at a time to a {@link RecordHandler} on the calling thread, which can start
+ * on the first records before the rest are parsed. Only a few chunks are parsed ahead of the handler, so memory
+ * use stays bounded when records are streamed.
+ * <p>
+ * After each parse, {@link #recordCount()} and {@link #recordsPerSecond()} report how many records were parsed,
+ * and how fast.
+ * <p>
+ * A BulkJsonParser can be reused for any number of parses, but should only run one at a time. If it created its
+ * own threads, call {@link #shutdown()} when done with it.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class BulkJsonParser {
+    /**
+     * Receives records from a BulkJsonParser.
+     */
+    public interface RecordHandler {
+        /**
+         * Handle the next record. Called on the thread that called the parse method, in input order.
+         * 
+         * @param record The record.
+         */
+        public void handle(JsonValue record);
+    }
+
+    /**
+     * A run of complete records copied out of the input.
+     */
+    private static final class Chunk {
+        private final byte[] bytes;
+        private final int[] starts;
+        private final int[] ends;
+        private final long firstRecord;
+
+        private Chunk(byte[] bytes, int[] starts, int[] ends, long firstRecord) {
+            this.bytes = bytes;
+            this.starts = starts;
+            this.ends = ends;
+            this.firstRecord = firstRecord;
+        }
+    }
+
+    /**
+     * Splits the input into chunks of records.
+     */
+    private final class Splitter {
+        private final InputStream in;
+        private final boolean array;
+        private byte[] buf = new byte[chunkSize * 2];
+        private int length;
+        private int scanPos;
+        private int recordStart;
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private int count;
+        private long recordsSplit;
+        private boolean eof;
+        private long bytesRead;
+        // State for splitting arrays.
+        private boolean arrayStarted;
+        private boolean arrayFinished;
+        private boolean inString;
+        private boolean escape;
+        private int depth;
+
+        private Splitter(InputStream in, boolean array) {
+            this.in = in;
+            this.array = array;
+        }
+
+        private void addRecord(int start, int end) {
+            if (isBlank(start, end)) {
+                // Blank lines are allowed between records, but an array element can only be blank if it's the
+                // only one, in an empty array.
+                if (array && (recordsSplit + count > 0 || !arrayFinished)) { throw malformed(); }
+                return;
+            }
+            if (count == starts.length) {
+                starts = grow(starts);
+                ends = grow(ends);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            ++count;
+        }
+
+        private boolean isBlank(int start, int end) {
+            for (int i = start; i < end; ++i) {
+                byte b = buf[i];
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\n') { return false; }
+            }
+            return true;
+        }
+
+        private ItemscriptError malformed() {
+            return new ItemscriptError("error.itemscript.BulkJsonParser.split.malformed.array", new Params().p(
+                    "record", (recordsSplit + count) + ""));
+        }
+
+        /**
+         * @return The next chunk, or null at the end of the input.
+         */
+        private Chunk next() throws IOException {
+            while (true) {
+                if (count > 0 && (recordStart >= chunkSize || eof || length == buf.length)) { return takeChunk(); }
+                if (eof) {
+                    if (array && !arrayFinished) { throw malformed(); }
+                    return null;
+                }
+                read();
+                scan();
+                if (eof && !array) {
+                    addRecord(recordStart, length);
+                    recordStart = length;
+                }
+            }
+        }
+
+        private void read() throws IOException {
+            if (length == buf.length) {
+                if (recordStart > 0) {
+                    System.arraycopy(buf, recordStart, buf, 0, length - recordStart);
+                    length -= recordStart;
+                    scanPos -= recordStart;
+                    recordStart = 0;
+                } else {
+                    byte[] newBuf = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, newBuf, 0, length);
+                    buf = newBuf;
+                }
+            }
+            int read = in.read(buf, length, buf.length - length);
+            if (read == -1) {
+                eof = true;
+            } else {
+                if (bytesRead < 3 && bytesRead + read >= 3 && length == bytesRead && (buf[0] & 0xff) == 0xef
+                        && (buf[1] & 0xff) == 0xbb && (buf[2] & 0xff) == 0xbf) {
+                    // Blank out a UTF-8 byte order mark.
+                    buf[0] = buf[1] = buf[2] = ' ';
+                }
+                length += read;
+                bytesRead += read;
+            }
+        }
+
+        private void scan() {
+            if (!array) {
+                for (; scanPos < length; ++scanPos) {
+                    if (buf[scanPos] == '\n') {
+                        addRecord(recordStart, scanPos);
+                        recordStart = scanPos + 1;
+                    }
+                }
+                return;
+            }
+            for (; scanPos < length; ++scanPos) {
+                byte b = buf[scanPos];
+                if (inString) {
+                    if (escape) {
+                        escape = false;
+                    } else if (b == '\\') {
+                        escape = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (!arrayStarted || arrayFinished) {
+                    if (!arrayStarted && b == '[') {
+                        arrayStarted = true;
+                        recordStart = scanPos + 1;
+                    } else if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                        // Anything but whitespace outside the array.
+                        throw malformed();
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '{' || b == '[') {
+                    ++depth;
+                } else if (b == '}' || b == ']') {
+                    if (depth == 0) {
+                        if (b == '}') { throw malformed(); }
+                        arrayFinished = true;
+                        addRecord(recordStart, scanPos);
+                        recordStart = scanPos + 1;
+                    } else {
+                        --depth;
+                    }
+                } else if (b == ',' && depth == 0) {
+                    addRecord(recordStart, scanPos);
+                    recordStart = scanPos + 1;
+                }
+            }
+            if (!arrayStarted || arrayFinished) {
+                // Nothing before or after the array is kept.
+                recordStart = scanPos;
+            }
+        }
+
+        private Chunk takeChunk() {
+            int chunkEnd = count > 0 ? ends[count - 1] : 0;
+            byte[] bytes = new byte[chunkEnd];
+            System.arraycopy(buf, 0, bytes, 0, chunkEnd);
+            int[] chunkStarts = new int[count];
+            int[] chunkEnds = new int[count];
+            System.arraycopy(starts, 0, chunkStarts, 0, count);
+            System.arraycopy(ends, 0, chunkEnds, 0, count);
+            Chunk chunk = new Chunk(bytes, chunkStarts, chunkEnds, recordsSplit);
+            recordsSplit += count;
+            count = 0;
+            // Drop the bytes of the records that were taken.
+            System.arraycopy(buf, recordStart, buf, 0, length - recordStart);
+            length -= recordStart;
+            scanPos -= recordStart;
+            recordStart = 0;
+            return chunk;
+        }
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private final JsonSystem system;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final boolean ownExecutor;
+    private final ThreadLocal<Utf8JsonParser> parsers = new ThreadLocal<Utf8JsonParser>() {
+        //@Override
+        protected Utf8JsonParser initialValue() {
+            return new Utf8JsonParser(system);
+        }
+    };
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private long recordCount;
+    private long elapsedNanos;
+
+    /**
+     * Create a new BulkJsonParser with one worker thread for each available processor.
+     * 
+     * @param system The associated JsonSystem.
+     */
+    public BulkJsonParser(JsonSystem system) {
+        this(system, Runtime.getRuntime()
+                .availableProcessors());
+    }
+
+    /**
+     * Create a new BulkJsonParser with its own pool of worker threads.
+     * 
+     * @param system The associated JsonSystem.
+     * @param threads The number of worker threads.
+     */
+    public BulkJsonParser(JsonSystem system, int threads) {
+        this.system = system;
+        this.parallelism = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            //@Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BulkJsonParser");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Create a new BulkJsonParser that parses on the given ExecutorService.
+     * 
+     * @param system The associated JsonSystem.
+     * @param executor The ExecutorService to parse on.
+     * @param parallelism The number of chunks the executor is expected to parse at once.
+     */
+    public BulkJsonParser(JsonSystem system, ExecutorService executor, int parallelism) {
+        this.system = system;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    private void deliver(Future<JsonValue[]> future, RecordHandler handler) {
+        JsonValue[] records;
+        try {
+            records = future.get();
+        } catch (InterruptedException e) {
+            throw new ItemscriptError("error.itemscript.BulkJsonParser.parse.InterruptedException", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ItemscriptError) { throw (ItemscriptError) e.getCause(); }
+            throw new ItemscriptError("error.itemscript.BulkJsonParser.parse.ExecutionException", e.getCause());
+        }
+        for (int i = 0; i < records.length; ++i) {
+            handler.handle(records[i]);
+        }
+    }
+
+    private void parse(InputStream in, boolean array, RecordHandler handler) {
+        long start = System.nanoTime();
+        recordCount = 0;
+        elapsedNanos = 0;
+        Splitter splitter = new Splitter(in, array);
+        LinkedList<Future<JsonValue[]>> pending = new LinkedList<Future<JsonValue[]>>();
+        try {
+            Chunk chunk;
+            while ((chunk = splitter.next()) != null) {
+                recordCount += chunk.starts.length;
+                pending.add(executor.submit(parseTask(chunk)));
+                // Don't let parsing get too far ahead of the handler.
+                while (pending.size() > parallelism * 2) {
+                    deliver(pending.removeFirst(), handler);
+                }
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.removeFirst(), handler);
+            }
+        } catch (IOException e) {
+            throw new ItemscriptError("error.itemscript.BulkJsonParser.parse.IOException", e);
+        } finally {
+            for (Future<JsonValue[]> future : pending) {
+                future.cancel(false);
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Parse a top-level JSON array, returning its elements in a new JsonArray.
+     * 
+     * @param in The InputStream to read UTF-8 encoded JSON from. It is not closed.
+     * @return A new JsonArray.
+     */
+    public JsonArray parseArray(InputStream in) {
+        final JsonArray records = system.createArray();
+        parseArray(in, new RecordHandler() {
+            //@Override
+            public void handle(JsonValue record) {
+                records.add(record);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Parse a top-level JSON array, passing each of its elements to the given handler.
+     * 
+     * @param in The InputStream to read UTF-8 encoded JSON from. It is not closed.
+     * @param handler The RecordHandler to pass elements to.
+     */
+    public void parseArray(InputStream in, RecordHandler handler) {
+        parse(in, true, handler);
+    }
+
+    /**
+     * Parse newline-delimited JSON, returning the records in a new JsonArray. Blank lines are skipped.
+     * 
+     * @param in The InputStream to read UTF-8 encoded JSON from. It is not closed.
+     * @return A new JsonArray.
+     */
+    public JsonArray parseLines(InputStream in) {
+        final JsonArray records = system.createArray();
+        parseLines(in, new RecordHandler() {
+            //@Override
+            public void handle(JsonValue record) {
+                records.add(record);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Parse newline-delimited JSON, passing each record to the given handler. Blank lines are skipped.
+     * 
+     * @param in The InputStream to read UTF-8 encoded JSON from. It is not closed.
+     * @param handler The RecordHandler to pass records to.
+     */
+    public void parseLines(InputStream in, RecordHandler handler) {
+        parse(in, false, handler);
+    }
+
+    private Callable<JsonValue[]> parseTask(final Chunk chunk) {
+        return new Callable<JsonValue[]>() {
+            //@Override
+            public JsonValue[] call() {
+                Utf8JsonParser parser = parsers.get();
+                JsonValue[] records = new JsonValue[chunk.starts.length];
+                for (int i = 0; i < records.length; ++i) {
+                    try {
+                        records[i] = parser.parse(chunk.bytes, chunk.starts[i], chunk.ends[i] - chunk.starts[i]);
+                    } catch (ParseException e) {
+                        throw new ItemscriptError("error.itemscript.BulkJsonParser.parse.ParseException",
+                                new Params().p("record", (chunk.firstRecord + i) + "")
+                                        .p("error", e + ""));
+                    }
+                }
+                return records;
+            }
+        };
+    }
+
+    /**
+     * Get the number of records read by the last parse.
+     * 
+     * @return The number of records.
+     */
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Get the rate at which the last parse read records, from the start of reading the input to the last record
+     * being handled.
+     * 
+     * @return The number of records per second.
+     */
+    public double recordsPerSecond() {
+        if (elapsedNanos == 0) { return 0; }
+        return recordCount * 1000000000.0 / elapsedNanos;
+    }
+
+    /**
+     * Set the approximate size in bytes of the chunks the input is split into. The default is 256KB.
+     * 
+     * @param chunkSize The chunk size.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Shut down the worker threads, if this BulkJsonParser created its own.
+     */
+    public void shutdown() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+}
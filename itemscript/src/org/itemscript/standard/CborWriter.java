@@ -0,0 +1,388 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.standard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonString;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.CborReader;
+
+/**
+ * Writes values as CBOR (RFC 7049), a compact binary encoding of the JSON data model, to an {@link OutputStream}
+ * or {@link WritableByteChannel}.
+ * <p>
+ * Objects and arrays are written with their lengths up front. A string created from binary data is written as the
+ * data itself rather than as base-64 text. A number is written as an integer if it is one in the range of a long,
+ * otherwise as a single- or double-precision float if that holds it without loss, and otherwise as a decimal
+ * fraction (tag 4), so the exact value of a long decimal survives. A JsonNative is written as the same string that
+ * stands for it in JSON text.
+ * <p>
+ * Like {@link JsonWriter}, a CborWriter writes through a buffer that it keeps between calls, so any number of
+ * values can be written with it; call {@link #flush()} or {@link #close()} when done. Use {@link CborReader} to
+ * read the data back. A CborWriter is not thread-safe.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class CborWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int TAG_POSITIVE_BIGNUM = 2;
+    private static final int TAG_NEGATIVE_BIGNUM = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+    private static final byte FALSE = (byte) 0xf4;
+    private static final byte TRUE = (byte) 0xf5;
+    private static final byte NULL = (byte) 0xf6;
+    private static final byte FLOAT = (byte) 0xfa;
+    private static final byte DOUBLE = (byte) 0xfb;
+
+    /**
+     * Encode a value as CBOR.
+     * 
+     * @param value The value to encode.
+     * @return The CBOR data.
+     */
+    public static byte[] encode(JsonValue value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CborWriter writer = new CborWriter(out);
+        try {
+            writer.write(value);
+            writer.flush();
+        } catch (IOException e) {
+            throw new ItemscriptError("error.itemscript.CborWriter.encode.IOException", e);
+        }
+        return out.toByteArray();
+    }
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    /**
+     * Create a new CborWriter that writes to an OutputStream.
+     * 
+     * @param stream The OutputStream to write to.
+     */
+    public CborWriter(OutputStream stream) {
+        this.stream = stream;
+        this.channel = null;
+    }
+
+    /**
+     * Create a new CborWriter that writes to a WritableByteChannel.
+     * 
+     * @param channel The WritableByteChannel to write to.
+     */
+    public CborWriter(WritableByteChannel channel) {
+        this.stream = null;
+        this.channel = channel;
+    }
+
+    /**
+     * Write any buffered data, then close the destination.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        if (stream != null) {
+            stream.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    private void ensure(int count) throws IOException {
+        if (buffer.length - position < count) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Write any buffered data, then flush the destination.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (stream != null) {
+            stream.write(buffer, 0, position);
+        } else {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        position = 0;
+    }
+
+    private int utf8Length(String string) {
+        int length = string.length();
+        int count = length;
+        for (int i = 0; i < length; ++i) {
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    count += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    // Four bytes for the two chars.
+                    count += 2;
+                    ++i;
+                } else if (c >= '\ud800' && c <= '\udfff') {
+                    // An unpaired surrogate is written as '?', as String.getBytes does.
+                } else {
+                    count += 2;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write a value.
+     * 
+     * @param value The value to write.
+     * @throws IOException
+     */
+    public void write(JsonValue value) throws IOException {
+        if (value.isObject()) {
+            JsonObject object = value.asObject();
+            Set<String> keys = object.keySet();
+            writeHead(MAJOR_MAP, keys.size());
+            for (String key : keys) {
+                writeText(key);
+                write(object.get(key));
+            }
+        } else if (value.isArray()) {
+            JsonArray array = value.asArray();
+            int size = array.size();
+            writeHead(MAJOR_ARRAY, size);
+            for (int i = 0; i < size; ++i) {
+                write(array.get(i));
+            }
+        } else if (value.isString()) {
+            JsonString string = value.asString();
+            if (string.isBinary()) {
+                writeBytes(string.binaryValue());
+            } else {
+                writeText(string.stringValue());
+            }
+        } else if (value.isNumber()) {
+            writeNumber(value.asNumber());
+        } else if (value.isBoolean()) {
+            ensure(1);
+            buffer[position++] = value.booleanValue() ? TRUE : FALSE;
+        } else if (value.isNative()) {
+            Object nativeValue = value.nativeValue();
+            writeText("__NATIVE__ | " + (nativeValue != null ? nativeValue.getClass() : "(null)"));
+        } else {
+            ensure(1);
+            buffer[position++] = NULL;
+        }
+    }
+
+    private void writeBigInteger(BigInteger integer) throws IOException {
+        if (integer.bitLength() < 64) {
+            writeLong(integer.longValue());
+            return;
+        }
+        BigInteger magnitude = integer;
+        if (integer.signum() < 0) {
+            writeHead(MAJOR_TAG, TAG_NEGATIVE_BIGNUM);
+            magnitude = integer.negate()
+                    .subtract(BigInteger.ONE);
+        } else {
+            writeHead(MAJOR_TAG, TAG_POSITIVE_BIGNUM);
+        }
+        byte[] bytes = magnitude.toByteArray();
+        // toByteArray() adds a zero byte in front if the top bit is set, for the sign.
+        int start = bytes[0] == 0 ? 1 : 0;
+        writeHead(MAJOR_BYTES, bytes.length - start);
+        writeRaw(bytes, start, bytes.length - start);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeHead(MAJOR_BYTES, bytes.length);
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    private void writeHead(int major, long argument) throws IOException {
+        ensure(9);
+        int type = major << 5;
+        if (argument < 24) {
+            buffer[position++] = (byte) (type | (int) argument);
+        } else if (argument < 0x100) {
+            buffer[position++] = (byte) (type | 24);
+            buffer[position++] = (byte) argument;
+        } else if (argument < 0x10000) {
+            buffer[position++] = (byte) (type | 25);
+            buffer[position++] = (byte) (argument >>> 8);
+            buffer[position++] = (byte) argument;
+        } else if (argument < 0x100000000L) {
+            buffer[position++] = (byte) (type | 26);
+            writeInt((int) argument);
+        } else {
+            buffer[position++] = (byte) (type | 27);
+            writeInt((int) (argument >>> 32));
+            writeInt((int) argument);
+        }
+    }
+
+    /**
+     * Only call after {@link #ensure} has made room.
+     */
+    private void writeInt(int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    /**
+     * Test whether a number is -0, which is whole but has to be written as a float to keep its sign.
+     */
+    private static boolean isNegativeZero(JsonNumber number) {
+        return number.toLong() == 0 && Double.doubleToRawLongBits(number.toDouble()) != 0;
+    }
+
+    private void writeNumber(JsonNumber number) throws IOException {
+        if (number.isLong() && !isNegativeZero(number)) {
+            writeLong(number.toLong());
+        } else if (number.isDouble()) {
+            double d = number.toDouble();
+            float f = (float) d;
+            ensure(9);
+            if (f == d) {
+                buffer[position++] = FLOAT;
+                writeInt(Float.floatToIntBits(f));
+            } else {
+                buffer[position++] = DOUBLE;
+                long bits = Double.doubleToLongBits(d);
+                writeInt((int) (bits >>> 32));
+                writeInt((int) bits);
+            }
+        } else {
+            BigDecimal decimal = new BigDecimal(number.toJsonString());
+            writeHead(MAJOR_TAG, TAG_DECIMAL_FRACTION);
+            writeHead(MAJOR_ARRAY, 2);
+            writeLong(-(long) decimal.scale());
+            writeBigInteger(decimal.unscaledValue());
+        }
+    }
+
+    private void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                if (stream != null) {
+                    stream.write(bytes, offset, length);
+                } else {
+                    ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+                    while (wrapped.hasRemaining()) {
+                        channel.write(wrapped);
+                    }
+                }
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void writeText(String string) throws IOException {
+        int length = string.length();
+        int utf8Length = utf8Length(string);
+        writeHead(MAJOR_TEXT, utf8Length);
+        if (utf8Length == length && length <= buffer.length - position) {
+            // All ASCII, and it fits.
+            for (int i = 0; i < length; ++i) {
+                buffer[position++] = (byte) string.charAt(i);
+            }
+            return;
+        }
+        for (int i = 0; i < length; ++i) {
+            ensure(4);
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= '\ud800' && c <= '\udfff') {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+}
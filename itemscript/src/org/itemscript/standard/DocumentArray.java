@@ -0,0 +1,570 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.core.values.ToJsonStringWithIndent;
+import org.itemscript.core.values.WeakContainer;
+
+/**
+ * A read-only view of an array in an {@link OffHeapDocument} or {@link JsonTape}. Values are decoded from the
+ * document each time they are asked for. Getting a value by its index takes time in proportion to the index in a
+ * JsonTape, so everything here that goes through the values in order walks them, rather than getting each one.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class DocumentArray extends WeakContainer implements JsonArray, ToJsonStringWithIndent {
+    private final ReadOnlyDocument document;
+    private final int position;
+
+    DocumentArray(ReadOnlyDocument document, int position) {
+        super(document.system());
+        this.document = document;
+        this.position = position;
+    }
+
+    //@Override
+    public JsonArray a(Boolean value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(byte[] value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(Double value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(Float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(Integer value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(Long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray a(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(Boolean value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(byte[] value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(Double value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(Float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(int index, JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(Integer value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean add(JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(Long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void add(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean addAll(Collection<? extends JsonValue> values) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean addAll(int index, Collection<? extends JsonValue> values) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray addArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject addObject() {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray asArray() {
+        return this;
+    }
+
+    //@Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean contains(Object object) {
+        return list().contains(object);
+    }
+
+    //@Override
+    public boolean containsAll(Collection<?> collection) {
+        return list().containsAll(collection);
+    }
+
+    //@Override
+    public boolean containsKey(String key) {
+        int index;
+        try {
+            index = Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return index >= 0 && index < size();
+    }
+
+    //@Override
+    public JsonValue copy() {
+        return JsonAccessHelper.copyArray(system(), this);
+    }
+
+    //@Override
+    public JsonArray createArray(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject createObject(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if (other instanceof DocumentArray && ((DocumentArray) other).document == document
+                && ((DocumentArray) other).position == position) { return true; }
+        if (!(other instanceof JsonArray)) { return false; }
+        JsonArray otherArray = (JsonArray) other;
+        if (otherArray.size() != size()) { return false; }
+        Iterator<JsonValue> otherIterator = otherArray.iterator();
+        for (JsonValue value : this) {
+            if (!value.equals(otherIterator.next())) { return false; }
+        }
+        return true;
+    }
+
+    //@Override
+    public JsonValue get(int index) {
+        if (index < 0 || index >= size()) { throw new IndexOutOfBoundsException(index + ""); }
+        return document.value(document.element(position, index));
+    }
+
+    //@Override
+    public JsonArray getArray(int index) {
+        return JsonAccessHelper.asArray(get(index));
+    }
+
+    //@Override
+    public byte[] getBinary(int index) {
+        return JsonAccessHelper.asBinary(get(index));
+    }
+
+    //@Override
+    public Boolean getBoolean(int index) {
+        return JsonAccessHelper.asBoolean(get(index));
+    }
+
+    //@Override
+    public Double getDouble(int index) {
+        return JsonAccessHelper.asDouble(get(index));
+    }
+
+    //@Override
+    public Float getFloat(int index) {
+        return JsonAccessHelper.asFloat(get(index));
+    }
+
+    //@Override
+    public Integer getInt(int index) {
+        return JsonAccessHelper.asInt(get(index));
+    }
+
+    //@Override
+    public Long getLong(int index) {
+        return JsonAccessHelper.asLong(get(index));
+    }
+
+    //@Override
+    public JsonObject getObject(int index) {
+        return JsonAccessHelper.asObject(get(index));
+    }
+
+    //@Override
+    public JsonArray getOrCreateArray(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject getOrCreateObject(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonArray getRequiredArray(int index) {
+        return JsonAccessHelper.getRequiredArray(this, index + "", get(index));
+    }
+
+    //@Override
+    public byte[] getRequiredBinary(int index) {
+        return JsonAccessHelper.getRequiredBinary(this, index + "", get(index));
+    }
+
+    //@Override
+    public Boolean getRequiredBoolean(int index) {
+        return JsonAccessHelper.getRequiredBoolean(this, index + "", get(index));
+    }
+
+    //@Override
+    public Double getRequiredDouble(int index) {
+        return JsonAccessHelper.getRequiredDouble(this, index + "", get(index));
+    }
+
+    //@Override
+    public Float getRequiredFloat(int index) {
+        return JsonAccessHelper.getRequiredFloat(this, index + "", get(index));
+    }
+
+    //@Override
+    public Integer getRequiredInt(int index) {
+        return JsonAccessHelper.getRequiredInt(this, index + "", get(index));
+    }
+
+    //@Override
+    public Long getRequiredLong(int index) {
+        return JsonAccessHelper.getRequiredLong(this, index + "", get(index));
+    }
+
+    //@Override
+    public JsonObject getRequiredObject(int index) {
+        return JsonAccessHelper.getRequiredObject(this, index + "", get(index));
+    }
+
+    //@Override
+    public String getRequiredString(int index) {
+        return JsonAccessHelper.getRequiredString(this, index + "", get(index));
+    }
+
+    //@Override
+    public JsonValue getRequiredValue(int index) {
+        return JsonAccessHelper.getRequiredValue(this, index + "", get(index));
+    }
+
+    //@Override
+    public String getString(int index) {
+        return JsonAccessHelper.asString(get(index));
+    }
+
+    //@Override
+    public JsonValue getValue(String key) {
+        if (!containsKey(key)) { return null; }
+        return get(Integer.parseInt(key));
+    }
+
+    //@Override
+    public int hashCode() {
+        long hash = CanonicalJson.contentHash(this);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    //@Override
+    public int indexOf(Object object) {
+        int index = 0;
+        for (JsonValue value : this) {
+            if (value.equals(object)) { return index; }
+            ++index;
+        }
+        return -1;
+    }
+
+    //@Override
+    public boolean isArray() {
+        return true;
+    }
+
+    //@Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    //@Override
+    public Iterator<JsonValue> iterator() {
+        return new Iterator<JsonValue>() {
+            private int entry = document.first(position);
+
+            //@Override
+            public boolean hasNext() {
+                return entry != -1;
+            }
+
+            //@Override
+            public JsonValue next() {
+                if (entry == -1) { throw new NoSuchElementException(); }
+                JsonValue next = document.value(document.valueOf(position, entry));
+                entry = document.next(position, entry);
+                return next;
+            }
+
+            //@Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    //@Override
+    public Set<String> keySet() {
+        HashSet<String> keys = new HashSet<String>();
+        for (int i = 0, s = size(); i < s; ++i) {
+            keys.add(i + "");
+        }
+        return keys;
+    }
+
+    //@Override
+    public int lastIndexOf(Object object) {
+        return list().lastIndexOf(object);
+    }
+
+    /**
+     * Get a read-only List over the values in this array, for the List methods that are not worth writing again.
+     */
+    private List<JsonValue> list() {
+        return new AbstractList<JsonValue>() {
+            //@Override
+            public JsonValue get(int index) {
+                return DocumentArray.this.get(index);
+            }
+
+            //@Override
+            public Iterator<JsonValue> iterator() {
+                return DocumentArray.this.iterator();
+            }
+
+            //@Override
+            public int size() {
+                return DocumentArray.this.size();
+            }
+        };
+    }
+
+    //@Override
+    public ListIterator<JsonValue> listIterator() {
+        return list().listIterator();
+    }
+
+    //@Override
+    public ListIterator<JsonValue> listIterator(int index) {
+        return list().listIterator(index);
+    }
+
+    //@Override
+    public JsonValue remove(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean remove(Object object) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean removeAll(Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean retainAll(Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, Boolean value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, byte[] value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, Double value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, Float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, Integer value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonValue set(int index, JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, Long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void set(int index, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public int size() {
+        return document.count(position);
+    }
+
+    //@Override
+    public List<JsonValue> subList(int fromIndex, int toIndex) {
+        return list().subList(fromIndex, toIndex);
+    }
+
+    //@Override
+    public double sum() {
+        return JsonAccessHelper.sum(this);
+    }
+
+    //@Override
+    public Object[] toArray() {
+        return list().toArray();
+    }
+
+    //@Override
+    public <T> T[] toArray(T[] array) {
+        return list().toArray(array);
+    }
+
+    //@Override
+    public String toCompactJsonString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            document.appendCompact(sb, position);
+        } catch (IOException e) {
+            // Can't happen with a StringBuilder.
+            throw ItemscriptError.internalError(this, "toCompactJsonString.IOException", e);
+        }
+        return sb.toString();
+    }
+
+    //@Override
+    public double[] toDoubleArray() {
+        return JsonAccessHelper.toDoubleArray(this);
+    }
+
+    //@Override
+    public String toJsonString() {
+        return toJsonString(0) + "\n";
+    }
+
+    //@Override
+    public String toJsonString(int indent) {
+        return JsonSerializer.toJsonString(this, indent);
+    }
+
+    //@Override
+    public long[] toLongArray() {
+        return JsonAccessHelper.toLongArray(this);
+    }
+
+    //@Override
+    public String toString() {
+        return toJsonString();
+    }
+}
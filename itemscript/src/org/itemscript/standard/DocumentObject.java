@@ -0,0 +1,316 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.util.JsonAccessHelper;
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.core.values.ToJsonStringWithIndent;
+import org.itemscript.core.values.WeakContainer;
+
+/**
+ * A read-only view of an object in an {@link OffHeapDocument} or {@link JsonTape}. Keys and values are decoded from
+ * the document each time they are asked for.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class DocumentObject extends WeakContainer implements JsonObject, ToJsonStringWithIndent {
+    /**
+     * Iterates over the keys and values of this object in document order.
+     */
+    private abstract class ObjectIterator<T> implements Iterator<T> {
+        private int entry = document.first(position);
+
+        //@Override
+        public boolean hasNext() {
+            return entry != -1;
+        }
+
+        //@Override
+        public T next() {
+            if (entry == -1) { throw new NoSuchElementException(); }
+            T next = next(entry);
+            entry = document.next(position, entry);
+            return next;
+        }
+
+        abstract T next(int entry);
+
+        //@Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final ReadOnlyDocument document;
+    private final int position;
+
+    DocumentObject(ReadOnlyDocument document, int position) {
+        super(document.system());
+        this.document = document;
+        this.position = position;
+    }
+
+    //@Override
+    public JsonObject asObject() {
+        return this;
+    }
+
+    //@Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && containsKey((String) key);
+    }
+
+    //@Override
+    public boolean containsKey(String key) {
+        return document.find(position, key) != -1;
+    }
+
+    //@Override
+    public boolean containsValue(Object value) {
+        return values().contains(value);
+    }
+
+    //@Override
+    public JsonObject copy() {
+        return JsonAccessHelper.copyObject(system(), this);
+    }
+
+    //@Override
+    public Set<Map.Entry<String, JsonValue>> entrySet() {
+        return new AbstractSet<Map.Entry<String, JsonValue>>() {
+            //@Override
+            public Iterator<Map.Entry<String, JsonValue>> iterator() {
+                return new ObjectIterator<Map.Entry<String, JsonValue>>() {
+                    //@Override
+                    Map.Entry<String, JsonValue> next(int entry) {
+                        return new AbstractMap.SimpleImmutableEntry<String, JsonValue>(document.key(position, entry),
+                                document.value(document.valueOf(position, entry)));
+                    }
+                };
+            }
+
+            //@Override
+            public int size() {
+                return DocumentObject.this.size();
+            }
+        };
+    }
+
+    //@Override
+    public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if (other instanceof DocumentObject && ((DocumentObject) other).document == document
+                && ((DocumentObject) other).position == position) { return true; }
+        if (!(other instanceof JsonObject)) { return false; }
+        JsonObject otherObject = (JsonObject) other;
+        if (otherObject.size() != size()) { return false; }
+        for (int entry = document.first(position); entry != -1; entry = document.next(position, entry)) {
+            JsonValue otherValue = otherObject.get(document.key(position, entry));
+            if (otherValue == null || !document.value(document.valueOf(position, entry))
+                    .equals(otherValue)) { return false; }
+        }
+        return true;
+    }
+
+    //@Override
+    public JsonValue get(Object key) {
+        if (!(key instanceof String)) { return null; }
+        return getValue((String) key);
+    }
+
+    //@Override
+    public JsonValue getValue(String key) {
+        int valuePosition = document.find(position, key);
+        if (valuePosition == -1) { return null; }
+        return document.value(valuePosition);
+    }
+
+    //@Override
+    public int hashCode() {
+        long hash = CanonicalJson.contentHash(this);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    //@Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    //@Override
+    public boolean isObject() {
+        return true;
+    }
+
+    //@Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            //@Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            //@Override
+            public Iterator<String> iterator() {
+                return new ObjectIterator<String>() {
+                    //@Override
+                    String next(int entry) {
+                        return document.key(position, entry);
+                    }
+                };
+            }
+
+            //@Override
+            public int size() {
+                return DocumentObject.this.size();
+            }
+        };
+    }
+
+    //@Override
+    public JsonObject p(String key, Boolean value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, Double value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, Float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, Integer value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, Long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonObject p(String key, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonValue put(String key, JsonValue value) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public void putAll(Map<? extends String, ? extends JsonValue> other) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public JsonValue remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    //@Override
+    public int size() {
+        return document.count(position);
+    }
+
+    //@Override
+    public String toCompactJsonString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            document.appendCompact(sb, position);
+        } catch (IOException e) {
+            // Can't happen with a StringBuilder.
+            throw ItemscriptError.internalError(this, "toCompactJsonString.IOException", e);
+        }
+        return sb.toString();
+    }
+
+    //@Override
+    public String toJsonString() {
+        return toJsonString(0) + "\n";
+    }
+
+    //@Override
+    public String toJsonString(int indent) {
+        return JsonSerializer.toJsonString(this, indent);
+    }
+
+    //@Override
+    public String toString() {
+        return toJsonString();
+    }
+
+    //@Override
+    public Collection<JsonValue> values() {
+        return new AbstractCollection<JsonValue>() {
+            //@Override
+            public Iterator<JsonValue> iterator() {
+                return new ObjectIterator<JsonValue>() {
+                    //@Override
+                    JsonValue next(int entry) {
+                        return document.value(document.valueOf(position, entry));
+                    }
+                };
+            }
+
+            //@Override
+            public int size() {
+                return DocumentObject.this.size();
+            }
+        };
+    }
+}
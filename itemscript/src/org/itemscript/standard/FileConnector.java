@@ -34,6 +34,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URLConnection;
 
 import org.itemscript.core.JsonSystem;
@@ -46,6 +47,7 @@ import org.itemscript.core.url.Url;
 import org.itemscript.core.values.JsonArray;
 import org.itemscript.core.values.JsonObject;
 import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonReader;
 
 /**
  * Base Connector class for file connectors.
@@ -53,10 +55,16 @@ import org.itemscript.core.values.JsonValue;
  * Note: At present support for file connectors is fairly minimal; loading of file resources on
  * other servers is not supported, nor are pagedItems or pagedKeys methods from SyncBrowseConnector,
  * nor is SyncPutConnector.
+ * <p>
+ * Files ending in <code>.cbor</code> are read as CBOR.
  * 
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
-public final class FileConnector extends ConnectorBase implements SyncGetConnector, SyncBrowseConnector {
+public final class FileConnector extends ConnectorBase
+        implements
+            SyncGetConnector,
+            SyncBrowseConnector,
+            SyncReaderConnector {
     public FileConnector(JsonSystem system) {
         super(system);
     }
@@ -75,6 +83,9 @@ public final class FileConnector extends ConnectorBase implements SyncGetConnect
             if (url.filename()
                     .endsWith(".json")) {
                 contentType = "application/json";
+            } else if (url.filename()
+                    .endsWith(".cbor")) {
+                contentType = "application/cbor";
             } else {
                 contentType = "application/octet-stream";
             }
@@ -83,8 +94,11 @@ public final class FileConnector extends ConnectorBase implements SyncGetConnect
             throw ItemscriptError.internalError(this, "get.was.directory", file + "");
         } else {
             try {
-                if (contentType.equals("application/json")) {
-                    return system().createItem(url + "", StandardUtil.readJson(system(), new FileReader(file)))
+                if (contentType.equals("application/cbor")) {
+                    return system().createItem(url + "", StandardUtil.readCbor(system(), new FileInputStream(file)))
+                            .value();
+                } else if (contentType.equals("application/json")) {
+                    return system().createItem(url + "", StandardUtil.readJson(system(), new FileInputStream(file)))
                             .value();
                 } else if (contentType.startsWith("text")) {
                     return system().createItem(url + "",
@@ -130,6 +144,18 @@ public final class FileConnector extends ConnectorBase implements SyncGetConnect
                 .asArray();
     }
 
+    //@Override
+    public JsonReader getReader(Url url) {
+        // Not getFile(), since the size limit for get() doesn't apply when streaming.
+        File file = new File(url.pathString());
+        if (file.isDirectory()) { throw ItemscriptError.internalError(this, "getReader.was.directory", file + ""); }
+        try {
+            return new JsonReader(system(), new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        } catch (IOException e) {
+            throw ItemscriptError.internalError(this, "getReader.IOException", e);
+        }
+    }
+
     private ItemscriptError ioException(IOException e) {
         return ItemscriptError.internalError(this, "get.IOException", e);
     }
@@ -32,8 +32,6 @@ package org.itemscript.standard;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -41,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.itemscript.core.JsonSystem;
+import org.itemscript.core.Params;
 import org.itemscript.core.connectors.ConnectorBase;
 import org.itemscript.core.connectors.SyncGetConnector;
 import org.itemscript.core.connectors.SyncPostConnector;
@@ -56,11 +55,16 @@ import org.itemscript.core.values.JsonObject;
 import org.itemscript.core.values.JsonValue;
 import org.itemscript.core.values.PutResponse;
 import org.itemscript.core.values.RemoveResponse;
+import org.itemscript.standard.parser.JsonReader;
 
 /**
  * HTTP Connector for the standard-Java configuration.
  * <p>
  * Associated with the <code>http:</code> and <code>https:</code> schemes in the standard-Java configuration.
+ * <p>
+ * A response with a Content-Type of <code>application/cbor</code> is decoded as CBOR. An HttpConnector created with
+ * <code>useCbor</code> set also asks for CBOR in its requests' Accept header, and sends the bodies of posts and puts
+ * as CBOR; servers that only speak JSON can still answer with JSON.
  * 
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
@@ -69,9 +73,16 @@ public final class HttpConnector extends ConnectorBase
             SyncGetConnector,
             SyncPutConnector,
             SyncPostConnector,
-            SyncQueryConnector {
+            SyncQueryConnector,
+            SyncReaderConnector {
     private static final String CONTENT_TYPE = "Content-Type";
+    private static final String ACCEPT = "Accept";
+    private static final String ACCEPT_CBOR = "application/cbor, application/json;q=0.9, */*;q=0.1";
+    private static final String APPLICATION_CBOR = "application/cbor";
     private static final String APPLICATION_JSON = "application/json";
+    private static final String CHARSET_PARAM = "charset=";
+    private static final String UTF_8 = "UTF-8";
+    private final boolean useCbor;
 
     /**
      * Create a new HttpConnector.
@@ -79,7 +90,42 @@ public final class HttpConnector extends ConnectorBase
      * @param system The associated JsonSystem.
      */
     public HttpConnector(JsonSystem system) {
+        this(system, false);
+    }
+
+    /**
+     * Create a new HttpConnector, optionally preferring CBOR to JSON.
+     * 
+     * @param system The associated JsonSystem.
+     * @param useCbor Whether to ask for CBOR responses, and to send CBOR request bodies.
+     */
+    public HttpConnector(JsonSystem system, boolean useCbor) {
         super(system);
+        this.useCbor = useCbor;
+    }
+
+    /**
+     * Get the value of the charset parameter of the given Content-Type header.
+     * 
+     * @param contentType The Content-Type header value.
+     * @return The charset, or null if none was given.
+     */
+    private String charset(String contentType) {
+        if (contentType == null) { return null; }
+        String[] params = contentType.split(";");
+        for (int i = 1; i < params.length; ++i) {
+            String param = params[i].trim();
+            if (param.toLowerCase()
+                    .startsWith(CHARSET_PARAM)) {
+                String charset = param.substring(CHARSET_PARAM.length())
+                        .trim();
+                if (charset.startsWith("\"") && charset.endsWith("\"") && charset.length() > 1) {
+                    charset = charset.substring(1, charset.length() - 1);
+                }
+                return charset;
+            }
+        }
+        return null;
     }
 
     private JsonObject createMeta(URLConnection connection) {
@@ -103,6 +149,9 @@ public final class HttpConnector extends ConnectorBase
     public JsonValue get(Url url) {
         try {
             URLConnection connection = new URL(url + "").openConnection();
+            if (useCbor) {
+                connection.setRequestProperty(ACCEPT, ACCEPT_CBOR);
+            }
             // Note: we are ignoring content-encoding for now...
             return createItemFromResponse(url, connection);
         } catch (IOException e) {
@@ -110,11 +159,49 @@ public final class HttpConnector extends ConnectorBase
         }
     }
 
+    //@Override
+    public JsonReader getReader(Url url) {
+        try {
+            URLConnection connection = new URL(url + "").openConnection();
+            connection.setRequestProperty(ACCEPT, APPLICATION_JSON);
+            if (connection instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) connection).getResponseCode();
+                if (status < 200 || status >= 300) { throw ItemscriptError.internalError(this,
+                        "getReader.response.was.not.ok", new Params().p("url", url + "")
+                                .p("status", status + "")); }
+            }
+            // A JsonReader can only read JSON text, so anything else is an error rather than something to parse.
+            String contentType = connection.getContentType();
+            boolean json = StaticJsonUtil.looksLikeJson(url, contentType) || isJsonLines(url, contentType);
+            if (isCbor(contentType) || !json) { throw ItemscriptError.internalError(this,
+                    "getReader.response.was.not.json", new Params().p("url", url + "")
+                            .p("contentType", contentType + "")); }
+            String charset = charset(contentType);
+            if (charset == null) {
+                charset = UTF_8;
+            }
+            return new JsonReader(system(), new InputStreamReader(connection.getInputStream(), charset));
+        } catch (IOException e) {
+            throw ItemscriptError.internalError(this, "getReader.IOException", e);
+        }
+    }
+
     private JsonValue createItemFromResponse(Url url, URLConnection connection) throws IOException {
         String contentType = connection.getContentType();
-        if (StaticJsonUtil.looksLikeJson(url, contentType)) {
+        if (isCbor(contentType)) {
             return system().createItem(url + "", createMeta(connection),
-                    StandardUtil.readJson(system(), new InputStreamReader(connection.getInputStream())))
+                    StandardUtil.readCbor(system(), connection.getInputStream()))
+                    .value();
+        } else if (StaticJsonUtil.looksLikeJson(url, contentType)) {
+            String charset = charset(contentType);
+            JsonValue value;
+            if (charset == null || charset.equalsIgnoreCase(UTF_8)) {
+                // Hand the raw bytes to the parser, so it can skip decoding them if it is able to.
+                value = StandardUtil.readJson(system(), connection.getInputStream());
+            } else {
+                value = StandardUtil.readJson(system(), new InputStreamReader(connection.getInputStream(), charset));
+            }
+            return system().createItem(url + "", createMeta(connection), value)
                     .value();
         } else if (contentType.startsWith("text")) {
             return system().createItem(
@@ -137,11 +224,7 @@ public final class HttpConnector extends ConnectorBase
             HttpURLConnection connection = (HttpURLConnection) javaUrl.openConnection();
             connection.setDoOutput(true);
             connection.setRequestMethod("POST");
-            connection.setRequestProperty(CONTENT_TYPE, APPLICATION_JSON);
-            connection.connect();
-            Writer w = new OutputStreamWriter(connection.getOutputStream());
-            w.write(value.toCompactJsonString());
-            w.close();
+            writeBody(connection, value);
             JsonValue retValue = null;
             if (connection.getContentLength() > 0) {
                 retValue = createItemFromResponse(url, connection);
@@ -159,11 +242,7 @@ public final class HttpConnector extends ConnectorBase
             HttpURLConnection connection = (HttpURLConnection) javaUrl.openConnection();
             connection.setDoOutput(true);
             connection.setRequestMethod("PUT");
-            connection.setRequestProperty(CONTENT_TYPE, APPLICATION_JSON);
-            connection.connect();
-            Writer w = new OutputStreamWriter(connection.getOutputStream());
-            w.write(value.toCompactJsonString());
-            w.close();
+            writeBody(connection, value);
             JsonValue retValue = null;
             if (connection.getContentLength() > 0) {
                 retValue = createItemFromResponse(url, connection);
@@ -174,6 +253,22 @@ public final class HttpConnector extends ConnectorBase
         }
     }
 
+    private boolean isCbor(String contentType) {
+        return contentType != null && contentType.toLowerCase()
+                .startsWith(APPLICATION_CBOR);
+    }
+
+    /**
+     * Test whether a response holds JSON Lines, one JSON value on each line, which a JsonReader can read too.
+     */
+    private boolean isJsonLines(Url url, String contentType) {
+        String filename = url.filename() != null ? url.filename()
+                .toLowerCase() : "";
+        return filename.endsWith(".jsonl") || filename.endsWith(".ndjson")
+                || (contentType != null && (contentType.startsWith("application/x-ndjson") || contentType
+                        .startsWith("application/jsonl")));
+    }
+
     //@Override
     public JsonValue query(Url url) {
         return get(url);
@@ -193,4 +288,21 @@ public final class HttpConnector extends ConnectorBase
             throw ItemscriptError.internalError(this, "remove.IOException", e);
         }
     }
-}
\ No newline at end of file
+
+    private void writeBody(HttpURLConnection connection, JsonValue value) throws IOException {
+        if (useCbor) {
+            connection.setRequestProperty(CONTENT_TYPE, APPLICATION_CBOR);
+            connection.setRequestProperty(ACCEPT, ACCEPT_CBOR);
+            connection.connect();
+            CborWriter w = new CborWriter(connection.getOutputStream());
+            w.write(value);
+            w.close();
+        } else {
+            connection.setRequestProperty(CONTENT_TYPE, APPLICATION_JSON);
+            connection.connect();
+            JsonWriter w = new JsonWriter(connection.getOutputStream());
+            w.write(value);
+            w.close();
+        }
+    }
+}
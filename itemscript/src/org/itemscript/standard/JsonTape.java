@@ -0,0 +1,447 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.ParseException;
+
+/**
+ * A read-only JSON document held as a tape: one <code>long</code> array with an entry for each value, key and end
+ * of an object or array, in the order they were written, and one <code>char</code> array, the arena, holding the
+ * text of the strings, keys and numbers.
+ * <p>
+ * Reading a document this way is much cheaper than building ordinary values, which each have a parent, key and
+ * item, and are ready to be changed and to notify handlers; a JsonTape is meant for data that is parsed, read once
+ * or a few times, and thrown away, as when rendering a template or validating against a schema.
+ * <p>
+ * There are two ways to read it. A {@link TapeCursor}, from {@link #cursor()}, walks the tape and reads numbers,
+ * booleans and strings straight from it, without creating any objects:
+ * 
+ * <pre>
+ * TapeCursor cursor = JsonTape.parse(system, json).cursor();
+ * double total = 0;
+ * if (cursor.enterObject() &amp;&amp; cursor.findField(&quot;items&quot;) &amp;&amp; cursor.enterArray()) {
+ *     while (cursor.nextElement()) {
+ *         if (cursor.enterObject()) {
+ *             if (cursor.findField(&quot;price&quot;)) {
+ *                 total += cursor.getDouble();
+ *             }
+ *             cursor.exit();
+ *         }
+ *     }
+ * }
+ * </pre>
+ * 
+ * And {@link #root()} returns the document as read-only {@link org.itemscript.core.values.JsonObject} and
+ * {@link org.itemscript.core.values.JsonArray} views, the same as an {@link OffHeapDocument} gives, for code that
+ * takes a {@link JsonValue}, such as {@link org.itemscript.template.Template#interpretToValue(JsonValue)} and
+ * {@link org.itemscript.schema.Schema#validate(org.itemscript.schema.Type, JsonValue)}.
+ * <p>
+ * The start of an object or array holds its size and the distance to its end, so a cursor or view can skip over it
+ * in one step; a key is found by looking at the keys of the object in turn, and an element of an array by skipping
+ * the elements before it. Keys are kept in the arena only once each, however many objects they are in. If an object
+ * has the same key more than once, the last value is kept, in the place of the first, as when an ordinary object is
+ * built. Numbers are read the same way the standard parsers read them, and kept as the same values: as longs if they
+ * are integers, as doubles, or, if they have too many digits for a double, as their text, so that none is ever
+ * rounded. The value of each as a double is kept too, so that {@link TapeCursor#getDouble()} doesn't have to parse
+ * it.
+ * <p>
+ * A JsonTape is never changed once it is built, so it can be read from any number of threads, each with a
+ * TapeCursor of its own.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class JsonTape extends ReadOnlyDocument {
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    /**
+     * An integer; the next entry holds its value.
+     */
+    static final int LONG = 3;
+    /**
+     * Any other number; the payload is the offset of its text in the arena, or {@link #NO_TEXT} for a number that is
+     * kept as a double, and the next entry holds the bits of its value as a double.
+     */
+    static final int NUMBER = 4;
+    /**
+     * A string or key; the payload is the offset of its text in the arena.
+     */
+    static final int STRING = 5;
+    /**
+     * The start of an object; the payload holds its size, up to {@link #MAX_COUNT}, in its top 24 bits, and the
+     * distance to its end in the rest. Each key in it is followed by its value.
+     */
+    static final int START_OBJECT = 6;
+    /**
+     * The end of an object; the payload is the distance back to its start.
+     */
+    static final int END_OBJECT = 7;
+    static final int START_ARRAY = 8;
+    static final int END_ARRAY = 9;
+    /**
+     * The largest size held in the entry at the start of an object or array; the size of a larger one is counted.
+     */
+    static final int MAX_COUNT = 0xffffff;
+    static final long PAYLOAD_MASK = 0xffffffffffffffL;
+    static final long NO_TEXT = PAYLOAD_MASK;
+    /**
+     * Integers smaller than this are written the same whether a number is created from a long or a double, so the
+     * ones read as doubles are kept as longs.
+     */
+    static final double MAX_PLAIN_LONG = 1e7;
+    private static final int INITIAL_READ_SIZE = 4096;
+
+    /**
+     * Make an entry with the given type and payload.
+     */
+    static long entry(int tag, long payload) {
+        return ((long) tag << 56) | payload;
+    }
+
+    /**
+     * Build a tape from a value.
+     * 
+     * @param system The associated JsonSystem.
+     * @param value The value to copy into the tape.
+     * @return The new tape.
+     */
+    public static JsonTape fromValue(JsonSystem system, JsonValue value) {
+        TapeBuilder builder = new TapeBuilder();
+        builder.value(value);
+        return builder.finish(system);
+    }
+
+    private static JsonTape parse(JsonSystem system, char[] text, int length) {
+        TapeBuilder builder = new TapeBuilder();
+        try {
+            new TapeParser(builder, text, length).parse();
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.JsonTape.parse.ParseException", e);
+        }
+        return builder.finish(system);
+    }
+
+    /**
+     * Build a tape from JSON text. The whole of the text is read before it is parsed; the reader is not closed.
+     * 
+     * @param system The associated JsonSystem.
+     * @param reader The JSON text.
+     * @return The new tape.
+     * @throws IOException
+     */
+    public static JsonTape parse(JsonSystem system, Reader reader) throws IOException {
+        char[] text = new char[INITIAL_READ_SIZE];
+        int length = 0;
+        while (true) {
+            if (length == text.length) {
+                char[] newText = new char[text.length * 2];
+                System.arraycopy(text, 0, newText, 0, length);
+                text = newText;
+            }
+            int numRead = reader.read(text, length, text.length - length);
+            if (numRead < 0) {
+                break;
+            }
+            length += numRead;
+        }
+        return parse(system, text, length);
+    }
+
+    /**
+     * Build a tape from JSON text, straight from the characters of the text; no values are built, and no Strings
+     * are made except of numbers with too many digits for a double.
+     * 
+     * @param system The associated JsonSystem.
+     * @param json The JSON text.
+     * @return The new tape.
+     */
+    public static JsonTape parse(JsonSystem system, String json) {
+        return parse(system, json.toCharArray(), json.length());
+    }
+
+    /**
+     * Get the type of an entry.
+     */
+    static int tag(long entry) {
+        return (int) (entry >>> 56);
+    }
+
+    private final JsonSystem system;
+    final long[] tape;
+    final char[] arena;
+
+    JsonTape(JsonSystem system, long[] tape, char[] arena) {
+        this.system = system;
+        this.tape = tape;
+        this.arena = arena;
+    }
+
+    //@Override
+    void appendCompact(Appendable out, int position) throws IOException {
+        long entry = tape[position];
+        switch (tag(entry)) {
+            case NULL :
+                out.append("null");
+                break;
+            case FALSE :
+                out.append("false");
+                break;
+            case TRUE :
+                out.append("true");
+                break;
+            case LONG :
+                out.append(Long.toString(tape[position + 1]));
+                break;
+            case NUMBER :
+                out.append((entry & PAYLOAD_MASK) == NO_TEXT ? value(position).toCompactJsonString() : string(entry));
+                break;
+            case STRING :
+                appendQuoted(out, entry);
+                break;
+            case START_OBJECT : {
+                out.append('{');
+                for (int field = first(position); field != -1; field = next(position, field)) {
+                    if (field != position + 1) {
+                        out.append(',');
+                    }
+                    appendQuoted(out, tape[field]);
+                    out.append(':');
+                    appendCompact(out, field + 1);
+                }
+                out.append('}');
+                break;
+            }
+            case START_ARRAY : {
+                out.append('[');
+                for (int element = first(position); element != -1; element = next(position, element)) {
+                    if (element != position + 1) {
+                        out.append(',');
+                    }
+                    appendCompact(out, element);
+                }
+                out.append(']');
+                break;
+            }
+            default :
+                throw badTag(position);
+        }
+    }
+
+    /**
+     * Append the string of the given entry as a quoted JSON string, escaped as by
+     * {@link JsonSerializer#appendQuoted(StringBuilder, String)}.
+     */
+    private void appendQuoted(Appendable out, long entry) throws IOException {
+        int offset = (int) (entry & PAYLOAD_MASK);
+        int end = offset + 2 + length(offset);
+        out.append('"');
+        for (int i = offset + 2; i < end; ++i) {
+            char c = arena[i];
+            String escape = JsonSerializer.escape(c);
+            if (escape != null) {
+                out.append(escape);
+            } else if (c == '/' && i > offset + 2 && arena[i - 1] == '<') {
+                out.append("\\/");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private ItemscriptError badTag(int position) {
+        return ItemscriptError.internalError(this, "badTag", position + "");
+    }
+
+    //@Override
+    int count(int container) {
+        long entry = tape[container];
+        int count = (int) ((entry >>> 32) & MAX_COUNT);
+        if (count < MAX_COUNT) { return count; }
+        count = 0;
+        for (int entryPosition = first(container); entryPosition != -1; entryPosition = next(container,
+                entryPosition)) {
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Get a new cursor, at the root of this tape.
+     * 
+     * @return The new cursor.
+     */
+    public TapeCursor cursor() {
+        return new TapeCursor(this);
+    }
+
+    //@Override
+    int element(int array, int index) {
+        int position = array + 1;
+        for (int i = 0; i < index; ++i) {
+            position = skip(position);
+        }
+        return position;
+    }
+
+    /**
+     * Get the position of the end of the object or array at the given position.
+     */
+    int end(int container) {
+        return container + (int) tape[container];
+    }
+
+    //@Override
+    int find(int object, String key) {
+        int end = end(object);
+        for (int field = object + 1; field < end; field = skip(field + 1)) {
+            if (stringEquals(tape[field], key)) { return field + 1; }
+        }
+        return -1;
+    }
+
+    //@Override
+    int first(int container) {
+        return container + 1 == end(container) ? -1 : container + 1;
+    }
+
+    //@Override
+    String key(int object, int field) {
+        return string(tape[field]);
+    }
+
+    /**
+     * Get the length of the text at the given offset in the arena.
+     */
+    private int length(int offset) {
+        return (arena[offset] << 16) | arena[offset + 1];
+    }
+
+    //@Override
+    int next(int container, int entry) {
+        int next = tag(tape[container]) == START_OBJECT ? skip(entry + 1) : skip(entry);
+        return next == end(container) ? -1 : next;
+    }
+
+    /**
+     * Get the root value of this tape. If it is an object or array, this is a read-only view of it.
+     * 
+     * @return The root value.
+     */
+    public JsonValue root() {
+        return value(0);
+    }
+
+    /**
+     * Get the position just after the value at the given position.
+     */
+    int skip(int position) {
+        switch (tag(tape[position])) {
+            case LONG :
+            case NUMBER :
+                return position + 2;
+            case START_OBJECT :
+            case START_ARRAY :
+                return end(position) + 1;
+            default :
+                return position + 1;
+        }
+    }
+
+    /**
+     * Test whether the text of the given entry is the same as the given string, without making a String of it.
+     */
+    boolean stringEquals(long entry, String string) {
+        int offset = (int) (entry & PAYLOAD_MASK);
+        int length = length(offset);
+        if (length != string.length()) { return false; }
+        offset += 2;
+        for (int i = 0; i < length; ++i) {
+            if (arena[offset + i] != string.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Get the text of the given entry.
+     */
+    String string(long entry) {
+        int offset = (int) (entry & PAYLOAD_MASK);
+        return new String(arena, offset + 2, length(offset));
+    }
+
+    /**
+     * Get the JsonSystem associated with this tape.
+     * 
+     * @return The associated JsonSystem.
+     */
+    //@Override
+    public JsonSystem system() {
+        return system;
+    }
+
+    //@Override
+    JsonValue value(int position) {
+        long entry = tape[position];
+        switch (tag(entry)) {
+            case NULL :
+                return system.createNull();
+            case FALSE :
+                return system.createBoolean(false);
+            case TRUE :
+                return system.createBoolean(true);
+            case LONG :
+                return system.createNumber(tape[position + 1]);
+            case NUMBER :
+                if ((entry & PAYLOAD_MASK) == NO_TEXT) { return system.createNumber(Double.longBitsToDouble(
+                        tape[position + 1])); }
+                return system.parseNumber(string(entry));
+            case STRING :
+                return system.createString(string(entry));
+            case START_OBJECT :
+                return new DocumentObject(this, position);
+            case START_ARRAY :
+                return new DocumentArray(this, position);
+            default :
+                throw badTag(position);
+        }
+    }
+
+    //@Override
+    int valueOf(int container, int entry) {
+        return tag(tape[container]) == START_OBJECT ? entry + 1 : entry;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.ItemscriptContainer;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Writes JSON text for a value directly to a {@link Writer}, {@link OutputStream} or {@link WritableByteChannel}.
+ * <p>
+ * Unlike {@link JsonValue#toJsonString()} and {@link JsonValue#toCompactJsonString()}, the whole text never exists as
+ * one String: tokens are written into a buffer that is handed to the destination whenever it fills, so a value of
+ * any size can be written with a fixed amount of memory. The output is exactly the same as those two methods give.
+ * <p>
+ * Streams and channels are written to in UTF-8. A JsonWriter keeps its buffer between calls, so the same writer can
+ * be used for any number of values; call {@link #flush()} or {@link #close()} when done. A JsonWriter is not
+ * thread-safe.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class JsonWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final String INDENT = "    ";
+    private final Writer writer;
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+
+    /**
+     * Create a new JsonWriter that writes UTF-8 to an OutputStream.
+     * 
+     * @param stream The OutputStream to write to.
+     */
+    public JsonWriter(OutputStream stream) {
+        this(null, stream, null);
+    }
+
+    /**
+     * Create a new JsonWriter that writes UTF-8 to a WritableByteChannel.
+     * 
+     * @param channel The WritableByteChannel to write to.
+     */
+    public JsonWriter(WritableByteChannel channel) {
+        this(null, null, channel);
+    }
+
+    /**
+     * Create a new JsonWriter that writes to a Writer.
+     * 
+     * @param writer The Writer to write to.
+     */
+    public JsonWriter(Writer writer) {
+        this(writer, null, null);
+    }
+
+    private JsonWriter(Writer writer, OutputStream stream, WritableByteChannel channel) {
+        this.writer = writer;
+        this.stream = stream;
+        this.channel = channel;
+        if (writer == null) {
+            encoder = Charset.forName("UTF-8")
+                    .newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+        } else {
+            encoder = null;
+            bytes = null;
+        }
+    }
+
+    private void append(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = c;
+    }
+
+    private void append(String string) throws IOException {
+        int length = string.length();
+        int start = 0;
+        while (start < length) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int count = Math.min(length - start, buffer.length - position);
+            string.getChars(start, start + count, buffer, position);
+            position += count;
+            start += count;
+        }
+    }
+
+    /**
+     * Write any buffered text, then close the destination.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.close();
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(buffer, 0, position);
+        encode(chars, true);
+        while (encoder.flush(bytes)
+                .isOverflow()) {
+            writeBytes();
+        }
+        writeBytes();
+        position = 0;
+        encoder.reset();
+        if (stream != null) {
+            stream.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            writeBytes();
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write any buffered text, then flush the destination.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        } else if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.write(buffer, 0, position);
+            position = 0;
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(buffer, 0, position);
+        encode(chars, false);
+        // The encoder leaves the first half of a surrogate pair that was split by the end of the buffer.
+        int remaining = chars.remaining();
+        System.arraycopy(buffer, chars.position(), buffer, 0, remaining);
+        position = remaining;
+    }
+
+    private void indent(int indent) throws IOException {
+        for (int i = 0; i < indent; ++i) {
+            append(INDENT);
+        }
+    }
+
+    /**
+     * Write a value as compact JSON text, the same as {@link JsonValue#toCompactJsonString()}.
+     * 
+     * @param value The value to write.
+     * @throws IOException
+     */
+    public void write(JsonValue value) throws IOException {
+        writeValue(value, false, 0);
+    }
+
+    private void writeArray(JsonArray array, boolean indented, int indent) throws IOException {
+        int size = array.size();
+        if (size == 0) {
+            append("[]");
+            return;
+        }
+        append('[');
+        if (indented) {
+            append('\n');
+        }
+        for (int i = 0; i < size; ++i) {
+            if (indented) {
+                indent(indent + 1);
+            }
+            writeValue(array.get(i), indented, indent + 1);
+            if (i + 1 != size) {
+                append(',');
+            }
+            if (indented) {
+                append('\n');
+            }
+        }
+        if (indented) {
+            indent(indent);
+        }
+        append(']');
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        if (stream != null) {
+            stream.write(bytes.array(), 0, bytes.limit());
+        } else {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Write a value as indented JSON text, the same as {@link JsonValue#toJsonString()}.
+     * 
+     * @param value The value to write.
+     * @throws IOException
+     */
+    public void writeIndented(JsonValue value) throws IOException {
+        writeValue(value, true, 0);
+        if (value.isContainer()) {
+            append('\n');
+        }
+    }
+
+    private void writeObject(JsonObject object, boolean indented, int indent) throws IOException {
+        int size = object.size();
+        if (size == 0) {
+            append("{}");
+            return;
+        }
+        append('{');
+        if (indented) {
+            append('\n');
+        }
+        int i = 0;
+        for (String key : object.keySet()) {
+            if (indented) {
+                indent(indent + 1);
+            }
+            writeQuoted(key);
+            append(indented ? " : " : ":");
+            writeValue(object.get(key), indented, indent + 1);
+            if (i + 1 != size) {
+                append(',');
+            }
+            if (indented) {
+                append('\n');
+            }
+            ++i;
+        }
+        if (indented) {
+            indent(indent);
+        }
+        append('}');
+    }
+
+    private void writeQuoted(String string) throws IOException {
+        append('"');
+        if (string != null) {
+            char c = 0;
+            for (int i = 0, length = string.length(); i < length; ++i) {
+                char previous = c;
+                c = string.charAt(i);
+                String escape = JsonSerializer.escape(c);
+                if (escape != null) {
+                    append(escape);
+                } else if (c == '/' && previous == '<') {
+                    append("\\/");
+                } else {
+                    append(c);
+                }
+            }
+        }
+        append('"');
+    }
+
+    private void writeValue(JsonValue value, boolean indented, int indent) throws IOException {
+        if (!indented && value instanceof ItemscriptContainer) {
+            String text = ((ItemscriptContainer) value).knownCompactJsonString();
+            if (text != null) {
+                append(text);
+                return;
+            }
+        }
+        if (value.isObject()) {
+            writeObject(value.asObject(), indented, indent);
+        } else if (value.isArray()) {
+            writeArray(value.asArray(), indented, indent);
+        } else if (value.isString()) {
+            writeQuoted(value.stringValue());
+        } else {
+            append(indented ? value.toJsonString() : value.toCompactJsonString());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.ItemscriptCreator;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Factory for the standard-Java configuration that creates lazily-loaded values.
+ * <p>
+ * Every parse goes through {@link ItemscriptCreator#parseLazy}: the input is kept as UTF-8 bytes, and objects and
+ * arrays are only read from it when they are first accessed. As long as an object or array is unchanged, its
+ * compact JSON text is copied straight from the input. This suits large documents of which only a few fields are
+ * read, or which are passed on unchanged. The values created are the same classes as those of the other creators,
+ * so they can be used anywhere.
+ * <p>
+ * {@link #parseReader} accepts an {@link InputStream}, a byte[] or a {@link ByteBuffer} of UTF-8 encoded JSON, or
+ * a {@link Reader}.
+ * <p>
+ * To use it, return one from {@link org.itemscript.core.config.JsonConfig#createJsonCreator}:
+ * 
+ * <pre>
+ * JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+ *     public JsonCreator createJsonCreator(JsonSystem system) {
+ *         return new LazyJsonCreator(system);
+ *     }
+ * });
+ * </pre>
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class LazyJsonCreator extends ItemscriptCreator {
+    private static final String UTF_8 = "UTF-8";
+
+    /**
+     * Create a new LazyJsonCreator.
+     * 
+     * @param system The associated JsonSystem.
+     */
+    public LazyJsonCreator(JsonSystem system) {
+        super(system);
+    }
+
+    //@Override
+    public JsonValue parse(String json) {
+        try {
+            return parseLazy(json.getBytes(UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            throw new ItemscriptError("error.itemscript.LazyJsonCreator.parse.UnsupportedEncodingException", e);
+        }
+    }
+
+    //@Override
+    public JsonValue parseCbor(byte[] cbor) {
+        return StandardUtil.parseCbor(system(), cbor);
+    }
+
+    //@Override
+    public JsonValue parseReader(Object input) {
+        if (input instanceof byte[]) {
+            return parseLazy((byte[]) input);
+        } else if (input instanceof InputStream) {
+            return parseLazy(Util.readStreamToByteArray((InputStream) input));
+        } else if (input instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) input;
+            byte[] json = new byte[buffer.remaining()];
+            buffer.get(json);
+            return parseLazy(json);
+        } else {
+            try {
+                Reader reader = (Reader) input;
+                StringBuffer sb = new StringBuffer();
+                char[] chars = new char[8192];
+                int read;
+                while ((read = reader.read(chars)) != -1) {
+                    sb.append(chars, 0, read);
+                }
+                return parse(sb.toString());
+            } catch (IOException e) {
+                throw new ItemscriptError("error.itemscript.LazyJsonCreator.parseReader.IOException", e);
+            }
+        }
+    }
+
+    //@Override
+    public byte[] toCbor(JsonValue value) {
+        return CborWriter.encode(value);
+    }
+}
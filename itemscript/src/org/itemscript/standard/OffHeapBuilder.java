@@ -0,0 +1,401 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonReader;
+import org.itemscript.standard.parser.ParseException;
+
+/**
+ * Writes the tape of an {@link OffHeapDocument} into a direct buffer, from a value or from a {@link JsonReader}.
+ * <p>
+ * Values are written in the order they come, and each object or array is closed by writing its table of offsets
+ * after the values in it, so only the offsets of the containers that are still open are kept on the heap.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class OffHeapBuilder {
+    /**
+     * The offsets of the keys and values in an object or array that is still open. Frames are kept for reuse, one
+     * per depth.
+     */
+    private static final class Frame {
+        private boolean object;
+        private int count;
+        private int[] keys = new int[8];
+        private int[] values = new int[8];
+        private String[] keyStrings = new String[8];
+        private int[] order = new int[8];
+        private int[] scratch = new int[8];
+        /**
+         * The key the next value goes under, in an object, once it has been written.
+         */
+        private int keyOffset = -1;
+        private String key;
+
+        private void add(int key, String keyString, int value) {
+            if (count == values.length) {
+                int length = count * 2;
+                keys = grow(keys, length);
+                values = grow(values, length);
+                String[] newKeyStrings = new String[length];
+                System.arraycopy(keyStrings, 0, newKeyStrings, 0, count);
+                keyStrings = newKeyStrings;
+            }
+            keys[count] = key;
+            keyStrings[count] = keyString;
+            values[count] = value;
+            ++count;
+        }
+
+        /**
+         * Drop the key strings, so they can be collected while the frame waits to be reused.
+         */
+        private void clear() {
+            for (int i = 0; i < count; ++i) {
+                keyStrings[i] = null;
+            }
+            count = 0;
+        }
+
+        /**
+         * Sort the indexes of the keys into order, keeping keys that are the same in the order they came.
+         */
+        private void sort() {
+            if (order.length < count) {
+                order = new int[values.length];
+                scratch = new int[values.length];
+            }
+            for (int i = 0; i < count; ++i) {
+                order[i] = i;
+            }
+            for (int width = 1; width < count; width *= 2) {
+                for (int start = 0; start < count; start += width * 2) {
+                    int middle = Math.min(start + width, count);
+                    int end = Math.min(start + width * 2, count);
+                    int left = start;
+                    int right = middle;
+                    for (int i = start; i < end; ++i) {
+                        if (left < middle
+                                && (right == end || keyStrings[order[left]].compareTo(keyStrings[order[right]]) <= 0)) {
+                            scratch[i] = order[left++];
+                        } else {
+                            scratch[i] = order[right++];
+                        }
+                    }
+                }
+                int[] sorted = scratch;
+                scratch = order;
+                order = sorted;
+            }
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static int[] grow(int[] array, int length) {
+        int[] newArray = new int[length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    private Frame[] frames = new Frame[16];
+    private int depth;
+    private int root = -1;
+
+    OffHeapBuilder() {
+        buffer.putInt(OffHeapDocument.MAGIC);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Record a value that has just been written at the given offset in the container it is in.
+     */
+    private void added(int offset) {
+        if (depth == 0) {
+            if (root != -1) { throw ItemscriptError.internalError(this, "added.more.than.one.value"); }
+            root = offset;
+            return;
+        }
+        Frame frame = frames[depth - 1];
+        if (frame.object) {
+            if (frame.keyOffset == -1) { throw ItemscriptError.internalError(this, "added.no.key"); }
+            frame.add(frame.keyOffset, frame.key, offset);
+            frame.keyOffset = -1;
+            frame.key = null;
+        } else {
+            frame.add(-1, null, offset);
+        }
+    }
+
+    private void end() {
+        Frame frame = frames[--depth];
+        if (frame.object) {
+            endObject(frame);
+        } else {
+            int offset = buffer.position();
+            ensure(5 + frame.count * 4);
+            buffer.put(OffHeapDocument.ARRAY);
+            buffer.putInt(frame.count);
+            for (int i = 0; i < frame.count; ++i) {
+                buffer.putInt(frame.values[i]);
+            }
+            frame.clear();
+            added(offset);
+        }
+    }
+
+    private void endObject(Frame frame) {
+        int count = frame.count;
+        frame.sort();
+        int[] order = frame.order;
+        // If a key came more than once, keep the last value in the place of the first key, as putting them into an
+        // object would; the other keys are dropped by setting their offsets to -1.
+        int kept = count;
+        for (int i = 0; i < count;) {
+            int j = i;
+            while (j + 1 < count && frame.keyStrings[order[j + 1]].equals(frame.keyStrings[order[i]])) {
+                ++j;
+            }
+            if (j > i) {
+                frame.values[order[i]] = frame.values[order[j]];
+                for (int k = i + 1; k <= j; ++k) {
+                    frame.keys[order[k]] = -1;
+                }
+                kept -= j - i;
+            }
+            i = j + 1;
+        }
+        // Number the keys that are kept in the order they came, reusing the scratch array.
+        int[] index = frame.scratch;
+        for (int i = 0, next = 0; i < count; ++i) {
+            if (frame.keys[i] != -1) {
+                index[i] = next++;
+            }
+        }
+        int offset = buffer.position();
+        ensure(5 + kept * 12);
+        buffer.put(OffHeapDocument.OBJECT);
+        buffer.putInt(kept);
+        for (int i = 0; i < count; ++i) {
+            if (frame.keys[i] != -1) {
+                buffer.putInt(frame.keys[i]);
+                buffer.putInt(frame.values[i]);
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            if (frame.keys[order[i]] != -1) {
+                buffer.putInt(index[order[i]]);
+            }
+        }
+        frame.clear();
+        added(offset);
+    }
+
+    /**
+     * Make sure there is room for the given number of bytes, moving to a buffer twice the size if there isn't.
+     */
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) { return; }
+        long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + bytes);
+        if (capacity > Integer.MAX_VALUE) {
+            if ((long) buffer.position() + bytes > Integer.MAX_VALUE) { throw ItemscriptError.internalError(this,
+                    "ensure.document.too.large"); }
+            capacity = Integer.MAX_VALUE;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect((int) capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Finish the document, and get its tape in a direct buffer of just the right size.
+     */
+    ByteBuffer finish() {
+        if (depth != 0 || root == -1) { throw ItemscriptError.internalError(this, "finish.incomplete"); }
+        buffer.putInt(4, root);
+        buffer.flip();
+        ByteBuffer tape = ByteBuffer.allocateDirect(buffer.limit());
+        tape.put(buffer);
+        tape.flip();
+        buffer = null;
+        return tape;
+    }
+
+    /**
+     * Write a key in the object that is open; the next value written goes under it.
+     */
+    private void key(String newKey) {
+        if (depth == 0 || !frames[depth - 1].object) { throw ItemscriptError.internalError(this,
+                "key.not.in.an.object", newKey); }
+        Frame frame = frames[depth - 1];
+        frame.keyOffset = buffer.position();
+        frame.key = newKey;
+        writeString(newKey);
+    }
+
+    /**
+     * Write the values read from the given reader, which should hold a single value.
+     */
+    void read(JsonReader reader) throws IOException, ParseException {
+        while (true) {
+            switch (reader.nextToken()) {
+                case JsonReader.START_OBJECT :
+                    start(true);
+                    break;
+                case JsonReader.START_ARRAY :
+                    start(false);
+                    break;
+                case JsonReader.END_OBJECT :
+                case JsonReader.END_ARRAY :
+                    end();
+                    break;
+                case JsonReader.KEY :
+                    key(reader.key());
+                    break;
+                case JsonReader.VALUE :
+                    scalar(reader.value());
+                    break;
+                case JsonReader.END_DOCUMENT :
+                    return;
+            }
+        }
+    }
+
+    private void scalar(JsonValue value) {
+        int offset = buffer.position();
+        if (value.isNull()) {
+            ensure(1);
+            buffer.put(OffHeapDocument.NULL);
+        } else if (value.isBoolean()) {
+            ensure(1);
+            buffer.put(value.booleanValue() ? OffHeapDocument.TRUE : OffHeapDocument.FALSE);
+        } else if (value.isNumber()) {
+            JsonNumber number = value.asNumber();
+            String text = number.toCompactJsonString();
+            // Integers are kept as longs, unless they were written some other way, such as "1.0", which is kept.
+            if (number.isLong() && text.equals(Long.toString(number.toLong()))) {
+                ensure(9);
+                buffer.put(OffHeapDocument.LONG);
+                buffer.putLong(number.toLong());
+            } else {
+                ensure(1);
+                buffer.put(OffHeapDocument.NUMBER);
+                writeString(text);
+            }
+        } else if (value.isString()) {
+            ensure(1);
+            buffer.put(OffHeapDocument.STRING);
+            writeString(value.stringValue());
+        } else {
+            throw ItemscriptError.internalError(this, "scalar.cannot.store.value",
+                    value.toCompactJsonString());
+        }
+        added(offset);
+    }
+
+    private void start(boolean object) {
+        if (depth == frames.length) {
+            Frame[] newFrames = new Frame[depth * 2];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+        }
+        if (frames[depth] == null) {
+            frames[depth] = new Frame();
+        }
+        frames[depth].object = object;
+        ++depth;
+    }
+
+    /**
+     * Write the given value and everything in it.
+     */
+    void value(JsonValue value) {
+        if (value.isObject()) {
+            start(true);
+            JsonObject object = value.asObject();
+            for (String objectKey : object.keySet()) {
+                key(objectKey);
+                value(object.get(objectKey));
+            }
+            end();
+        } else if (value.isArray()) {
+            start(false);
+            JsonArray array = value.asArray();
+            for (int i = 0, size = array.size(); i < size; ++i) {
+                value(array.get(i));
+            }
+            end();
+        } else {
+            scalar(value);
+        }
+    }
+
+    /**
+     * Write a string as its length in bytes followed by its UTF-8 encoding. A surrogate character that is not part
+     * of a pair is written as if it were a character on its own, so that every string is kept exactly.
+     */
+    private void writeString(String string) {
+        int length = string.length();
+        ensure(4 + length * 3);
+        int start = buffer.position();
+        buffer.putInt(0);
+        for (int i = 0; i < length; ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+}
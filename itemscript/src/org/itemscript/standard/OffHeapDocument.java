@@ -0,0 +1,518 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonReader;
+import org.itemscript.standard.parser.ParseException;
+
+/**
+ * A read-only JSON document kept outside the Java heap, in a direct or memory-mapped {@link ByteBuffer}, so that a
+ * large document that is kept for a long time costs the garbage collector nothing.
+ * <p>
+ * The document is held as a compact binary tape. Strings and keys are kept as UTF-8, integers as 8-byte longs, and
+ * other numbers as their text. Each object and array is written after the values in it, followed by a table of the
+ * offsets of those values; an object's table also lists its keys in sorted order, so a key is found by binary
+ * search without decoding the others.
+ * <p>
+ * {@link #root()} returns the document as read-only {@link org.itemscript.core.values.JsonObject} and
+ * {@link org.itemscript.core.values.JsonArray} views, which only decode the values that are asked for, each time
+ * they are asked for; a view of a nested object or array is just an offset into the buffer. The views can't be
+ * changed, have no parent, key or item, and can be given to anything that reads a JsonValue, including templates
+ * and schemas. They can also be stored as the value of a <code>mem:</code> item:
+ * 
+ * <pre>
+ * system.put(&quot;mem:/reference&quot;, OffHeapDocument.parse(system, reader).root());
+ * </pre>
+ * 
+ * Their compact JSON text is written straight from the tape, as is the whole document's by
+ * {@link #writeJson(Writer)}, without building any values. {@link JsonValue#copy()} makes an ordinary, changeable
+ * copy of a view on the heap.
+ * <p>
+ * A document can be built from a value with {@link #fromValue(JsonSystem, JsonValue)}, or from JSON text with
+ * {@link #parse(JsonSystem, Reader)}, which reads the text a token at a time and never builds the tree on the heap.
+ * The tape can be saved with {@link #write(WritableByteChannel)} and mapped back into memory later with
+ * {@link #map(JsonSystem, File)}. Offsets are ints, so a document is limited to 2GB.
+ * <p>
+ * A document is never changed once it is built, and is only read with absolute gets, so it can be read from any
+ * number of threads.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class OffHeapDocument extends ReadOnlyDocument {
+    static final int MAGIC = 0x49544150;
+    static final int HEADER_SIZE = 8;
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte LONG = 3;
+    static final byte NUMBER = 4;
+    static final byte STRING = 5;
+    static final byte OBJECT = 6;
+    static final byte ARRAY = 7;
+
+    /**
+     * Build a document in a direct buffer from a value.
+     * 
+     * @param system The associated JsonSystem.
+     * @param value The value to copy into the document.
+     * @return The new document.
+     */
+    public static OffHeapDocument fromValue(JsonSystem system, JsonValue value) {
+        OffHeapBuilder builder = new OffHeapBuilder();
+        builder.value(value);
+        return new OffHeapDocument(system, builder.finish());
+    }
+
+    /**
+     * Map a document saved with {@link #write(WritableByteChannel)} into memory. The file is not read in, so
+     * opening a document costs nothing until its values are read, and its pages are shared with the file cache.
+     * 
+     * @param system The associated JsonSystem.
+     * @param file The file to map.
+     * @return The document.
+     * @throws IOException
+     */
+    public static OffHeapDocument map(JsonSystem system, File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return wrap(system, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Build a document in a direct buffer from JSON text, one token at a time, without building the values on the
+     * heap. If an object has the same key more than once, the last value is kept, in the place of the first.
+     * 
+     * @param system The associated JsonSystem.
+     * @param reader The JSON text.
+     * @return The new document.
+     * @throws IOException
+     */
+    public static OffHeapDocument parse(JsonSystem system, Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(system, reader);
+        OffHeapBuilder builder = new OffHeapBuilder();
+        try {
+            builder.read(jsonReader);
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.OffHeapDocument.parse.ParseException", e);
+        }
+        return new OffHeapDocument(system, builder.finish());
+    }
+
+    /**
+     * Build a document in a direct buffer from JSON text; see {@link #parse(JsonSystem, Reader)}.
+     * 
+     * @param system The associated JsonSystem.
+     * @param json The JSON text.
+     * @return The new document.
+     */
+    public static OffHeapDocument parse(JsonSystem system, String json) {
+        try {
+            return parse(system, new StringReader(json));
+        } catch (IOException e) {
+            // Can't happen with a StringReader.
+            throw new ItemscriptError("error.itemscript.OffHeapDocument.parse.IOException", e);
+        }
+    }
+
+    /**
+     * Use a buffer holding a document saved with {@link #write(WritableByteChannel)}. The buffer is read from its
+     * current position to its limit, and must not be changed afterwards.
+     * 
+     * @param system The associated JsonSystem.
+     * @param buffer The buffer.
+     * @return The document.
+     */
+    public static OffHeapDocument wrap(JsonSystem system, ByteBuffer buffer) {
+        ByteBuffer tape = buffer.slice();
+        if (tape.limit() < HEADER_SIZE || tape.getInt(0) != MAGIC) { throw new ItemscriptError(
+                "error.itemscript.OffHeapDocument.wrap.not.a.document"); }
+        int root = tape.getInt(4);
+        if (root < HEADER_SIZE || root >= tape.limit()) { throw new ItemscriptError(
+                "error.itemscript.OffHeapDocument.wrap.bad.root.offset", root + ""); }
+        return new OffHeapDocument(system, tape);
+    }
+
+    private final JsonSystem system;
+    private final ByteBuffer tape;
+
+    private OffHeapDocument(JsonSystem system, ByteBuffer tape) {
+        this.system = system;
+        this.tape = tape;
+    }
+
+    /**
+     * Append the compact JSON text for the value at the given offset, the same as
+     * {@link JsonValue#toCompactJsonString()} gives for an ordinary value.
+     */
+    //@Override
+    void appendCompact(Appendable out, int offset) throws IOException {
+        switch (tape.get(offset)) {
+            case NULL :
+                out.append("null");
+                break;
+            case FALSE :
+                out.append("false");
+                break;
+            case TRUE :
+                out.append("true");
+                break;
+            case LONG :
+                out.append(Long.toString(tape.getLong(offset + 1)));
+                break;
+            case NUMBER :
+                out.append(readString(offset + 1));
+                break;
+            case STRING :
+                appendQuoted(out, offset + 1);
+                break;
+            case OBJECT : {
+                int count = count(offset);
+                out.append('{');
+                for (int i = 0; i < count; ++i) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    appendQuoted(out, keyAt(offset, i));
+                    out.append(':');
+                    appendCompact(out, valueAt(offset, i));
+                }
+                out.append('}');
+                break;
+            }
+            case ARRAY : {
+                int count = count(offset);
+                out.append('[');
+                for (int i = 0; i < count; ++i) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    appendCompact(out, element(offset, i));
+                }
+                out.append(']');
+                break;
+            }
+            default :
+                throw badTag(offset);
+        }
+    }
+
+    /**
+     * Append the string at the given offset as a quoted JSON string, escaped as by
+     * {@link JsonSerializer#appendQuoted(StringBuilder, String)}, decoding it a character at a time.
+     */
+    private void appendQuoted(Appendable out, int offset) throws IOException {
+        int pos = offset + 4;
+        int end = pos + tape.getInt(offset);
+        out.append('"');
+        char c = 0;
+        while (pos < end) {
+            char previous = c;
+            int b = tape.get(pos) & 0xff;
+            if (b < 0x80) {
+                c = (char) b;
+                ++pos;
+            } else if (b < 0xf0) {
+                c = (char) decode(pos, b);
+                pos += b < 0xe0 ? 2 : 3;
+            } else {
+                int codePoint = decode(pos, b) - 0x10000;
+                out.append((char) (0xd800 + (codePoint >> 10)));
+                c = (char) (0xdc00 + (codePoint & 0x3ff));
+                pos += 4;
+            }
+            String escape = JsonSerializer.escape(c);
+            if (escape != null) {
+                out.append(escape);
+            } else if (c == '/' && previous == '<') {
+                out.append("\\/");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private ItemscriptError badTag(int offset) {
+        return ItemscriptError.internalError(this, "badTag", offset + "");
+    }
+
+    /**
+     * Get the number of bytes the document takes up.
+     * 
+     * @return The size of the document.
+     */
+    public int byteSize() {
+        return tape.limit();
+    }
+
+    /**
+     * Compare the key at the given offset with the given key, in the order of {@link String#compareTo(String)},
+     * without decoding it into a String.
+     */
+    int compareKey(int offset, String key) {
+        int pos = offset + 4;
+        int end = pos + tape.getInt(offset);
+        int i = 0;
+        int length = key.length();
+        while (pos < end) {
+            int b = tape.get(pos) & 0xff;
+            char c;
+            if (b < 0x80) {
+                c = (char) b;
+                ++pos;
+            } else if (b < 0xf0) {
+                c = (char) decode(pos, b);
+                pos += b < 0xe0 ? 2 : 3;
+            } else {
+                int codePoint = decode(pos, b) - 0x10000;
+                c = (char) (0xd800 + (codePoint >> 10));
+                if (i == length) { return 1; }
+                if (c != key.charAt(i)) { return c - key.charAt(i); }
+                ++i;
+                c = (char) (0xdc00 + (codePoint & 0x3ff));
+                pos += 4;
+            }
+            if (i == length) { return 1; }
+            if (c != key.charAt(i)) { return c - key.charAt(i); }
+            ++i;
+        }
+        return i - length;
+    }
+
+    /**
+     * Get the number of values in the object or array at the given offset.
+     */
+    //@Override
+    int count(int offset) {
+        return tape.getInt(offset + 1);
+    }
+
+    /**
+     * Decode the character of two or more bytes starting with the given lead byte.
+     */
+    private int decode(int pos, int b) {
+        if (b < 0xe0) { return ((b & 0x1f) << 6) | (tape.get(pos + 1) & 0x3f); }
+        if (b < 0xf0) { return ((b & 0x0f) << 12) | ((tape.get(pos + 1) & 0x3f) << 6) | (tape.get(pos + 2) & 0x3f); }
+        return ((b & 0x07) << 18) | ((tape.get(pos + 1) & 0x3f) << 12) | ((tape.get(pos + 2) & 0x3f) << 6)
+                | (tape.get(pos + 3) & 0x3f);
+    }
+
+    /**
+     * Get the offset of the value at the given index in the array at the given offset.
+     */
+    //@Override
+    int element(int offset, int index) {
+        return tape.getInt(offset + 5 + index * 4);
+    }
+
+    /**
+     * Find the offset of the value under the given key in the object at the given offset, or -1 if there is none.
+     */
+    //@Override
+    int find(int offset, String key) {
+        int count = count(offset);
+        int sorted = offset + 5 + count * 8;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int index = tape.getInt(sorted + middle * 4);
+            int comparison = compareKey(keyAt(offset, index), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return valueAt(offset, index);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the first entry in the object or array at the given offset: the index 0, or -1 if it is empty.
+     */
+    //@Override
+    int first(int offset) {
+        return count(offset) == 0 ? -1 : 0;
+    }
+
+    //@Override
+    String key(int offset, int index) {
+        return readString(keyAt(offset, index));
+    }
+
+    /**
+     * Get the offset of the key at the given index, in document order, in the object at the given offset.
+     */
+    int keyAt(int offset, int index) {
+        return tape.getInt(offset + 5 + index * 8);
+    }
+
+    //@Override
+    int next(int offset, int index) {
+        return index + 1 < count(offset) ? index + 1 : -1;
+    }
+
+    /**
+     * Decode the string, key or number text at the given offset.
+     */
+    String readString(int offset) {
+        int pos = offset + 4;
+        int end = pos + tape.getInt(offset);
+        char[] chars = new char[end - pos];
+        int length = 0;
+        while (pos < end) {
+            int b = tape.get(pos) & 0xff;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+                ++pos;
+            } else if (b < 0xf0) {
+                chars[length++] = (char) decode(pos, b);
+                pos += b < 0xe0 ? 2 : 3;
+            } else {
+                int codePoint = decode(pos, b) - 0x10000;
+                chars[length++] = (char) (0xd800 + (codePoint >> 10));
+                chars[length++] = (char) (0xdc00 + (codePoint & 0x3ff));
+                pos += 4;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Get the root value of this document. If it is an object or array, this is a read-only view of it.
+     * 
+     * @return The root value.
+     */
+    public JsonValue root() {
+        return value(tape.getInt(4));
+    }
+
+    /**
+     * Get the JsonSystem associated with this document.
+     * 
+     * @return The associated JsonSystem.
+     */
+    //@Override
+    public JsonSystem system() {
+        return system;
+    }
+
+    /**
+     * Get the type of the value at the given offset.
+     */
+    byte tag(int offset) {
+        return tape.get(offset);
+    }
+
+    /**
+     * Get the value at the given offset: a new scalar, or a new view of an object or array.
+     */
+    //@Override
+    JsonValue value(int offset) {
+        switch (tape.get(offset)) {
+            case NULL :
+                return system.createNull();
+            case FALSE :
+                return system.createBoolean(false);
+            case TRUE :
+                return system.createBoolean(true);
+            case LONG :
+                return system.createNumber(tape.getLong(offset + 1));
+            case NUMBER :
+                return system.parseNumber(readString(offset + 1));
+            case STRING :
+                return system.createString(readString(offset + 1));
+            case OBJECT :
+                return new DocumentObject(this, offset);
+            case ARRAY :
+                return new DocumentArray(this, offset);
+            default :
+                throw badTag(offset);
+        }
+    }
+
+    /**
+     * Get the offset of the value at the given index, in document order, in the object at the given offset.
+     */
+    int valueAt(int offset, int index) {
+        return tape.getInt(offset + 9 + index * 8);
+    }
+
+    //@Override
+    int valueOf(int offset, int index) {
+        return tape.get(offset) == OBJECT ? valueAt(offset, index) : element(offset, index);
+    }
+
+    /**
+     * Write this document's tape, so that it can be read back with {@link #map(JsonSystem, File)} or
+     * {@link #wrap(JsonSystem, ByteBuffer)}.
+     * 
+     * @param channel The channel to write to.
+     * @throws IOException
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer bytes = tape.duplicate();
+        bytes.clear();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Write this document as compact JSON text, straight from the tape.
+     * 
+     * @param writer The Writer to write to.
+     * @throws IOException
+     */
+    public void writeJson(Writer writer) throws IOException {
+        appendCompact(writer, tape.getInt(4));
+    }
+}
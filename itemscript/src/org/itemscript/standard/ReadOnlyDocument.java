@@ -0,0 +1,98 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+package org.itemscript.standard;
+
+import java.io.IOException;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * A document that is never changed, and whose objects and arrays are handed out as the read-only views
+ * {@link DocumentObject} and {@link DocumentArray}.
+ * <p>
+ * Each value in the document is known by an int position, whose meaning is up to the document. The entries in an
+ * object or array are walked with {@link #first(int)} and {@link #next(int, int)}, which hand back an int for each
+ * entry, also up to the document, from which its key and value are found.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+abstract class ReadOnlyDocument {
+    /**
+     * Append the compact JSON text for the value at the given position, the same as
+     * {@link JsonValue#toCompactJsonString()} gives for an ordinary value.
+     */
+    abstract void appendCompact(Appendable out, int position) throws IOException;
+
+    /**
+     * Get the number of values in the object or array at the given position.
+     */
+    abstract int count(int container);
+
+    /**
+     * Get the position of the value at the given index in the array at the given position.
+     */
+    abstract int element(int array, int index);
+
+    /**
+     * Find the position of the value under the given key in the object at the given position, or -1 if there is
+     * none.
+     */
+    abstract int find(int object, String key);
+
+    /**
+     * Get the first entry in the object or array at the given position, or -1 if it is empty.
+     */
+    abstract int first(int container);
+
+    /**
+     * Get the key of the given entry in the object at the given position.
+     */
+    abstract String key(int object, int entry);
+
+    /**
+     * Get the entry after the given one in the object or array at the given position, or -1 if it was the last.
+     */
+    abstract int next(int container, int entry);
+
+    /**
+     * Get the JsonSystem associated with this document.
+     */
+    abstract JsonSystem system();
+
+    /**
+     * Get the value at the given position: a new scalar, or a new view of an object or array.
+     */
+    abstract JsonValue value(int position);
+
+    /**
+     * Get the position of the value of the given entry in the object or array at the given position.
+     */
+    abstract int valueOf(int container, int entry);
+}
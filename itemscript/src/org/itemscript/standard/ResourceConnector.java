@@ -88,8 +88,7 @@ public final class ResourceConnector extends ConnectorBase implements SyncGetCon
                 }
             }
             if (contentType.equals("application/json")) {
-                return system().createItem(url + "",
-                        StandardUtil.readJson(system(), new InputStreamReader(connection.getInputStream())))
+                return system().createItem(url + "", StandardUtil.readJson(system(), connection.getInputStream()))
                         .value();
             } else if (contentType.startsWith("text")) {
                 return system().createItem(
@@ -29,7 +29,10 @@
 
 package org.itemscript.standard;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
 
 import org.itemscript.core.JsonSystem;
@@ -38,16 +41,31 @@ import org.itemscript.core.values.ItemscriptCreator;
 import org.itemscript.core.values.JsonValue;
 import org.itemscript.standard.parser.JsonParser;
 import org.itemscript.standard.parser.ParseException;
+import org.itemscript.standard.parser.StringInterning;
 
 /**
  * Factory for the standard-Java configuration.
  * <p>
  * Uses a modified form of the json-simple parser to parse JSON.
+ * <p>
+ * {@link #parseReader} accepts a {@link Reader}, or an {@link InputStream} or byte[] containing UTF-8 encoded JSON.
+ * <p>
+ * Parsing is thread-safe: each thread that parses through this factory gets its own {@link JsonParser}, which is
+ * kept and reused for that thread's later parses.
+ * <p>
+ * Given a {@link StringInterning}, its parsers share String instances between repeated keys and short string
+ * values.
  * 
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
 public final class StandardJsonCreator extends ItemscriptCreator {
-    private final JsonParser parser;
+    private final ThreadLocal<JsonParser> parsers = new ThreadLocal<JsonParser>() {
+        //@Override
+        protected JsonParser initialValue() {
+            return new JsonParser(system(), interning);
+        }
+    };
+    private final StringInterning interning;
 
     /**
      * Create a new StandardJsonFactory.
@@ -55,27 +73,59 @@ public final class StandardJsonCreator extends ItemscriptCreator {
      * @param system The associated JsonSystem.
      */
     public StandardJsonCreator(JsonSystem system) {
+        this(system, null);
+    }
+
+    /**
+     * Create a new StandardJsonFactory whose parsers intern keys and string values.
+     * 
+     * @param system The associated JsonSystem.
+     * @param interning The StringInterning to use, or null to not intern.
+     */
+    public StandardJsonCreator(JsonSystem system, StringInterning interning) {
         super(system);
-        parser = new JsonParser(system);
+        this.interning = interning;
     }
 
     //@Override
     public JsonValue parse(String json) {
+        JsonParser parser = parsers.get();
         try {
             return parser.parse(json);
         } catch (ParseException e) {
             throw new ItemscriptError("error.itemscript.StandardJsonFactory.parse.ParseException", e);
+        } finally {
+            parser.reset(null);
         }
     }
 
+    //@Override
+    public JsonValue parseCbor(byte[] cbor) {
+        return StandardUtil.parseCbor(system(), cbor);
+    }
+
     //@Override
     public JsonValue parseReader(Object input) {
+        JsonParser parser = parsers.get();
         try {
+            if (input instanceof byte[]) {
+                input = new ByteArrayInputStream((byte[]) input);
+            }
+            if (input instanceof InputStream) {
+                input = new InputStreamReader((InputStream) input, "UTF-8");
+            }
             return parser.parse((Reader) input);
         } catch (ParseException e) {
             throw new ItemscriptError("error.itemscript.StandardJsonFactory.parse.ParseException", e);
         } catch (IOException e) {
             throw new ItemscriptError("error.itemscript.StandardJsonFactory.parse.IOException", e);
+        } finally {
+            parser.reset(null);
         }
     }
-}
\ No newline at end of file
+
+    //@Override
+    public byte[] toCbor(JsonValue value) {
+        return CborWriter.encode(value);
+    }
+}
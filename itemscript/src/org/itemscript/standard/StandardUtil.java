@@ -32,11 +32,23 @@ package org.itemscript.standard;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.itemscript.core.JsonSystem;
+import org.itemscript.core.Params;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.Url;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.values.JsonNumber;
 import org.itemscript.core.values.JsonString;
 import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.CborReader;
+import org.itemscript.standard.parser.JsonReader;
+import org.itemscript.standard.parser.ParseException;
 
 /**
  * Various utility methods for the standard Java environment.
@@ -44,6 +56,146 @@ import org.itemscript.core.values.JsonValue;
  * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
  */
 public final class StandardUtil {
+    /**
+     * Encodes canonical JSON text as UTF-8 into a MessageDigest, through a buffer.
+     */
+    private static final class DigestOutput implements CanonicalJson.Output {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[1024];
+        private int position;
+        private char highSurrogate;
+
+        DigestOutput(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        public void append(char c) {
+            if (buffer.length - position < 4) {
+                flush();
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                    return;
+                }
+                // An unpaired surrogate is encoded as '?', as String.getBytes does.
+                buffer[position++] = '?';
+                append(c);
+                return;
+            }
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        public void append(String string) {
+            int length = string.length();
+            for (int i = 0; i < length; ++i) {
+                append(string.charAt(i));
+            }
+        }
+
+        void finish() {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                append('?');
+            }
+            flush();
+        }
+
+        private void flush() {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Create a JsonReader on the given InputStream of UTF-8 encoded JSON.
+     * 
+     * @param system The associated JsonSystem.
+     * @param stream The InputStream to read from.
+     * @return A new JsonReader.
+     * @throws IOException
+     */
+    public static JsonReader createReader(JsonSystem system, InputStream stream) throws IOException {
+        return new JsonReader(system, new InputStreamReader(stream, "UTF-8"));
+    }
+
+    /**
+     * Compute a digest of the canonical JSON text of a value (see {@link CanonicalJson}), encoded as UTF-8. Values
+     * with the same canonical text give the same digest, which makes it suitable for use as an ETag.
+     * 
+     * @param value The value to digest.
+     * @param algorithm The name of the digest algorithm, such as "SHA-256".
+     * @return The digest.
+     */
+    public static byte[] digest(JsonValue value, String algorithm) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            updateDigest(digest, value);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ItemscriptError("error.itemscript.StandardUtil.digest.NoSuchAlgorithmException", e);
+        }
+    }
+
+    /**
+     * Open a JsonReader on the JSON at the given URL, which must be handled by a connector that implements
+     * {@link SyncReaderConnector}. The caller is responsible for closing it.
+     * 
+     * @param system The associated JsonSystem.
+     * @param url The URL to read from.
+     * @return A new JsonReader.
+     */
+    public static JsonReader openReader(JsonSystem system, String url) {
+        Url fullUrl = system.util()
+                .createUrl(url);
+        Object connector = system.getNative("mem:/itemscript/connectors#" + fullUrl.scheme());
+        if (!(connector instanceof SyncReaderConnector)) { throw new ItemscriptError(
+                "error.itemscript.StandardUtil.openReader.connector.did.not.implement.SyncReaderConnector",
+                new Params().p("scheme", fullUrl.scheme())
+                        .p("url", url)); }
+        return ((SyncReaderConnector) connector).getReader(fullUrl);
+    }
+
+    /**
+     * Decode the given CBOR data, which must hold exactly one item, into a new JsonValue.
+     * 
+     * @param system The associated JsonSystem.
+     * @param cbor The CBOR data.
+     * @return A new JsonValue.
+     */
+    public static JsonValue parseCbor(JsonSystem system, byte[] cbor) {
+        CborReader reader = new CborReader(system, cbor);
+        try {
+            JsonValue value = reader.readValue();
+            if (reader.nextToken() != CborReader.END_DOCUMENT) { throw new ItemscriptError(
+                    "error.itemscript.StandardUtil.parseCbor.trailing.data"); }
+            return value;
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.StandardUtil.parseCbor.ParseException", e);
+        } catch (IOException e) {
+            throw new ItemscriptError("error.itemscript.StandardUtil.parseCbor.IOException", e);
+        }
+    }
+
     /**
      * Read the given InputStream as binary into a JsonString.
      * 
@@ -59,6 +211,45 @@ public final class StandardUtil {
         return value;
     }
 
+    /**
+     * Read the given InputStream as CBOR, holding exactly one item, into a new JsonValue.
+     * 
+     * @param system The associated JsonSystem.
+     * @param stream The InputStream to read from.
+     * @return A new JsonValue.
+     * @throws IOException
+     */
+    public static JsonValue readCbor(JsonSystem system, InputStream stream) throws IOException {
+        CborReader reader = new CborReader(system, stream);
+        try {
+            JsonValue value = reader.readValue();
+            if (reader.nextToken() != CborReader.END_DOCUMENT) { throw new ItemscriptError(
+                    "error.itemscript.StandardUtil.readCbor.trailing.data"); }
+            return value;
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.StandardUtil.readCbor.ParseException", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read the given InputStream as UTF-8 encoded JSON into a new JsonValue.
+     * <p>
+     * The raw bytes are handed to the system's {@link org.itemscript.core.values.JsonCreator}, so a creator that
+     * parses bytes directly (such as {@link Utf8JsonCreator}) can skip decoding the stream to characters.
+     * 
+     * @param system The associated JsonSystem.
+     * @param stream The InputStream to read from.
+     * @return A new JsonValue.
+     * @throws IOException
+     */
+    public static JsonValue readJson(JsonSystem system, InputStream stream) throws IOException {
+        JsonValue value = system.parseReader(stream);
+        stream.close();
+        return value;
+    }
+
     /**
      * Read the given Reader as JSON into a new JsonValue.
      * 
@@ -93,4 +284,29 @@ public final class StandardUtil {
         reader.close();
         return system.createString(sb.toString());
     }
+
+    /**
+     * Update a MessageDigest with the canonical JSON text of a value (see {@link CanonicalJson}), encoded as UTF-8.
+     * The text is encoded straight into the digest, without being built up as a String.
+     * 
+     * @param digest The MessageDigest to update.
+     * @param value The value to digest.
+     */
+    public static void updateDigest(MessageDigest digest, JsonValue value) {
+        DigestOutput out = new DigestOutput(digest);
+        CanonicalJson.write(out, value);
+        out.finish();
+    }
+
+    /**
+     * Get the exact value of the given JsonNumber as a BigDecimal. A number that was parsed keeps its text, so no
+     * digits are lost, however many there were.
+     * 
+     * @param number The JsonNumber.
+     * @return A new BigDecimal.
+     */
+    public static BigDecimal toBigDecimal(JsonNumber number) {
+        if (number.isLong()) { return BigDecimal.valueOf(number.toLong()); }
+        return new BigDecimal(number.toJsonString());
+    }
 }
\ No newline at end of file
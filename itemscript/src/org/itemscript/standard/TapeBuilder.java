@@ -0,0 +1,447 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+package org.itemscript.standard;
+
+import java.util.Arrays;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Writes a {@link JsonTape}, from a value or for a {@link TapeParser}.
+ * <p>
+ * Values are written in the order they come. The entry at the start of an object or array is filled in when it is
+ * closed, which is also when an object that had the same key more than once has the values it doesn't keep taken
+ * out; the distances in the entries at the start and end of each object and array are relative, so the values
+ * after them can be moved up without changing anything in them.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class TapeBuilder {
+    /**
+     * An object or array that is still open. Frames are kept for reuse, one per depth.
+     */
+    private static final class Frame {
+        private boolean object;
+        private int start;
+        private int count;
+        /**
+         * The positions of the keys in an object.
+         */
+        private int[] fields = new int[8];
+        /**
+         * The arena offset of each key, with its index, for sorting to find keys that are the same.
+         */
+        private long[] sorted = new long[8];
+
+        private void addField(int position) {
+            if (count == fields.length) {
+                int[] newFields = new int[count * 2];
+                System.arraycopy(fields, 0, newFields, 0, count);
+                fields = newFields;
+            }
+            fields[count] = position;
+        }
+    }
+
+    private static final int INITIAL_TAPE_SIZE = 1024;
+    private static final int INITIAL_ARENA_SIZE = 4096;
+    private static final int INITIAL_KEY_SLOTS = 256;
+
+    private static char[] copy(char[] array, int length, int newLength) {
+        char[] newArray = new char[newLength];
+        System.arraycopy(array, 0, newArray, 0, length);
+        return newArray;
+    }
+
+    private static long[] copy(long[] array, int length, int newLength) {
+        long[] newArray = new long[newLength];
+        System.arraycopy(array, 0, newArray, 0, length);
+        return newArray;
+    }
+
+    private long[] tape = new long[INITIAL_TAPE_SIZE];
+    private int length;
+    private char[] arena = new char[INITIAL_ARENA_SIZE];
+    private int arenaLength;
+    /**
+     * The arena offset, plus one, of each key written so far, so that each is only kept once, in an open-addressed
+     * table indexed by the hashes of the keys, with the hashes alongside.
+     */
+    private int[] keySlots = new int[INITIAL_KEY_SLOTS];
+    private int[] keyHashes = new int[INITIAL_KEY_SLOTS];
+    private int keyCount;
+    private Frame[] frames = new Frame[16];
+    private int depth;
+    private boolean written;
+
+    /**
+     * Count a value that has just been written in the object or array it is in.
+     */
+    private void added() {
+        if (depth == 0) {
+            if (written) { throw ItemscriptError.internalError(this, "added.more.than.one.value"); }
+            written = true;
+        } else {
+            ++frames[depth - 1].count;
+        }
+    }
+
+    /**
+     * Add an entry to the tape.
+     */
+    private void append(long entry) {
+        if (length == tape.length) {
+            if (length == Integer.MAX_VALUE) { throw ItemscriptError.internalError(this, "append.tape.too.large"); }
+            tape = copy(tape, length, (int) Math.min((long) length * 2, Integer.MAX_VALUE));
+        }
+        tape[length++] = entry;
+    }
+
+    /**
+     * Take out the keys and values that are not kept from an object that had the same key more than once. The last
+     * value under each key is moved into the place of the value under the first, and the others are dropped.
+     */
+    private void dropDuplicates(Frame frame) {
+        int count = frame.count;
+        int[] fields = frame.fields;
+        long[] sorted = frame.sorted;
+        // The value to keep for each field, or -1 for a field that is dropped.
+        int[] keep = new int[count];
+        for (int i = 0; i < count;) {
+            int j = i;
+            while (j + 1 < count && (sorted[j + 1] >>> 32) == (sorted[i] >>> 32)) {
+                ++j;
+            }
+            keep[(int) sorted[i]] = (int) sorted[j];
+            for (int k = i + 1; k <= j; ++k) {
+                keep[(int) sorted[k]] = -1;
+            }
+            i = j + 1;
+        }
+        long[] kept = new long[length - frame.start - 1];
+        int keptLength = 0;
+        int keptCount = 0;
+        for (int i = 0; i < count; ++i) {
+            if (keep[i] == -1) {
+                continue;
+            }
+            int from = fields[keep[i]] + 1;
+            int to = keep[i] + 1 < count ? fields[keep[i] + 1] : length;
+            kept[keptLength++] = tape[fields[i]];
+            System.arraycopy(tape, from, kept, keptLength, to - from);
+            keptLength += to - from;
+            ++keptCount;
+        }
+        System.arraycopy(kept, 0, tape, frame.start + 1, keptLength);
+        length = frame.start + 1 + keptLength;
+        frame.count = keptCount;
+    }
+
+    /**
+     * Close the innermost object or array.
+     */
+    void end() {
+        Frame frame = frames[--depth];
+        if (frame.object && frame.count > 1 && hasDuplicates(frame)) {
+            dropDuplicates(frame);
+        }
+        long distance = length - frame.start;
+        append(JsonTape.entry(frame.object ? JsonTape.END_OBJECT : JsonTape.END_ARRAY, distance));
+        tape[frame.start] = JsonTape.entry(frame.object ? JsonTape.START_OBJECT : JsonTape.START_ARRAY,
+                ((long) Math.min(frame.count, JsonTape.MAX_COUNT) << 32) | distance);
+        added();
+    }
+
+    /**
+     * Finish the tape, trimming it and the arena to just the right size.
+     */
+    JsonTape finish(JsonSystem system) {
+        if (depth != 0 || !written) { throw ItemscriptError.internalError(this, "finish.incomplete"); }
+        JsonTape jsonTape = new JsonTape(system, copy(tape, length, length), copy(arena, arenaLength, arenaLength));
+        tape = null;
+        arena = null;
+        return jsonTape;
+    }
+
+    /**
+     * Sort the keys of an object by their arena offsets, which are the same for keys that are the same, and test
+     * whether any are.
+     */
+    private boolean hasDuplicates(Frame frame) {
+        int count = frame.count;
+        if (frame.sorted.length < count) {
+            frame.sorted = new long[frame.fields.length];
+        }
+        long[] sorted = frame.sorted;
+        for (int i = 0; i < count; ++i) {
+            sorted[i] = ((tape[frame.fields[i]] & JsonTape.PAYLOAD_MASK) << 32) | i;
+        }
+        Arrays.sort(sorted, 0, count);
+        for (int i = 1; i < count; ++i) {
+            if ((sorted[i] >>> 32) == (sorted[i - 1] >>> 32)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Write a key in the object that is open; the next value written goes under it.
+     */
+    void key(char[] text, int from, int length) {
+        if (depth == 0 || !frames[depth - 1].object) { throw ItemscriptError.internalError(this,
+                "key.not.in.an.object", new String(text, from, length)); }
+        frames[depth - 1].addField(this.length);
+        append(JsonTape.entry(JsonTape.STRING, keyOffset(text, from, length)));
+    }
+
+    /**
+     * Get the arena offset of the given key, adding it to the arena if it is not there yet.
+     */
+    private int keyOffset(char[] text, int from, int length) {
+        int hash = 0;
+        for (int i = from, end = from + length; i < end; ++i) {
+            hash = 31 * hash + text[i];
+        }
+        int mask = keySlots.length - 1;
+        for (int slot = (hash ^ (hash >>> 16)) & mask;; slot = (slot + 1) & mask) {
+            int offset = keySlots[slot] - 1;
+            if (offset == -1) {
+                offset = text(text, from, length);
+                keySlots[slot] = offset + 1;
+                keyHashes[slot] = hash;
+                if (++keyCount * 2 > keySlots.length) {
+                    rehashKeys();
+                }
+                return offset;
+            }
+            if (keyHashes[slot] == hash && textEquals(offset, text, from, length)) { return offset; }
+        }
+    }
+
+    /**
+     * Write a null, true or false.
+     */
+    void literal(int tag) {
+        append(JsonTape.entry(tag, 0));
+        added();
+    }
+
+    /**
+     * Write a number that was read as a double, kept as a long if a number created from the double would be
+     * written the same as one created from the long, and otherwise with no text of its own.
+     */
+    void number(double value) {
+        if (value == (long) value && Math.abs(value) < JsonTape.MAX_PLAIN_LONG
+                && (value != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            append(JsonTape.entry(JsonTape.LONG, 0));
+            append((long) value);
+        } else {
+            append(JsonTape.entry(JsonTape.NUMBER, JsonTape.NO_TEXT));
+            append(Double.doubleToRawLongBits(value));
+        }
+        added();
+    }
+
+    /**
+     * Write a number that is kept as its text, as a number with too many digits for a double is.
+     */
+    void number(char[] text, int from, int length) {
+        String literal = new String(text, from, length);
+        long longValue = 0;
+        boolean isLong;
+        try {
+            longValue = Long.parseLong(literal);
+            isLong = Long.toString(longValue)
+                    .equals(literal);
+        } catch (NumberFormatException e) {
+            isLong = false;
+        }
+        if (isLong) {
+            append(JsonTape.entry(JsonTape.LONG, 0));
+            append(longValue);
+        } else {
+            numberText(literal, Double.parseDouble(literal));
+        }
+        added();
+    }
+
+    private void numberText(String text, double value) {
+        append(JsonTape.entry(JsonTape.NUMBER, text(text)));
+        append(Double.doubleToRawLongBits(value));
+    }
+
+    private void rehashKeys() {
+        int[] oldSlots = keySlots;
+        int[] oldHashes = keyHashes;
+        keySlots = new int[oldSlots.length * 2];
+        keyHashes = new int[oldSlots.length * 2];
+        int mask = keySlots.length - 1;
+        for (int i = 0; i < oldSlots.length; ++i) {
+            if (oldSlots[i] == 0) {
+                continue;
+            }
+            int hash = oldHashes[i];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keySlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keySlots[slot] = oldSlots[i];
+            keyHashes[slot] = hash;
+        }
+    }
+
+    private void scalar(JsonValue value) {
+        if (value.isNull()) {
+            literal(JsonTape.NULL);
+            return;
+        }
+        if (value.isBoolean()) {
+            literal(value.booleanValue() ? JsonTape.TRUE : JsonTape.FALSE);
+            return;
+        }
+        if (value.isNumber()) {
+            JsonNumber number = value.asNumber();
+            String text = number.toCompactJsonString();
+            // Integers are kept as longs, unless they were written some other way, such as "1.0", which is kept.
+            if (number.isLong() && text.equals(Long.toString(number.toLong()))) {
+                append(JsonTape.entry(JsonTape.LONG, 0));
+                append(number.toLong());
+            } else {
+                numberText(text, number.doubleValue());
+            }
+        } else if (value.isString()) {
+            append(JsonTape.entry(JsonTape.STRING, text(value.stringValue())));
+        } else {
+            throw ItemscriptError.internalError(this, "scalar.cannot.store.value", value.toCompactJsonString());
+        }
+        added();
+    }
+
+    void start(boolean object) {
+        if (depth == frames.length) {
+            Frame[] newFrames = new Frame[depth * 2];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+        }
+        if (frames[depth] == null) {
+            frames[depth] = new Frame();
+        }
+        Frame frame = frames[depth++];
+        frame.object = object;
+        frame.start = length;
+        frame.count = 0;
+        // Filled in by end().
+        append(0);
+    }
+
+    /**
+     * Write a string.
+     */
+    void string(char[] text, int from, int length) {
+        append(JsonTape.entry(JsonTape.STRING, text(text, from, length)));
+        added();
+    }
+
+    /**
+     * Add the given text to the arena, after its length, and get its offset.
+     */
+    private int text(char[] text, int from, int length) {
+        int offset = textStart(length);
+        System.arraycopy(text, from, arena, arenaLength, length);
+        arenaLength += length;
+        return offset;
+    }
+
+    private int text(String text) {
+        int length = text.length();
+        int offset = textStart(length);
+        text.getChars(0, length, arena, arenaLength);
+        arenaLength += length;
+        return offset;
+    }
+
+    /**
+     * Test whether the text at the given offset in the arena is the same as the given text.
+     */
+    private boolean textEquals(int offset, char[] text, int from, int length) {
+        if (((arena[offset] << 16) | arena[offset + 1]) != length) { return false; }
+        offset += 2;
+        for (int i = 0; i < length; ++i) {
+            if (arena[offset + i] != text[from + i]) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Make room in the arena for text of the given length, write the length, and get the offset.
+     */
+    private int textStart(int length) {
+        if (arena.length - arenaLength < length + 2) {
+            long size = Math.max((long) arena.length * 2, (long) arenaLength + length + 2);
+            if (size > Integer.MAX_VALUE) {
+                if ((long) arenaLength + length + 2 > Integer.MAX_VALUE) { throw ItemscriptError.internalError(this,
+                        "textStart.arena.too.large"); }
+                size = Integer.MAX_VALUE;
+            }
+            arena = copy(arena, arenaLength, (int) size);
+        }
+        int offset = arenaLength;
+        arena[arenaLength++] = (char) (length >>> 16);
+        arena[arenaLength++] = (char) length;
+        return offset;
+    }
+
+    /**
+     * Write the given value and everything in it.
+     */
+    void value(JsonValue value) {
+        if (value.isObject()) {
+            start(true);
+            JsonObject object = value.asObject();
+            for (String objectKey : object.keySet()) {
+                key(objectKey.toCharArray(), 0, objectKey.length());
+                value(object.get(objectKey));
+            }
+            end();
+        } else if (value.isArray()) {
+            start(false);
+            JsonArray array = value.asArray();
+            for (JsonValue element : array) {
+                value(element);
+            }
+            end();
+        } else {
+            scalar(value);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+package org.itemscript.standard;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Walks a {@link JsonTape}, reading values straight from it without creating any objects.
+ * <p>
+ * A cursor is always at one value, starting at the root. {@link #enterObject()} and {@link #enterArray()} go into
+ * the object or array the cursor is at, to just before its first value; {@link #nextElement()} and
+ * {@link #findField(String)} move to a value in it; and {@link #exit()} goes back out to the object or array
+ * itself. The methods that read the value the cursor is at, such as {@link #getDouble()} and
+ * {@link #getString()}, throw an {@link ItemscriptError} if it is not of their type; test it first with
+ * {@link #isNumber()} and the like if it might not be. {@link #value()} gets it as a {@link JsonValue}.
+ * <p>
+ * Nothing is allocated except by {@link #getString()}, {@link #key()} and {@link #value()}, and when the cursor
+ * goes into objects and arrays nested deeper than it has been before. A cursor is not thread-safe, but any number
+ * can be used on the same tape at once.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+public final class TapeCursor {
+    private final JsonTape jsonTape;
+    private final long[] tape;
+    private int position;
+    /**
+     * The positions of the objects and arrays the cursor is in, innermost last.
+     */
+    private int[] containers = new int[16];
+    private int depth;
+
+    TapeCursor(JsonTape jsonTape) {
+        this.jsonTape = jsonTape;
+        this.tape = jsonTape.tape;
+    }
+
+    /**
+     * Get the position of the innermost object or array the cursor is in.
+     */
+    private int container(String method) {
+        if (depth == 0) { throw ItemscriptError.internalError(this, method + ".not.in.an.object.or.array"); }
+        return containers[depth - 1];
+    }
+
+    /**
+     * Go into the array the cursor is at, to just before its first value.
+     * 
+     * @return True if the cursor was at an array, false if it was not, in which case it has not moved.
+     */
+    public boolean enterArray() {
+        return enter(JsonTape.START_ARRAY);
+    }
+
+    private boolean enter(int tag) {
+        if (JsonTape.tag(tape[position]) != tag) { return false; }
+        if (depth == containers.length) {
+            int[] newContainers = new int[depth * 2];
+            System.arraycopy(containers, 0, newContainers, 0, depth);
+            containers = newContainers;
+        }
+        containers[depth++] = position;
+        return true;
+    }
+
+    /**
+     * Go into the object the cursor is at, to just before its first value.
+     * 
+     * @return True if the cursor was at an object, false if it was not, in which case it has not moved.
+     */
+    public boolean enterObject() {
+        return enter(JsonTape.START_OBJECT);
+    }
+
+    /**
+     * Go back out of the innermost object or array the cursor is in, to that object or array.
+     */
+    public void exit() {
+        position = container("exit");
+        --depth;
+    }
+
+    /**
+     * Move to the value under the given key in the innermost object the cursor is in. The keys are looked at from
+     * the one after the value the cursor is at round to the one before it, so reading fields in the order they were
+     * written only looks at each key once.
+     * 
+     * @param key The key to find.
+     * @return True if the key was found, false if it was not, in which case the cursor has not moved.
+     */
+    public boolean findField(String key) {
+        int object = container("findField");
+        if (JsonTape.tag(tape[object]) != JsonTape.START_OBJECT) { throw ItemscriptError.internalError(this,
+                "findField.not.in.an.object", key); }
+        int end = jsonTape.end(object);
+        int from = position == object ? object + 1 : jsonTape.skip(position);
+        for (int field = from; field < end; field = jsonTape.skip(field + 1)) {
+            if (jsonTape.stringEquals(tape[field], key)) {
+                position = field + 1;
+                return true;
+            }
+        }
+        for (int field = object + 1; field < from; field = jsonTape.skip(field + 1)) {
+            if (jsonTape.stringEquals(tape[field], key)) {
+                position = field + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the boolean the cursor is at.
+     * 
+     * @return The boolean.
+     */
+    public boolean getBoolean() {
+        switch (tag()) {
+            case JsonTape.TRUE :
+                return true;
+            case JsonTape.FALSE :
+                return false;
+            default :
+                throw ItemscriptError.internalError(this, "getBoolean.not.a.boolean", position + "");
+        }
+    }
+
+    /**
+     * Get the number the cursor is at as a double.
+     * 
+     * @return The number.
+     */
+    public double getDouble() {
+        switch (tag()) {
+            case JsonTape.LONG :
+                return tape[position + 1];
+            case JsonTape.NUMBER :
+                return Double.longBitsToDouble(tape[position + 1]);
+            default :
+                throw ItemscriptError.internalError(this, "getDouble.not.a.number", position + "");
+        }
+    }
+
+    /**
+     * Get the number the cursor is at as a long. A number that is not an integer is rounded towards zero.
+     * 
+     * @return The number.
+     */
+    public long getLong() {
+        switch (tag()) {
+            case JsonTape.LONG :
+                return tape[position + 1];
+            case JsonTape.NUMBER :
+                return (long) Double.longBitsToDouble(tape[position + 1]);
+            default :
+                throw ItemscriptError.internalError(this, "getLong.not.a.number", position + "");
+        }
+    }
+
+    /**
+     * Get the string the cursor is at.
+     * 
+     * @return The string.
+     */
+    public String getString() {
+        if (tag() != JsonTape.STRING) { throw ItemscriptError.internalError(this, "getString.not.a.string",
+                position + ""); }
+        return jsonTape.string(tape[position]);
+    }
+
+    /**
+     * Test whether the cursor is at an array.
+     * 
+     * @return True if the cursor is at an array.
+     */
+    public boolean isArray() {
+        return tag() == JsonTape.START_ARRAY;
+    }
+
+    /**
+     * Test whether the cursor is at a boolean.
+     * 
+     * @return True if the cursor is at a boolean.
+     */
+    public boolean isBoolean() {
+        int tag = tag();
+        return tag == JsonTape.TRUE || tag == JsonTape.FALSE;
+    }
+
+    /**
+     * Test whether the cursor is at a null.
+     * 
+     * @return True if the cursor is at a null.
+     */
+    public boolean isNull() {
+        return tag() == JsonTape.NULL;
+    }
+
+    /**
+     * Test whether the cursor is at a number.
+     * 
+     * @return True if the cursor is at a number.
+     */
+    public boolean isNumber() {
+        int tag = tag();
+        return tag == JsonTape.LONG || tag == JsonTape.NUMBER;
+    }
+
+    /**
+     * Test whether the cursor is at an object.
+     * 
+     * @return True if the cursor is at an object.
+     */
+    public boolean isObject() {
+        return tag() == JsonTape.START_OBJECT;
+    }
+
+    /**
+     * Test whether the cursor is at a string.
+     * 
+     * @return True if the cursor is at a string.
+     */
+    public boolean isString() {
+        return tag() == JsonTape.STRING;
+    }
+
+    /**
+     * Get the key of the value the cursor is at, in the innermost object it is in.
+     * 
+     * @return The key.
+     */
+    public String key() {
+        return jsonTape.string(tape[keyPosition("key")]);
+    }
+
+    /**
+     * Test whether the key of the value the cursor is at is the same as the given string, without making a String
+     * of it.
+     * 
+     * @param key The key to compare with.
+     * @return True if the keys are the same.
+     */
+    public boolean keyEquals(String key) {
+        return jsonTape.stringEquals(tape[keyPosition("keyEquals")], key);
+    }
+
+    private int keyPosition(String method) {
+        int container = container(method);
+        if (JsonTape.tag(tape[container]) != JsonTape.START_OBJECT || position == container) { throw ItemscriptError
+                .internalError(this, method + ".not.at.a.value.in.an.object"); }
+        return position - 1;
+    }
+
+    /**
+     * Move to the next value in the innermost object or array the cursor is in, or to the first one if the cursor
+     * has just gone into it.
+     * 
+     * @return True if there was another value, false if there was not, in which case the cursor has not moved.
+     */
+    public boolean nextElement() {
+        int container = container("nextElement");
+        int next = position == container ? container + 1 : jsonTape.skip(position);
+        if (next == jsonTape.end(container)) { return false; }
+        position = JsonTape.tag(tape[container]) == JsonTape.START_OBJECT ? next + 1 : next;
+        return true;
+    }
+
+    /**
+     * Go back to the root of the tape.
+     */
+    public void reset() {
+        position = 0;
+        depth = 0;
+    }
+
+    /**
+     * Get the number of values in the object or array the cursor is at.
+     * 
+     * @return The number of values.
+     */
+    public int size() {
+        int tag = tag();
+        if (tag != JsonTape.START_OBJECT && tag != JsonTape.START_ARRAY) { throw ItemscriptError.internalError(this,
+                "size.not.an.object.or.array", position + ""); }
+        return jsonTape.count(position);
+    }
+
+    /**
+     * Test whether the cursor is at a string that is the same as the given string, without making a String of it.
+     * 
+     * @param string The string to compare with.
+     * @return True if the cursor is at a string and it is the same.
+     */
+    public boolean stringEquals(String string) {
+        return tag() == JsonTape.STRING && jsonTape.stringEquals(tape[position], string);
+    }
+
+    private int tag() {
+        return JsonTape.tag(tape[position]);
+    }
+
+    /**
+     * Get the value the cursor is at. If it is an object or array, this is a read-only view of it, as from
+     * {@link JsonTape#root()}.
+     * 
+     * @return The value.
+     */
+    public JsonValue value() {
+        return jsonTape.value(position);
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+package org.itemscript.standard;
+
+import org.itemscript.standard.parser.ExactDouble;
+import org.itemscript.standard.parser.ParseException;
+
+/**
+ * Parses JSON text straight into a {@link TapeBuilder}, without creating a value, or even a String, for anything in
+ * it but numbers with too many digits for a double.
+ * <p>
+ * It accepts the same grammar as {@link org.itemscript.standard.parser.Utf8JsonParser}, and reads numbers the same
+ * way, so that a {@link JsonTape} holds the same values that parser would build. A string or key with no escapes
+ * in it is copied into the tape's arena straight from the text.
+ * 
+ * @author Jacob Davies<br/><a href="mailto:jacob@itemscript.org">jacob@itemscript.org</a>
+ */
+final class TapeParser {
+    private static final int INITIAL_CHARS = 64;
+    private final TapeBuilder builder;
+    private final char[] buf;
+    private int pos;
+    private final int end;
+    /**
+     * Holds the text of a string or key with escapes in it, once they have been decoded.
+     */
+    private char[] chars = new char[INITIAL_CHARS];
+
+    TapeParser(TapeBuilder builder, char[] text, int length) {
+        this.builder = builder;
+        this.buf = text;
+        this.end = length;
+    }
+
+    private void appendChar(int n, char c) {
+        if (n == chars.length) {
+            char[] newChars = new char[chars.length * 2];
+            System.arraycopy(chars, 0, newChars, 0, n);
+            chars = newChars;
+        }
+        chars[n] = c;
+    }
+
+    private int column(int errorPos) {
+        int column = 1;
+        for (int i = 0; i < errorPos; ++i) {
+            char c = buf[i];
+            if (c == '\n' || c == '\r') {
+                column = 1;
+            } else {
+                ++column;
+            }
+        }
+        return column;
+    }
+
+    private void expectLiteral(String literal) throws ParseException {
+        for (int i = 0; i < literal.length(); ++i) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != literal.charAt(i)) { throw unexpected(pos); }
+            ++pos;
+        }
+    }
+
+    private int hexDigit(int at) throws ParseException {
+        if (at >= end) { throw unexpectedEnd(); }
+        char c = buf[at];
+        if (c >= '0' && c <= '9') { return c - '0'; }
+        if (c >= 'a' && c <= 'f') { return c - 'a' + 10; }
+        if (c >= 'A' && c <= 'F') { return c - 'A' + 10; }
+        throw unexpected(at);
+    }
+
+    private int line(int errorPos) {
+        int line = 1;
+        for (int i = 0; i < errorPos; ++i) {
+            char c = buf[i];
+            if (c == '\n') {
+                if (i == 0 || buf[i - 1] != '\r') {
+                    ++line;
+                }
+            } else if (c == '\r') {
+                ++line;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Parse the text, which should hold a single value, into the builder. A leading byte order mark is skipped.
+     */
+    void parse() throws ParseException {
+        if (pos < end && buf[pos] == '\uFEFF') {
+            ++pos;
+        }
+        parseValue();
+        skipWhitespace();
+        if (pos < end) { throw unexpected(pos); }
+    }
+
+    private void parseArray() throws ParseException {
+        builder.start(false);
+        // Skip the '['.
+        ++pos;
+        skipWhitespace();
+        if (pos < end && buf[pos] == ']') {
+            ++pos;
+            builder.end();
+            return;
+        }
+        while (true) {
+            parseValue();
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            char c = buf[pos++];
+            if (c == ']') {
+                builder.end();
+                return;
+            }
+            if (c != ',') { throw unexpected(pos - 1); }
+        }
+    }
+
+    private void parseNumber() throws ParseException {
+        int numberStart = pos;
+        boolean negative = false;
+        if (buf[pos] == '-') {
+            negative = true;
+            ++pos;
+        }
+        int digitsStart = pos;
+        long mantissa = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            mantissa = mantissa * 10 + (buf[pos] - '0');
+            ++pos;
+        }
+        int digits = pos - digitsStart;
+        if (digits == 0) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            throw unexpected(pos);
+        }
+        int scale = 0;
+        if (pos < end && buf[pos] == '.') {
+            int fractionStart = ++pos;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+                ++pos;
+            }
+            if (pos == fractionStart) { throw pos >= end ? unexpectedEnd() : unexpected(pos); }
+            scale = fractionStart - pos;
+            digits += pos - fractionStart;
+        }
+        if (pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            ++pos;
+            boolean negativeExponent = false;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExponent = buf[pos] == '-';
+                ++pos;
+            }
+            int exponentStart = pos;
+            int exponent = 0;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                if (exponent <= ExactDouble.MAX_SCALE) {
+                    exponent = exponent * 10 + (buf[pos] - '0');
+                }
+                ++pos;
+            }
+            if (pos == exponentStart) { throw pos >= end ? unexpectedEnd() : unexpected(pos); }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (ExactDouble.isExact(digits, scale)) {
+            builder.number(ExactDouble.toDouble(negative, mantissa, scale));
+            return;
+        }
+        // Too many digits for a double to hold exactly; keep the text.
+        builder.number(buf, numberStart, pos - numberStart);
+    }
+
+    private void parseObject() throws ParseException {
+        builder.start(true);
+        // Skip the '{'.
+        ++pos;
+        skipWhitespace();
+        if (pos < end && buf[pos] == '}') {
+            ++pos;
+            builder.end();
+            return;
+        }
+        while (true) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != '"') { throw unexpected(pos); }
+            readString(true);
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != ':') { throw unexpected(pos); }
+            ++pos;
+            parseValue();
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            char c = buf[pos++];
+            if (c == '}') {
+                builder.end();
+                return;
+            }
+            if (c != ',') { throw unexpected(pos - 1); }
+            skipWhitespace();
+        }
+    }
+
+    private void parseValue() throws ParseException {
+        skipWhitespace();
+        if (pos >= end) { throw unexpectedEnd(); }
+        switch (buf[pos]) {
+            case '{' :
+                parseObject();
+                break;
+            case '[' :
+                parseArray();
+                break;
+            case '"' :
+                readString(false);
+                break;
+            case 't' :
+                expectLiteral("true");
+                builder.literal(JsonTape.TRUE);
+                break;
+            case 'f' :
+                expectLiteral("false");
+                builder.literal(JsonTape.FALSE);
+                break;
+            case 'n' :
+                expectLiteral("null");
+                builder.literal(JsonTape.NULL);
+                break;
+            case '-' :
+            case '0' :
+            case '1' :
+            case '2' :
+            case '3' :
+            case '4' :
+            case '5' :
+            case '6' :
+            case '7' :
+            case '8' :
+            case '9' :
+                parseNumber();
+                break;
+            default :
+                throw unexpected(pos);
+        }
+    }
+
+    private int readEscape(int n) throws ParseException {
+        // Skip the backslash.
+        ++pos;
+        if (pos >= end) { throw unexpectedEnd(); }
+        char c = buf[pos++];
+        switch (c) {
+            case '"' :
+            case '\\' :
+            case '/' :
+                appendChar(n, c);
+                break;
+            case 'b' :
+                appendChar(n, '\b');
+                break;
+            case 'f' :
+                appendChar(n, '\f');
+                break;
+            case 'n' :
+                appendChar(n, '\n');
+                break;
+            case 'r' :
+                appendChar(n, '\r');
+                break;
+            case 't' :
+                appendChar(n, '\t');
+                break;
+            case 'u' :
+                int u = (hexDigit(pos) << 12) | (hexDigit(pos + 1) << 8) | (hexDigit(pos + 2) << 4) | hexDigit(pos + 3);
+                pos += 4;
+                appendChar(n, (char) u);
+                break;
+            default :
+                throw unexpected(pos - 1);
+        }
+        return n + 1;
+    }
+
+    /**
+     * Read a string or key starting at the opening quote at the current position into the builder, and leave the
+     * position just after the closing quote.
+     */
+    private void readString(boolean key) throws ParseException {
+        // Skip the opening quote.
+        int stringStart = ++pos;
+        // Fast path: text with no escapes is copied straight from the input.
+        int p = stringStart;
+        while (p < end) {
+            char c = buf[p];
+            if (c == '"') {
+                pos = p + 1;
+                if (key) {
+                    builder.key(buf, stringStart, p - stringStart);
+                } else {
+                    builder.string(buf, stringStart, p - stringStart);
+                }
+                return;
+            }
+            if (c == '\\') {
+                break;
+            }
+            ++p;
+        }
+        int n = p - stringStart;
+        for (int i = 0; i < n; ++i) {
+            appendChar(i, buf[stringStart + i]);
+        }
+        pos = p;
+        while (true) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            char c = buf[pos];
+            if (c == '"') {
+                ++pos;
+                if (key) {
+                    builder.key(chars, 0, n);
+                } else {
+                    builder.string(chars, 0, n);
+                }
+                return;
+            } else if (c == '\\') {
+                n = readEscape(n);
+            } else {
+                appendChar(n++, c);
+                ++pos;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            char c = buf[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            ++pos;
+        }
+    }
+
+    private ParseException unexpected(int at) {
+        return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_CHAR,
+                Character.valueOf(buf[at]));
+    }
+
+    private ParseException unexpectedEnd() {
+        // The text a Yytoken gives for the end of the input.
+        return new ParseException(line(end), column(end), ParseException.ERROR_UNEXPECTED_TOKEN, "END OF FILE");
+    }
+}
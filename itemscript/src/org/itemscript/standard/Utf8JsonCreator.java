@@ -0,0 +1,150 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package org.itemscript.standard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.ItemscriptCreator;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonParser;
+import org.itemscript.standard.parser.ParseException;
+import org.itemscript.standard.parser.StringInterning;
+import org.itemscript.standard.parser.Utf8JsonParser;
+
+/**
+ * Factory for the standard-Java configuration that parses UTF-8 encoded input directly from bytes.
+ * <p>
+ * {@link #parseReader} accepts an {@link InputStream}, a byte[] or a {@link ByteBuffer}, which are parsed by a
+ * {@link Utf8JsonParser} without being decoded to characters first; a {@link Reader} is still accepted, and is
+ * parsed by the regular {@link JsonParser}, as are Strings passed to {@link #parse}.
+ * <p>
+ * Like {@link StandardJsonCreator}, it is thread-safe: each parsing thread gets its own parsers, which are reused
+ * for that thread's later parses. Given a {@link StringInterning}, they share String instances between repeated keys
+ * and short string values.
+ * <p>
+ * To use it, return one from {@link org.itemscript.core.config.JsonConfig#createJsonCreator}:
+ * 
+ * <pre>
+ * JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+ *     public JsonCreator createJsonCreator(JsonSystem system) {
+ *         return new Utf8JsonCreator(system);
+ *     }
+ * });
+ * </pre>
+ */
+public final class Utf8JsonCreator extends ItemscriptCreator {
+    private final ThreadLocal<JsonParser> parsers = new ThreadLocal<JsonParser>() {
+        //@Override
+        protected JsonParser initialValue() {
+            return new JsonParser(system(), interning);
+        }
+    };
+    private final ThreadLocal<Utf8JsonParser> utf8Parsers = new ThreadLocal<Utf8JsonParser>() {
+        //@Override
+        protected Utf8JsonParser initialValue() {
+            return new Utf8JsonParser(system(), interning);
+        }
+    };
+    private final StringInterning interning;
+
+    /**
+     * Create a new Utf8JsonCreator.
+     * 
+     * @param system The associated JsonSystem.
+     */
+    public Utf8JsonCreator(JsonSystem system) {
+        this(system, null);
+    }
+
+    /**
+     * Create a new Utf8JsonCreator whose parsers intern keys and string values.
+     * 
+     * @param system The associated JsonSystem.
+     * @param interning The StringInterning to use, or null to not intern.
+     */
+    public Utf8JsonCreator(JsonSystem system, StringInterning interning) {
+        super(system);
+        this.interning = interning;
+    }
+
+    //@Override
+    public JsonValue parse(String json) {
+        JsonParser parser = parsers.get();
+        try {
+            return parser.parse(json);
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.Utf8JsonCreator.parse.ParseException", e);
+        } finally {
+            parser.reset(null);
+        }
+    }
+
+    //@Override
+    public JsonValue parseCbor(byte[] cbor) {
+        return StandardUtil.parseCbor(system(), cbor);
+    }
+
+    //@Override
+    public JsonValue parseReader(Object input) {
+        try {
+            if (input instanceof InputStream) {
+                return utf8Parsers.get()
+                        .parse((InputStream) input);
+            } else if (input instanceof byte[]) {
+                return utf8Parsers.get()
+                        .parse((byte[]) input);
+            } else if (input instanceof ByteBuffer) {
+                return utf8Parsers.get()
+                        .parse((ByteBuffer) input);
+            } else {
+                JsonParser parser = parsers.get();
+                try {
+                    return parser.parse((Reader) input);
+                } finally {
+                    parser.reset(null);
+                }
+            }
+        } catch (ParseException e) {
+            throw new ItemscriptError("error.itemscript.Utf8JsonCreator.parse.ParseException", e);
+        } catch (IOException e) {
+            throw new ItemscriptError("error.itemscript.Utf8JsonCreator.parse.IOException", e);
+        }
+    }
+
+    //@Override
+    public byte[] toCbor(JsonValue value) {
+        return CborWriter.encode(value);
+    }
+}
@@ -0,0 +1,651 @@
+package org.itemscript.standard.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Pull-style reader for CBOR (RFC 7049) data, the binary counterpart of {@link JsonReader}.
+ * <p>
+ * It has the same tokens and methods as JsonReader: {@link #nextToken()} steps through the data one token at a time,
+ * keeping only the current nesting, and {@link #readValue()} builds the value at the current position. To decode a
+ * whole item, just call {@link #readValue()} on a new reader. Any number of items may follow each other, as in a CBOR
+ * sequence; call {@link #nextToken()} to move to each of the later ones.
+ * <p>
+ * Maps become objects, and must have text string keys. Text strings become strings, and byte strings become strings
+ * created from binary data. Integers, floats of all three sizes, bignums (tags 2 and 3) and decimal fractions (tag
+ * 4) become numbers, keeping their exact values; undefined becomes null. Definite and indefinite lengths are both
+ * accepted. Other tags, such as the self-describe tag 55799, are skipped, leaving the item they tag.
+ * <p>
+ * The data can come from a byte array, which is read in place, or from an InputStream, which is read through a
+ * buffer. Errors report the offset of the byte they were found at as the column. A CborReader is not thread-safe.
+ */
+public final class CborReader {
+    /**
+     * Token returned by {@link #nextToken()} before the first call to it.
+     */
+    public static final int NONE = JsonReader.NONE;
+    /**
+     * Token for the start of an object.
+     */
+    public static final int START_OBJECT = JsonReader.START_OBJECT;
+    /**
+     * Token for the end of an object.
+     */
+    public static final int END_OBJECT = JsonReader.END_OBJECT;
+    /**
+     * Token for the start of an array.
+     */
+    public static final int START_ARRAY = JsonReader.START_ARRAY;
+    /**
+     * Token for the end of an array.
+     */
+    public static final int END_ARRAY = JsonReader.END_ARRAY;
+    /**
+     * Token for a key in an object; the key is available from {@link #key()}.
+     */
+    public static final int KEY = JsonReader.KEY;
+    /**
+     * Token for a string, number, boolean or null; the value is available from {@link #value()}.
+     */
+    public static final int VALUE = JsonReader.VALUE;
+    /**
+     * Token for the end of the input.
+     */
+    public static final int END_DOCUMENT = JsonReader.END_DOCUMENT;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+    private static final long TAG_POSITIVE_BIGNUM = 2;
+    private static final long TAG_NEGATIVE_BIGNUM = 3;
+    private static final long TAG_DECIMAL_FRACTION = 4;
+    private final JsonSystem system;
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    /**
+     * The offset in the input of buffer[0], for error positions.
+     */
+    private long discarded;
+    private boolean[] objects = new boolean[16];
+    /**
+     * The number of entries in each open container, or -1 if its length is indefinite.
+     */
+    private long[] sizes = new long[16];
+    /**
+     * The number of entries started so far in each open container.
+     */
+    private long[] counts = new long[16];
+    /**
+     * Whether a key has been read in each open object, and its value is next.
+     */
+    private boolean[] keyRead = new boolean[16];
+    private int depth;
+    private int token = NONE;
+    private String key;
+    private JsonValue value;
+
+    /**
+     * Create a new CborReader on a byte array. The array is read in place, and must not be changed while it is
+     * being read.
+     * 
+     * @param system The associated JsonSystem.
+     * @param bytes The CBOR data.
+     */
+    public CborReader(JsonSystem system, byte[] bytes) {
+        this(system, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Create a new CborReader on part of a byte array. The array is read in place, and must not be changed while it
+     * is being read.
+     * 
+     * @param system The associated JsonSystem.
+     * @param bytes The array containing the CBOR data.
+     * @param offset The offset of the data in the array.
+     * @param length The length of the data.
+     */
+    public CborReader(JsonSystem system, byte[] bytes, int offset, int length) {
+        this.system = system;
+        this.in = null;
+        this.buffer = bytes;
+        this.position = offset;
+        this.limit = offset + length;
+        this.discarded = -offset;
+    }
+
+    /**
+     * Create a new CborReader on an InputStream.
+     * 
+     * @param system The associated JsonSystem.
+     * @param in The InputStream to read CBOR data from.
+     */
+    public CborReader(JsonSystem system, InputStream in) {
+        this.system = system;
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    private long argument(int info) throws IOException, ParseException {
+        if (info < 24) { return info; }
+        switch (info) {
+            case 24 :
+                require(1);
+                return buffer[position++] & 0xff;
+            case 25 :
+                require(2);
+                return ((buffer[position++] & 0xff) << 8) | (buffer[position++] & 0xff);
+            case 26 :
+                require(4);
+                return readInt() & 0xffffffffL;
+            case 27 :
+                require(8);
+                return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+            default :
+                throw error(position - 1);
+        }
+    }
+
+    private boolean atContainerEnd(int level) throws IOException, ParseException {
+        if (sizes[level] >= 0) { return counts[level] == sizes[level]; }
+        require(1);
+        return (buffer[position] & 0xff) == BREAK;
+    }
+
+    /**
+     * Test whether the input is used up, reading more of it if need be.
+     */
+    private boolean atEnd() throws IOException {
+        if (position < limit) { return false; }
+        if (in == null) { return true; }
+        discarded += limit;
+        position = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) { return true; }
+        limit = read;
+        return false;
+    }
+
+    /**
+     * Close the underlying InputStream, if there is one.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a whole item, without using the container stack.
+     */
+    private JsonValue decode() throws IOException, ParseException {
+        require(1);
+        int initial = buffer[position++] & 0xff;
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        switch (major) {
+            case MAJOR_ARRAY : {
+                JsonArray array = system.createArray();
+                if (info == INDEFINITE) {
+                    while (!atBreak()) {
+                        array.add(decode());
+                    }
+                    ++position;
+                } else {
+                    for (long i = argument(info); i > 0; --i) {
+                        array.add(decode());
+                    }
+                }
+                return array;
+            }
+            case MAJOR_MAP : {
+                JsonObject object = system.createObject();
+                if (info == INDEFINITE) {
+                    while (!atBreak()) {
+                        String objectKey = readKey();
+                        object.put(objectKey, decode());
+                    }
+                    ++position;
+                } else {
+                    for (long i = argument(info); i > 0; --i) {
+                        String objectKey = readKey();
+                        object.put(objectKey, decode());
+                    }
+                }
+                return object;
+            }
+            default :
+                return decodeScalar(initial);
+        }
+    }
+
+    private boolean atBreak() throws IOException, ParseException {
+        require(1);
+        return (buffer[position] & 0xff) == BREAK;
+    }
+
+    /**
+     * Read the rest of an item that is not an array or map, whose initial byte has already been read.
+     */
+    private JsonValue decodeScalar(int initial) throws IOException, ParseException {
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        switch (major) {
+            case MAJOR_UNSIGNED :
+                return integer(argument(info), false);
+            case MAJOR_NEGATIVE :
+                return integer(argument(info), true);
+            case MAJOR_BYTES :
+                return system.createString(readBytes(MAJOR_BYTES, info));
+            case MAJOR_TEXT :
+                return system.createString(readText(info));
+            case MAJOR_TAG :
+                return tagged(argument(info));
+            default :
+                return simple(info);
+        }
+    }
+
+    /**
+     * Get the current nesting depth: 0 at the top level, 1 inside a top-level object or array, and so on. A start
+     * token counts as inside the container it starts, an end token as outside the container it ends.
+     * 
+     * @return The current depth.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    private int endContainer(int level) {
+        if (sizes[level] < 0) {
+            // The break byte, already seen by atContainerEnd().
+            ++position;
+        }
+        depth = level;
+        token = objects[level] ? END_OBJECT : END_ARRAY;
+        return token;
+    }
+
+    private ParseException eof() {
+        return new ParseException(1, (int) (discarded + limit), ParseException.ERROR_UNEXPECTED_TOKEN, Yytoken.EOF);
+    }
+
+    private ParseException error(int at) {
+        return new ParseException(1, (int) (discarded + at), ParseException.ERROR_UNEXPECTED_CHAR, "0x"
+                + Integer.toHexString(buffer[at] & 0xff));
+    }
+
+    private JsonValue integer(long argument, boolean negative) {
+        if (argument >= 0) { return system.createNumber(negative ? -1 - argument : argument); }
+        // The argument is unsigned, and this one doesn't fit in a long.
+        BigInteger integer = new BigInteger(1, new byte[] {(byte) (argument >>> 56), (byte) (argument >>> 48),
+                (byte) (argument >>> 40), (byte) (argument >>> 32), (byte) (argument >>> 24),
+                (byte) (argument >>> 16), (byte) (argument >>> 8), (byte) argument});
+        if (negative) {
+            integer = integer.negate()
+                    .subtract(BigInteger.ONE);
+        }
+        return system.parseNumber(integer.toString());
+    }
+
+    /**
+     * Get the current key. Only meaningful when the current token is {@link #KEY}.
+     * 
+     * @return The current key.
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Advance to the next token.
+     * 
+     * @return The new current token: one of {@link #START_OBJECT}, {@link #END_OBJECT}, {@link #START_ARRAY},
+     *         {@link #END_ARRAY}, {@link #KEY}, {@link #VALUE} or {@link #END_DOCUMENT}.
+     * @throws IOException
+     * @throws ParseException If the input is not valid CBOR, or has a map key that is not a text string.
+     */
+    public int nextToken() throws IOException, ParseException {
+        key = null;
+        value = null;
+        if (token == END_DOCUMENT) { return token; }
+        if (depth == 0) {
+            if (atEnd()) {
+                token = END_DOCUMENT;
+                return token;
+            }
+            return startValue();
+        }
+        int level = depth - 1;
+        if (keyRead[level]) {
+            keyRead[level] = false;
+            return startValue();
+        }
+        if (atContainerEnd(level)) { return endContainer(level); }
+        ++counts[level];
+        if (objects[level]) {
+            key = readKey();
+            keyRead[level] = true;
+            token = KEY;
+            return token;
+        }
+        return startValue();
+    }
+
+    private void push(boolean object, long size) {
+        if (depth == sizes.length) {
+            int newLength = sizes.length * 2;
+            boolean[] newObjects = new boolean[newLength];
+            System.arraycopy(objects, 0, newObjects, 0, depth);
+            objects = newObjects;
+            long[] newSizes = new long[newLength];
+            System.arraycopy(sizes, 0, newSizes, 0, depth);
+            sizes = newSizes;
+            long[] newCounts = new long[newLength];
+            System.arraycopy(counts, 0, newCounts, 0, depth);
+            counts = newCounts;
+            boolean[] newKeyRead = new boolean[newLength];
+            System.arraycopy(keyRead, 0, newKeyRead, 0, depth);
+            keyRead = newKeyRead;
+        }
+        objects[depth] = object;
+        sizes[depth] = size;
+        counts[depth] = 0;
+        keyRead[depth] = false;
+        ++depth;
+    }
+
+    /**
+     * Read a byte or text string, joining its chunks if its length is indefinite.
+     */
+    private byte[] readBytes(int major, int info) throws IOException, ParseException {
+        if (info == INDEFINITE) {
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            while (!atBreak()) {
+                int chunkStart = position;
+                int initial = buffer[position++] & 0xff;
+                if (initial >>> 5 != major || (initial & 0x1f) == INDEFINITE) { throw error(chunkStart); }
+                int length = readLength(initial & 0x1f);
+                require(length);
+                chunks.write(buffer, position, length);
+                position += length;
+            }
+            ++position;
+            return chunks.toByteArray();
+        }
+        int length = readLength(info);
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    private int readInt() {
+        return ((buffer[position++] & 0xff) << 24) | ((buffer[position++] & 0xff) << 16)
+                | ((buffer[position++] & 0xff) << 8) | (buffer[position++] & 0xff);
+    }
+
+    private String readKey() throws IOException, ParseException {
+        require(1);
+        int initial = buffer[position] & 0xff;
+        if (initial >>> 5 != MAJOR_TEXT) { throw error(position); }
+        ++position;
+        return readText(initial & 0x1f);
+    }
+
+    private int readLength(int info) throws IOException, ParseException {
+        int at = position - 1;
+        long length = argument(info);
+        if (length > Integer.MAX_VALUE || (in == null && length > limit - position)) { throw error(at); }
+        return (int) length;
+    }
+
+    private String readText(int info) throws IOException, ParseException {
+        if (info == INDEFINITE) { return new String(readBytes(MAJOR_TEXT, INDEFINITE), UTF_8); }
+        int length = readLength(info);
+        require(length);
+        String text = new String(buffer, position, length, UTF_8);
+        position += length;
+        return text;
+    }
+
+    /**
+     * Read the value at the current position and return it.
+     * <p>
+     * If the current token is {@link #START_OBJECT} or {@link #START_ARRAY}, the whole object or array is read,
+     * leaving the reader on the matching end token. If it is {@link #VALUE}, that value is returned. If it is
+     * {@link #KEY}, or no token has been read yet, the reader first advances to the next value.
+     * 
+     * @return The value that was read.
+     * @throws IOException
+     * @throws ParseException If the input is not valid CBOR, or has a map key that is not a text string.
+     */
+    public JsonValue readValue() throws IOException, ParseException {
+        if (token == KEY || token == NONE) {
+            nextToken();
+        }
+        int level = depth - 1;
+        switch (token) {
+            case VALUE :
+                return value;
+            case START_OBJECT :
+                JsonObject object = system.createObject();
+                while (!atContainerEnd(level)) {
+                    ++counts[level];
+                    String objectKey = readKey();
+                    object.put(objectKey, decode());
+                }
+                endContainer(level);
+                return object;
+            case START_ARRAY :
+                JsonArray array = system.createArray();
+                while (!atContainerEnd(level)) {
+                    ++counts[level];
+                    array.add(decode());
+                }
+                endContainer(level);
+                return array;
+            default :
+                throw new ItemscriptError("error.itemscript.CborReader.readValue.not.at.a.value", token + "");
+        }
+    }
+
+    /**
+     * Make sure there are at least count bytes after the current position, reading more of the input if need be.
+     */
+    private void require(int count) throws IOException, ParseException {
+        if (limit - position >= count) { return; }
+        if (in == null) { throw eof(); }
+        int remaining = limit - position;
+        if (count > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(count, buffer.length * 2)];
+            System.arraycopy(buffer, position, newBuffer, 0, remaining);
+            buffer = newBuffer;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        discarded += position;
+        position = 0;
+        limit = remaining;
+        while (limit < count) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) { throw eof(); }
+            limit += read;
+        }
+    }
+
+    private JsonValue simple(int info) throws IOException, ParseException {
+        switch (info) {
+            case 20 :
+                return system.createBoolean(false);
+            case 21 :
+                return system.createBoolean(true);
+            case 22 :
+            case 23 :
+                return system.createNull();
+            case 25 : {
+                require(2);
+                int half = ((buffer[position++] & 0xff) << 8) | (buffer[position++] & 0xff);
+                return system.createNumber(halfToDouble(half));
+            }
+            case 26 :
+                require(4);
+                return system.createNumber((double) Float.intBitsToFloat(readInt()));
+            case 27 :
+                require(8);
+                return system.createNumber(Double.longBitsToDouble(((long) readInt() << 32)
+                        | (readInt() & 0xffffffffL)));
+            default :
+                throw error(position - 1);
+        }
+    }
+
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent != 31) {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        } else {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    /**
+     * Skip the value at the current position.
+     * <p>
+     * Accepts the same positions as {@link #readValue()}, and leaves the reader in the same place.
+     * 
+     * @throws IOException
+     * @throws ParseException If the input is not valid CBOR, or has a map key that is not a text string.
+     */
+    public void skipValue() throws IOException, ParseException {
+        if (token == KEY || token == NONE) {
+            nextToken();
+        }
+        switch (token) {
+            case VALUE :
+                return;
+            case START_OBJECT :
+            case START_ARRAY :
+                int startDepth = depth;
+                while (depth >= startDepth) {
+                    nextToken();
+                }
+                return;
+            default :
+                throw new ItemscriptError("error.itemscript.CborReader.skipValue.not.at.a.value", token + "");
+        }
+    }
+
+    private int startValue() throws IOException, ParseException {
+        while (true) {
+            require(1);
+            int at = position;
+            int initial = buffer[position++] & 0xff;
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+            if (major == MAJOR_ARRAY || major == MAJOR_MAP) {
+                push(major == MAJOR_MAP, info == INDEFINITE ? -1 : argument(info));
+                token = major == MAJOR_MAP ? START_OBJECT : START_ARRAY;
+                return token;
+            }
+            if (major == MAJOR_TAG) {
+                long tag = argument(info);
+                if (tag != TAG_POSITIVE_BIGNUM && tag != TAG_NEGATIVE_BIGNUM && tag != TAG_DECIMAL_FRACTION) {
+                    // Leave the tagged item to be read as if the tag wasn't there.
+                    continue;
+                }
+                value = tagged(tag);
+            } else {
+                if (initial == BREAK) { throw error(at); }
+                value = decodeScalar(initial);
+            }
+            token = VALUE;
+            return token;
+        }
+    }
+
+    private JsonValue tagged(long tag) throws IOException, ParseException {
+        if (tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM) {
+            return system.parseNumber(bignum(tag).toString());
+        }
+        if (tag == TAG_DECIMAL_FRACTION) {
+            int at = position;
+            JsonValue fraction = decode();
+            if (!fraction.isArray() || fraction.asArray()
+                    .size() != 2 || !fraction.asArray()
+                    .get(0)
+                    .isNumber() || !fraction.asArray()
+                    .get(1)
+                    .isNumber()) { throw error(at); }
+            JsonValue exponent = fraction.asArray()
+                    .get(0);
+            JsonValue mantissa = fraction.asArray()
+                    .get(1);
+            if (!exponent.asNumber()
+                    .isLong()) { throw error(at); }
+            BigInteger unscaled = mantissa.asNumber()
+                    .isLong() ? BigInteger.valueOf(mantissa.asNumber()
+                    .toLong()) : new BigInteger(mantissa.toJsonString());
+            BigDecimal decimal = new BigDecimal(unscaled, (int) -exponent.asNumber()
+                    .toLong());
+            return system.parseNumber(decimal.toString());
+        }
+        // Any other tag is skipped.
+        return decode();
+    }
+
+    private BigInteger bignum(long tag) throws IOException, ParseException {
+        require(1);
+        int initial = buffer[position] & 0xff;
+        if (initial >>> 5 != MAJOR_BYTES) { throw error(position); }
+        ++position;
+        BigInteger integer = new BigInteger(1, readBytes(MAJOR_BYTES, initial & 0x1f));
+        return tag == TAG_NEGATIVE_BIGNUM ? integer.negate()
+                .subtract(BigInteger.ONE) : integer;
+    }
+
+    /**
+     * Get the current token.
+     * 
+     * @return The current token.
+     */
+    public int token() {
+        return token;
+    }
+
+    /**
+     * Get the current value. Only meaningful when the current token is {@link #VALUE}.
+     * 
+     * @return The current value.
+     */
+    public JsonValue value() {
+        return value;
+    }
+}
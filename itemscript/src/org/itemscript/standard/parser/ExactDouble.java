@@ -0,0 +1,60 @@
+package org.itemscript.standard.parser;
+
+/**
+ * The fast path the parsers share for turning the digits of a JSON number into a double without creating a String.
+ * <p>
+ * A parser adds up the significant digits of a number in a long, counting them, and works out the power of ten they
+ * are scaled by from the decimal point and the exponent. If there are no more than 15 digits, the long converts
+ * exactly to a double; if the scale is no more than 22 either way, so does the power of ten. One multiplication or
+ * division then gives the correctly rounded value, so Double.parseDouble can be skipped. Anything else can't be held
+ * exactly by a double, so the parser keeps the number's text instead.
+ * <p>
+ * This class is not intended for general use; it has to be public because it is used by the tape parser in
+ * {@link org.itemscript.standard}.
+ */
+public final class ExactDouble {
+    /**
+     * The largest number of digits that can always be accumulated in a long and converted exactly to a double.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    /**
+     * The largest power of ten that is exactly representable as a double. A parser can stop adding up an exponent
+     * once it is larger than this, since the number can't be converted here anyway.
+     */
+    public static final int MAX_SCALE = 22;
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN =
+            {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+                    1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Test whether a number can be converted by {@link #toDouble(boolean, long, int)}.
+     * 
+     * @param digits The number of significant digits, including leading zeros.
+     * @param scale The power of ten the digits are scaled by.
+     * @return True if the number converts exactly.
+     */
+    public static boolean isExact(int digits, int scale) {
+        return digits <= MAX_EXACT_DIGITS && scale >= -MAX_SCALE && scale <= MAX_SCALE;
+    }
+
+    /**
+     * Convert a number to the correctly rounded double; {@link #isExact(int, int)} must be true for it.
+     * 
+     * @param negative True if the number is negative.
+     * @param mantissa The significant digits.
+     * @param scale The power of ten the digits are scaled by.
+     * @return The value.
+     */
+    public static double toDouble(boolean negative, long mantissa, int scale) {
+        double value = mantissa;
+        if (scale < 0) {
+            value /= POWERS_OF_TEN[-scale];
+        } else if (scale > 0) {
+            value *= POWERS_OF_TEN[scale];
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,741 @@
+package org.itemscript.standard.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Push-style parser for UTF-8 encoded JSON text that arrives in chunks.
+ * <p>
+ * Where {@link JsonParser} and {@link JsonReader} pull characters from a blocking {@link java.io.Reader}, an
+ * IncrementalJsonParser is handed bytes with {@link #feed(ByteBuffer)} as they arrive, and keeps all of its state
+ * between calls, so it never waits for input. A chunk may end anywhere, even in the middle of a string, a number or
+ * a multi-byte character. Only the token that is split across chunks is buffered, so apart from the values being
+ * built, memory use depends on the size of the largest token and not on the size of the document.
+ * <p>
+ * Each top-level value is made available as soon as it closes. Without a {@link ContentHandler}, completed values
+ * are queued, and can be taken with {@link #poll()}:
+ * 
+ * <pre>
+ * IncrementalJsonParser parser = new IncrementalJsonParser(system);
+ * while (channel.read(buffer) != -1) {
+ *     buffer.flip();
+ *     parser.feed(buffer);
+ *     buffer.clear();
+ *     JsonValue value;
+ *     while ((value = parser.poll()) != null) {
+ *         ...
+ *     }
+ * }
+ * parser.end();
+ * </pre>
+ * 
+ * With a ContentHandler, no values are built for containers; instead the handler gets events as each token is
+ * read, with {@link ContentHandler#startJSON()} and {@link ContentHandler#endJSON()} around each top-level value.
+ * If a handler method returns false, {@link #feed(ByteBuffer)} returns once the events for the current token have
+ * been delivered, and the unread bytes are left in the buffer to be fed again later.
+ * <p>
+ * Any number of top-level values may follow each other, separated by whitespace, so a stream of JSON Lines can be
+ * parsed as it arrives. Because a number at the top level is only known to be complete when something follows it,
+ * call {@link #end()} when the input is finished.
+ * <p>
+ * The grammar accepted is that of {@link JsonReader}: separating commas and colons are required. A leading UTF-8
+ * byte order mark is skipped. Error columns are counted in bytes. Please note that IncrementalJsonParser is NOT
+ * thread-safe.
+ */
+public final class IncrementalJsonParser {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int SCRATCH_SIZE = 8192;
+    private static final int INITIAL_TOKEN_SIZE = 256;
+    private static final int INITIAL_DEPTH = 32;
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    /*
+     * Lexer states: between tokens, or inside a string, number or literal.
+     */
+    private static final int L_NONE = 0;
+    private static final int L_STRING = 1;
+    private static final int L_NUMBER = 2;
+    private static final int L_LITERAL = 3;
+    private static final int L_ERROR = 4;
+    /*
+     * Number states, following the JSON number grammar. Leading zeros are accepted, as they are by the other
+     * parsers.
+     */
+    private static final int N_START = 0;
+    private static final int N_SIGN = 1;
+    private static final int N_INTEGER = 2;
+    private static final int N_POINT = 3;
+    private static final int N_FRACTION = 4;
+    private static final int N_E = 5;
+    private static final int N_EXPONENT_SIGN = 6;
+    private static final int N_EXPONENT = 7;
+    /*
+     * Container states, as in JsonReader.
+     */
+    private static final int ARRAY_START = 0;
+    private static final int ARRAY_VALUE = 1;
+    private static final int ARRAY_COMMA = 2;
+    private static final int OBJECT_START = 3;
+    private static final int OBJECT_KEY = 4;
+    private static final int OBJECT_COLON = 5;
+    private static final int OBJECT_VALUE = 6;
+    private static final int OBJECT_COMMA = 7;
+    private final JsonSystem system;
+    private final ContentHandler handler;
+    private final LinkedList<JsonValue> completed = new LinkedList<JsonValue>();
+    private int[] states = new int[INITIAL_DEPTH];
+    private JsonValue[] containers = new JsonValue[INITIAL_DEPTH];
+    private int depth;
+    private String key;
+    private int lexState = L_NONE;
+    private byte[] token = new byte[INITIAL_TOKEN_SIZE];
+    private int tokenLength;
+    private boolean escapes;
+    /*
+     * Inside a string: 0 normally, -1 just after a backslash, or the number of hex digits still expected in a
+     * \\u escape.
+     */
+    private int escapeState;
+    private int numberState;
+    private byte[] literal;
+    private int literalIndex;
+    private boolean stopped;
+    private long position;
+    private int line = 1;
+    private long lineStart;
+    private byte[] scratch;
+    private int byteOrderMarkLength;
+
+    /**
+     * Create a new IncrementalJsonParser that queues each completed top-level value, to be taken with
+     * {@link #poll()}.
+     * 
+     * @param system The associated JsonSystem.
+     */
+    public IncrementalJsonParser(JsonSystem system) {
+        this(system, null);
+    }
+
+    /**
+     * Create a new IncrementalJsonParser that sends events to the given ContentHandler instead of building values.
+     * 
+     * @param system The associated JsonSystem.
+     * @param handler The ContentHandler, or null to queue completed values instead.
+     */
+    public IncrementalJsonParser(JsonSystem system, ContentHandler handler) {
+        this.system = system;
+        this.handler = handler;
+    }
+
+    private void appendToken(byte[] buf, int offset, int length) {
+        if (tokenLength + length > token.length) {
+            byte[] newToken = new byte[Math.max(token.length * 2, tokenLength + length)];
+            System.arraycopy(token, 0, newToken, 0, tokenLength);
+            token = newToken;
+        }
+        System.arraycopy(buf, offset, token, tokenLength, length);
+        tokenLength += length;
+    }
+
+    private void attach(JsonValue value) {
+        if (handler != null || depth == 0) { return; }
+        JsonValue container = containers[depth - 1];
+        if (container.isArray()) {
+            ((JsonArray) container).add(value);
+        } else {
+            ((JsonObject) container).put(key, value);
+        }
+    }
+
+    private void completed(JsonValue value) throws ParseException, IOException {
+        if (depth == 0) {
+            if (handler == null) {
+                completed.add(value);
+            } else {
+                handler.endJSON();
+            }
+        } else if (handler != null && states[depth - 1] == OBJECT_VALUE) {
+            notify(handler.endObjectEntry());
+        }
+    }
+
+    private String decodeString() {
+        if (!escapes) {
+            for (int i = 0; i < tokenLength; ++i) {
+                if (token[i] < 0) { return new String(token, 0, tokenLength, UTF_8); }
+            }
+            return new String(token, 0, tokenLength, ISO_8859_1);
+        }
+        // Escapes are plain ASCII, so they can be read after decoding.
+        String raw = new String(token, 0, tokenLength, UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); ++i) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'b' :
+                    sb.append('\b');
+                    break;
+                case 'f' :
+                    sb.append('\f');
+                    break;
+                case 'n' :
+                    sb.append('\n');
+                    break;
+                case 'r' :
+                    sb.append('\r');
+                    break;
+                case 't' :
+                    sb.append('\t');
+                    break;
+                case 'u' :
+                    sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default :
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the current nesting depth: 0 between top-level values, 1 inside a top-level object or array, and so on.
+     * 
+     * @return The current depth.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Signal the end of the input. Completes a top-level number that was waiting for a following byte.
+     * 
+     * @throws ParseException If the input ended in the middle of a value.
+     */
+    public void end() throws ParseException {
+        if (lexState == L_ERROR) { throw error(Yytoken.EOF); }
+        if (lexState == L_NUMBER) {
+            try {
+                endNumber();
+            } catch (IOException e) {
+                lexState = L_ERROR;
+                throw handlerError(e);
+            }
+        }
+        if (lexState != L_NONE || depth > 0) {
+            lexState = L_ERROR;
+            throw error(Yytoken.EOF);
+        }
+    }
+
+    private void endContainer() throws ParseException, IOException {
+        --depth;
+        JsonValue container = containers[depth];
+        containers[depth] = null;
+        if (handler != null) {
+            notify(states[depth] <= ARRAY_COMMA ? handler.endArray() : handler.endObject());
+        }
+        completed(container);
+    }
+
+    private void endNumber() throws ParseException, IOException {
+        if (numberState != N_INTEGER && numberState != N_FRACTION && numberState != N_EXPONENT) {
+            lexState = L_ERROR;
+            throw error(Yytoken.EOF);
+        }
+        lexState = L_NONE;
+        value(number());
+    }
+
+    private ParseException error(Object unexpected) {
+        int column = (int) (position - lineStart) + 1;
+        if (unexpected instanceof Yytoken) { return new ParseException(line, column,
+                ParseException.ERROR_UNEXPECTED_TOKEN, unexpected); }
+        return new ParseException(line, column, ParseException.ERROR_UNEXPECTED_CHAR, unexpected);
+    }
+
+    private ParseException handlerError(IOException e) {
+        return new ParseException(line, (int) (position - lineStart) + 1, ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+    }
+
+    private ParseException errorAt(byte b) {
+        lexState = L_ERROR;
+        switch (b) {
+            case '{' :
+                return error(Yytoken.LEFT_BRACE);
+            case '}' :
+                return error(Yytoken.RIGHT_BRACE);
+            case '[' :
+                return error(Yytoken.LEFT_SQUARE);
+            case ']' :
+                return error(Yytoken.RIGHT_SQUARE);
+            case ',' :
+                return error(Yytoken.COMMA);
+            case ':' :
+                return error(Yytoken.COLON);
+            default :
+                if (b >= 0) { return error(Character.valueOf((char) b)); }
+                return error("0x" + Integer.toHexString(b & 0xFF));
+        }
+    }
+
+    /**
+     * Parse the given bytes, continuing from where the previous call left off.
+     * 
+     * @param bytes The array containing the bytes.
+     * @param offset The index of the first byte to parse.
+     * @param length The number of bytes to parse.
+     * @return The number of bytes consumed; less than length only if a ContentHandler asked to stop.
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public int feed(byte[] bytes, int offset, int length) throws ParseException {
+        stopped = false;
+        return scan(bytes, offset, offset + length) - offset;
+    }
+
+    /**
+     * Parse the remaining bytes in the given buffer, continuing from where the previous call left off. The buffer's
+     * position is advanced past the bytes consumed, which is all of them unless a ContentHandler asked to stop.
+     * 
+     * @param buffer The buffer to read from.
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public void feed(ByteBuffer buffer) throws ParseException {
+        stopped = false;
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            int consumed = scan(buffer.array(), offset, offset + buffer.remaining()) - offset;
+            buffer.position(buffer.position() + consumed);
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        while (buffer.hasRemaining() && !stopped) {
+            int start = buffer.position();
+            int length = Math.min(buffer.remaining(), scratch.length);
+            buffer.get(scratch, 0, length);
+            int consumed = scan(scratch, 0, length);
+            buffer.position(start + consumed);
+        }
+    }
+
+    private void key(String text) throws ParseException, IOException {
+        states[depth - 1] = OBJECT_KEY;
+        key = text;
+        if (handler != null) {
+            notify(handler.startObjectEntry(text));
+        }
+    }
+
+    private void notify(boolean keepGoing) {
+        if (!keepGoing) {
+            stopped = true;
+        }
+    }
+
+    private JsonValue number() {
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-') {
+            negative = true;
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < tokenLength; ++i) {
+            byte b = token[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                ++digits;
+                if (fraction) {
+                    --scale;
+                }
+            } else if (b == '.') {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i < tokenLength) {
+            // An exponent.
+            ++i;
+            boolean negativeExponent = false;
+            if (token[i] == '+' || token[i] == '-') {
+                negativeExponent = token[i] == '-';
+                ++i;
+            }
+            int exponent = 0;
+            for (; i < tokenLength; ++i) {
+                if (exponent <= ExactDouble.MAX_SCALE) {
+                    exponent = exponent * 10 + (token[i] - '0');
+                }
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (ExactDouble.isExact(digits, scale)) {
+            return system.createNumber(ExactDouble.toDouble(negative, mantissa, scale));
+        }
+        return system.parseNumber(new String(token, 0, tokenLength, ISO_8859_1));
+    }
+
+    /**
+     * Take the next completed top-level value. Always null if this parser was given a ContentHandler.
+     * 
+     * @return The next completed value, or null if there is none yet.
+     */
+    public JsonValue poll() {
+        return completed.isEmpty() ? null : completed.removeFirst();
+    }
+
+    private void push(int state, JsonValue container) {
+        if (depth == states.length) {
+            int[] newStates = new int[states.length * 2];
+            System.arraycopy(states, 0, newStates, 0, depth);
+            states = newStates;
+            JsonValue[] newContainers = new JsonValue[containers.length * 2];
+            System.arraycopy(containers, 0, newContainers, 0, depth);
+            containers = newContainers;
+        }
+        states[depth] = state;
+        containers[depth] = container;
+        ++depth;
+    }
+
+    /**
+     * Reset this parser so it can be used for a new input. Any queued values are discarded.
+     */
+    public void reset() {
+        while (depth > 0) {
+            containers[--depth] = null;
+        }
+        completed.clear();
+        key = null;
+        lexState = L_NONE;
+        tokenLength = 0;
+        stopped = false;
+        position = 0;
+        byteOrderMarkLength = 0;
+        line = 1;
+        lineStart = 0;
+    }
+
+    private int scan(byte[] buf, int start, int end) throws ParseException {
+        if (lexState == L_ERROR) { throw error(Yytoken.EOF); }
+        int i = start;
+        try {
+            while (i < end && !stopped) {
+                switch (lexState) {
+                    case L_NONE :
+                        i = scanTokens(buf, i, end);
+                        break;
+                    case L_STRING :
+                        i = scanString(buf, i, end);
+                        break;
+                    case L_NUMBER :
+                        i = scanNumber(buf, i, end);
+                        break;
+                    case L_LITERAL :
+                        byte b = buf[i];
+                        if (b != literal[literalIndex]) { throw errorAt(b); }
+                        ++i;
+                        ++position;
+                        if (++literalIndex == literal.length) {
+                            lexState = L_NONE;
+                            if (literal == TRUE) {
+                                value(system.createBoolean(true));
+                            } else if (literal == FALSE) {
+                                value(system.createBoolean(false));
+                            } else {
+                                value(system.createNull());
+                            }
+                        }
+                        break;
+                }
+            }
+        } catch (ParseException e) {
+            lexState = L_ERROR;
+            throw e;
+        } catch (IOException e) {
+            lexState = L_ERROR;
+            throw handlerError(e);
+        }
+        return i;
+    }
+
+    private int scanNumber(byte[] buf, int i, int end) throws ParseException, IOException {
+        int numberStart = i;
+        while (i < end) {
+            byte b = buf[i];
+            boolean digit = b >= '0' && b <= '9';
+            switch (numberState) {
+                case N_START :
+                    numberState = b == '-' ? N_SIGN : N_INTEGER;
+                    break;
+                case N_SIGN :
+                case N_INTEGER :
+                    if (digit) {
+                        numberState = N_INTEGER;
+                    } else if (numberState == N_INTEGER && b == '.') {
+                        numberState = N_POINT;
+                    } else if (numberState == N_INTEGER && (b == 'e' || b == 'E')) {
+                        numberState = N_E;
+                    } else {
+                        return endNumberAt(buf, numberStart, i);
+                    }
+                    break;
+                case N_POINT :
+                case N_FRACTION :
+                    if (digit) {
+                        numberState = N_FRACTION;
+                    } else if (numberState == N_FRACTION && (b == 'e' || b == 'E')) {
+                        numberState = N_E;
+                    } else {
+                        return endNumberAt(buf, numberStart, i);
+                    }
+                    break;
+                case N_E :
+                    if (b == '+' || b == '-') {
+                        numberState = N_EXPONENT_SIGN;
+                    } else if (digit) {
+                        numberState = N_EXPONENT;
+                    } else {
+                        return endNumberAt(buf, numberStart, i);
+                    }
+                    break;
+                default :
+                    if (digit) {
+                        numberState = N_EXPONENT;
+                    } else {
+                        return endNumberAt(buf, numberStart, i);
+                    }
+            }
+            ++i;
+        }
+        appendToken(buf, numberStart, i - numberStart);
+        position += i - numberStart;
+        return i;
+    }
+
+    private int endNumberAt(byte[] buf, int numberStart, int i) throws ParseException, IOException {
+        appendToken(buf, numberStart, i - numberStart);
+        position += i - numberStart;
+        if (numberState != N_INTEGER && numberState != N_FRACTION && numberState != N_EXPONENT) {
+            throw errorAt(buf[i]);
+        }
+        endNumber();
+        return i;
+    }
+
+    private int scanString(byte[] buf, int i, int end) throws ParseException, IOException {
+        int runStart = i;
+        while (i < end) {
+            byte b = buf[i];
+            if (escapeState == 0) {
+                if (b == '"') {
+                    appendToken(buf, runStart, i - runStart);
+                    position += i - runStart + 1;
+                    lexState = L_NONE;
+                    String text = decodeString();
+                    if (depth > 0 && (states[depth - 1] == OBJECT_START || states[depth - 1] == OBJECT_COMMA)) {
+                        key(text);
+                    } else {
+                        value(system.createString(text));
+                    }
+                    return i + 1;
+                }
+                if (b == '\\') {
+                    escapeState = -1;
+                    escapes = true;
+                }
+            } else if (escapeState == -1) {
+                switch (b) {
+                    case '"' :
+                    case '\\' :
+                    case '/' :
+                    case 'b' :
+                    case 'f' :
+                    case 'n' :
+                    case 'r' :
+                    case 't' :
+                        escapeState = 0;
+                        break;
+                    case 'u' :
+                        escapeState = 4;
+                        break;
+                    default :
+                        position += i - runStart;
+                        throw errorAt(b);
+                }
+            } else {
+                if (Character.digit(b, 16) < 0) {
+                    position += i - runStart;
+                    throw errorAt(b);
+                }
+                --escapeState;
+            }
+            ++i;
+        }
+        appendToken(buf, runStart, i - runStart);
+        position += i - runStart;
+        return i;
+    }
+
+    private int scanTokens(byte[] buf, int i, int end) throws ParseException, IOException {
+        while (i < end && !stopped) {
+            byte b = buf[i];
+            switch (b) {
+                case ' ' :
+                case '\t' :
+                case '\r' :
+                    break;
+                case '\n' :
+                    ++line;
+                    lineStart = position + 1;
+                    break;
+                case '{' :
+                    startContainer(OBJECT_START);
+                    break;
+                case '[' :
+                    startContainer(ARRAY_START);
+                    break;
+                case '}' :
+                    if (depth == 0 || (states[depth - 1] != OBJECT_START && states[depth - 1] != OBJECT_VALUE)) {
+                        throw errorAt(b);
+                    }
+                    endContainer();
+                    break;
+                case ']' :
+                    if (depth == 0 || (states[depth - 1] != ARRAY_START && states[depth - 1] != ARRAY_VALUE)) {
+                        throw errorAt(b);
+                    }
+                    endContainer();
+                    break;
+                case ',' :
+                    if (depth == 0) { throw errorAt(b); }
+                    if (states[depth - 1] == ARRAY_VALUE) {
+                        states[depth - 1] = ARRAY_COMMA;
+                    } else if (states[depth - 1] == OBJECT_VALUE) {
+                        states[depth - 1] = OBJECT_COMMA;
+                    } else {
+                        throw errorAt(b);
+                    }
+                    break;
+                case ':' :
+                    if (depth == 0 || states[depth - 1] != OBJECT_KEY) { throw errorAt(b); }
+                    states[depth - 1] = OBJECT_COLON;
+                    break;
+                case '"' :
+                    if (!expectingKey()) {
+                        expectValue(b);
+                    }
+                    ++position;
+                    lexState = L_STRING;
+                    tokenLength = 0;
+                    escapes = false;
+                    escapeState = 0;
+                    return i + 1;
+                case '-' :
+                case '0' :
+                case '1' :
+                case '2' :
+                case '3' :
+                case '4' :
+                case '5' :
+                case '6' :
+                case '7' :
+                case '8' :
+                case '9' :
+                    expectValue(b);
+                    lexState = L_NUMBER;
+                    tokenLength = 0;
+                    numberState = N_START;
+                    // The number scanner reads the first byte itself.
+                    return i;
+                case 't' :
+                case 'f' :
+                case 'n' :
+                    expectValue(b);
+                    lexState = L_LITERAL;
+                    literal = b == 't' ? TRUE : b == 'f' ? FALSE : NULL;
+                    literalIndex = 0;
+                    return i;
+                default :
+                    if (byteOrderMarkLength == position && byteOrderMarkLength < BYTE_ORDER_MARK.length
+                            && b == BYTE_ORDER_MARK[byteOrderMarkLength]) {
+                        ++byteOrderMarkLength;
+                        break;
+                    }
+                    throw errorAt(b);
+            }
+            ++i;
+            ++position;
+        }
+        return i;
+    }
+
+    private boolean expectingKey() {
+        return depth > 0 && (states[depth - 1] == OBJECT_START || states[depth - 1] == OBJECT_COMMA);
+    }
+
+    /**
+     * Check that a value may start here, and move the enclosing container on to its after-value state.
+     */
+    private void expectValue(byte b) throws ParseException, IOException {
+        if (depth == 0) {
+            if (handler != null) {
+                handler.startJSON();
+            }
+            return;
+        }
+        switch (states[depth - 1]) {
+            case ARRAY_START :
+            case ARRAY_COMMA :
+                states[depth - 1] = ARRAY_VALUE;
+                return;
+            case OBJECT_COLON :
+                states[depth - 1] = OBJECT_VALUE;
+                return;
+            default :
+                throw errorAt(b);
+        }
+    }
+
+    private void startContainer(int state) throws ParseException, IOException {
+        expectValue(state == OBJECT_START ? (byte) '{' : (byte) '[');
+        JsonValue container = null;
+        if (handler == null) {
+            container = state == OBJECT_START ? system.createObject() : system.createArray();
+            attach(container);
+        }
+        push(state, container);
+        if (handler != null) {
+            notify(state == OBJECT_START ? handler.startObject() : handler.startArray());
+        }
+    }
+
+    private void value(JsonValue value) throws ParseException, IOException {
+        attach(value);
+        if (handler != null) {
+            notify(handler.primitive(value));
+        }
+        completed(value);
+    }
+}
@@ -8,16 +8,17 @@ package org.itemscript.standard.parser;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.LinkedList;
 
 import org.itemscript.core.JsonSystem;
 import org.itemscript.core.values.JsonArray;
 import org.itemscript.core.values.JsonObject;
-import org.itemscript.core.values.JsonString;
 import org.itemscript.core.values.JsonValue;
 
 /**
  * Parser for JSON text. Please note that JSONParser is NOT thread-safe.
+ * <p>
+ * A JsonParser keeps its working state between parses, and neither it nor its lexer creates objects per token,
+ * so reusing one parser for many documents creates little beyond the parsed values themselves.
  * 
  * @author FangYidong<fangyidong@yahoo.com.cn>
  */
@@ -30,15 +31,46 @@ public final class JsonParser {
     public static final int S_IN_PAIR_VALUE = 5;
     public static final int S_END = 6;
     public static final int S_IN_ERROR = -1;
-    private LinkedList<Integer> handlerStatusStack;
+    private static final int INITIAL_DEPTH = 32;
     private Yylex lexer;
     private Yytoken token = null;
     private int status = S_INIT;
     private final JsonSystem system;
+    private final StringInterning interning;
+    private final StringTable keys;
+    private final StringTable values;
+    /*
+     * The status and value stacks are kept between parses, so parsing creates nothing but the resulting values.
+     */
+    private int[] statusStack = new int[INITIAL_DEPTH];
+    private int statusDepth;
+    private JsonValue[] valueStack = new JsonValue[INITIAL_DEPTH];
+    private int valueDepth;
+    private String key;
+    private boolean handlerStarted;
 
     public JsonParser(JsonSystem system) {
+        this(system, null);
+    }
+
+    /**
+     * Create a new JsonParser that interns keys and string values as set by the given StringInterning.
+     * 
+     * @param system The associated JsonSystem.
+     * @param interning The StringInterning, or null to not intern.
+     */
+    public JsonParser(JsonSystem system, StringInterning interning) {
         this.system = system;
+        this.interning = interning;
         lexer = new Yylex(system, (Reader) null);
+        if (interning != null) {
+            keys = interning.createKeyTable();
+            values = interning.createValueTable();
+            lexer.setTables(keys, values);
+        } else {
+            keys = null;
+            values = null;
+        }
     }
 
     private org.itemscript.core.values.JsonArray createArrayContainer() {
@@ -49,6 +81,12 @@ public final class JsonParser {
         return system.createObject();
     }
 
+    private ParseException error() {
+        // The lexer reuses its value token, so the exception gets its own copy.
+        return new ParseException(lexer.getLine(), lexer.getColumn(), ParseException.ERROR_UNEXPECTED_TOKEN,
+                token.copy());
+    }
+
     /**
      * @return The position of the beginning of the current token.
      */
@@ -57,8 +95,10 @@ public final class JsonParser {
     }
 
     private void nextToken() throws ParseException, IOException {
+        // Object keys are scanned without creating a JsonString for them; the key is taken from the lexer.
+        lexer.setSkipping(status == S_IN_OBJECT);
         token = lexer.yylex();
-        if (token == null) token = new Yytoken(Yytoken.TYPE_EOF, null);
+        if (token == null) token = Yytoken.EOF;
     }
 
     /**
@@ -78,150 +118,131 @@ public final class JsonParser {
      */
     public JsonValue parse(Reader in) throws IOException, ParseException {
         reset(in);
-        LinkedList<Integer> statusStack = new LinkedList<Integer>();
-        LinkedList<JsonValue> valueStack = new LinkedList<JsonValue>();
-        try {
-            do {
-                nextToken();
-                switch (status) {
-                    case S_INIT :
-                        switch (token.type) {
-                            case Yytoken.TYPE_VALUE :
-                                status = S_IN_FINISHED_VALUE;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(token.value);
-                                break;
-                            case Yytoken.TYPE_LEFT_BRACE :
-                                status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(createObjectContainer());
-                                break;
-                            case Yytoken.TYPE_LEFT_SQUARE :
-                                status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(createArrayContainer());
-                                break;
-                            default :
-                                status = S_IN_ERROR;
-                        }//inner switch
-                        break;
-                    case S_IN_FINISHED_VALUE :
-                        if (token.type == Yytoken.TYPE_EOF)
-                            return valueStack.removeFirst();
-                        else
-                            throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                                    ParseException.ERROR_UNEXPECTED_TOKEN, token);
-                    case S_IN_OBJECT :
-                        switch (token.type) {
-                            case Yytoken.TYPE_COMMA :
-                                break;
-                            case Yytoken.TYPE_VALUE :
-                                if (token.value instanceof JsonString) {
-                                    JsonString key = (JsonString) token.value;
-                                    valueStack.addFirst(key);
-                                    status = S_PASSED_PAIR_KEY;
-                                    statusStack.addFirst(new Integer(status));
-                                } else {
-                                    status = S_IN_ERROR;
-                                }
-                                break;
-                            case Yytoken.TYPE_RIGHT_BRACE :
-                                if (valueStack.size() > 1) {
-                                    statusStack.removeFirst();
-                                    valueStack.removeFirst();
-                                    status = peekStatus(statusStack);
-                                } else {
-                                    status = S_IN_FINISHED_VALUE;
-                                }
-                                break;
-                            default :
-                                status = S_IN_ERROR;
-                                break;
-                        }//inner switch
-                        break;
-                    case S_PASSED_PAIR_KEY :
-                        switch (token.type) {
-                            case Yytoken.TYPE_COLON :
-                                break;
-                            case Yytoken.TYPE_VALUE :
-                                statusStack.removeFirst();
-                                JsonString key = (JsonString) valueStack.removeFirst();
-                                JsonObject parent = (JsonObject) valueStack.getFirst();
-                                parent.put(key.stringValue(), token.value);
-                                status = peekStatus(statusStack);
-                                break;
-                            case Yytoken.TYPE_LEFT_SQUARE :
-                                statusStack.removeFirst();
-                                key = (JsonString) valueStack.removeFirst();
-                                parent = (JsonObject) valueStack.getFirst();
-                                JsonArray newArray = createArrayContainer();
-                                parent.put(key.stringValue(), newArray);
-                                status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(newArray);
-                                break;
-                            case Yytoken.TYPE_LEFT_BRACE :
-                                statusStack.removeFirst();
-                                key = (JsonString) valueStack.removeFirst();
-                                parent = (JsonObject) valueStack.getFirst();
-                                JsonObject newObject = createObjectContainer();
-                                parent.put(key.stringValue(), newObject);
-                                status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(newObject);
-                                break;
-                            default :
-                                status = S_IN_ERROR;
-                        }
-                        break;
-                    case S_IN_ARRAY :
-                        switch (token.type) {
-                            case Yytoken.TYPE_COMMA :
-                                break;
-                            case Yytoken.TYPE_VALUE :
-                                JsonArray val = (JsonArray) valueStack.getFirst();
-                                val.add(token.value);
-                                break;
-                            case Yytoken.TYPE_RIGHT_SQUARE :
-                                if (valueStack.size() > 1) {
-                                    statusStack.removeFirst();
-                                    valueStack.removeFirst();
-                                    status = peekStatus(statusStack);
-                                } else {
-                                    status = S_IN_FINISHED_VALUE;
-                                }
-                                break;
-                            case Yytoken.TYPE_LEFT_BRACE :
-                                val = (JsonArray) valueStack.getFirst();
-                                JsonObject newObject = createObjectContainer();
-                                val.add(newObject);
-                                status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(newObject);
-                                break;
-                            case Yytoken.TYPE_LEFT_SQUARE :
-                                val = (JsonArray) valueStack.getFirst();
-                                JsonArray newArray = createArrayContainer();
-                                val.add(newArray);
-                                status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
-                                valueStack.addFirst(newArray);
-                                break;
-                            default :
+        do {
+            nextToken();
+            switch (status) {
+                case S_INIT :
+                    switch (token.type) {
+                        case Yytoken.TYPE_VALUE :
+                            status = S_IN_FINISHED_VALUE;
+                            pushStatus(status);
+                            pushValue(token.value);
+                            break;
+                        case Yytoken.TYPE_LEFT_BRACE :
+                            status = S_IN_OBJECT;
+                            pushStatus(status);
+                            pushValue(createObjectContainer());
+                            break;
+                        case Yytoken.TYPE_LEFT_SQUARE :
+                            status = S_IN_ARRAY;
+                            pushStatus(status);
+                            pushValue(createArrayContainer());
+                            break;
+                        default :
+                            status = S_IN_ERROR;
+                    }//inner switch
+                    break;
+                case S_IN_FINISHED_VALUE :
+                    if (token.type == Yytoken.TYPE_EOF)
+                        return popValue();
+                    else
+                        throw error();
+                case S_IN_OBJECT :
+                    switch (token.type) {
+                        case Yytoken.TYPE_COMMA :
+                            break;
+                        case Yytoken.TYPE_VALUE :
+                            if (token == Yylex.SKIPPED_STRING) {
+                                key = lexer.key();
+                                status = S_PASSED_PAIR_KEY;
+                                pushStatus(status);
+                            } else {
                                 status = S_IN_ERROR;
-                        }//inner switch
-                        break;
-                    case S_IN_ERROR :
-                        throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                                ParseException.ERROR_UNEXPECTED_TOKEN, token);
-                }//switch
-                if (status == S_IN_ERROR) { throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                        ParseException.ERROR_UNEXPECTED_TOKEN, token); }
-            } while (token.type != Yytoken.TYPE_EOF);
-        } catch (IOException ie) {
-            throw ie;
-        }
-        throw new ParseException(lexer.getLine(), lexer.getColumn(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+                            }
+                            break;
+                        case Yytoken.TYPE_RIGHT_BRACE :
+                            if (valueDepth > 1) {
+                                --statusDepth;
+                                popValue();
+                                status = peekStatus();
+                            } else {
+                                status = S_IN_FINISHED_VALUE;
+                            }
+                            break;
+                        default :
+                            status = S_IN_ERROR;
+                            break;
+                    }//inner switch
+                    break;
+                case S_PASSED_PAIR_KEY :
+                    switch (token.type) {
+                        case Yytoken.TYPE_COLON :
+                            break;
+                        case Yytoken.TYPE_VALUE :
+                            --statusDepth;
+                            ((JsonObject) valueStack[valueDepth - 1]).put(key, token.value);
+                            status = peekStatus();
+                            break;
+                        case Yytoken.TYPE_LEFT_SQUARE :
+                            --statusDepth;
+                            JsonArray newArray = createArrayContainer();
+                            ((JsonObject) valueStack[valueDepth - 1]).put(key, newArray);
+                            status = S_IN_ARRAY;
+                            pushStatus(status);
+                            pushValue(newArray);
+                            break;
+                        case Yytoken.TYPE_LEFT_BRACE :
+                            --statusDepth;
+                            JsonObject newObject = createObjectContainer();
+                            ((JsonObject) valueStack[valueDepth - 1]).put(key, newObject);
+                            status = S_IN_OBJECT;
+                            pushStatus(status);
+                            pushValue(newObject);
+                            break;
+                        default :
+                            status = S_IN_ERROR;
+                    }
+                    break;
+                case S_IN_ARRAY :
+                    switch (token.type) {
+                        case Yytoken.TYPE_COMMA :
+                            break;
+                        case Yytoken.TYPE_VALUE :
+                            ((JsonArray) valueStack[valueDepth - 1]).add(token.value);
+                            break;
+                        case Yytoken.TYPE_RIGHT_SQUARE :
+                            if (valueDepth > 1) {
+                                --statusDepth;
+                                popValue();
+                                status = peekStatus();
+                            } else {
+                                status = S_IN_FINISHED_VALUE;
+                            }
+                            break;
+                        case Yytoken.TYPE_LEFT_BRACE :
+                            JsonObject newObject = createObjectContainer();
+                            ((JsonArray) valueStack[valueDepth - 1]).add(newObject);
+                            status = S_IN_OBJECT;
+                            pushStatus(status);
+                            pushValue(newObject);
+                            break;
+                        case Yytoken.TYPE_LEFT_SQUARE :
+                            JsonArray newArray = createArrayContainer();
+                            ((JsonArray) valueStack[valueDepth - 1]).add(newArray);
+                            status = S_IN_ARRAY;
+                            pushStatus(status);
+                            pushValue(newArray);
+                            break;
+                        default :
+                            status = S_IN_ERROR;
+                    }//inner switch
+                    break;
+                case S_IN_ERROR :
+                    throw error();
+            }//switch
+            if (status == S_IN_ERROR) { throw error(); }
+        } while (token.type != Yytoken.TYPE_EOF);
+        throw error();
     }
 
     public void parse(Reader in, ContentHandler contentHandler) throws IOException, ParseException {
@@ -244,17 +265,10 @@ public final class JsonParser {
      */
     public void parse(Reader in, ContentHandler contentHandler, boolean isResume) throws IOException,
             ParseException {
-        if (!isResume) {
+        if (!isResume || !handlerStarted) {
             reset(in);
-            handlerStatusStack = new LinkedList<Integer>();
-        } else {
-            if (handlerStatusStack == null) {
-                isResume = false;
-                reset(in);
-                handlerStatusStack = new LinkedList<Integer>();
-            }
+            handlerStarted = true;
         }
-        LinkedList<Integer> statusStack = handlerStatusStack;
         try {
             do {
                 switch (status) {
@@ -264,17 +278,17 @@ public final class JsonParser {
                         switch (token.type) {
                             case Yytoken.TYPE_VALUE :
                                 status = S_IN_FINISHED_VALUE;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.primitive(token.value)) return;
                                 break;
                             case Yytoken.TYPE_LEFT_BRACE :
                                 status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startObject()) return;
                                 break;
                             case Yytoken.TYPE_LEFT_SQUARE :
                                 status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startArray()) return;
                                 break;
                             default :
@@ -289,8 +303,7 @@ public final class JsonParser {
                             return;
                         } else {
                             status = S_IN_ERROR;
-                            throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                                    ParseException.ERROR_UNEXPECTED_TOKEN, token);
+                            throw error();
                         }
                     case S_IN_OBJECT :
                         nextToken();
@@ -298,19 +311,18 @@ public final class JsonParser {
                             case Yytoken.TYPE_COMMA :
                                 break;
                             case Yytoken.TYPE_VALUE :
-                                if (token.value instanceof JsonString) {
-                                    JsonString key = (JsonString) token.value;
+                                if (token == Yylex.SKIPPED_STRING) {
                                     status = S_PASSED_PAIR_KEY;
-                                    statusStack.addFirst(new Integer(status));
-                                    if (!contentHandler.startObjectEntry(key.stringValue())) return;
+                                    pushStatus(status);
+                                    if (!contentHandler.startObjectEntry(lexer.key())) return;
                                 } else {
                                     status = S_IN_ERROR;
                                 }
                                 break;
                             case Yytoken.TYPE_RIGHT_BRACE :
-                                if (statusStack.size() > 1) {
-                                    statusStack.removeFirst();
-                                    status = peekStatus(statusStack);
+                                if (statusDepth > 1) {
+                                    --statusDepth;
+                                    status = peekStatus();
                                 } else {
                                     status = S_IN_FINISHED_VALUE;
                                 }
@@ -327,23 +339,23 @@ public final class JsonParser {
                             case Yytoken.TYPE_COLON :
                                 break;
                             case Yytoken.TYPE_VALUE :
-                                statusStack.removeFirst();
-                                status = peekStatus(statusStack);
+                                --statusDepth;
+                                status = peekStatus();
                                 if (!contentHandler.primitive(token.value)) return;
                                 if (!contentHandler.endObjectEntry()) return;
                                 break;
                             case Yytoken.TYPE_LEFT_SQUARE :
-                                statusStack.removeFirst();
-                                statusStack.addFirst(new Integer(S_IN_PAIR_VALUE));
+                                --statusDepth;
+                                pushStatus(S_IN_PAIR_VALUE);
                                 status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startArray()) return;
                                 break;
                             case Yytoken.TYPE_LEFT_BRACE :
-                                statusStack.removeFirst();
-                                statusStack.addFirst(new Integer(S_IN_PAIR_VALUE));
+                                --statusDepth;
+                                pushStatus(S_IN_PAIR_VALUE);
                                 status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startObject()) return;
                                 break;
                             default :
@@ -355,8 +367,8 @@ public final class JsonParser {
                          * S_IN_PAIR_VALUE is just a marker to indicate the end of an object entry, it doesn't proccess any token,
                          * therefore delay consuming token until next round.
                          */
-                        statusStack.removeFirst();
-                        status = peekStatus(statusStack);
+                        --statusDepth;
+                        status = peekStatus();
                         if (!contentHandler.endObjectEntry()) return;
                         break;
                     case S_IN_ARRAY :
@@ -368,9 +380,9 @@ public final class JsonParser {
                                 if (!contentHandler.primitive(token.value)) return;
                                 break;
                             case Yytoken.TYPE_RIGHT_SQUARE :
-                                if (statusStack.size() > 1) {
-                                    statusStack.removeFirst();
-                                    status = peekStatus(statusStack);
+                                if (statusDepth > 1) {
+                                    --statusDepth;
+                                    status = peekStatus();
                                 } else {
                                     status = S_IN_FINISHED_VALUE;
                                 }
@@ -378,12 +390,12 @@ public final class JsonParser {
                                 break;
                             case Yytoken.TYPE_LEFT_BRACE :
                                 status = S_IN_OBJECT;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startObject()) return;
                                 break;
                             case Yytoken.TYPE_LEFT_SQUARE :
                                 status = S_IN_ARRAY;
-                                statusStack.addFirst(new Integer(status));
+                                pushStatus(status);
                                 if (!contentHandler.startArray()) return;
                                 break;
                             default :
@@ -393,11 +405,9 @@ public final class JsonParser {
                     case S_END :
                         return;
                     case S_IN_ERROR :
-                        throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                                ParseException.ERROR_UNEXPECTED_TOKEN, token);
+                        throw error();
                 }//switch
-                if (status == S_IN_ERROR) { throw new ParseException(lexer.getLine(), lexer.getColumn(),
-                        ParseException.ERROR_UNEXPECTED_TOKEN, token); }
+                if (status == S_IN_ERROR) { throw error(); }
             } while (token.type != Yytoken.TYPE_EOF);
         } catch (IOException ie) {
             status = S_IN_ERROR;
@@ -413,7 +423,7 @@ public final class JsonParser {
             throw e;
         }
         status = S_IN_ERROR;
-        throw new ParseException(lexer.getLine(), lexer.getColumn(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+        throw error();
     }
 
     public JsonValue parse(String s) throws ParseException {
@@ -444,10 +454,34 @@ public final class JsonParser {
         }
     }
 
-    private int peekStatus(LinkedList<Integer> statusStack) {
-        if (statusStack.size() == 0) return -1;
-        Integer status = statusStack.getFirst();
-        return status.intValue();
+    private int peekStatus() {
+        if (statusDepth == 0) return -1;
+        return statusStack[statusDepth - 1];
+    }
+
+    private JsonValue popValue() {
+        JsonValue value = valueStack[--valueDepth];
+        // Don't hold on to values from earlier parses.
+        valueStack[valueDepth] = null;
+        return value;
+    }
+
+    private void pushStatus(int status) {
+        if (statusDepth == statusStack.length) {
+            int[] newStack = new int[statusStack.length * 2];
+            System.arraycopy(statusStack, 0, newStack, 0, statusDepth);
+            statusStack = newStack;
+        }
+        statusStack[statusDepth++] = status;
+    }
+
+    private void pushValue(JsonValue value) {
+        if (valueDepth == valueStack.length) {
+            JsonValue[] newStack = new JsonValue[valueStack.length * 2];
+            System.arraycopy(valueStack, 0, newStack, 0, valueDepth);
+            valueStack = newStack;
+        }
+        valueStack[valueDepth++] = value;
     }
 
     /**
@@ -457,7 +491,15 @@ public final class JsonParser {
     public void reset() {
         token = null;
         status = S_INIT;
-        handlerStatusStack = null;
+        statusDepth = 0;
+        while (valueDepth > 0) {
+            valueStack[--valueDepth] = null;
+        }
+        key = null;
+        handlerStarted = false;
+        if (interning != null) {
+            interning.record(keys, values);
+        }
     }
 
     /**
@@ -0,0 +1,196 @@
+package org.itemscript.standard.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.url.Url;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Parses only the parts of JSON text that lie on a given set of paths.
+ * <p>
+ * Paths are in the form accepted by {@link org.itemscript.core.values.JsonContainer#getByPath}: keys or array
+ * indexes separated by "/", each URL-encoded. The result is a sparse copy of the document that contains just the
+ * values at those paths and the containers leading to them, so <code>getByPath</code> with any of the paths gives
+ * the same result as on the full document. Everything else is skipped by the lexer without creating values for
+ * it. Elements of an array that come before a kept element are replaced with nulls so that indexes are unchanged;
+ * later elements are left out.
+ * <p>
+ * For example, projecting <code>{"id":1,"user":{"name":"x","bio":"..."},"tags":["a","b"]}</code> onto the paths
+ * <code>id</code> and <code>user/name</code> gives <code>{"id":1,"user":{"name":"x"}}</code>.
+ * <p>
+ * A JsonProjection may be shared between threads; each parse uses its own {@link JsonReader}.
+ */
+public final class JsonProjection {
+    private static final class Node {
+        private final String key;
+        private final int index;
+        /**
+         * True if the whole value at this node is wanted.
+         */
+        private boolean all;
+        private final List<Node> children = new ArrayList<Node>();
+        private int maxIndex = -1;
+
+        private Node(String key) {
+            this.key = key;
+            this.index = parseIndex(key);
+        }
+
+        private Node child(String childKey) {
+            for (int i = 0; i < children.size(); ++i) {
+                Node child = children.get(i);
+                if (child.key.equals(childKey)) { return child; }
+            }
+            Node child = new Node(childKey);
+            children.add(child);
+            if (child.index > maxIndex) {
+                maxIndex = child.index;
+            }
+            return child;
+        }
+
+        private Node childAt(int index) {
+            for (int i = 0; i < children.size(); ++i) {
+                Node child = children.get(i);
+                if (child.index == index) { return child; }
+            }
+            return null;
+        }
+
+        private Node childFor(JsonReader reader) {
+            for (int i = 0; i < children.size(); ++i) {
+                Node child = children.get(i);
+                if (reader.keyEquals(child.key)) { return child; }
+            }
+            return null;
+        }
+    }
+
+    private static int parseIndex(String key) {
+        if (key == null || key.length() == 0 || key.length() > 9) { return -1; }
+        for (int i = 0; i < key.length(); ++i) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') { return -1; }
+        }
+        return Integer.parseInt(key);
+    }
+
+    private final JsonSystem system;
+    private final Node root = new Node(null);
+
+    /**
+     * Create a new JsonProjection.
+     * 
+     * @param system The associated JsonSystem.
+     * @param paths The paths to keep.
+     */
+    public JsonProjection(JsonSystem system, String[] paths) {
+        this.system = system;
+        for (int i = 0; i < paths.length; ++i) {
+            String path = paths[i];
+            if (path == null || path.length() == 0) { throw new ItemscriptError(
+                    "error.itemscript.JsonProjection.path.was.empty"); }
+            String[] pathComponents = path.split("/");
+            Node node = root;
+            for (int j = 0; j < pathComponents.length; ++j) {
+                node = node.child(Url.decode(pathComponents[j]));
+            }
+            node.all = true;
+        }
+    }
+
+    /**
+     * Parse the given JSON text, keeping only the values on this projection's paths.
+     * 
+     * @param in The Reader to read JSON text from.
+     * @return The projected value.
+     * @throws IOException
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public JsonValue parse(Reader in) throws IOException, ParseException {
+        JsonReader reader = new JsonReader(system, in);
+        JsonValue value = read(reader);
+        if (reader.nextToken() != JsonReader.END_DOCUMENT) { throw new ParseException(
+                ParseException.ERROR_UNEXPECTED_TOKEN, reader.value()); }
+        return value;
+    }
+
+    /**
+     * Parse the given JSON text, keeping only the values on this projection's paths.
+     * 
+     * @param json The JSON text to parse.
+     * @return The projected value.
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public JsonValue parse(String json) throws ParseException {
+        try {
+            return parse(new StringReader(json));
+        } catch (IOException e) {
+            /*
+             * Actually it will never happen.
+             */
+            throw new ParseException(-1, -1, ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Read the value at the given reader's current position, keeping only the values on this projection's paths.
+     * The reader is left in the same place as by {@link JsonReader#readValue()}; this can be used to project each
+     * record in turn from a large array or a JSON Lines resource.
+     * 
+     * @param reader The JsonReader to read from.
+     * @return The projected value.
+     * @throws IOException
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public JsonValue read(JsonReader reader) throws IOException, ParseException {
+        if (reader.token() == JsonReader.KEY || reader.token() == JsonReader.NONE) {
+            reader.nextToken();
+        }
+        return read(reader, root);
+    }
+
+    private JsonValue read(JsonReader reader, Node node) throws IOException, ParseException {
+        if (node.all) { return reader.readValue(); }
+        switch (reader.token()) {
+            case JsonReader.START_OBJECT :
+                JsonObject object = system.createObject();
+                while (reader.nextToken() == JsonReader.KEY) {
+                    Node child = node.childFor(reader);
+                    if (child == null) {
+                        reader.skipValue();
+                    } else {
+                        reader.nextToken();
+                        object.put(child.key, read(reader, child));
+                    }
+                }
+                return object;
+            case JsonReader.START_ARRAY :
+                JsonArray array = system.createArray();
+                int index = 0;
+                while (reader.nextToken() != JsonReader.END_ARRAY) {
+                    Node child = index <= node.maxIndex ? node.childAt(index) : null;
+                    if (child == null) {
+                        reader.skipValue();
+                    } else {
+                        while (array.size() < index) {
+                            array.add(system.createNull());
+                        }
+                        array.add(read(reader, child));
+                    }
+                    ++index;
+                }
+                return array;
+            default :
+                return reader.readValue();
+        }
+    }
+}
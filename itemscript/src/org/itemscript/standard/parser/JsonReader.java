@@ -0,0 +1,337 @@
+package org.itemscript.standard.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Pull-style reader for JSON text.
+ * <p>
+ * Unlike {@link JsonParser#parse(Reader)}, which always builds the whole document, a JsonReader hands back one
+ * token at a time, and only builds values when asked to with {@link #readValue()}. Only the current nesting is
+ * kept, so a document of any size can be walked in constant memory as long as each value that is read fits. For
+ * instance, to read the elements of a large top-level array one at a time:
+ * 
+ * <pre>
+ * JsonReader reader = new JsonReader(system, in);
+ * reader.nextToken(); // START_ARRAY
+ * while (reader.nextToken() != JsonReader.END_ARRAY) {
+ *     JsonValue element = reader.readValue();
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ * 
+ * Any number of top-level values may follow each other, separated by whitespace, so a JSON Lines (.jsonl)
+ * resource can be read by calling {@link #nextToken()} and {@link #readValue()} until {@link #END_DOCUMENT} is
+ * returned.
+ * <p>
+ * Keys are only turned into Strings when {@link #key()} is called, and {@link #skipValue()} creates no values at
+ * all, so a caller that only wants a few fields can test keys with {@link #keyEquals(String)} and skip the rest
+ * cheaply; see {@link JsonProjection}.
+ * <p>
+ * Unlike {@link JsonParser}, separating commas and colons are required. A JsonReader is not thread-safe.
+ */
+public final class JsonReader {
+    /**
+     * Token returned by {@link #nextToken()} before the first call to it.
+     */
+    public static final int NONE = 0;
+    /**
+     * Token for the start of an object.
+     */
+    public static final int START_OBJECT = 1;
+    /**
+     * Token for the end of an object.
+     */
+    public static final int END_OBJECT = 2;
+    /**
+     * Token for the start of an array.
+     */
+    public static final int START_ARRAY = 3;
+    /**
+     * Token for the end of an array.
+     */
+    public static final int END_ARRAY = 4;
+    /**
+     * Token for a key in an object; the key is available from {@link #key()}.
+     */
+    public static final int KEY = 5;
+    /**
+     * Token for a string, number, boolean or null; the value is available from {@link #value()}.
+     */
+    public static final int VALUE = 6;
+    /**
+     * Token for the end of the input.
+     */
+    public static final int END_DOCUMENT = 7;
+    private static final int ARRAY_START = 0;
+    private static final int ARRAY_VALUE = 1;
+    private static final int ARRAY_COMMA = 2;
+    private static final int OBJECT_START = 3;
+    private static final int OBJECT_KEY = 4;
+    private static final int OBJECT_COLON = 5;
+    private static final int OBJECT_VALUE = 6;
+    private static final int OBJECT_COMMA = 7;
+    private final JsonSystem system;
+    private final Yylex lexer;
+    private int[] states = new int[16];
+    private int depth;
+    private int token = NONE;
+    private String key;
+    private JsonValue value;
+    private boolean skipping;
+
+    /**
+     * Create a new JsonReader.
+     * 
+     * @param system The associated JsonSystem.
+     * @param in The Reader to read JSON text from.
+     */
+    public JsonReader(JsonSystem system, Reader in) {
+        this.system = system;
+        this.lexer = new Yylex(system, in);
+    }
+
+    /**
+     * Close the underlying Reader.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        lexer.yyclose();
+    }
+
+    /**
+     * Get the current nesting depth: 0 at the top level, 1 inside a top-level object or array, and so on. A start
+     * token counts as inside the container it starts, an end token as outside the container it ends.
+     * 
+     * @return The current depth.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    private ParseException error(Yytoken unexpected) {
+        return new ParseException(lexer.getLine(), lexer.getColumn(), ParseException.ERROR_UNEXPECTED_TOKEN,
+                unexpected.copy());
+    }
+
+    /**
+     * Get the current key. Only meaningful when the current token is {@link #KEY}.
+     * 
+     * @return The current key.
+     */
+    public String key() {
+        if (key == null && token == KEY) {
+            key = lexer.text();
+        }
+        return key;
+    }
+
+    /**
+     * Test whether the current key is equal to the given string, without creating a String for the key. Only
+     * meaningful when the current token is {@link #KEY}.
+     * 
+     * @param string The string to compare against.
+     * @return True if the current token is {@link #KEY} and the key is equal to the given string.
+     */
+    public boolean keyEquals(String string) {
+        return token == KEY && lexer.textEquals(string);
+    }
+
+    /**
+     * Advance to the next token.
+     * 
+     * @return The new current token: one of {@link #START_OBJECT}, {@link #END_OBJECT}, {@link #START_ARRAY},
+     *         {@link #END_ARRAY}, {@link #KEY}, {@link #VALUE} or {@link #END_DOCUMENT}.
+     * @throws IOException
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public int nextToken() throws IOException, ParseException {
+        key = null;
+        value = null;
+        if (token == END_DOCUMENT) { return token; }
+        while (true) {
+            // Keys are left in the lexer's buffer until they are asked for.
+            lexer.setSkipping(skipping
+                    || (depth > 0 && (states[depth - 1] == OBJECT_START || states[depth - 1] == OBJECT_COMMA)));
+            Yytoken next = lexer.yylex();
+            if (next == null) {
+                next = Yytoken.EOF;
+            }
+            if (depth == 0) {
+                if (next.type == Yytoken.TYPE_EOF) {
+                    token = END_DOCUMENT;
+                    return token;
+                }
+                return startValue(next);
+            }
+            switch (states[depth - 1]) {
+                case ARRAY_START :
+                    if (next.type == Yytoken.TYPE_RIGHT_SQUARE) { return endContainer(END_ARRAY); }
+                    states[depth - 1] = ARRAY_VALUE;
+                    return startValue(next);
+                case ARRAY_VALUE :
+                    if (next.type == Yytoken.TYPE_RIGHT_SQUARE) { return endContainer(END_ARRAY); }
+                    if (next.type != Yytoken.TYPE_COMMA) { throw error(next); }
+                    states[depth - 1] = ARRAY_COMMA;
+                    break;
+                case ARRAY_COMMA :
+                    states[depth - 1] = ARRAY_VALUE;
+                    return startValue(next);
+                case OBJECT_START :
+                    if (next.type == Yytoken.TYPE_RIGHT_BRACE) { return endContainer(END_OBJECT); }
+                    return startKey(next);
+                case OBJECT_KEY :
+                    if (next.type != Yytoken.TYPE_COLON) { throw error(next); }
+                    states[depth - 1] = OBJECT_COLON;
+                    break;
+                case OBJECT_COLON :
+                    states[depth - 1] = OBJECT_VALUE;
+                    return startValue(next);
+                case OBJECT_VALUE :
+                    if (next.type == Yytoken.TYPE_RIGHT_BRACE) { return endContainer(END_OBJECT); }
+                    if (next.type != Yytoken.TYPE_COMMA) { throw error(next); }
+                    states[depth - 1] = OBJECT_COMMA;
+                    break;
+                case OBJECT_COMMA :
+                    return startKey(next);
+            }
+        }
+    }
+
+    private int endContainer(int endToken) {
+        depth--;
+        token = endToken;
+        return token;
+    }
+
+    private void push(int state) {
+        if (depth == states.length) {
+            int[] newStates = new int[states.length * 2];
+            System.arraycopy(states, 0, newStates, 0, states.length);
+            states = newStates;
+        }
+        states[depth++] = state;
+    }
+
+    /**
+     * Read the value at the current position and return it.
+     * <p>
+     * If the current token is {@link #START_OBJECT} or {@link #START_ARRAY}, the whole object or array is read,
+     * leaving the reader on the matching end token. If it is {@link #VALUE}, that value is returned. If it is
+     * {@link #KEY}, or no token has been read yet, the reader first advances to the next value.
+     * 
+     * @return The value that was read.
+     * @throws IOException
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public JsonValue readValue() throws IOException, ParseException {
+        if (token == KEY || token == NONE) {
+            nextToken();
+        }
+        switch (token) {
+            case VALUE :
+                return value;
+            case START_OBJECT :
+                JsonObject object = system.createObject();
+                while (nextToken() == KEY) {
+                    String objectKey = key();
+                    nextToken();
+                    object.put(objectKey, readValue());
+                }
+                return object;
+            case START_ARRAY :
+                JsonArray array = system.createArray();
+                while (nextToken() != END_ARRAY) {
+                    array.add(readValue());
+                }
+                return array;
+            default :
+                throw new ItemscriptError("error.itemscript.JsonReader.readValue.not.at.a.value", token + "");
+        }
+    }
+
+    /**
+     * Skip the value at the current position without building it.
+     * <p>
+     * Accepts the same positions as {@link #readValue()}, and leaves the reader in the same place. No value is
+     * created for a skipped string, number, boolean or null, so {@link #value()} returns null afterwards.
+     * 
+     * @throws IOException
+     * @throws ParseException If the input is not valid JSON.
+     */
+    public void skipValue() throws IOException, ParseException {
+        skipping = true;
+        try {
+            if (token == KEY || token == NONE) {
+                nextToken();
+            }
+            switch (token) {
+                case VALUE :
+                    return;
+                case START_OBJECT :
+                case START_ARRAY :
+                    int startDepth = depth;
+                    while (depth >= startDepth) {
+                        nextToken();
+                    }
+                    return;
+                default :
+                    throw new ItemscriptError("error.itemscript.JsonReader.skipValue.not.at.a.value", token + "");
+            }
+        } finally {
+            skipping = false;
+        }
+    }
+
+    private int startKey(Yytoken next) throws ParseException {
+        if (next != Yylex.SKIPPED_STRING) { throw error(next); }
+        states[depth - 1] = OBJECT_KEY;
+        token = KEY;
+        return token;
+    }
+
+    private int startValue(Yytoken next) throws ParseException {
+        switch (next.type) {
+            case Yytoken.TYPE_VALUE :
+                value = next.value;
+                token = VALUE;
+                return token;
+            case Yytoken.TYPE_LEFT_BRACE :
+                push(OBJECT_START);
+                token = START_OBJECT;
+                return token;
+            case Yytoken.TYPE_LEFT_SQUARE :
+                push(ARRAY_START);
+                token = START_ARRAY;
+                return token;
+            default :
+                throw error(next);
+        }
+    }
+
+    /**
+     * Get the current token.
+     * 
+     * @return The current token.
+     */
+    public int token() {
+        return token;
+    }
+
+    /**
+     * Get the current value. Only meaningful when the current token is {@link #VALUE}.
+     * 
+     * @return The current value.
+     */
+    public JsonValue value() {
+        return value;
+    }
+}
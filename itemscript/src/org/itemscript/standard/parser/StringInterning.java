@@ -0,0 +1,154 @@
+package org.itemscript.standard.parser;
+
+/**
+ * Settings and statistics for sharing String instances between repeated object keys and string values while
+ * parsing.
+ * <p>
+ * Documents made of many objects of the same shape repeat the same keys over and over, and often the same short
+ * values as well. Normally each occurrence becomes a new String; with interning, a parser keeps a bounded
+ * {@link StringTable} of the keys (and optionally the short string values) it has seen, and hands back the
+ * String it already has when the same text comes up again. Each parser has its own tables, which it keeps between
+ * parses, so no locking is needed while parsing.
+ * <p>
+ * Interning is configured per {@link org.itemscript.core.JsonSystem}, by giving a StringInterning to the
+ * {@link org.itemscript.core.values.JsonCreator} its config creates:
+ * 
+ * <pre>
+ * final StringInterning interning = new StringInterning(1024, 4096, 32);
+ * JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+ *     public JsonCreator createJsonCreator(JsonSystem system) {
+ *         return new StandardJsonCreator(system, interning);
+ *     }
+ * });
+ * </pre>
+ * 
+ * The hit rates of all the parsers using a StringInterning are added up in it, and can be read at any time; they
+ * are brought up to date at the end of each parse.
+ */
+public final class StringInterning {
+    /**
+     * Keys longer than this are not interned.
+     */
+    public static final int MAX_KEY_LENGTH = 256;
+    private final int keyTableSize;
+    private final int valueTableSize;
+    private final int maxValueLength;
+    private long keyLookups;
+    private long keyHits;
+    private long valueLookups;
+    private long valueHits;
+
+    /**
+     * Create a new StringInterning that interns keys only.
+     * 
+     * @param keyTableSize The number of entries in each parser's key table.
+     */
+    public StringInterning(int keyTableSize) {
+        this(keyTableSize, 0, 0);
+    }
+
+    /**
+     * Create a new StringInterning that interns keys and short string values.
+     * 
+     * @param keyTableSize The number of entries in each parser's key table.
+     * @param valueTableSize The number of entries in each parser's value table, or 0 to not intern values.
+     * @param maxValueLength The length of the longest string value that will be interned.
+     */
+    public StringInterning(int keyTableSize, int valueTableSize, int maxValueLength) {
+        this.keyTableSize = keyTableSize;
+        this.valueTableSize = valueTableSize;
+        this.maxValueLength = maxValueLength;
+    }
+
+    StringTable createKeyTable() {
+        return keyTableSize > 0 ? new StringTable(keyTableSize, MAX_KEY_LENGTH) : null;
+    }
+
+    StringTable createValueTable() {
+        return valueTableSize > 0 && maxValueLength > 0 ? new StringTable(valueTableSize, maxValueLength) : null;
+    }
+
+    private static double rate(long hits, long lookups) {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Get the fraction of key lookups that found a String already in the table.
+     * 
+     * @return The key hit rate, from 0 to 1.
+     */
+    public synchronized double keyHitRate() {
+        return rate(keyHits, keyLookups);
+    }
+
+    /**
+     * Get the number of key lookups that found a String already in the table.
+     * 
+     * @return The number of key hits.
+     */
+    public synchronized long keyHits() {
+        return keyHits;
+    }
+
+    /**
+     * Get the number of keys looked up.
+     * 
+     * @return The number of key lookups.
+     */
+    public synchronized long keyLookups() {
+        return keyLookups;
+    }
+
+    /**
+     * Add the counts from the given tables to the totals, and clear them.
+     * 
+     * @param keys The key table, or null.
+     * @param values The value table, or null.
+     */
+    synchronized void record(StringTable keys, StringTable values) {
+        if (keys != null) {
+            keyLookups += keys.lookups;
+            keyHits += keys.hits;
+            keys.lookups = keys.hits = 0;
+        }
+        if (values != null) {
+            valueLookups += values.lookups;
+            valueHits += values.hits;
+            values.lookups = values.hits = 0;
+        }
+    }
+
+    /**
+     * Set all the counts back to zero.
+     */
+    public synchronized void resetStatistics() {
+        keyLookups = keyHits = valueLookups = valueHits = 0;
+    }
+
+    /**
+     * Get the fraction of string value lookups that found a String already in the table.
+     * 
+     * @return The value hit rate, from 0 to 1.
+     */
+    public synchronized double valueHitRate() {
+        return rate(valueHits, valueLookups);
+    }
+
+    /**
+     * Get the number of string value lookups that found a String already in the table.
+     * 
+     * @return The number of value hits.
+     */
+    public synchronized long valueHits() {
+        return valueHits;
+    }
+
+    /**
+     * Get the number of string values looked up. Values longer than the maximum length are not counted.
+     * 
+     * @return The number of value lookups.
+     */
+    public synchronized long valueLookups() {
+        return valueLookups;
+    }
+}
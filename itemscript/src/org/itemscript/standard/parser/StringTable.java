@@ -0,0 +1,134 @@
+package org.itemscript.standard.parser;
+
+/**
+ * A bounded table of strings that a parser uses to hand back the same String instance for text it has seen
+ * before.
+ * <p>
+ * The table is a fixed-size array indexed by hash. A string that lands on a slot holding a different string
+ * replaces it, so the table never grows, and text that keeps recurring stays in it. Strings longer than the
+ * table's maximum length are never stored.
+ * <p>
+ * Lookups compare the text against the stored string without creating a String, so a hit creates nothing. Hits
+ * and lookups are counted until the counts are added to a {@link StringInterning} by
+ * {@link StringInterning#record}.
+ * <p>
+ * A StringTable is not thread-safe; each parser has its own.
+ */
+final class StringTable {
+    private final String[] strings;
+    private final int[] hashes;
+    private final int mask;
+    private final int maxLength;
+    long lookups;
+    long hits;
+
+    /**
+     * @param size The number of slots, rounded up to a power of two.
+     * @param maxLength The length of the longest string that will be stored.
+     */
+    StringTable(int size, int maxLength) {
+        int slots = 1;
+        while (slots < size) {
+            slots <<= 1;
+        }
+        this.strings = new String[slots];
+        this.hashes = new int[slots];
+        this.mask = slots - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return A String of the given bytes, each taken as a character from 0 to 255.
+     */
+    String intern(byte[] bytes, int offset, int length) {
+        if (length > maxLength) { return latin1(bytes, offset, length); }
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        }
+        ++lookups;
+        int slot = slot(hash);
+        String string = strings[slot];
+        if (string != null && hashes[slot] == hash && string.length() == length) {
+            int i = 0;
+            while (i < length && string.charAt(i) == (bytes[offset + i] & 0xFF)) {
+                ++i;
+            }
+            if (i == length) {
+                ++hits;
+                return string;
+            }
+        }
+        return store(slot, hash, latin1(bytes, offset, length));
+    }
+
+    /**
+     * @return A String of the given characters.
+     */
+    String intern(char[] chars, int offset, int length) {
+        if (length > maxLength) { return new String(chars, offset, length); }
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            hash = 31 * hash + chars[i];
+        }
+        ++lookups;
+        int slot = slot(hash);
+        String string = strings[slot];
+        if (string != null && hashes[slot] == hash && string.length() == length) {
+            int i = 0;
+            while (i < length && string.charAt(i) == chars[offset + i]) {
+                ++i;
+            }
+            if (i == length) {
+                ++hits;
+                return string;
+            }
+        }
+        return store(slot, hash, new String(chars, offset, length));
+    }
+
+    /**
+     * @return A String of the given characters.
+     */
+    String intern(CharSequence chars) {
+        int length = chars.length();
+        if (length > maxLength) { return chars.toString(); }
+        int hash = 0;
+        for (int i = 0; i < length; ++i) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        ++lookups;
+        int slot = slot(hash);
+        String string = strings[slot];
+        if (string != null && hashes[slot] == hash && string.length() == length) {
+            int i = 0;
+            while (i < length && string.charAt(i) == chars.charAt(i)) {
+                ++i;
+            }
+            if (i == length) {
+                ++hits;
+                return string;
+            }
+        }
+        return store(slot, hash, chars.toString());
+    }
+
+    private static String latin1(byte[] bytes, int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) (bytes[offset + i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private int slot(int hash) {
+        // Mix in the high bits, which short strings that differ only in their last characters don't reach.
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private String store(int slot, int hash, String string) {
+        strings[slot] = string;
+        hashes[slot] = hash;
+        return string;
+    }
+}
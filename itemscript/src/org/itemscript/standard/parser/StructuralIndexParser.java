@@ -0,0 +1,582 @@
+package org.itemscript.standard.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Two-stage parser for UTF-8 encoded JSON text, after the approach of simdjson.
+ * <p>
+ * Stage 1 makes one pass over the input, 64 bytes at a time, and builds an index of the positions of every
+ * structural character (<code>{ } [ ] : ,</code>), every opening quote and the first byte of every number and
+ * literal. Quotes, backslashes and structural characters are found eight bytes at a time with bitwise arithmetic on
+ * longs, and strings are masked out with a prefix XOR over the unescaped quotes, so the loop has no per-byte
+ * branches. Stage 2 then walks the index, which gives it every token boundary without looking at the bytes in
+ * between.
+ * <p>
+ * {@link #parse(byte[])} builds the same {@link JsonValue}s as {@link Utf8JsonParser}. {@link #validate(byte[])}
+ * checks the input without building anything, for input that only needs to be checked before being passed on.
+ * <p>
+ * It accepts the same grammar as {@link Utf8JsonParser}; like it, it does not reject malformed UTF-8, which is
+ * replaced with U+FFFD in the strings it builds. A leading UTF-8 byte order mark is skipped. Please note that
+ * StructuralIndexParser is NOT thread-safe.
+ */
+public final class StructuralIndexParser {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int INITIAL_DEPTH = 32;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+    private static final long MOVEMASK = 0x0102040810204080L;
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final int ARRAY_START = 0;
+    private static final int ARRAY_VALUE = 1;
+    private static final int ARRAY_COMMA = 2;
+    private static final int OBJECT_START = 3;
+    private static final int OBJECT_KEY = 4;
+    private static final int OBJECT_COLON = 5;
+    private static final int OBJECT_VALUE = 6;
+    private static final int OBJECT_COMMA = 7;
+    private final JsonSystem system;
+    private final byte[] tail = new byte[64];
+    private int[] index = new int[1024];
+    private int indexLength;
+    private int[] states = new int[INITIAL_DEPTH];
+    private JsonValue[] containers = new JsonValue[INITIAL_DEPTH];
+    private int depth;
+    private byte[] buf;
+    private int start;
+    private int end;
+    private boolean build;
+
+    /**
+     * Create a new StructuralIndexParser.
+     * 
+     * @param system The associated JsonSystem.
+     */
+    public StructuralIndexParser(JsonSystem system) {
+        this.system = system;
+    }
+
+    /**
+     * Turn the high bit of each byte of the given word into one bit of the result, lowest byte first.
+     */
+    private static long movemask(long highBits) {
+        return ((highBits >>> 7) * MOVEMASK) >>> 56;
+    }
+
+    /**
+     * Find the bytes of the given word that are equal to the given byte.
+     * 
+     * @return A word with the high bit set in every byte that matched, and no other bits set.
+     */
+    private static long matches(long word, long repeatedByte) {
+        long x = word ^ repeatedByte;
+        return ~(((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | x | LOW_SEVEN_BITS);
+    }
+
+    private static long prefixXor(long bits) {
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        bits ^= bits << 8;
+        bits ^= bits << 16;
+        bits ^= bits << 32;
+        return bits;
+    }
+
+    private void addIndexBits(int base, long bits) {
+        if (indexLength + 64 > index.length) {
+            int[] newIndex = new int[index.length * 2];
+            System.arraycopy(index, 0, newIndex, 0, indexLength);
+            index = newIndex;
+        }
+        while (bits != 0) {
+            index[indexLength++] = base + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+        }
+    }
+
+    private void attach(JsonValue value, String key) {
+        if (depth == 0) { return; }
+        JsonValue container = containers[depth - 1];
+        if (container.isArray()) {
+            ((JsonArray) container).add(value);
+        } else {
+            ((JsonObject) container).put(key, value);
+        }
+    }
+
+    private int column(int errorPos) {
+        int column = 1;
+        for (int i = start; i < errorPos; ++i) {
+            byte b = buf[i];
+            if (b == '\n' || b == '\r') {
+                column = 1;
+            } else if ((b & 0xC0) != 0x80) {
+                ++column;
+            }
+        }
+        return column;
+    }
+
+    private String decodeString(int from, int to, boolean escapes, boolean ascii) {
+        if (!escapes) { return new String(buf, from, to - from, ascii ? ISO_8859_1 : UTF_8); }
+        // Escapes are plain ASCII, so they can be read after decoding.
+        String raw = new String(buf, from, to - from, ascii ? ISO_8859_1 : UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); ++i) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'b' :
+                    sb.append('\b');
+                    break;
+                case 'f' :
+                    sb.append('\f');
+                    break;
+                case 'n' :
+                    sb.append('\n');
+                    break;
+                case 'r' :
+                    sb.append('\r');
+                    break;
+                case 't' :
+                    sb.append('\t');
+                    break;
+                case 'u' :
+                    sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default :
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stage 1: index the structural positions of buf[start..end).
+     * 
+     * @throws ParseException If a string is not closed.
+     */
+    private void index() throws ParseException {
+        indexLength = 0;
+        ByteBuffer words = ByteBuffer.wrap(buf)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer tailWords = ByteBuffer.wrap(tail)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long nextIsEscaped = 0;
+        long prevInString = 0;
+        long prevScalar = 0;
+        for (int base = start; base < end; base += 64) {
+            ByteBuffer block = words;
+            int offset = base;
+            if (end - base < 64) {
+                // Pad the last block with spaces, which can't change the index.
+                System.arraycopy(buf, base, tail, 0, end - base);
+                for (int i = end - base; i < 64; ++i) {
+                    tail[i] = ' ';
+                }
+                block = tailWords;
+                offset = 0;
+            }
+            long quote = 0;
+            long backslash = 0;
+            long op = 0;
+            long whitespace = 0;
+            for (int k = 0; k < 8; ++k) {
+                long word = block.getLong(offset + k * 8);
+                int shift = k * 8;
+                quote |= movemask(matches(word, '"' * ONES)) << shift;
+                backslash |= movemask(matches(word, '\\' * ONES)) << shift;
+                // Setting the 0x20 bit turns '[' into '{' and ']' into '}', and nothing else into either.
+                long folded = word | (0x20 * ONES);
+                op |= movemask(matches(folded, '{' * ONES) | matches(folded, '}' * ONES) | matches(word, ':' * ONES)
+                        | matches(word, ',' * ONES)) << shift;
+                whitespace |= movemask(matches(word, ' ' * ONES) | matches(word, '\n' * ONES)
+                        | matches(word, '\r' * ONES) | matches(word, '\t' * ONES)) << shift;
+            }
+            // Find the characters that follow an odd-length run of backslashes.
+            long escaped;
+            if (backslash == 0) {
+                escaped = nextIsEscaped;
+                nextIsEscaped = 0;
+            } else {
+                long potentialEscape = backslash & ~nextIsEscaped;
+                long maybeEscaped = potentialEscape << 1;
+                long escapeAndTerminalCode = ((maybeEscaped | ODD_BITS) - potentialEscape) ^ ODD_BITS;
+                escaped = escapeAndTerminalCode ^ (backslash | nextIsEscaped);
+                nextIsEscaped = (escapeAndTerminalCode & backslash) >>> 63;
+            }
+            quote &= ~escaped;
+            // Everything from an opening quote up to but not including its closing quote.
+            long inString = prefixXor(quote) ^ prevInString;
+            prevInString = inString >> 63;
+            long scalar = ~(op | whitespace);
+            long nonQuoteScalar = scalar & ~quote;
+            long followsNonQuoteScalar = (nonQuoteScalar << 1) | prevScalar;
+            prevScalar = nonQuoteScalar >>> 63;
+            long stringTail = inString ^ quote;
+            long structural = (op | (scalar & ~followsNonQuoteScalar)) & ~stringTail;
+            addIndexBits(base, structural);
+        }
+        if (prevInString != 0) { throw new ParseException(line(end), column(end),
+                ParseException.ERROR_UNEXPECTED_TOKEN, Yytoken.EOF); }
+    }
+
+    private int line(int errorPos) {
+        int line = 1;
+        for (int i = start; i < errorPos; ++i) {
+            byte b = buf[i];
+            if (b == '\n') {
+                if (i == start || buf[i - 1] != '\r') {
+                    ++line;
+                }
+            } else if (b == '\r') {
+                ++line;
+            }
+        }
+        return line;
+    }
+
+    private JsonValue literal(int pos, int scalarEnd, byte[] literal, JsonValue value) throws ParseException {
+        if (scalarEnd - pos != literal.length) { throw unexpected(pos + Math.min(literal.length, scalarEnd - pos)); }
+        for (int i = 0; i < literal.length; ++i) {
+            if (buf[pos + i] != literal[i]) { throw unexpected(pos + i); }
+        }
+        return value;
+    }
+
+    private JsonValue number(int pos, int scalarEnd) throws ParseException {
+        int i = pos;
+        boolean negative = false;
+        if (buf[i] == '-') {
+            negative = true;
+            ++i;
+        }
+        long mantissa = 0;
+        int digitsStart = i;
+        while (i < scalarEnd && buf[i] >= '0' && buf[i] <= '9') {
+            mantissa = mantissa * 10 + (buf[i] - '0');
+            ++i;
+        }
+        int digits = i - digitsStart;
+        if (digits == 0) { throw unexpected(i); }
+        int scale = 0;
+        if (i < scalarEnd && buf[i] == '.') {
+            int fractionStart = ++i;
+            while (i < scalarEnd && buf[i] >= '0' && buf[i] <= '9') {
+                mantissa = mantissa * 10 + (buf[i] - '0');
+                ++i;
+            }
+            if (i == fractionStart) { throw unexpected(i); }
+            scale = fractionStart - i;
+            digits += i - fractionStart;
+        }
+        if (i < scalarEnd && (buf[i] == 'e' || buf[i] == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < scalarEnd && (buf[i] == '+' || buf[i] == '-')) {
+                negativeExponent = buf[i] == '-';
+                ++i;
+            }
+            int exponentStart = i;
+            int exponent = 0;
+            while (i < scalarEnd && buf[i] >= '0' && buf[i] <= '9') {
+                if (exponent <= ExactDouble.MAX_SCALE) {
+                    exponent = exponent * 10 + (buf[i] - '0');
+                }
+                ++i;
+            }
+            if (i == exponentStart) { throw unexpected(i); }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i < scalarEnd) { throw unexpected(i); }
+        if (!build) { return null; }
+        if (ExactDouble.isExact(digits, scale)) {
+            return system.createNumber(ExactDouble.toDouble(negative, mantissa, scale));
+        }
+        return system.parseNumber(new String(buf, pos, scalarEnd - pos, ISO_8859_1));
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from the given byte array.
+     * 
+     * @param bytes The bytes to parse.
+     * @return The JsonValue parsed from the bytes.
+     * @throws ParseException
+     */
+    public JsonValue parse(byte[] bytes) throws ParseException {
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from a region of the given byte array.
+     * 
+     * @param bytes The array containing the bytes to parse.
+     * @param offset The index of the first byte to parse.
+     * @param length The number of bytes to parse.
+     * @return The JsonValue parsed from the bytes.
+     * @throws ParseException
+     */
+    public JsonValue parse(byte[] bytes, int offset, int length) throws ParseException {
+        return run(bytes, offset, length, true);
+    }
+
+    private JsonValue run(byte[] bytes, int offset, int length, boolean build) throws ParseException {
+        this.buf = bytes;
+        this.start = offset;
+        this.end = offset + length;
+        this.build = build;
+        if (length >= 3 && bytes[offset] == (byte) 0xEF && bytes[offset + 1] == (byte) 0xBB
+                && bytes[offset + 2] == (byte) 0xBF) {
+            start += 3;
+        }
+        try {
+            index();
+            return walk();
+        } finally {
+            this.buf = null;
+            while (depth > 0) {
+                containers[--depth] = null;
+            }
+        }
+    }
+
+    /**
+     * Find the end of the scalar starting at the given position: the next whitespace or structural character.
+     */
+    private int scalarEnd(int pos, int next) {
+        int scalarEnd = pos + 1;
+        while (scalarEnd < next) {
+            byte b = buf[scalarEnd];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                break;
+            }
+            ++scalarEnd;
+        }
+        return scalarEnd;
+    }
+
+    private void push(int state, JsonValue container) {
+        if (depth == states.length) {
+            int[] newStates = new int[states.length * 2];
+            System.arraycopy(states, 0, newStates, 0, depth);
+            states = newStates;
+            JsonValue[] newContainers = new JsonValue[containers.length * 2];
+            System.arraycopy(containers, 0, newContainers, 0, depth);
+            containers = newContainers;
+        }
+        states[depth] = state;
+        containers[depth] = container;
+        ++depth;
+    }
+
+    /**
+     * Read the string whose opening quote is at the given position.
+     * 
+     * @return The String, or null when only validating.
+     */
+    private String string(int pos) throws ParseException {
+        int i = pos + 1;
+        boolean escapes = false;
+        boolean ascii = true;
+        while (true) {
+            if (i >= end) { throw unexpected(end); }
+            byte b = buf[i];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                escapes = true;
+                if (++i >= end) { throw unexpected(end); }
+                byte e = buf[i];
+                switch (e) {
+                    case '"' :
+                    case '\\' :
+                    case '/' :
+                    case 'b' :
+                    case 'f' :
+                    case 'n' :
+                    case 'r' :
+                    case 't' :
+                        break;
+                    case 'u' :
+                        for (int k = 1; k <= 4; ++k) {
+                            if (i + k >= end || Character.digit(buf[i + k], 16) < 0) { throw unexpected(i + k); }
+                        }
+                        i += 4;
+                        break;
+                    default :
+                        throw unexpected(i);
+                }
+            } else if (b < 0) {
+                ascii = false;
+            }
+            ++i;
+        }
+        if (!build) { return null; }
+        return decodeString(pos + 1, i, escapes, ascii);
+    }
+
+    private ParseException unexpected(int at) {
+        if (at >= end) { return new ParseException(line(end), column(end), ParseException.ERROR_UNEXPECTED_TOKEN,
+                Yytoken.EOF); }
+        Object unexpectedObject;
+        switch (buf[at]) {
+            case '{' :
+                unexpectedObject = Yytoken.LEFT_BRACE;
+                break;
+            case '}' :
+                unexpectedObject = Yytoken.RIGHT_BRACE;
+                break;
+            case '[' :
+                unexpectedObject = Yytoken.LEFT_SQUARE;
+                break;
+            case ']' :
+                unexpectedObject = Yytoken.RIGHT_SQUARE;
+                break;
+            case ',' :
+                unexpectedObject = Yytoken.COMMA;
+                break;
+            case ':' :
+                unexpectedObject = Yytoken.COLON;
+                break;
+            default :
+                byte b = buf[at];
+                if (b >= 0) {
+                    return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_CHAR,
+                            Character.valueOf((char) b));
+                } else {
+                    return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_CHAR, "0x"
+                            + Integer.toHexString(b & 0xFF));
+                }
+        }
+        return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_TOKEN, unexpectedObject);
+    }
+
+    /**
+     * Check that the given bytes are valid UTF-8 encoded JSON text, without building any values.
+     * 
+     * @param bytes The bytes to check.
+     * @throws ParseException If they are not valid JSON.
+     */
+    public void validate(byte[] bytes) throws ParseException {
+        validate(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Check that a region of the given byte array is valid UTF-8 encoded JSON text, without building any values.
+     * 
+     * @param bytes The array containing the bytes to check.
+     * @param offset The index of the first byte to check.
+     * @param length The number of bytes to check.
+     * @throws ParseException If they are not valid JSON.
+     */
+    public void validate(byte[] bytes, int offset, int length) throws ParseException {
+        run(bytes, offset, length, false);
+    }
+
+    /**
+     * Read the scalar starting at the given position; the next index entry, or the end, bounds it.
+     */
+    private JsonValue scalar(int pos, int next) throws ParseException {
+        switch (buf[pos]) {
+            case '"' :
+                String string = string(pos);
+                return build ? system.createString(string) : null;
+            case 't' :
+                return literal(pos, scalarEnd(pos, next), TRUE, build ? system.createBoolean(true) : null);
+            case 'f' :
+                return literal(pos, scalarEnd(pos, next), FALSE, build ? system.createBoolean(false) : null);
+            case 'n' :
+                return literal(pos, scalarEnd(pos, next), NULL, build ? system.createNull() : null);
+            default :
+                byte b = buf[pos];
+                if (b == '-' || (b >= '0' && b <= '9')) { return number(pos, scalarEnd(pos, next)); }
+                throw unexpected(pos);
+        }
+    }
+
+    /**
+     * Stage 2: walk the index, checking the grammar and building values if asked to.
+     */
+    private JsonValue walk() throws ParseException {
+        if (indexLength == 0) { throw unexpected(end); }
+        JsonValue root = null;
+        String key = null;
+        for (int n = 0; n < indexLength; ++n) {
+            int pos = index[n];
+            int next = n + 1 < indexLength ? index[n + 1] : end;
+            byte b = buf[pos];
+            int state = depth == 0 ? -1 : states[depth - 1];
+            if (depth == 0 && n > 0) { throw unexpected(pos); }
+            switch (b) {
+                case ',' :
+                    if (state == ARRAY_VALUE) {
+                        states[depth - 1] = ARRAY_COMMA;
+                    } else if (state == OBJECT_VALUE) {
+                        states[depth - 1] = OBJECT_COMMA;
+                    } else {
+                        throw unexpected(pos);
+                    }
+                    continue;
+                case ':' :
+                    if (state != OBJECT_KEY) { throw unexpected(pos); }
+                    states[depth - 1] = OBJECT_COLON;
+                    continue;
+                case '}' :
+                    if (state != OBJECT_START && state != OBJECT_VALUE) { throw unexpected(pos); }
+                    containers[--depth] = null;
+                    continue;
+                case ']' :
+                    if (state != ARRAY_START && state != ARRAY_VALUE) { throw unexpected(pos); }
+                    containers[--depth] = null;
+                    continue;
+            }
+            if (state == OBJECT_START || state == OBJECT_COMMA) {
+                if (b != '"') { throw unexpected(pos); }
+                key = string(pos);
+                states[depth - 1] = OBJECT_KEY;
+                continue;
+            }
+            // Anything else starts a value.
+            if (state == ARRAY_START || state == ARRAY_COMMA) {
+                states[depth - 1] = ARRAY_VALUE;
+            } else if (state == OBJECT_COLON) {
+                states[depth - 1] = OBJECT_VALUE;
+            } else if (state != -1) { throw unexpected(pos); }
+            JsonValue value;
+            if (b == '{' || b == '[') {
+                value = build ? (b == '{' ? (JsonValue) system.createObject() : system.createArray()) : null;
+                if (build) {
+                    attach(value, key);
+                }
+                push(b == '{' ? OBJECT_START : ARRAY_START, value);
+            } else {
+                value = scalar(pos, next);
+                if (build) {
+                    attach(value, key);
+                }
+            }
+            if (n == 0) {
+                root = value;
+            }
+        }
+        if (depth > 0) { throw unexpected(end); }
+        return root;
+    }
+}
@@ -0,0 +1,538 @@
+package org.itemscript.standard.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+
+/**
+ * Parser for UTF-8 encoded JSON text that works directly on the bytes of the input, without
+ * decoding it to characters through a {@link java.io.Reader} first.
+ * <p>
+ * It accepts the same grammar as {@link JsonParser} and builds the same {@link JsonValue} trees. Malformed
+ * UTF-8 sequences inside strings are replaced with U+FFFD, as {@link java.io.InputStreamReader} would do.
+ * A leading UTF-8 byte order mark is skipped.
+ * <p>
+ * Please note that Utf8JsonParser is NOT thread-safe.
+ */
+public final class Utf8JsonParser {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int INITIAL_STREAM_BUFFER_SIZE = 8192;
+    private static final int INITIAL_CHARS = 256;
+    private static final int MAX_RETAINED_CHARS = 16384;
+    private final JsonSystem system;
+    private final StringInterning interning;
+    private final StringTable keys;
+    private final StringTable values;
+    private byte[] buf;
+    private int start;
+    private int pos;
+    private int end;
+    private char[] chars = new char[INITIAL_CHARS];
+
+    /**
+     * Create a new Utf8JsonParser.
+     *
+     * @param system The associated JsonSystem.
+     */
+    public Utf8JsonParser(JsonSystem system) {
+        this(system, null);
+    }
+
+    /**
+     * Create a new Utf8JsonParser that interns keys and string values as set by the given StringInterning.
+     * 
+     * @param system The associated JsonSystem.
+     * @param interning The StringInterning, or null to not intern.
+     */
+    public Utf8JsonParser(JsonSystem system, StringInterning interning) {
+        this.system = system;
+        this.interning = interning;
+        if (interning != null) {
+            keys = interning.createKeyTable();
+            values = interning.createValueTable();
+        } else {
+            keys = null;
+            values = null;
+        }
+    }
+
+    private void appendChar(int n, char c) {
+        if (n == chars.length) {
+            char[] newChars = new char[chars.length * 2];
+            System.arraycopy(chars, 0, newChars, 0, n);
+            chars = newChars;
+        }
+        chars[n] = c;
+    }
+
+    private int column(int errorPos) {
+        int column = 1;
+        for (int i = start; i < errorPos; ++i) {
+            byte b = buf[i];
+            if (b == '\n' || b == '\r') {
+                column = 1;
+            } else if ((b & 0xC0) != 0x80) {
+                ++column;
+            }
+        }
+        return column;
+    }
+
+    private void expectLiteral(String literal) throws ParseException {
+        for (int i = 0; i < literal.length(); ++i) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != literal.charAt(i)) { throw unexpected(pos); }
+            ++pos;
+        }
+    }
+
+    private int hexDigit(int at) throws ParseException {
+        if (at >= end) { throw unexpectedEnd(); }
+        byte b = buf[at];
+        if (b >= '0' && b <= '9') { return b - '0'; }
+        if (b >= 'a' && b <= 'f') { return b - 'a' + 10; }
+        if (b >= 'A' && b <= 'F') { return b - 'A' + 10; }
+        throw unexpected(at);
+    }
+
+    private boolean isContinuation(int at) {
+        return at < end && (buf[at] & 0xC0) == 0x80;
+    }
+
+    private int line(int errorPos) {
+        int line = 1;
+        for (int i = start; i < errorPos; ++i) {
+            byte b = buf[i];
+            if (b == '\n') {
+                if (i == start || buf[i - 1] != '\r') {
+                    ++line;
+                }
+            } else if (b == '\r') {
+                ++line;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from the given byte array.
+     *
+     * @param bytes The bytes to parse.
+     * @return The JsonValue parsed from the bytes.
+     * @throws ParseException
+     */
+    public JsonValue parse(byte[] bytes) throws ParseException {
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from a region of the given byte array.
+     *
+     * @param bytes The array containing the bytes to parse.
+     * @param offset The index of the first byte to parse.
+     * @param length The number of bytes to parse.
+     * @return The JsonValue parsed from the bytes.
+     * @throws ParseException
+     */
+    public JsonValue parse(byte[] bytes, int offset, int length) throws ParseException {
+        reset(bytes, offset, length);
+        try {
+            skipByteOrderMark();
+            JsonValue value = parseValue();
+            skipWhitespace();
+            if (pos < end) { throw unexpected(pos); }
+            return value;
+        } finally {
+            // Don't hold on to the input, or to a buffer blown up by a long string, after the parse is done.
+            buf = null;
+            if (interning != null) {
+                interning.record(keys, values);
+            }
+            if (chars.length > MAX_RETAINED_CHARS) {
+                chars = new char[INITIAL_CHARS];
+            }
+        }
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from the remaining bytes of the given ByteBuffer. The position of the buffer
+     * is advanced past the parsed bytes.
+     * <p>
+     * Array-backed buffers are parsed in place; the contents of direct buffers are copied into a byte array first.
+     *
+     * @param buffer The ByteBuffer to parse.
+     * @return The JsonValue parsed from the buffer.
+     * @throws ParseException
+     */
+    public JsonValue parse(ByteBuffer buffer) throws ParseException {
+        int length = buffer.remaining();
+        JsonValue value;
+        if (buffer.hasArray()) {
+            value = parse(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = parse(bytes, 0, length);
+        }
+        return value;
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON text from the given InputStream. The whole stream is read before parsing begins;
+     * the stream is not closed.
+     *
+     * @param in The InputStream to parse.
+     * @return The JsonValue parsed from the stream.
+     * @throws IOException
+     * @throws ParseException
+     */
+    public JsonValue parse(InputStream in) throws IOException, ParseException {
+        byte[] bytes = new byte[Math.max(INITIAL_STREAM_BUFFER_SIZE, in.available() + 1)];
+        int length = 0;
+        while (true) {
+            if (length == bytes.length) {
+                byte[] newBytes = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+            int numRead = in.read(bytes, length, bytes.length - length);
+            if (numRead < 0) {
+                break;
+            }
+            length += numRead;
+        }
+        return parse(bytes, 0, length);
+    }
+
+    private JsonArray parseArray() throws ParseException {
+        JsonArray array = system.createArray();
+        // Skip the '['.
+        ++pos;
+        skipWhitespace();
+        if (pos < end && buf[pos] == ']') {
+            ++pos;
+            return array;
+        }
+        while (true) {
+            array.add(parseValue());
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            byte b = buf[pos++];
+            if (b == ']') { return array; }
+            if (b != ',') { throw unexpected(pos - 1); }
+        }
+    }
+
+    private JsonValue parseNumber() throws ParseException {
+        int numberStart = pos;
+        boolean negative = false;
+        if (buf[pos] == '-') {
+            negative = true;
+            ++pos;
+        }
+        int digitsStart = pos;
+        long mantissa = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            mantissa = mantissa * 10 + (buf[pos] - '0');
+            ++pos;
+        }
+        int digits = pos - digitsStart;
+        if (digits == 0) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            throw unexpected(pos);
+        }
+        int scale = 0;
+        if (pos < end && buf[pos] == '.') {
+            int fractionStart = ++pos;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+                ++pos;
+            }
+            if (pos == fractionStart) { throw pos >= end ? unexpectedEnd() : unexpected(pos); }
+            scale = fractionStart - pos;
+            digits += pos - fractionStart;
+        }
+        if (pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            ++pos;
+            boolean negativeExponent = false;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExponent = buf[pos] == '-';
+                ++pos;
+            }
+            int exponentStart = pos;
+            int exponent = 0;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                if (exponent <= ExactDouble.MAX_SCALE) {
+                    exponent = exponent * 10 + (buf[pos] - '0');
+                }
+                ++pos;
+            }
+            if (pos == exponentStart) { throw pos >= end ? unexpectedEnd() : unexpected(pos); }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (ExactDouble.isExact(digits, scale)) {
+            return system.createNumber(ExactDouble.toDouble(negative, mantissa, scale));
+        }
+        // Too many digits for a double to hold exactly; keep the text.
+        return system.parseNumber(new String(buf, numberStart, pos - numberStart, ISO_8859_1));
+    }
+
+    private JsonObject parseObject() throws ParseException {
+        JsonObject object = system.createObject();
+        // Skip the '{'.
+        ++pos;
+        skipWhitespace();
+        if (pos < end && buf[pos] == '}') {
+            ++pos;
+            return object;
+        }
+        while (true) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != '"') { throw unexpected(pos); }
+            String key = readString(keys);
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            if (buf[pos] != ':') { throw unexpected(pos); }
+            ++pos;
+            object.put(key, parseValue());
+            skipWhitespace();
+            if (pos >= end) { throw unexpectedEnd(); }
+            byte b = buf[pos++];
+            if (b == '}') { return object; }
+            if (b != ',') { throw unexpected(pos - 1); }
+            skipWhitespace();
+        }
+    }
+
+    private JsonValue parseValue() throws ParseException {
+        skipWhitespace();
+        if (pos >= end) { throw unexpectedEnd(); }
+        switch (buf[pos]) {
+            case '{' :
+                return parseObject();
+            case '[' :
+                return parseArray();
+            case '"' :
+                return system.createString(readString(values));
+            case 't' :
+                expectLiteral("true");
+                return system.createBoolean(Boolean.TRUE);
+            case 'f' :
+                expectLiteral("false");
+                return system.createBoolean(Boolean.FALSE);
+            case 'n' :
+                expectLiteral("null");
+                return system.createNull();
+            case '-' :
+            case '0' :
+            case '1' :
+            case '2' :
+            case '3' :
+            case '4' :
+            case '5' :
+            case '6' :
+            case '7' :
+            case '8' :
+            case '9' :
+                return parseNumber();
+            default :
+                throw unexpected(pos);
+        }
+    }
+
+    /**
+     * Read a string starting at the opening quote at the current position, and leave the position just after
+     * the closing quote. If a table is given, the string is interned in it.
+     */
+    private String readString(StringTable table) throws ParseException {
+        // Skip the opening quote.
+        int stringStart = ++pos;
+        // Fast path: plain ASCII with no escapes can be turned into a String without any decoding.
+        int p = stringStart;
+        while (p < end) {
+            byte b = buf[p];
+            if (b == '"') {
+                pos = p + 1;
+                if (table != null) { return table.intern(buf, stringStart, p - stringStart); }
+                return new String(buf, stringStart, p - stringStart, ISO_8859_1);
+            }
+            if (b == '\\' || b < 0) {
+                break;
+            }
+            ++p;
+        }
+        int n = 0;
+        for (int i = stringStart; i < p; ++i) {
+            appendChar(n++, (char) buf[i]);
+        }
+        pos = p;
+        while (true) {
+            if (pos >= end) { throw unexpectedEnd(); }
+            int b = buf[pos];
+            if (b == '"') {
+                ++pos;
+                if (table != null) { return table.intern(chars, 0, n); }
+                return new String(chars, 0, n);
+            } else if (b == '\\') {
+                n = readEscape(n);
+            } else if (b >= 0) {
+                appendChar(n++, (char) b);
+                ++pos;
+            } else {
+                n = readMultiByteChar(n, b & 0xFF);
+            }
+        }
+    }
+
+    private int readEscape(int n) throws ParseException {
+        // Skip the backslash.
+        ++pos;
+        if (pos >= end) { throw unexpectedEnd(); }
+        byte b = buf[pos++];
+        switch (b) {
+            case '"' :
+            case '\\' :
+            case '/' :
+                appendChar(n, (char) b);
+                break;
+            case 'b' :
+                appendChar(n, '\b');
+                break;
+            case 'f' :
+                appendChar(n, '\f');
+                break;
+            case 'n' :
+                appendChar(n, '\n');
+                break;
+            case 'r' :
+                appendChar(n, '\r');
+                break;
+            case 't' :
+                appendChar(n, '\t');
+                break;
+            case 'u' :
+                int c = (hexDigit(pos) << 12) | (hexDigit(pos + 1) << 8) | (hexDigit(pos + 2) << 4) | hexDigit(pos + 3);
+                pos += 4;
+                appendChar(n, (char) c);
+                break;
+            default :
+                throw unexpected(pos - 1);
+        }
+        return n + 1;
+    }
+
+    private int readMultiByteChar(int n, int lead) {
+        int codePoint;
+        int length;
+        int min;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            codePoint = lead & 0x1F;
+            length = 2;
+            min = 0x80;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            codePoint = lead & 0x0F;
+            length = 3;
+            min = 0x800;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            codePoint = lead & 0x07;
+            length = 4;
+            min = 0x10000;
+        } else {
+            ++pos;
+            appendChar(n, '\uFFFD');
+            return n + 1;
+        }
+        int p = pos + 1;
+        for (int i = 1; i < length; ++i) {
+            if (!isContinuation(p)) {
+                // Truncated sequence: replace what we have seen so far, and carry on from the next lead byte.
+                pos = p;
+                appendChar(n, '\uFFFD');
+                return n + 1;
+            }
+            codePoint = (codePoint << 6) | (buf[p++] & 0x3F);
+        }
+        pos = p;
+        if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+            appendChar(n, '\uFFFD');
+            return n + 1;
+        }
+        if (codePoint < 0x10000) {
+            appendChar(n, (char) codePoint);
+            return n + 1;
+        }
+        codePoint -= 0x10000;
+        appendChar(n, (char) (0xD800 + (codePoint >> 10)));
+        appendChar(n + 1, (char) (0xDC00 + (codePoint & 0x3FF)));
+        return n + 2;
+    }
+
+    private void reset(byte[] bytes, int offset, int length) {
+        buf = bytes;
+        start = offset;
+        pos = offset;
+        end = offset + length;
+    }
+
+    private void skipByteOrderMark() {
+        if (end - pos >= 3 && buf[pos] == (byte) 0xEF && buf[pos + 1] == (byte) 0xBB && buf[pos + 2] == (byte) 0xBF) {
+            pos += 3;
+            start = pos;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            ++pos;
+        }
+    }
+
+    private ParseException unexpected(int at) {
+        Object unexpectedObject;
+        switch (buf[at]) {
+            case '{' :
+                unexpectedObject = Yytoken.LEFT_BRACE;
+                break;
+            case '}' :
+                unexpectedObject = Yytoken.RIGHT_BRACE;
+                break;
+            case '[' :
+                unexpectedObject = Yytoken.LEFT_SQUARE;
+                break;
+            case ']' :
+                unexpectedObject = Yytoken.RIGHT_SQUARE;
+                break;
+            case ',' :
+                unexpectedObject = Yytoken.COMMA;
+                break;
+            case ':' :
+                unexpectedObject = Yytoken.COLON;
+                break;
+            default :
+                byte b = buf[at];
+                if (b >= 0) {
+                    return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_CHAR,
+                            Character.valueOf((char) b));
+                } else {
+                    return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_CHAR, "0x"
+                            + Integer.toHexString(b & 0xFF));
+                }
+        }
+        return new ParseException(line(at), column(at), ParseException.ERROR_UNEXPECTED_TOKEN, unexpectedObject);
+    }
+
+    private ParseException unexpectedEnd() {
+        return new ParseException(line(end), column(end), ParseException.ERROR_UNEXPECTED_TOKEN, Yytoken.EOF);
+    }
+}
@@ -3,6 +3,7 @@
 package org.itemscript.standard.parser;
 
 import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonValue;
 
 final class Yylex {
     /** This character denotes the end of file */
@@ -210,8 +211,23 @@ final class Yylex {
     /** zzAtEOF == true <=> the scanner is at the EOF */
     private boolean zzAtEOF;
     /* user code: */
-    private StringBuffer sb = new StringBuffer();
+    /**
+     * Returned in place of a string token while skipping; the text of the string is left in {@link #sb}.
+     */
+    static final Yytoken SKIPPED_STRING = new Yytoken(Yytoken.TYPE_VALUE, null);
+    /**
+     * Returned in place of a number, boolean or null token while skipping.
+     */
+    static final Yytoken SKIPPED_VALUE = new Yytoken(Yytoken.TYPE_VALUE, null);
+    private StringBuilder sb = new StringBuilder();
+    /**
+     * Returned for every primitive value, with its value replaced each time.
+     */
+    private final Yytoken valueToken = new Yytoken(Yytoken.TYPE_VALUE, null);
     private final JsonSystem system;
+    private boolean skipping;
+    private StringTable keys;
+    private StringTable values;
 
     /**
      * Creates a new scanner.
@@ -246,6 +262,100 @@ final class Yylex {
         return yychar;
     }
 
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Create a JsonNumber for the number matched by the current rule. A number that {@link ExactDouble} can convert
+     * is converted without creating a String for it. Anything else can't be held exactly by a double, so it keeps
+     * its text, which is only decoded if its value is asked for.
+     */
+    private JsonValue number() {
+        char[] buffer = zzBuffer;
+        int end = zzMarkedPos;
+        int i = zzStartRead;
+        boolean negative = buffer[i] == '-';
+        if (negative) {
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        for (; i < end && isDigit(buffer[i]); ++i, ++digits) {
+            mantissa = mantissa * 10 + (buffer[i] - '0');
+        }
+        if (i < end && buffer[i] == '.') {
+            for (++i; i < end && isDigit(buffer[i]); ++i, ++digits, --scale) {
+                mantissa = mantissa * 10 + (buffer[i] - '0');
+            }
+        }
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '+' || buffer[i] == '-')) {
+                negativeExponent = buffer[i] == '-';
+                ++i;
+            }
+            int exponent = 0;
+            for (; i < end && isDigit(buffer[i]) && exponent <= ExactDouble.MAX_SCALE; ++i) {
+                exponent = exponent * 10 + (buffer[i] - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i == end && ExactDouble.isExact(digits, scale)) {
+            return system.createNumber(ExactDouble.toDouble(negative, mantissa, scale));
+        }
+        return system.parseNumber(yytext());
+    }
+
+    /**
+     * Set whether values are being skipped. While skipping, primitive values are scanned but no JsonValue is
+     * created for them; {@link #SKIPPED_STRING} or {@link #SKIPPED_VALUE} is returned instead.
+     */
+    void setSkipping(boolean skipping) {
+        this.skipping = skipping;
+    }
+
+    /**
+     * @return The text of the last string scanned, as an object key.
+     */
+    String key() {
+        return keys != null ? keys.intern(sb) : sb.toString();
+    }
+
+    /**
+     * Set the tables to intern keys and string values with; either may be null.
+     */
+    void setTables(StringTable keys, StringTable values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @return The text of the last string scanned.
+     */
+    String text() {
+        return sb.toString();
+    }
+
+    /**
+     * @return Whether the text of the last string scanned is equal to the given string.
+     */
+    boolean textEquals(String string) {
+        int length = sb.length();
+        if (length != string.length()) { return false; }
+        for (int i = 0; i < length; ++i) {
+            if (sb.charAt(i) != string.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    private Yytoken value(JsonValue value) {
+        valueToken.value = value;
+        return valueToken;
+    }
+
     /**
      * Enters a new lexical state
      *
@@ -399,12 +509,12 @@ final class Yylex {
             zzMarkedPos = zzMarkedPosL;
             switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {
                 case 11 : {
-                    sb.append(yytext());
+                    sb.append(zzBuffer, zzStartRead, zzMarkedPos - zzStartRead);
                 }
                 case 25 :
                     break;
                 case 4 : {
-                    sb.delete(0, sb.length());
+                    sb.setLength(0);
                     yybegin(STRING_BEGIN);
                 }
                 case 26 :
@@ -415,24 +525,26 @@ final class Yylex {
                 case 27 :
                     break;
                 case 6 : {
-                    return new Yytoken(Yytoken.TYPE_RIGHT_BRACE, null);
+                    return Yytoken.RIGHT_BRACE;
                 }
                 case 28 :
                     break;
                 case 23 : {
-                    Boolean val = Boolean.valueOf(yytext());
-                    return new Yytoken(Yytoken.TYPE_VALUE, system.createBoolean(val));
+                    if (skipping) { return SKIPPED_VALUE; }
+                    return value(system.createBoolean(Boolean.valueOf(zzBuffer[zzStartRead] == 't')));
                 }
                 case 29 :
                     break;
                 case 22 : {
-                    return new Yytoken(Yytoken.TYPE_VALUE, system.createNull());
+                    if (skipping) { return SKIPPED_VALUE; }
+                    return value(system.createNull());
                 }
                 case 30 :
                     break;
                 case 13 : {
                     yybegin(YYINITIAL);
-                    return new Yytoken(Yytoken.TYPE_VALUE, system.createString(sb.toString()));
+                    if (skipping) { return SKIPPED_STRING; }
+                    return value(system.createString(values != null ? values.intern(sb) : sb.toString()));
                 }
                 case 31 :
                     break;
@@ -442,8 +554,8 @@ final class Yylex {
                 case 32 :
                     break;
                 case 21 : {
-                    Double val = Double.valueOf(yytext());
-                    return new Yytoken(Yytoken.TYPE_VALUE, system.createNumber(val));
+                    if (skipping) { return SKIPPED_VALUE; }
+                    return value(number());
                 }
                 case 33 :
                     break;
@@ -454,7 +566,7 @@ final class Yylex {
                 case 34 :
                     break;
                 case 8 : {
-                    return new Yytoken(Yytoken.TYPE_RIGHT_SQUARE, null);
+                    return Yytoken.RIGHT_SQUARE;
                 }
                 case 35 :
                     break;
@@ -469,7 +581,7 @@ final class Yylex {
                 case 37 :
                     break;
                 case 10 : {
-                    return new Yytoken(Yytoken.TYPE_COLON, null);
+                    return Yytoken.COLON;
                 }
                 case 38 :
                     break;
@@ -479,7 +591,7 @@ final class Yylex {
                 case 39 :
                     break;
                 case 5 : {
-                    return new Yytoken(Yytoken.TYPE_LEFT_BRACE, null);
+                    return Yytoken.LEFT_BRACE;
                 }
                 case 40 :
                     break;
@@ -489,13 +601,12 @@ final class Yylex {
                 case 41 :
                     break;
                 case 24 : {
-                    try {
-                        int ch = Integer.parseInt(yytext().substring(2), 16);
-                        sb.append((char) ch);
-                    } catch (Exception e) {
-                        throw new ParseException(getLine(), getColumn(),
-                                ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+                    // The rule only matches four hex digits after the "\\u".
+                    int ch = 0;
+                    for (int i = zzStartRead + 2; i < zzMarkedPos; ++i) {
+                        ch = (ch << 4) | Character.digit(zzBuffer[i], 16);
                     }
+                    sb.append((char) ch);
                 }
                 case 42 :
                     break;
@@ -505,13 +616,13 @@ final class Yylex {
                 case 43 :
                     break;
                 case 7 : {
-                    return new Yytoken(Yytoken.TYPE_LEFT_SQUARE, null);
+                    return Yytoken.LEFT_SQUARE;
                 }
                 case 44 :
                     break;
                 case 2 : {
-                    Double val = Double.valueOf(yytext());
-                    return new Yytoken(Yytoken.TYPE_VALUE, system.createNumber(val.doubleValue()));
+                    if (skipping) { return SKIPPED_VALUE; }
+                    return value(number());
                 }
                 case 45 :
                     break;
@@ -521,7 +632,7 @@ final class Yylex {
                 case 46 :
                     break;
                 case 9 : {
-                    return new Yytoken(Yytoken.TYPE_COMMA, null);
+                    return Yytoken.COMMA;
                 }
                 case 47 :
                     break;
@@ -570,6 +681,15 @@ final class Yylex {
         zzCurrentPos = zzMarkedPos = 0;
         yyline = yychar = yycolumn = 1;
         zzLexicalState = YYINITIAL;
+        skipping = false;
+        // Don't keep buffers that were blown up by a large input around between parses.
+        if (zzBuffer.length > ZZ_BUFFERSIZE) {
+            zzBuffer = new char[ZZ_BUFFERSIZE];
+        }
+        if (sb.capacity() > ZZ_BUFFERSIZE) {
+            sb = new StringBuilder();
+        }
+        valueToken.value = null;
     }
 
     /**
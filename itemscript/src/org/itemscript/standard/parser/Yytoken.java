@@ -19,6 +19,17 @@ final class Yytoken {
     public static final int TYPE_COMMA = 5;
     public static final int TYPE_COLON = 6;
     public static final int TYPE_EOF = -1;//end of file
+    /*
+     * Shared tokens for the types that carry no value, so the lexer doesn't have to create one for every brace
+     * and comma. These must never be modified.
+     */
+    static final Yytoken LEFT_BRACE = new Yytoken(TYPE_LEFT_BRACE, null);
+    static final Yytoken RIGHT_BRACE = new Yytoken(TYPE_RIGHT_BRACE, null);
+    static final Yytoken LEFT_SQUARE = new Yytoken(TYPE_LEFT_SQUARE, null);
+    static final Yytoken RIGHT_SQUARE = new Yytoken(TYPE_RIGHT_SQUARE, null);
+    static final Yytoken COMMA = new Yytoken(TYPE_COMMA, null);
+    static final Yytoken COLON = new Yytoken(TYPE_COLON, null);
+    static final Yytoken EOF = new Yytoken(TYPE_EOF, null);
     public int type = 0;
     public JsonValue value = null;
 
@@ -27,6 +38,14 @@ final class Yytoken {
         this.value = value;
     }
 
+    /**
+     * @return A new token with the same type and value as this one, for keeping after the lexer has reused this
+     *         one.
+     */
+    Yytoken copy() {
+        return new Yytoken(type, value);
+    }
+
     //@Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
@@ -12,12 +12,14 @@ public class ValueLiteral implements Element {
     private final JsonValue value;
 
     /**
-     * Create a new ValueLiteral with the given value. The value will be copied and stored.
+     * Create a new ValueLiteral with the given value. The value will be copied and stored, frozen, so that copies
+     * of it are cheap.
      * 
      * @param value The value for this ValueLiteral.
      */
     public ValueLiteral(JsonValue value) {
         this.value = value.copy();
+        this.value.freeze();
     }
 
     //@Override
@@ -19,6 +19,10 @@ public class ObjectTemplate implements Element, HasSystem {
         this.system = system;
         this.literalKeys = literalKeys;
         this.regularKeys = regularKeys;
+        // The literal values are copied into every result, which takes constant time once they are frozen.
+        for (JsonValue value : literalKeys.values()) {
+            value.freeze();
+        }
     }
 
     public ObjectTemplate asObjectTemplate() {
@@ -0,0 +1,116 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+
+/**
+ * Times inserting values at the front of an array and removing them from the front again, which move every value
+ * after them, against adding them at the end.
+ * <p>
+ * Builds arrays of strings of each size by inserting each new value at index 0, then empties them by removing the
+ * value at index 0 each time, and prints the time for each insert and remove. Values in an array don't keep their
+ * key, so moving them only costs the copy inside the list, however long the array is. It then asks for the key of
+ * the last value, which brings the indexes up to date all at once.
+ * <p>
+ * Not a test: run it with <code>java test.org.itemscript.ArrayInsertBenchmark [size...]</code>. The default sizes
+ * are 1000, 10000 and 100000.
+ */
+public class ArrayInsertBenchmark {
+    private static final long MIN_NANOS = 1000L * 1000 * 1000;
+    /**
+     * Keeps the results, so they can't be optimized away.
+     */
+    static long sink;
+
+    private static void run(JsonSystem system, int size, boolean print) {
+        JsonValue[] strings = new JsonValue[size];
+        for (int i = 0; i < size; ++i) {
+            strings[i] = system.createString("value " + i);
+        }
+        JsonArray appended = system.createArray();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            appended.add(strings[i]);
+        }
+        long appendNanos = System.nanoTime() - start;
+        JsonArray array = system.createArray();
+        JsonValue last = system.createString("last");
+        array.add(last);
+        start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            array.add(0, strings[i].copy());
+        }
+        long insertNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        String key = last.key();
+        long keyNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            array.remove(0);
+        }
+        long removeNanos = System.nanoTime() - start;
+        sink += key.length() + array.size() + appended.size();
+        if (print) {
+            System.out.println(size + " values");
+            System.out.println("    add at end: " + perValue(appendNanos, size) + " ns/value");
+            System.out.println("    add(0, value): " + perValue(insertNanos, size) + " ns/value");
+            System.out.println("    remove(0): " + perValue(removeNanos, size) + " ns/value");
+            System.out.println("    key of last value after inserts: " + keyNanos / 1000 + " us");
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        JsonSystem system = new ItemscriptSystem(new StandardConfig());
+        // Warm up for a second.
+        long warmUpStart = System.nanoTime();
+        while (System.nanoTime() - warmUpStart < MIN_NANOS) {
+            run(system, 1000, false);
+        }
+        for (int size : sizes) {
+            run(system, size, true);
+        }
+    }
+
+    private static double perValue(long nanos, int size) {
+        return Math.round((double) nanos / size * 10) / 10.0;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.BulkJsonParser;
+import org.junit.Test;
+
+public class BulkJsonParserTest extends ItemscriptTestBase {
+    private static final int RECORDS = 2000;
+    private BulkJsonParser parser;
+
+    private ByteArrayInputStream bytes(String json) throws UnsupportedEncodingException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    private String record(int i) {
+        return "{\"id\":" + i + ",\"name\":\"record, [" + i + "] \\\"quoted\\\" \\u00e9\",\"tags\":[" + i + ",{\"x\":"
+                + (i % 7) + "}]}";
+    }
+
+    //@Override
+    protected void setUp() {
+        super.setUp();
+        parser = new BulkJsonParser(system(), 4);
+        // Small chunks, so each parse is split into many.
+        parser.setChunkSize(1024);
+    }
+
+    //@Override
+    protected void tearDown() {
+        parser.shutdown();
+    }
+
+    private void checkRecords(JsonArray records) {
+        assertEquals(RECORDS, records.size());
+        for (int i = 0; i < RECORDS; ++i) {
+            assertEquals(system().parse(record(i)), records.get(i));
+        }
+        assertEquals(RECORDS, parser.recordCount());
+        assertTrue(parser.recordsPerSecond() > 0);
+    }
+
+    @Test
+    public void testArray() throws UnsupportedEncodingException {
+        StringBuffer sb = new StringBuffer("\ufeff [\n");
+        for (int i = 0; i < RECORDS; ++i) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append(record(i));
+        }
+        sb.append("\n]\n");
+        checkRecords(parser.parseArray(bytes(sb.toString())));
+    }
+
+    @Test
+    public void testEmptyArray() throws UnsupportedEncodingException {
+        assertEquals(0, parser.parseArray(bytes("[ ]"))
+                .size());
+        assertEquals(0, parser.recordCount());
+    }
+
+    @Test
+    public void testHandler() throws UnsupportedEncodingException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < RECORDS; ++i) {
+            sb.append(i + "\n");
+        }
+        final List<JsonValue> records = new ArrayList<JsonValue>();
+        parser.parseLines(bytes(sb.toString()), new BulkJsonParser.RecordHandler() {
+            //@Override
+            public void handle(JsonValue record) {
+                records.add(record);
+            }
+        });
+        assertEquals(RECORDS, records.size());
+        for (int i = 0; i < RECORDS; ++i) {
+            assertEquals(i, (int) records.get(i)
+                    .intValue());
+        }
+    }
+
+    @Test
+    public void testLines() throws UnsupportedEncodingException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < RECORDS; ++i) {
+            sb.append(record(i));
+            sb.append(i % 10 == 0 ? "\r\n\n" : "\n");
+        }
+        // No newline after the last record.
+        sb.setLength(sb.length() - 1);
+        checkRecords(parser.parseLines(bytes(sb.toString())));
+    }
+
+    @Test
+    public void testMalformedArray() throws UnsupportedEncodingException {
+        String[] inputs = { "[1,2,]", "[1,,2]", "[1,2", "[1,2] 3", "{\"a\":1}" };
+        for (int i = 0; i < inputs.length; ++i) {
+            try {
+                parser.parseArray(bytes(inputs[i]));
+                fail("Should have thrown an exception for: " + inputs[i]);
+            } catch (ItemscriptError e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedRecord() throws UnsupportedEncodingException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < RECORDS; ++i) {
+            sb.append(i == 1500 ? "{\"id\":" : record(i));
+            sb.append("\n");
+        }
+        boolean threw = false;
+        try {
+            parser.parseLines(bytes(sb.toString()));
+        } catch (ItemscriptError e) {
+            threw = true;
+            assertTrue(e.getMessage()
+                    .indexOf("1500") != -1);
+        }
+        assertTrue(threw);
+    }
+}
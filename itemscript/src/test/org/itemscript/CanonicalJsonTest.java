@@ -0,0 +1,179 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ListIterator;
+
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.util.StaticJsonUtil;
+import org.itemscript.core.values.ItemscriptContainer;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardUtil;
+import org.junit.Test;
+
+public class CanonicalJsonTest extends ItemscriptTestBase {
+    private String canonicalNumber(String text) {
+        return CanonicalJson.canonicalNumber(system().parseNumber(text));
+    }
+
+    @Test
+    public void testCachedHash() {
+        JsonObject object = system().parse("{\"a\":{\"b\":[1,2,3]},\"c\":true}")
+                .asObject();
+        long hash = CanonicalJson.contentHash(object);
+        ItemscriptContainer inner = (ItemscriptContainer) object.getObject("a");
+        assertTrue(((ItemscriptContainer) object).hasContentHash());
+        assertTrue(inner.hasContentHash());
+        object.getObject("a")
+                .getArray("b")
+                .add(4);
+        assertFalse(((ItemscriptContainer) object).hasContentHash());
+        assertFalse(inner.hasContentHash());
+        assertFalse(hash == CanonicalJson.contentHash(object));
+        object.getObject("a")
+                .getArray("b")
+                .remove(3);
+        assertEquals(hash, CanonicalJson.contentHash(object));
+    }
+
+    @Test
+    public void testCachedHashViews() {
+        JsonObject object = system().parse("{\"a\":[1,2],\"b\":true,\"c\":null}")
+                .asObject();
+        CanonicalJson.contentHash(object);
+        object.keySet()
+                .remove("c");
+        assertFalse(((ItemscriptContainer) object).hasContentHash());
+        assertEquals(system().parse("{\"a\":[1,2],\"b\":true}"), object);
+        CanonicalJson.contentHash(object);
+        Iterator<JsonValue> values = object.values()
+                .iterator();
+        while (!values.next()
+                .isBoolean()) {}
+        values.remove();
+        assertEquals(system().parse("{\"a\":[1,2]}"), object);
+        CanonicalJson.contentHash(object);
+        ListIterator<JsonValue> iterator = object.getArray("a")
+                .listIterator();
+        iterator.next();
+        iterator.set(system().createNumber(3));
+        assertFalse(((ItemscriptContainer) object).hasContentHash());
+        assertEquals(system().parse("{\"a\":[3,2]}"), object);
+        JsonObject updated = system().parse("{\"a\":[3,2],\"d\":1}")
+                .asObject();
+        assertEquals(1, StaticJsonUtil.changedKeys(object, updated)
+                .size());
+    }
+
+    @Test
+    public void testChangedKeys() {
+        JsonObject original = system().parse("{\"a\":{\"x\":1},\"b\":{\"x\":2},\"c\":3}")
+                .asObject();
+        JsonObject updated = system().parse("{\"a\":{\"x\":1},\"b\":{\"x\":3},\"d\":3}")
+                .asObject();
+        CanonicalJson.contentHash(original);
+        CanonicalJson.contentHash(updated);
+        JsonObject changed = StaticJsonUtil.changedKeys(original, updated);
+        assertEquals(3, changed.size());
+        assertTrue(changed.containsKey("b"));
+        assertTrue(changed.containsKey("c"));
+        assertTrue(changed.containsKey("d"));
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        JsonValue value = system().parse("{\"z\":\"\u00e9\u4e2d\ud83d\ude00\",\"a\":[1.50,null,false]}");
+        byte[] digest = StandardUtil.digest(value, "SHA-256");
+        byte[] expected = MessageDigest.getInstance("SHA-256")
+                .digest(CanonicalJson.toCanonicalString(value)
+                        .getBytes("UTF-8"));
+        assertTrue(Arrays.equals(expected, digest));
+        JsonValue reordered = system().parse("{\"a\":[1.5,null,false],\"z\":\"\u00e9\u4e2d\ud83d\ude00\"}");
+        assertTrue(Arrays.equals(digest, StandardUtil.digest(reordered, "SHA-256")));
+    }
+
+    @Test
+    public void testEqualValuesHashEqual() {
+        JsonObject a = system().createObject();
+        a.put("x", 1);
+        a.put("y", "two");
+        a.createArray("z")
+                .add(3.0);
+        JsonObject b = system().createObject();
+        b.createArray("z")
+                .add(system().createNumber(3L));
+        b.put("y", "two");
+        b.put("x", system().parseNumber("1.0"));
+        assertEquals(a, b);
+        assertEquals(CanonicalJson.contentHash(a), CanonicalJson.contentHash(b));
+        assertEquals(CanonicalJson.toCanonicalString(a), CanonicalJson.toCanonicalString(b));
+        assertEquals("{\"x\":1,\"y\":\"two\",\"z\":[3]}", CanonicalJson.toCanonicalString(a));
+        b.put("y", "three");
+        assertFalse(CanonicalJson.contentHash(a) == CanonicalJson.contentHash(b));
+        assertTrue(CanonicalJson.knownHashesDiffer(a, b));
+        assertFalse(a.equals(b));
+    }
+
+    @Test
+    public void testKeyOrder() {
+        JsonValue a = system().parse("{\"b\":1,\"a\":2,\"B\":3,\"aa\":4}");
+        assertEquals("{\"B\":3,\"a\":2,\"aa\":4,\"b\":1}", CanonicalJson.toCanonicalString(a));
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEquals("1", canonicalNumber("1.0"));
+        assertEquals("100", canonicalNumber("1e2"));
+        assertEquals("0", canonicalNumber("-0.0"));
+        assertEquals("0.5", canonicalNumber("5E-1"));
+        assertEquals("0.000001", canonicalNumber("0.000001"));
+        assertEquals("1e-7", canonicalNumber("0.0000001"));
+        assertEquals("123.456", canonicalNumber("123.4560"));
+        assertEquals("1e+21", canonicalNumber("1e21"));
+        assertEquals("1.5e+300", CanonicalJson.canonicalNumber(system().createNumber(1.5e300)));
+        assertEquals("1.2345678901234567890123456789e+29", canonicalNumber("123456789012345678901234567890"));
+        assertEquals("-1.23456789012345678901", canonicalNumber("-1.23456789012345678901"));
+        assertEquals("592.6409106271656", CanonicalJson.canonicalNumber(system().createNumber(592.6409106271656)));
+        assertEquals("null", CanonicalJson.canonicalNumber(system().createNumber(Double.NaN)));
+    }
+
+    @Test
+    public void testStrings() {
+        JsonArray array = system().createArray();
+        array.add("\u0001\"\\/\u2028\t\u00e9");
+        assertEquals("[\"\\u0001\\\"\\\\/\u2028\\t\u00e9\"]", CanonicalJson.toCanonicalString(array));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.CborWriter;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.Util;
+import org.itemscript.standard.parser.CborReader;
+import org.itemscript.standard.parser.Utf8JsonParser;
+
+/**
+ * Compares CBOR with JSON text on the JSON files named on the command line; with no arguments, the JSON files in
+ * this directory are used.
+ * <p>
+ * For each file, prints the size of its compact JSON text and of its CBOR encoding, then the average time to decode
+ * each ({@link Utf8JsonParser} against {@link CborReader}) and encoded (compact JSON text against
+ * {@link CborWriter}).
+ * <p>
+ * Not a test: run it with <code>java test.org.itemscript.CborBenchmark [file...]</code>.
+ */
+public class CborBenchmark {
+    private static final long MIN_NANOS = 1000L * 1000 * 1000;
+
+    private interface Engine {
+        public void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final JsonSystem system = new ItemscriptSystem(new StandardConfig());
+        File[] files;
+        if (args.length > 0) {
+            files = new File[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                files[i] = new File(args[i]);
+            }
+        } else {
+            files = new File(System.getProperty("user.dir") + "/src/test/org/itemscript/").listFiles();
+        }
+        final Utf8JsonParser parser = new Utf8JsonParser(system);
+        String[] names = {"Utf8JsonParser", "CborReader", "toCompactJsonString", "CborWriter"};
+        for (int f = 0; f < files.length; ++f) {
+            if (!files[f].getName()
+                    .endsWith(".json")) {
+                continue;
+            }
+            final JsonValue value = parser.parse(Util.readStreamToByteArray(new FileInputStream(files[f])));
+            final byte[] json = value.toCompactJsonString()
+                    .getBytes("UTF-8");
+            final byte[] cbor = CborWriter.encode(value);
+            System.out.println(files[f].getName() + " (JSON " + json.length + " bytes, CBOR " + cbor.length
+                    + " bytes, " + Math.round(100.0 * cbor.length / json.length) + "%)");
+            Engine[] engines = {new Engine() {
+                public void run() throws Exception {
+                    parser.parse(json);
+                }
+            }, new Engine() {
+                public void run() throws Exception {
+                    new CborReader(system, cbor).readValue();
+                }
+            }, new Engine() {
+                public void run() throws Exception {
+                    value.toCompactJsonString();
+                }
+            }, new Engine() {
+                public void run() throws Exception {
+                    CborWriter.encode(value);
+                }
+            }};
+            for (int e = 0; e < engines.length; ++e) {
+                // Warm up for a second, then time as many runs as fit in another.
+                long warmUpStart = System.nanoTime();
+                while (System.nanoTime() - warmUpStart < MIN_NANOS) {
+                    engines[e].run();
+                }
+                long runs = 0;
+                long startTime = System.nanoTime();
+                long elapsed;
+                do {
+                    engines[e].run();
+                    ++runs;
+                    elapsed = System.nanoTime() - startTime;
+                } while (elapsed < MIN_NANOS);
+                System.out.println("    " + names[e] + ": " + Math.round(elapsed / 1e4 / runs) / 100.0 + " ms");
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardUtil;
+import org.itemscript.standard.parser.CborReader;
+import org.itemscript.standard.parser.ParseException;
+import org.junit.Test;
+
+public class CborTest extends ItemscriptTestBase {
+    final static String basePath = System.getProperty("user.dir") + "/src/test/org/itemscript/";
+
+    private byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private JsonValue roundTrip(JsonValue value) {
+        return system().parseCbor(system().toCbor(value));
+    }
+
+    @Test
+    public void testBinaryString() {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        JsonObject object = system().createObject();
+        object.put("data", system().createString(data));
+        byte[] cbor = system().toCbor(object);
+        // The bytes themselves, not their base-64 text.
+        assertTrue(cbor.length < 320);
+        JsonValue decoded = system().parseCbor(cbor)
+                .asObject()
+                .get("data");
+        assertTrue(decoded.asString()
+                .isBinary());
+        byte[] decodedData = decoded.binaryValue();
+        assertEquals(data.length, decodedData.length);
+        for (int i = 0; i < data.length; ++i) {
+            assertEquals(data[i], decodedData[i]);
+        }
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        JsonValue value = system().parseReader(new FileInputStream(basePath + "test.json"));
+        File file = File.createTempFile("itemscript", ".cbor");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(system().toCbor(value));
+            out.close();
+            JsonValue read = system().get("file:" + file.getAbsolutePath());
+            assertEquals(value.toCompactJsonString(), read.toCompactJsonString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIndefiniteLengthsAndTags() {
+        // 55799(map(_) {"a": [_ 1, h'0102'], "b": (_ "x", "y")})
+        byte[] cbor = bytes(0xd9, 0xd9, 0xf7, 0xbf, 0x61, 'a', 0x9f, 0x01, 0x42, 0x01, 0x02, 0xff, 0x61, 'b', 0x7f,
+                0x61, 'x', 0x61, 'y', 0xff, 0xff);
+        JsonObject object = system().parseCbor(cbor)
+                .asObject();
+        assertEquals(1, (int) object.getArray("a")
+                .get(0)
+                .intValue());
+        assertEquals(2, object.getArray("a")
+                .get(1)
+                .binaryValue().length);
+        assertEquals("xy", object.getString("b"));
+    }
+
+    @Test
+    public void testExponentUnderflow() {
+        // A fraction too small for a double is written as one, not as the integer 0.
+        String[] texts = {"1e-400", "2.5e-400"};
+        for (int i = 0; i < texts.length; ++i) {
+            JsonNumber number = system().parseCbor(system().toCbor(system().parseNumber(texts[i])))
+                    .asNumber();
+            assertFalse(texts[i], number.isLong());
+            assertEquals(0.0, number.toDouble(), 0);
+        }
+        assertTrue(system().parseCbor(system().toCbor(system().parseNumber("0e-400")))
+                .asNumber()
+                .isLong());
+    }
+
+    @Test
+    public void testNegativeZero() {
+        JsonValue[] zeros = {system().createNumber(-0.0), system().parseNumber("-0"), system().parseNumber("-0.0")};
+        for (JsonValue zero : zeros) {
+            byte[] cbor = system().toCbor(zero);
+            assertEquals(5, cbor.length);
+            assertEquals((byte) 0xfa, cbor[0]);
+            assertEquals((byte) 0x80, cbor[1]);
+            assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(system().parseCbor(cbor)
+                    .asNumber()
+                    .toDouble()));
+        }
+        assertEquals(1, system().toCbor(system().createNumber(0.0)).length);
+    }
+
+    @Test
+    public void testNumbers() {
+        JsonArray array = system().createArray();
+        array.add(0);
+        array.add(-1);
+        array.add(Long.MAX_VALUE);
+        array.add(Long.MIN_VALUE);
+        array.add(1.5);
+        array.add(0.1);
+        array.add(system().parseNumber("3.14159265358979323846264338327950288"));
+        array.add(system().parseNumber("123456789012345678901234567890"));
+        array.add(system().parseNumber("-123456789012345678901234567890"));
+        array.add(system().parseNumber("1e400"));
+        JsonArray decoded = roundTrip(array).asArray();
+        assertEquals(0, decoded.getLong(0)
+                .longValue());
+        assertEquals(-1, decoded.getLong(1)
+                .longValue());
+        assertEquals(Long.MAX_VALUE, decoded.getLong(2)
+                .longValue());
+        assertEquals(Long.MIN_VALUE, decoded.getLong(3)
+                .longValue());
+        assertEquals(1.5, decoded.getDouble(4));
+        assertEquals(0.1, decoded.getDouble(5));
+        for (int i = 6; i < array.size(); ++i) {
+            BigDecimal expected = StandardUtil.toBigDecimal(array.get(i)
+                    .asNumber());
+            assertEquals(0, expected.compareTo(StandardUtil.toBigDecimal(decoded.get(i)
+                    .asNumber())));
+        }
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        JsonObject object = system().createObject();
+        object.put("a", 1);
+        object.createArray("b")
+                .add(true);
+        object.put("c", system().createNull());
+        CborReader reader = new CborReader(system(), new ByteArrayInputStream(system().toCbor(object)));
+        assertEquals(CborReader.START_OBJECT, reader.nextToken());
+        assertEquals(1, reader.depth());
+        assertEquals(CborReader.KEY, reader.nextToken());
+        assertEquals("a", reader.key());
+        assertEquals(CborReader.VALUE, reader.nextToken());
+        assertEquals(1, (int) reader.value()
+                .intValue());
+        assertEquals(CborReader.KEY, reader.nextToken());
+        assertEquals("b", reader.key());
+        reader.skipValue();
+        assertEquals(CborReader.END_ARRAY, reader.token());
+        assertEquals(CborReader.KEY, reader.nextToken());
+        assertEquals("c", reader.key());
+        assertTrue(reader.readValue()
+                .isNull());
+        assertEquals(CborReader.END_OBJECT, reader.nextToken());
+        assertEquals(0, reader.depth());
+        assertEquals(CborReader.END_DOCUMENT, reader.nextToken());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        JsonValue value = system().parseReader(new FileInputStream(basePath + "test.json"));
+        byte[] cbor = system().toCbor(value);
+        assertEquals(value.toCompactJsonString(), system().parseCbor(cbor)
+                .toCompactJsonString());
+        assertTrue(cbor.length < value.toCompactJsonString()
+                .getBytes("UTF-8").length);
+        JsonValue streamed = StandardUtil.readCbor(system(), new ByteArrayInputStream(cbor));
+        assertEquals(value.toCompactJsonString(), streamed.toCompactJsonString());
+    }
+
+    @Test
+    public void testSequence() throws Exception {
+        byte[] cbor = bytes(0x01, 0x82, 0x02, 0x03, 0x63, 'a', 'b', 'c');
+        CborReader reader = new CborReader(system(), cbor);
+        assertEquals(1, (int) reader.readValue()
+                .intValue());
+        assertEquals(CborReader.START_ARRAY, reader.nextToken());
+        assertEquals("[2,3]", reader.readValue()
+                .toCompactJsonString());
+        assertEquals(CborReader.VALUE, reader.nextToken());
+        assertEquals("abc", reader.readValue()
+                .stringValue());
+        assertEquals(CborReader.END_DOCUMENT, reader.nextToken());
+    }
+
+    @Test
+    public void testText() {
+        JsonArray array = system().createArray();
+        array.add("");
+        array.add("\u00e9\u4e2d\ud83d\ude00");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            sb.append("\u4e2dx");
+        }
+        array.add(sb.toString());
+        assertEquals(array.toCompactJsonString(), roundTrip(array).toCompactJsonString());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] cbor = system().toCbor(system().parseReader(new FileInputStream(basePath + "test.json")));
+        for (int length = 0; length < cbor.length; length += 7) {
+            CborReader reader = new CborReader(system(), new ByteArrayInputStream(cbor, 0, length));
+            try {
+                reader.readValue();
+                if (length > 0) {
+                    fail("Should have thrown");
+                }
+            } catch (ParseException e) {
+                // Expected.
+            } catch (ItemscriptError e) {
+                // Expected for no input at all.
+                assertEquals(0, length);
+            }
+        }
+    }
+
+    @Test
+    public void testTrailingData() {
+        try {
+            system().parseCbor(bytes(0x01, 0x02));
+            fail("Should have thrown");
+        } catch (ItemscriptError e) {
+            // Expected.
+        }
+    }
+}
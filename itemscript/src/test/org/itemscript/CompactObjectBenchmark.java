@@ -0,0 +1,138 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+
+/**
+ * Compares compact objects with HashMap-based ones (see
+ * {@link org.itemscript.core.values.ItemscriptCreator#setCompactObjects(boolean)}).
+ * <p>
+ * Builds an array of objects that all have the same keys, like the rows of a table, in each kind of system, and
+ * prints the heap used per object, the time to build them, and the time to look up each key of each object.
+ * <p>
+ * Not a test: run it with <code>java test.org.itemscript.CompactObjectBenchmark [objects [keys]]</code>. The
+ * defaults are 200000 objects of 8 keys. Give the JVM enough heap for both kinds at once.
+ */
+public class CompactObjectBenchmark {
+    private static final long MIN_NANOS = 1000L * 1000 * 1000;
+    /**
+     * Keeps the results of the lookups, so they can't be optimized away.
+     */
+    static long sink;
+
+    private static JsonArray build(JsonSystem system, String[] keys, int count) {
+        JsonArray rows = system.createArray();
+        for (int i = 0; i < count; ++i) {
+            JsonObject row = system.createObject();
+            for (int k = 0; k < keys.length; ++k) {
+                row.put(keys[k], i + k);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static long lookUp(JsonArray rows, String[] keys) {
+        long sum = 0;
+        int size = rows.size();
+        for (int i = 0; i < size; ++i) {
+            JsonObject row = rows.getObject(i);
+            for (int k = 0; k < keys.length; ++k) {
+                sum += row.get(keys[k])
+                        .hashCode();
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        String[] keys = new String[keyCount];
+        for (int k = 0; k < keyCount; ++k) {
+            keys[k] = "field" + k;
+        }
+        String[] names = {"HashMap", "compact"};
+        for (int s = 0; s < names.length; ++s) {
+            final boolean compact = s == 1;
+            JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+                public JsonCreator createJsonCreator(JsonSystem system) {
+                    StandardJsonCreator creator = new StandardJsonCreator(system);
+                    creator.setCompactObjects(compact);
+                    return creator;
+                }
+            });
+            // Warm up for a second.
+            long warmUpStart = System.nanoTime();
+            while (System.nanoTime() - warmUpStart < MIN_NANOS) {
+                lookUp(build(system, keys, 10000), keys);
+            }
+            long before = usedMemory();
+            long buildStart = System.nanoTime();
+            JsonArray rows = build(system, keys, count);
+            long buildNanos = System.nanoTime() - buildStart;
+            long after = usedMemory();
+            // Time as many lookup passes as fit in a second.
+            long runs = 0;
+            long startTime = System.nanoTime();
+            long elapsed;
+            long sum = 0;
+            do {
+                sum += lookUp(rows, keys);
+                ++runs;
+                elapsed = System.nanoTime() - startTime;
+            } while (elapsed < MIN_NANOS);
+            System.out.println(names[s] + " (" + count + " objects of " + keyCount + " keys)");
+            System.out.println("    memory: " + (after - before) / count + " bytes/object");
+            System.out.println("    build: " + buildNanos / count + " ns/object");
+            System.out.println("    lookup: " + Math.round((double) elapsed / runs / count / keyCount * 10) / 10.0
+                    + " ns/get");
+            sink += sum;
+            rows = null;
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.events.Event;
+import org.itemscript.core.events.EventType;
+import org.itemscript.core.events.Handler;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonItem;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+import org.junit.Test;
+
+public class CompactObjectTest extends ItemscriptTestBase {
+    private List<String> keys(JsonObject object) {
+        return new ArrayList<String>(object.keySet());
+    }
+
+    private JsonObject row(String... keys) {
+        JsonObject object = system().createObject();
+        for (int i = 0; i < keys.length; ++i) {
+            object.put(keys[i], i);
+        }
+        return object;
+    }
+
+    @Test
+    public void testClear() {
+        JsonObject object = row("a", "b", "c");
+        object.clear();
+        assertEquals(0, object.size());
+        object.put("d", 1);
+        assertEquals("{\"d\":1}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testEntrySet() {
+        JsonObject object = row("a", "b", "c");
+        for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+            entry.setValue(system().createString(entry.getKey()));
+        }
+        assertEquals("{\"a\":\"a\",\"b\":\"b\",\"c\":\"c\"}", object.toCompactJsonString());
+        Iterator<Map.Entry<String, JsonValue>> iterator = object.entrySet()
+                .iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals("{\"b\":\"b\",\"c\":\"c\"}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testEvents() {
+        JsonObject object = row("a", "b", "c");
+        JsonItem item = system().put("mem:/compact", object)
+                .value()
+                .item();
+        final List<String> events = new ArrayList<String>();
+        item.addHandler(new Handler() {
+            public void handle(Event event) {
+                events.add(event.eventType() + " " + event.fragment());
+            }
+        });
+        item.value()
+                .asObject()
+                .put("d", 4);
+        item.value()
+                .asObject()
+                .remove("b");
+        assertEquals(2, events.size());
+        assertEquals(EventType.PUT + " #d", events.get(0));
+        assertEquals(EventType.REMOVE + " #b", events.get(1));
+    }
+
+    @Test
+    public void testHashMapObjects() {
+        JsonSystem hashMapSystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                StandardJsonCreator creator = new StandardJsonCreator(system);
+                creator.setCompactObjects(false);
+                return creator;
+            }
+        });
+        JsonObject object = hashMapSystem.createObject();
+        object.put("a", 1);
+        object.put("b", 2);
+        object.remove("a");
+        assertEquals("{\"b\":2}", object.toCompactJsonString());
+        assertEquals(object, system().parse("{\"b\":2}"));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        assertEquals(keys(row("z", "a", "m")).toString(), "[z, a, m]");
+        JsonObject object = system().parse("{\"z\":1,\"a\":2,\"m\":3}")
+                .asObject();
+        assertEquals("{\"z\":1,\"a\":2,\"m\":3}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testManyKeys() {
+        JsonObject object = system().createObject();
+        for (int i = 0; i < 100; ++i) {
+            object.put("key" + i, i);
+        }
+        assertEquals(100, object.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, (int) object.getInt("key" + i));
+        }
+        assertFalse(object.containsKey("key100"));
+    }
+
+    @Test
+    public void testManyObjectTypes() {
+        // A HashMap would iterate over these keys in another order, so only compact objects keep it.
+        String[] keys = {"type", "z", "y", "x", "w", "v", "u"};
+        List<JsonObject> objects = new ArrayList<JsonObject>();
+        for (int i = 0; i < 3000; ++i) {
+            keys[0] = "type" + i;
+            JsonObject object = row(keys);
+            assertEquals(keys[0], keys(object).get(0));
+            assertEquals("[z, y, x, w, v, u]", keys(object).subList(1, keys.length)
+                    .toString());
+            objects.add(object);
+        }
+        // Objects whose shapes were evicted to make room for newer ones still work.
+        JsonObject first = objects.get(0);
+        assertEquals(0, (int) first.getInt("type0"));
+        first.put("t", 7);
+        assertEquals(7, (int) first.getInt("t"));
+        first.remove("t");
+        assertEquals(row("type0", "z", "y", "x", "w", "v", "u"), first);
+        assertEquals("[type0, z, y, x, w, v, u]", keys(row("type0", "z", "y", "x", "w", "v", "u")).toString());
+    }
+
+    @Test
+    public void testRemove() {
+        JsonObject object = row("a", "b", "c", "d");
+        object.remove("d");
+        assertEquals(keys(object).toString(), "[a, b, c]");
+        object.remove("a");
+        assertEquals(2, object.size());
+        assertFalse(object.containsKey("a"));
+        assertEquals(1, (int) object.getInt("b"));
+        assertEquals(2, (int) object.getInt("c"));
+        object.put("a", 5);
+        assertEquals(5, (int) object.getInt("a"));
+        assertNull(object.remove("x"));
+        assertEquals(3, object.size());
+    }
+
+    @Test
+    public void testSameKeysInDifferentOrders() {
+        JsonObject a = row("x", "y");
+        JsonObject b = row("y", "x");
+        b.put("x", 0);
+        b.put("y", 1);
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(1, (int) b.getInt("y"));
+    }
+
+    @Test
+    public void testViews() {
+        JsonObject object = row("a", "b", "c");
+        assertTrue(object.keySet()
+                .contains("b"));
+        assertTrue(object.values()
+                .contains(system().createNumber(2)));
+        object.keySet()
+                .remove("b");
+        assertEquals("{\"a\":0,\"c\":2}", object.toCompactJsonString());
+        Iterator<String> keys = object.keySet()
+                .iterator();
+        keys.next();
+        keys.next();
+        keys.remove();
+        assertEquals("{\"a\":0}", object.toCompactJsonString());
+        assertEquals(1, object.values()
+                .size());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.Utf8JsonCreator;
+import org.junit.Test;
+
+public class ConcurrentParseTest extends ItemscriptTestBase {
+    private static final int THREADS = 8;
+    private static final int DOCUMENTS = 50;
+    private static final int ROUNDS = 20;
+    private final Random random = new Random(12345);
+
+    private JsonValue createSomething(int maxDepth, int depth) {
+        switch (random.nextInt(depth < maxDepth ? 7 : 5)) {
+            case 0 :
+                return system().createNull();
+            case 1 :
+                return system().createBoolean(random.nextBoolean());
+            case 2 :
+                return system().createString(randomString());
+            case 3 :
+                return system().createNumber(random.nextDouble() * 1000000);
+            case 4 :
+                return system().createNumber(random.nextInt());
+            case 5 :
+                JsonObject object = system().createObject();
+                for (int i = 0, s = random.nextInt(10); i < s; ++i) {
+                    object.put(randomString(), createSomething(maxDepth, depth + 1));
+                }
+                return object;
+            default :
+                JsonArray array = system().createArray();
+                for (int i = 0, s = random.nextInt(10); i < s; ++i) {
+                    array.add(createSomething(maxDepth, depth + 1));
+                }
+                return array;
+        }
+    }
+
+    private String randomString() {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0, s = random.nextInt(20); i < s; ++i) {
+            switch (random.nextInt(8)) {
+                case 0 :
+                    sb.append('"');
+                    break;
+                case 1 :
+                    sb.append('\u00e9');
+                    break;
+                case 2 :
+                    sb.append('\u20ac');
+                    break;
+                default :
+                    sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private void checkConcurrentParsing(final JsonSystem system, final boolean bytes) throws Exception {
+        final List<String> documents = new ArrayList<String>();
+        final List<JsonValue> expected = new ArrayList<JsonValue>();
+        for (int i = 0; i < DOCUMENTS; ++i) {
+            String json = createSomething(6, 0).toCompactJsonString();
+            documents.add(json);
+            expected.add(system.parse(json));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; ++t) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int mismatches = 0;
+                        for (int round = 0; round < ROUNDS; ++round) {
+                            for (int i = 0; i < DOCUMENTS; ++i) {
+                                int index = (i + offset) % DOCUMENTS;
+                                String json = documents.get(index);
+                                JsonValue value;
+                                if (bytes) {
+                                    value = system.parseReader(json.getBytes("UTF-8"));
+                                } else {
+                                    value = system.parse(json);
+                                }
+                                if (!expected.get(index)
+                                        .equals(value)) {
+                                    ++mismatches;
+                                }
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals((Integer) 0, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentStandardParsing() throws Exception {
+        checkConcurrentParsing(system(), false);
+        checkConcurrentParsing(system(), true);
+    }
+
+    @Test
+    public void testConcurrentUtf8Parsing() throws Exception {
+        JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new Utf8JsonCreator(system);
+            }
+        });
+        checkConcurrentParsing(system, true);
+        checkConcurrentParsing(system, false);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonItem;
+import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.LazyJsonCreator;
+import org.itemscript.standard.StandardConfig;
+import org.junit.Test;
+
+public class ConcurrentReadTest extends ItemscriptTestBase {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 50;
+    private static final String DOCUMENT = "{\"a\":[null,true,5,\"x\",2.5],\"b\":false,\"c\":null,"
+            + "\"d\":{\"e\":7,\"f\":[1,2,3]}}";
+    private JsonSystem lazySystem;
+    private int items;
+
+    /**
+     * Makes a value, which several threads then read at once, each checking what it reads.
+     */
+    private abstract class Check {
+        abstract JsonValue make();
+
+        /**
+         * @return The number of mismatches found.
+         */
+        abstract int read(JsonValue value);
+    }
+
+    /**
+     * Make a new, unloaded copy of the document each round, and have each thread check all of it.
+     */
+    private abstract class LoadCheck extends Check {
+        int read(JsonValue value) {
+            int mismatches = 0;
+            JsonObject object = value.asObject();
+            if (object.getObject("d")
+                    .getArray("f")
+                    .size() != 3) {
+                ++mismatches;
+            }
+            if (!system().parse(DOCUMENT)
+                    .equals(object)) {
+                ++mismatches;
+            }
+            return mismatches;
+        }
+    }
+
+    //@Override
+    protected void setUp() {
+        super.setUp();
+        lazySystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new LazyJsonCreator(system);
+            }
+        });
+    }
+
+    private void checkConcurrentReads(final Check check) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                final JsonValue value = check.make();
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int t = 0; t < THREADS; ++t) {
+                    results.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() throws Exception {
+                            start.await();
+                            return check.read(value);
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<Integer> result : results) {
+                    assertEquals((Integer) 0, result.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testContentHash() throws Exception {
+        final long expected = CanonicalJson.computeContentHash(system().parse(DOCUMENT));
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                JsonValue value = system().parse(DOCUMENT);
+                value.freeze();
+                return value;
+            }
+
+            int read(JsonValue value) {
+                return CanonicalJson.contentHash(value) == expected ? 0 : 1;
+            }
+        });
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        final JsonValue frozen = system().parse(DOCUMENT);
+        frozen.freeze();
+        checkConcurrentReads(new LoadCheck() {
+            JsonValue make() {
+                return frozen.copy();
+            }
+        });
+        checkConcurrentReads(new LoadCheck() {
+            JsonValue make() {
+                return lazySystem.parse(DOCUMENT);
+            }
+        });
+        checkConcurrentReads(new LoadCheck() {
+            JsonValue make() {
+                JsonItem item = system().createItem("mem:/ConcurrentReadTest/" + items++, system().parse(DOCUMENT));
+                return item.version(item.snapshot());
+            }
+        });
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        final String[] texts = {"1e3", "0.1", "-12.5e1", "123456789012345678901", "-7", "1e-400"};
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                JsonObject object = system().createObject();
+                for (int i = 0; i < texts.length; ++i) {
+                    object.put(i + "", system().parseNumber(texts[i]));
+                }
+                object.freeze();
+                return object;
+            }
+
+            int read(JsonValue value) {
+                int mismatches = 0;
+                for (int i = 0; i < texts.length; ++i) {
+                    JsonNumber number = value.asObject()
+                            .get(i + "")
+                            .asNumber();
+                    JsonNumber expected = system().parseNumber(texts[i]);
+                    if (number.isLong() != expected.isLong() || number.toLong() != expected.toLong()
+                            || number.toDouble() != expected.toDouble()) {
+                        ++mismatches;
+                    }
+                }
+                return mismatches;
+            }
+        });
+    }
+
+    @Test
+    public void testPaths() throws Exception {
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                JsonObject object = system().createObject();
+                JsonArray list = object.createArray("list");
+                for (int i = 0; i < 50; ++i) {
+                    list.addObject()
+                            .createObject("inner");
+                }
+                // Make the paths, then move the containers so that they are out of date.
+                for (int i = 0; i < list.size(); ++i) {
+                    list.getObject(i)
+                            .getObject("inner")
+                            .fragment();
+                }
+                list.add(0, system().createObject());
+                return object;
+            }
+
+            int read(JsonValue value) {
+                int mismatches = 0;
+                JsonArray list = value.asObject()
+                        .getArray("list");
+                for (int i = 1; i < list.size(); ++i) {
+                    if (!("#list." + i + ".inner").equals(list.getObject(i)
+                            .getObject("inner")
+                            .fragment())) {
+                        ++mismatches;
+                    }
+                }
+                return mismatches;
+            }
+        });
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                JsonArray array = system().createArray();
+                for (int i = 0; i < 200; ++i) {
+                    array.add("s" + i);
+                }
+                // Leave the positions of all the values to be brought up to date.
+                array.add(0, system().createString("first"));
+                return array;
+            }
+
+            int read(JsonValue value) {
+                int mismatches = 0;
+                JsonArray array = value.asArray();
+                for (int i = array.size() - 1; i >= 0; --i) {
+                    if (!(i + "").equals(array.get(i)
+                            .key())) {
+                        ++mismatches;
+                    }
+                }
+                return mismatches;
+            }
+        });
+    }
+
+    private int readSharedScalars(JsonObject object) {
+        int mismatches = 0;
+        String[] keys = {"b", "c"};
+        for (int i = 0; i < keys.length; ++i) {
+            JsonValue value = object.get(keys[i]);
+            if (value.parent() != object || !keys[i].equals(value.key())) {
+                ++mismatches;
+            }
+        }
+        JsonArray array = object.getArray("a");
+        for (int i = 0; i < array.size(); ++i) {
+            if (!("#a." + i).equals(array.get(i)
+                    .fragment())) {
+                ++mismatches;
+            }
+        }
+        // A copy handed out can be put into another container.
+        system().createObject()
+                .put("b", object.get("b"));
+        if (!DOCUMENT.equals(object.toCompactJsonString())) {
+            ++mismatches;
+        }
+        return mismatches;
+    }
+
+    @Test
+    public void testSharedScalars() throws Exception {
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                return system().parse(DOCUMENT);
+            }
+
+            int read(JsonValue value) {
+                return readSharedScalars(value.asObject());
+            }
+        });
+        checkConcurrentReads(new Check() {
+            JsonValue make() {
+                JsonValue value = system().parse(DOCUMENT);
+                value.freeze();
+                return value;
+            }
+
+            int read(JsonValue value) {
+                return readSharedScalars(value.asObject());
+            }
+        });
+    }
+}
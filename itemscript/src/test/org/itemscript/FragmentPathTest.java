@@ -0,0 +1,177 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import org.itemscript.core.events.Event;
+import org.itemscript.core.events.EventType;
+import org.itemscript.core.events.Handler;
+import org.itemscript.core.url.FragmentPath;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonItem;
+import org.itemscript.core.values.JsonObject;
+import org.junit.Test;
+
+public class FragmentPathTest extends ItemscriptTestBase {
+    private Event lastEvent;
+
+    private JsonItem itemWithHandler(String json) {
+        JsonItem item = system().put("mem:/FragmentPathTest/" + System.nanoTime(), system().parse(json))
+                .value()
+                .item();
+        item.addHandler(new Handler() {
+            public void handle(Event event) {
+                lastEvent = event;
+            }
+        });
+        return item;
+    }
+
+    @Test
+    public void testArrayEvents() {
+        JsonItem item = itemWithHandler("{\"a\":[1,2,3]}");
+        JsonArray array = item.value()
+                .asObject()
+                .getArray("a");
+        array.add(4);
+        assertEquals(EventType.PUT, lastEvent.eventType());
+        assertEquals(FragmentPath.ROOT.child("a")
+                .child("3"), lastEvent.path());
+        assertEquals("#a.3", lastEvent.fragment());
+        array.remove(0);
+        assertEquals(EventType.REMOVE, lastEvent.eventType());
+        assertEquals("#a.0", lastEvent.fragment());
+        array.set(1, "x");
+        assertEquals("#a.1", lastEvent.fragment());
+    }
+
+    @Test
+    public void testCachedPathFollowsMoves() {
+        JsonObject root = system().createObject();
+        JsonArray array = root.createArray("a");
+        JsonObject inner = array.addObject();
+        array.addObject();
+        assertEquals("#a.0", inner.fragment());
+        array.add(0, system().createString("x"));
+        assertEquals("#a.1", inner.fragment());
+        array.remove(0);
+        array.remove(0);
+        assertNull(inner.parent());
+        assertEquals("#", inner.fragment());
+        root.put("b", inner);
+        assertEquals("#b", inner.fragment());
+        JsonObject moved = root.createObject("c");
+        root.remove("b");
+        moved.put("d", inner);
+        assertEquals("#c.d", inner.fragment());
+        assertEquals("#c.d.e", inner.put("e", "f")
+                .fragment());
+    }
+
+    @Test
+    public void testDecode() {
+        assertSame(FragmentPath.ROOT, FragmentPath.decode("#"));
+        assertSame(FragmentPath.ROOT, FragmentPath.decode(""));
+        FragmentPath path = FragmentPath.decode("#a%20b.0.c");
+        assertEquals(3, path.size());
+        assertEquals("a b", path.key(0));
+        assertEquals("0", path.key(1));
+        assertEquals("c", path.lastKey());
+        assertEquals("#a%20b.0.c", path.toString());
+        assertEquals(path, FragmentPath.decode("a%20b.0.c"));
+    }
+
+    @Test
+    public void testEquals() {
+        FragmentPath path = FragmentPath.ROOT.child("a")
+                .child("b");
+        FragmentPath same = FragmentPath.ROOT.child("a")
+                .child("b");
+        assertEquals(path, same);
+        assertEquals(path.hashCode(), same.hashCode());
+        assertFalse(path.equals(FragmentPath.ROOT.child("a")));
+        assertFalse(path.equals(FragmentPath.ROOT.child("b")
+                .child("b")));
+        // Keys with dots in them have the same fragment string as more keys, but are not the same path.
+        FragmentPath dotted = FragmentPath.ROOT.child("a.b");
+        assertFalse(path.equals(dotted));
+        assertEquals(path.toString(), dotted.toString());
+        String[] keys = path.keys();
+        assertEquals(2, keys.length);
+        assertEquals("a", keys[0]);
+        assertEquals("b", keys[1]);
+    }
+
+    @Test
+    public void testObjectEvents() {
+        JsonItem item = itemWithHandler("{\"a\":{\"b\":{}}}");
+        JsonObject b = item.value()
+                .asObject()
+                .getObject("a")
+                .getObject("b");
+        FragmentPath prefix = FragmentPath.ROOT.child("a");
+        b.put("c.d", 1);
+        assertEquals(EventType.PUT, lastEvent.eventType());
+        assertTrue(lastEvent.path()
+                .startsWith(prefix));
+        assertEquals(3, lastEvent.path()
+                .size());
+        assertEquals("c.d", lastEvent.path()
+                .lastKey());
+        b.remove("c.d");
+        assertEquals(EventType.REMOVE, lastEvent.eventType());
+        assertEquals(FragmentPath.ROOT.child("a")
+                .child("b")
+                .child("c.d"), lastEvent.path());
+        item.put("#", "x");
+        assertSame(FragmentPath.ROOT, lastEvent.path());
+        assertEquals("#", lastEvent.fragment());
+    }
+
+    @Test
+    public void testStartsWith() {
+        FragmentPath a = FragmentPath.ROOT.child("a");
+        FragmentPath ab = a.child("b");
+        assertTrue(ab.startsWith(a));
+        assertTrue(ab.startsWith(ab));
+        assertTrue(ab.startsWith(FragmentPath.ROOT));
+        assertFalse(a.startsWith(ab));
+        assertFalse(ab.startsWith(FragmentPath.ROOT.child("ab")));
+        assertFalse(FragmentPath.ROOT.child("a.b")
+                .startsWith(a));
+    }
+
+    @Test
+    public void testStringEvent() {
+        Event event = new Event(EventType.PUT, "#a.b", null);
+        assertEquals(FragmentPath.ROOT.child("a")
+                .child("b"), event.path());
+        assertEquals("#a.b", event.fragment());
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.Iterator;
+import java.util.ListIterator;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.junit.Test;
+
+public class FrozenValueTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"a\":{\"b\":[1,2,{\"c\":\"x\"}],\"d\":true},\"e\":[1.5,2.5],\"f\":null}";
+
+    private void assertFrozen(Runnable change) {
+        boolean failed = false;
+        try {
+            change.run();
+        } catch (ItemscriptError e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    private JsonObject frozen() {
+        JsonObject object = system().parse(DOCUMENT)
+                .asObject();
+        object.freeze();
+        return object;
+    }
+
+    @Test
+    public void testChangeCopy() {
+        JsonObject object = frozen();
+        JsonObject copy = object.copy()
+                .asObject();
+        assertFalse(copy.isFrozen());
+        assertEquals(object, copy);
+        copy.getObject("a")
+                .getArray("b")
+                .getObject(2)
+                .put("c", "y");
+        copy.getArray("e")
+                .add(3.5);
+        copy.remove("f");
+        assertEquals("{\"a\":{\"b\":[1,2,{\"c\":\"y\"}],\"d\":true},\"e\":[1.5,2.5,3.5]}", copy.toCompactJsonString());
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+        assertEquals(system().parse(DOCUMENT), object);
+    }
+
+    @Test
+    public void testChangeFrozen() {
+        final JsonObject object = frozen();
+        assertTrue(object.isFrozen());
+        final JsonArray array = object.getObject("a")
+                .getArray("b");
+        assertTrue(array.isFrozen());
+        assertFrozen(new Runnable() {
+            public void run() {
+                object.put("g", 1);
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                object.remove("a");
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                array.add(3);
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                array.getObject(2)
+                        .clear();
+            }
+        });
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+    }
+
+    @Test
+    public void testChangeFrozenThroughViews() {
+        final JsonObject object = frozen();
+        final JsonArray array = object.getObject("a")
+                .getArray("b");
+        assertFrozen(new Runnable() {
+            public void run() {
+                object.keySet()
+                        .remove("a");
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                Iterator<?> iterator = object.entrySet()
+                        .iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                Iterator<?> iterator = object.values()
+                        .iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                ListIterator<JsonValue> iterator = array.listIterator();
+                iterator.next();
+                iterator.set(system().createNumber(5));
+            }
+        });
+        assertFrozen(new Runnable() {
+            public void run() {
+                array.listIterator(3)
+                        .add(system().createNumber(5));
+            }
+        });
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+        // Just reading through a list iterator is not a change.
+        ListIterator<JsonValue> iterator = array.listIterator(3);
+        assertEquals("c", iterator.previous()
+                .asObject()
+                .keySet()
+                .iterator()
+                .next());
+        assertEquals(2, iterator.nextIndex());
+    }
+
+    @Test
+    public void testChangeThroughViews() {
+        JsonObject object = frozen();
+        JsonObject copy = object.copy()
+                .asObject();
+        copy.keySet()
+                .remove("f");
+        Iterator<JsonValue> values = copy.getObject("a")
+                .values()
+                .iterator();
+        values.next();
+        values.remove();
+        ListIterator<JsonValue> iterator = copy.getArray("e")
+                .listIterator();
+        iterator.next();
+        iterator.set(system().createNumber(0.5));
+        iterator.add(system().createNumber(1));
+        iterator.next();
+        iterator.remove();
+        assertEquals("{\"a\":{\"d\":true},\"e\":[0.5,1]}", copy.toCompactJsonString());
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+        assertEquals(system().parse(DOCUMENT), object);
+    }
+
+    @Test
+    public void testCopyOfCopy() {
+        JsonObject object = frozen();
+        JsonObject copy = object.copy()
+                .copy()
+                .asObject();
+        assertEquals(DOCUMENT, copy.toCompactJsonString());
+        JsonObject loaded = object.copy()
+                .asObject();
+        loaded.getObject("a");
+        JsonObject copyOfLoaded = loaded.copy()
+                .asObject();
+        loaded.put("f", 1);
+        assertEquals(DOCUMENT, copyOfLoaded.toCompactJsonString());
+        assertEquals(3, copyOfLoaded.size());
+    }
+
+    @Test
+    public void testFrozenInsideContainer() {
+        JsonObject object = frozen();
+        JsonObject outer = system().createObject();
+        outer.put("inner", object);
+        outer.put("other", 1);
+        assertFalse(outer.isFrozen());
+        assertTrue(outer.getObject("inner")
+                .getObject("a")
+                .isFrozen());
+        outer.remove("inner");
+        assertTrue(object.isFrozen());
+        assertNull(object.parent());
+    }
+
+    @Test
+    public void testHash() {
+        JsonObject object = frozen();
+        JsonObject copy = object.copy()
+                .asObject();
+        assertEquals(CanonicalJson.contentHash(object.getArray("e")), CanonicalJson.contentHash(copy.getArray("e")));
+        assertEquals(DOCUMENT, copy.toCompactJsonString());
+    }
+
+    @Test
+    public void testItem() {
+        JsonObject object = frozen();
+        system().put("mem:/frozen", object.copy());
+        system().put("mem:/frozen#a.d", false);
+        assertEquals(false, system().getBoolean("mem:/frozen#a.d")
+                .booleanValue());
+        assertEquals(true, object.getObject("a")
+                .getBoolean("d")
+                .booleanValue());
+    }
+
+    @Test
+    public void testScalars() {
+        JsonValue value = system().createString("x");
+        assertTrue(value.isFrozen());
+        value.freeze();
+        assertFalse(system().createObject()
+                .isFrozen());
+    }
+}
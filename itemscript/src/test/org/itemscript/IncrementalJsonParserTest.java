@@ -0,0 +1,261 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.ContentHandler;
+import org.itemscript.standard.parser.IncrementalJsonParser;
+import org.itemscript.standard.parser.ParseException;
+import org.junit.Test;
+
+public class IncrementalJsonParserTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"a\" : [1, 2.5, -3e2, 12345678901234567890, {\"b\" : null}], "
+            + "\"c\" : {\"d\" : true, \"e\" : false}, \"f\" : \"quote \\\" slash \\/ \\n \\u00e9\\u20AC "
+            + "\u00e9\u20ac\ud834\udd1e\", \"g\" : [], \"h\" : {}}";
+
+    private List<JsonValue> feedInChunks(String json, int chunkSize) throws Exception {
+        IncrementalJsonParser parser = new IncrementalJsonParser(system());
+        byte[] bytes = json.getBytes("UTF-8");
+        List<JsonValue> values = new ArrayList<JsonValue>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            parser.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+            JsonValue value;
+            while ((value = parser.poll()) != null) {
+                values.add(value);
+            }
+        }
+        parser.end();
+        JsonValue value;
+        while ((value = parser.poll()) != null) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private void assertParseFails(String json) throws Exception {
+        try {
+            feedInChunks(json, 1);
+            fail("Expected a ParseException for: " + json);
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAnyChunkSize() throws Exception {
+        JsonValue expected = system().parse(DOCUMENT);
+        for (int chunkSize = 1; chunkSize < 20; ++chunkSize) {
+            List<JsonValue> values = feedInChunks(DOCUMENT, chunkSize);
+            assertEquals(1, values.size());
+            assertEquals(expected, values.get(0));
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        byte[] bytes = DOCUMENT.getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        IncrementalJsonParser parser = new IncrementalJsonParser(system());
+        parser.feed(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(system().parse(DOCUMENT), parser.poll());
+    }
+
+    @Test
+    public void testValuesAvailableAsSoonAsTheyClose() throws Exception {
+        IncrementalJsonParser parser = new IncrementalJsonParser(system());
+        byte[] bytes = "{\"a\":1}\n[2]\n\"three\" 4".getBytes("UTF-8");
+        parser.feed(bytes, 0, 7);
+        assertEquals(system().parse("{\"a\":1}"), parser.poll());
+        assertNull(parser.poll());
+        parser.feed(bytes, 7, 5);
+        assertEquals(system().parse("[2]"), parser.poll());
+        parser.feed(bytes, 12, bytes.length - 12);
+        assertEquals("three", parser.poll()
+                .stringValue());
+        // A top-level number is only complete at the end of the input.
+        assertNull(parser.poll());
+        parser.end();
+        assertEquals((Integer) 4, parser.poll()
+                .intValue());
+    }
+
+    @Test
+    public void testScalars() throws Exception {
+        String[] scalars = {"\"foo\"", "true", "false", "null", "123", "-0", "-1.5e10", "1E-3", "0.1", "[0.1]"};
+        for (int i = 0; i < scalars.length; ++i) {
+            assertEquals(system().parse(scalars[i]), feedInChunks(scalars[i], 1).get(0));
+        }
+    }
+
+    @Test
+    public void testByteOrderMark() throws Exception {
+        IncrementalJsonParser parser = new IncrementalJsonParser(system());
+        parser.feed(new byte[] {(byte) 0xEF, (byte) 0xBB}, 0, 2);
+        parser.feed(new byte[] {(byte) 0xBF, '[', '1', ']'}, 0, 4);
+        assertEquals(system().parse("[1]"), parser.poll());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertParseFails("{");
+        assertParseFails("[1,]");
+        assertParseFails("{\"a\" 1}");
+        assertParseFails("{1:2}");
+        assertParseFails("{\"a\":1,}");
+        assertParseFails("tru");
+        assertParseFails("trux");
+        assertParseFails("\"unterminated");
+        assertParseFails("\"bad escape \\x\"");
+        assertParseFails("\"bad unicode \\u12g4\"");
+        assertParseFails("1.");
+        assertParseFails("-");
+        assertParseFails("]");
+        try {
+            feedInChunks("{\n  \"a\" : ?\n}", 3);
+            fail();
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(9, e.getColumn());
+        }
+    }
+
+    @Test
+    public void testContentHandler() throws Exception {
+        final StringBuffer events = new StringBuffer();
+        ContentHandler handler = new ContentHandler() {
+            public boolean endArray() {
+                events.append("]");
+                return true;
+            }
+
+            public void endJSON() {
+                events.append(";");
+            }
+
+            public boolean endObject() {
+                events.append("}");
+                return true;
+            }
+
+            public boolean endObjectEntry() {
+                events.append(",");
+                return true;
+            }
+
+            public boolean primitive(Object value) {
+                events.append(((JsonValue) value).toCompactJsonString());
+                // Stop after each primitive.
+                return false;
+            }
+
+            public boolean startArray() {
+                events.append("[");
+                return true;
+            }
+
+            public void startJSON() {
+                events.append("^");
+            }
+
+            public boolean startObject() {
+                events.append("{");
+                return true;
+            }
+
+            public boolean startObjectEntry(String key) {
+                events.append(key + ":");
+                return true;
+            }
+        };
+        IncrementalJsonParser parser = new IncrementalJsonParser(system(), handler);
+        ByteBuffer buffer = ByteBuffer.wrap("{\"a\":[1,2],\"b\":{\"c\":\"d\"}} true".getBytes("UTF-8"));
+        int feeds = 0;
+        while (buffer.hasRemaining()) {
+            parser.feed(buffer);
+            ++feeds;
+        }
+        parser.end();
+        assertNull(parser.poll());
+        assertEquals("^{a:[12],b:{c:\"d\",},};^true;", events.toString());
+        assertEquals(4, feeds);
+    }
+
+    @Test
+    public void testHandlerIOException() throws Exception {
+        IncrementalJsonParser parser = new IncrementalJsonParser(system(), new ContentHandler() {
+            public boolean endArray() {
+                return true;
+            }
+
+            public void endJSON() {}
+
+            public boolean endObject() {
+                return true;
+            }
+
+            public boolean endObjectEntry() {
+                return true;
+            }
+
+            public boolean primitive(Object value) throws IOException {
+                throw new IOException("handler failed");
+            }
+
+            public boolean startArray() {
+                return true;
+            }
+
+            public void startJSON() {}
+
+            public boolean startObject() {
+                return true;
+            }
+
+            public boolean startObjectEntry(String key) {
+                return true;
+            }
+        });
+        try {
+            parser.feed(ByteBuffer.wrap("[true]".getBytes("UTF-8")));
+            fail();
+        } catch (ParseException e) {
+            assertEquals(ParseException.ERROR_UNEXPECTED_EXCEPTION, e.getErrorType());
+        }
+    }
+}
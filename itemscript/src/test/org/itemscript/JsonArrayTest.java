@@ -183,6 +183,34 @@ public class JsonArrayTest extends ItemscriptTestBase {
         assertNull(bar.parent());
     }
 
+    @Test
+    public void testKeysAfterInsertAndRemove() {
+        JsonArray array = system().createArray();
+        JsonValue last = system().createString("last");
+        array.add(last);
+        for (int i = 0; i < 1000; ++i) {
+            array.add(0, system().createString("value" + i));
+            if (i % 100 == 0) {
+                assertEquals(i + 1 + "", last.key());
+            }
+        }
+        assertEquals("1000", last.key());
+        JsonValue middle = array.get(500);
+        assertEquals("#500", middle.fragment());
+        for (int i = 0; i < 250; ++i) {
+            array.remove(0);
+        }
+        array.add(0, system().createNull());
+        assertEquals("251", middle.key());
+        assertEquals("751", last.key());
+        assertEquals("0", array.get(0)
+                .key());
+        for (int i = 0; i < array.size(); ++i) {
+            assertEquals(i + "", array.get(i)
+                    .key());
+        }
+    }
+
     @Test
     public void testPut() {
         JsonArray array = system().createArray();
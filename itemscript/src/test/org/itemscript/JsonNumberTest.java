@@ -29,7 +29,12 @@
 
 package test.org.itemscript;
 
+import java.math.BigDecimal;
+
+import org.itemscript.core.exceptions.ItemscriptError;
 import org.itemscript.core.values.JsonNumber;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.standard.StandardUtil;
 import org.junit.Test;
 
 public class JsonNumberTest extends ItemscriptTestBase {
@@ -68,6 +73,99 @@ public class JsonNumberTest extends ItemscriptTestBase {
         assertEquals((Integer) Integer.MIN_VALUE, number.intValue());
         JsonNumber number2 = system().createNumber(Integer.MAX_VALUE);
         assertEquals((Integer) Integer.MAX_VALUE, number2.intValue());
+        assertEquals((Integer) Integer.MAX_VALUE, system().createNumber(Long.MAX_VALUE)
+                .intValue());
+        assertEquals((Integer) Integer.MIN_VALUE, system().parseNumber("-3000000000")
+                .intValue());
+    }
+
+    @Test
+    public void testExactDecimal() {
+        JsonNumber number = system().parse("[0.10000000000000000000001]")
+                .asArray()
+                .get(0)
+                .asNumber();
+        assertEquals("0.10000000000000000000001", number.toCompactJsonString());
+        assertEquals(new BigDecimal("0.10000000000000000000001"), StandardUtil.toBigDecimal(number));
+        assertEquals(0.1, number.toDouble());
+        assertFalse(number.isLong());
+    }
+
+    @Test
+    public void testExactLong() {
+        JsonNumber number = system().parse("[9007199254740993]")
+                .asArray()
+                .get(0)
+                .asNumber();
+        assertTrue(number.isLong());
+        assertEquals(9007199254740993L, number.toLong());
+        assertEquals("9007199254740993", number.toCompactJsonString());
+        JsonNumber max = system().createNumber(Long.MAX_VALUE);
+        assertEquals((Long) Long.MAX_VALUE, max.longValue());
+        assertEquals("9223372036854775807", max.toCompactJsonString());
+        assertEquals(max, system().parseNumber("9223372036854775807"));
+        assertEquals(BigDecimal.valueOf(Long.MAX_VALUE), StandardUtil.toBigDecimal(max));
+    }
+
+    @Test
+    public void testGetLongFromNumber() {
+        JsonObject object = system().parse("{\"id\":12345678901234567,\"half\":0.5,\"big\":1e300}")
+                .asObject();
+        assertEquals((Long) 12345678901234567L, object.getLong("id"));
+        assertEquals((Long) 12345678901234567L, object.getRequiredLong("id"));
+        assertNull(object.get("half")
+                .asNumber()
+                .longValue());
+        assertFalse(object.get("big")
+                .asNumber()
+                .isLong());
+        boolean threwException = false;
+        try {
+            object.getRequiredLong("half");
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+    }
+
+    @Test
+    public void testIntegralDouble() {
+        JsonNumber number = system().parse("[2.50e1]")
+                .asArray()
+                .get(0)
+                .asNumber();
+        assertTrue(number.isLong());
+        assertEquals(25L, number.toLong());
+    }
+
+    @Test
+    public void testExponents() {
+        // Only text whose decimal value is an integer is a long, however the double rounds it.
+        String[] longs = {"1e3", "1.5e1", "-12.5e1", "1500e-2", "0e-400", "0.0e5", "9e15"};
+        long[] values = {1000, 15, -125, 15, 0, 0, 9000000000000000L};
+        for (int i = 0; i < longs.length; ++i) {
+            JsonNumber number = system().parseNumber(longs[i]);
+            assertTrue(longs[i], number.isLong());
+            assertEquals(values[i], number.toLong());
+        }
+        String[] notLongs = {"1e-400", "2.5e-400", "-1E-400", "1.25e1", "15e-1", "1e16", "1e400"};
+        for (int i = 0; i < notLongs.length; ++i) {
+            assertFalse(notLongs[i], system().parseNumber(notLongs[i])
+                    .isLong());
+        }
+    }
+
+    @Test
+    public void testLeadingZeros() {
+        assertEquals("1", system().parseNumber("0001")
+                .toCompactJsonString());
+        assertEquals("-0.5", system().parseNumber("-00.5")
+                .toCompactJsonString());
+        assertEquals("0", system().parseNumber("00")
+                .toCompactJsonString());
+        assertEquals("0e5", system().parseNumber("0e5")
+                .toCompactJsonString());
+        assertEquals(system().parseNumber("7"), system().parseNumber("007"));
     }
 
     @Test
@@ -0,0 +1,97 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.io.StringReader;
+
+import org.itemscript.core.values.JsonContainer;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonProjection;
+import org.itemscript.standard.parser.JsonReader;
+import org.junit.Test;
+
+public class JsonProjectionTest extends ItemscriptTestBase {
+    private static final String EVENT = "{\"id\":17,\"type\":\"click\",\"user\":{\"name\":\"x\",\"bio\":\"long \\\"text\\\"\","
+            + "\"address\":{\"city\":\"Paris\",\"zip\":\"75001\"}},\"tags\":[\"a\",{\"b\":[1,2]},\"c\",\"d\"],"
+            + "\"a/b\":true,\"payload\":[{\"x\":1},[null,false],1.5e3]}";
+
+    private void checkPaths(String json, String[] paths) throws Exception {
+        JsonContainer full = system().parse(json)
+                .asContainer();
+        JsonContainer projected = new JsonProjection(system(), paths).parse(json)
+                .asContainer();
+        for (int i = 0; i < paths.length; ++i) {
+            assertEquals(paths[i], full.getByPath(paths[i]), projected.getByPath(paths[i]));
+        }
+    }
+
+    @Test
+    public void testObjectPaths() throws Exception {
+        JsonValue value = new JsonProjection(system(), new String[] {"id", "user/name"}).parse(EVENT);
+        assertEquals(system().parse("{\"id\":17,\"user\":{\"name\":\"x\"}}"), value);
+        checkPaths(EVENT, new String[] {"type", "user/address/city", "payload", "a%2Fb"});
+    }
+
+    @Test
+    public void testArrayPaths() throws Exception {
+        JsonValue value = new JsonProjection(system(), new String[] {"tags/1/b"}).parse(EVENT);
+        assertEquals(system().parse("{\"tags\":[null,{\"b\":[1,2]}]}"), value);
+        checkPaths(EVENT, new String[] {"tags/2", "tags/1/b/0", "payload/1/1"});
+    }
+
+    @Test
+    public void testMissingPaths() throws Exception {
+        JsonObject value = new JsonProjection(system(), new String[] {"nothing", "user/nothing", "tags/10"}).parse(
+                EVENT)
+                .asObject();
+        assertEquals(2, value.size());
+        assertEquals(0, value.getObject("user")
+                .size());
+        assertEquals(0, value.getArray("tags")
+                .size());
+    }
+
+    @Test
+    public void testProjectRecords() throws Exception {
+        String jsonl = "{\"id\":1,\"x\":[1,2,3]}\n{\"id\":2,\"x\":{\"y\":\"z\"}}\n{\"x\":null,\"id\":3}\n";
+        JsonProjection projection = new JsonProjection(system(), new String[] {"id"});
+        JsonReader reader = new JsonReader(system(), new StringReader(jsonl));
+        int count = 0;
+        while (reader.nextToken() != JsonReader.END_DOCUMENT) {
+            JsonObject record = projection.read(reader)
+                    .asObject();
+            ++count;
+            assertEquals(1, record.size());
+            assertEquals(count, (int) record.getInt("id"));
+        }
+        assertEquals(3, count);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.io.StringReader;
+
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardUtil;
+import org.itemscript.standard.parser.JsonReader;
+import org.itemscript.standard.parser.ParseException;
+import org.junit.Test;
+
+public class JsonReaderTest extends ItemscriptTestBase {
+    final static String basePath = System.getProperty("user.dir") + "/src/test/org/itemscript/";
+
+    private JsonReader reader(String json) {
+        return new JsonReader(system(), new StringReader(json));
+    }
+
+    @Test
+    public void testTokens() throws Exception {
+        JsonReader reader = reader("{\"a\" : [1, true, null], \"b\" : {}}");
+        assertEquals(JsonReader.START_OBJECT, reader.nextToken());
+        assertEquals(1, reader.depth());
+        assertEquals(JsonReader.KEY, reader.nextToken());
+        assertEquals("a", reader.key());
+        assertEquals(JsonReader.START_ARRAY, reader.nextToken());
+        assertEquals(2, reader.depth());
+        assertEquals(JsonReader.VALUE, reader.nextToken());
+        assertEquals(1, (int) reader.value()
+                .intValue());
+        assertEquals(JsonReader.VALUE, reader.nextToken());
+        assertTrue(reader.value()
+                .booleanValue());
+        assertEquals(JsonReader.VALUE, reader.nextToken());
+        assertTrue(reader.value()
+                .isNull());
+        assertEquals(JsonReader.END_ARRAY, reader.nextToken());
+        assertEquals(1, reader.depth());
+        assertEquals(JsonReader.KEY, reader.nextToken());
+        assertEquals("b", reader.key());
+        assertEquals(JsonReader.START_OBJECT, reader.nextToken());
+        assertEquals(JsonReader.END_OBJECT, reader.nextToken());
+        assertEquals(JsonReader.END_OBJECT, reader.nextToken());
+        assertEquals(0, reader.depth());
+        assertEquals(JsonReader.END_DOCUMENT, reader.nextToken());
+        assertEquals(JsonReader.END_DOCUMENT, reader.nextToken());
+    }
+
+    @Test
+    public void testReadValue() throws Exception {
+        String json = "{\"a\":[1,{\"b\":\"c\"}],\"d\":{\"e\":null}}";
+        JsonValue value = reader(json).readValue();
+        assertEquals(system().parse(json), value);
+        JsonReader reader = reader(json);
+        reader.nextToken();
+        reader.nextToken();
+        JsonArray array = reader.readValue()
+                .asArray();
+        assertEquals(2, array.size());
+        assertEquals(JsonReader.END_ARRAY, reader.token());
+        assertEquals(JsonReader.KEY, reader.nextToken());
+        JsonObject object = reader.readValue()
+                .asObject();
+        assertTrue(object.containsKey("e"));
+        assertEquals(JsonReader.END_OBJECT, reader.nextToken());
+    }
+
+    @Test
+    public void testSkipValue() throws Exception {
+        JsonReader reader = reader("{\"a\":[1,[2,3],{\"x\":[]}],\"b\":\"c\"}");
+        reader.nextToken();
+        reader.nextToken();
+        reader.skipValue();
+        assertEquals(JsonReader.END_ARRAY, reader.token());
+        assertEquals(JsonReader.KEY, reader.nextToken());
+        assertEquals("b", reader.key());
+        assertEquals("c", reader.readValue()
+                .stringValue());
+    }
+
+    @Test
+    public void testLargeArray() throws Exception {
+        StringBuffer sb = new StringBuffer("[");
+        for (int i = 0; i < 10000; ++i) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"i\":" + i + ",\"s\":\"value " + i + "\"}");
+        }
+        sb.append("]");
+        JsonReader reader = reader(sb.toString());
+        assertEquals(JsonReader.START_ARRAY, reader.nextToken());
+        int count = 0;
+        while (reader.nextToken() != JsonReader.END_ARRAY) {
+            JsonObject element = reader.readValue()
+                    .asObject();
+            assertEquals(count, (int) element.getInt("i"));
+            ++count;
+        }
+        assertEquals(10000, count);
+        assertEquals(JsonReader.END_DOCUMENT, reader.nextToken());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        String[] bad = {"[1 2]", "{\"a\" 1}", "{1:2}", "[1,", "{\"a\":1", "]", "[1,]"};
+        for (int i = 0; i < bad.length; ++i) {
+            JsonReader reader = reader(bad[i]);
+            try {
+                while (reader.nextToken() != JsonReader.END_DOCUMENT) {
+                }
+                fail("Should have failed: " + bad[i]);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFileReader() throws Exception {
+        JsonReader reader = StandardUtil.openReader(system(), "file:" + basePath + "test.jsonl");
+        int count = 0;
+        while (reader.nextToken() != JsonReader.END_DOCUMENT) {
+            JsonObject record = reader.readValue()
+                    .asObject();
+            ++count;
+            assertEquals(count, (int) record.getInt("id"));
+        }
+        reader.close();
+        assertEquals(3, count);
+        reader = StandardUtil.openReader(system(), "file:" + basePath + "test.json");
+        assertEquals("bar", reader.readValue()
+                .asObject()
+                .getString("foo"));
+        reader.close();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.util.JsonSerializer;
+import org.itemscript.core.values.ItemscriptCreator;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.core.values.OverlayObject;
+import org.itemscript.core.values.WeakArray;
+import org.itemscript.core.values.WeakObject;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+import org.junit.Test;
+
+public class JsonSerializerTest extends ItemscriptTestBase {
+    private JsonSystem cachingSystem(final int limit) {
+        return new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                StandardJsonCreator creator = new StandardJsonCreator(system);
+                creator.setJsonStringCacheLimit(limit);
+                return creator;
+            }
+        });
+    }
+
+    /**
+     * The escaping that quotedString did before it was table-driven.
+     */
+    private String oldQuotedString(String value) {
+        StringBuffer sb = new StringBuffer("\"");
+        char b;
+        char c = 0;
+        for (int i = 0; i < value.length(); i += 1) {
+            b = c;
+            c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\');
+                sb.append(c);
+            } else if (c == '/') {
+                if (b == '<') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            } else if (c == '\b') {
+                sb.append("\\b");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\f') {
+                sb.append("\\f");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                String t = "000" + Integer.toHexString(c);
+                sb.append("\\u" + t.substring(t.length() - 4));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    @Test
+    public void testCachedJsonString() {
+        JsonSystem system = cachingSystem(1000);
+        system.put("mem:/item", system.parse("{\"a\":{\"b\":[1,2]},\"c\":\"d\"}"));
+        JsonObject object = system.getObject("mem:/item");
+        String text = object.toCompactJsonString();
+        assertSame(text, object.toCompactJsonString());
+        JsonArray inner = object.getObject("a")
+                .getArray("b");
+        inner.add(3);
+        assertEquals("{\"a\":{\"b\":[1,2,3]},\"c\":\"d\"}", object.toCompactJsonString());
+        text = object.toCompactJsonString();
+        inner.remove(0);
+        assertEquals("{\"a\":{\"b\":[2,3]},\"c\":\"d\"}", object.toCompactJsonString());
+        system.put("mem:/item#c", "e");
+        assertEquals("{\"a\":{\"b\":[2,3]},\"c\":\"e\"}", system.getObject("mem:/item")
+                .toCompactJsonString());
+        object.remove("a");
+        assertEquals("{\"c\":\"e\"}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testCachedJsonStringLimit() {
+        JsonSystem system = cachingSystem(10);
+        JsonArray small = system.createArray();
+        small.add(1);
+        assertSame(small.toCompactJsonString(), small.toCompactJsonString());
+        JsonArray large = system.createArray();
+        large.add("more than ten chars");
+        assertNotSame(large.toCompactJsonString(), large.toCompactJsonString());
+        JsonArray uncached = system().createArray();
+        uncached.add(1);
+        assertNotSame(uncached.toCompactJsonString(), uncached.toCompactJsonString());
+    }
+
+    @Test
+    public void testCachedJsonStringNested() {
+        JsonSystem system = cachingSystem(1000);
+        JsonObject outer = system.createObject();
+        JsonObject inner = outer.createObject("inner");
+        inner.put("a", 1);
+        String innerText = inner.toCompactJsonString();
+        assertEquals("{\"inner\":" + innerText + "}", outer.toCompactJsonString());
+        inner.put("b", 2);
+        assertEquals("{\"inner\":{\"a\":1,\"b\":2}}", outer.toCompactJsonString());
+    }
+
+    @Test
+    public void testCachedJsonStringViews() {
+        JsonSystem system = cachingSystem(1000);
+        JsonObject object = system.parse("{\"a\":[1,2],\"b\":true,\"c\":\"d\",\"e\":null}")
+                .asObject();
+        object.toCompactJsonString();
+        object.keySet()
+                .remove("e");
+        assertEquals("{\"a\":[1,2],\"b\":true,\"c\":\"d\"}", object.toCompactJsonString());
+        Iterator<Map.Entry<String, JsonValue>> entries = object.entrySet()
+                .iterator();
+        while (!entries.next()
+                .getKey()
+                .equals("c")) {}
+        entries.remove();
+        assertEquals("{\"a\":[1,2],\"b\":true}", object.toCompactJsonString());
+        Iterator<JsonValue> values = object.values()
+                .iterator();
+        while (!values.next()
+                .isBoolean()) {}
+        values.remove();
+        assertEquals("{\"a\":[1,2]}", object.toCompactJsonString());
+        ListIterator<JsonValue> iterator = object.getArray("a")
+                .listIterator();
+        iterator.next();
+        iterator.set(system.createNumber(3));
+        assertEquals("{\"a\":[3,2]}", object.toCompactJsonString());
+        iterator.add(system.createNumber(4));
+        assertEquals("{\"a\":[3,4,2]}", object.toCompactJsonString());
+        iterator.next();
+        iterator.remove();
+        assertEquals("{\"a\":[3,4]}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testDeepNesting() {
+        JsonArray array = system().createArray();
+        JsonArray inner = array;
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            inner = inner.addArray();
+            expected.append('[');
+        }
+        inner.add(1);
+        String compact = "[" + expected + "1" + expected.toString()
+                .replace('[', ']') + "]";
+        assertEquals(compact, array.toCompactJsonString());
+        assertEquals(array, system().parse(array.toJsonString()));
+    }
+
+    @Test
+    public void testEscapeTable() {
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0; c < '\u2200'; ++c) {
+            sb.append(c);
+            if (c % 64 == 0) {
+                sb.append("</");
+            }
+        }
+        String string = sb.toString();
+        assertEquals(oldQuotedString(string), ItemscriptCreator.quotedString(string));
+        assertEquals("\"\"", ItemscriptCreator.quotedString(null));
+        assertEquals("\"plain\"", ItemscriptCreator.quotedString("plain"));
+    }
+
+    @Test
+    public void testIndented() {
+        JsonObject object = system().createObject();
+        object.put("a", 1);
+        object.createArray("b")
+                .add("x");
+        object.createObject("c");
+        assertEquals("{\n    \"a\" : 1,\n    \"b\" : [\n        \"x\"\n    ],\n    \"c\" : {}\n}",
+                JsonSerializer.toJsonString(object, 0));
+        assertEquals("        ", JsonSerializer.indent(2));
+        assertEquals(80, JsonSerializer.indent(20)
+                .length());
+    }
+
+    @Test
+    public void testOverlayObject() {
+        JsonObject first = system().createObject();
+        first.put("a", "first");
+        JsonObject second = system().createObject();
+        second.put("a", "second");
+        second.put("b", true);
+        List<JsonObject> objects = new ArrayList<JsonObject>();
+        objects.add(first);
+        objects.add(second);
+        OverlayObject overlay = new OverlayObject(system(), objects);
+        assertEquals(system().parse("{\"a\":\"first\",\"b\":true}"), system().parse(overlay.toCompactJsonString()));
+        assertEquals(system().parse(overlay.toCompactJsonString()), system().parse(overlay.toJsonString()));
+        assertEquals("{}", new OverlayObject(system(), new ArrayList<JsonObject>()).toCompactJsonString());
+    }
+
+    @Test
+    public void testWeakContainers() {
+        WeakArray array = new WeakArray(system());
+        array.weakAdd(system().createString("a\"b"));
+        WeakObject object = new WeakObject(system());
+        object.weakPut("array", array);
+        assertEquals("{\"array\":[\"a\\\"b\"]}", object.toCompactJsonString());
+        assertEquals("{\n    \"array\" : [\n        \"a\\\"b\"\n    ]\n}\n", object.toJsonString());
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.schema.Schema;
+import org.itemscript.standard.JsonTape;
+import org.itemscript.standard.TapeCursor;
+import org.itemscript.template.Template;
+import org.junit.Test;
+
+public class JsonTapeTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"name\":\"reference\",\"count\":3,\"big\":123456789012345678901234567890,"
+            + "\"ratio\":0.25,\"exp\":1e5,\"flags\":[true,false,null],\"nested\":{\"z\":[],\"a\":{},"
+            + "\"m\":[1,[2,\"x\"]]},\"items\":[{\"name\":\"a\",\"price\":1.5},{\"name\":\"b\",\"price\":2}],"
+            + "\"text\":\"caf\u00e9 \ud83d\ude00 \ud800 </script> \\\"q\\\"\\n\"}";
+
+    private JsonTape parse(String json) {
+        return JsonTape.parse(system(), json);
+    }
+
+    @Test
+    public void testCursor() {
+        TapeCursor cursor = parse(DOCUMENT).cursor();
+        assertTrue(cursor.isObject());
+        assertEquals(9, cursor.size());
+        assertFalse(cursor.enterArray());
+        assertTrue(cursor.enterObject());
+        assertTrue(cursor.findField("count"));
+        assertEquals(3L, cursor.getLong());
+        assertEquals(3.0, cursor.getDouble(), 0);
+        assertTrue(cursor.keyEquals("count"));
+        // Found by going round from the field after "count".
+        assertTrue(cursor.findField("name"));
+        assertEquals("reference", cursor.getString());
+        assertTrue(cursor.stringEquals("reference"));
+        assertFalse(cursor.findField("missing"));
+        assertEquals("name", cursor.key());
+        assertTrue(cursor.findField("big"));
+        assertEquals(1.2345678901234568E29, cursor.getDouble(), 0);
+        assertTrue(cursor.findField("flags"));
+        assertTrue(cursor.enterArray());
+        assertTrue(cursor.nextElement());
+        assertTrue(cursor.getBoolean());
+        assertTrue(cursor.nextElement());
+        assertFalse(cursor.getBoolean());
+        assertTrue(cursor.nextElement());
+        assertTrue(cursor.isNull());
+        assertFalse(cursor.nextElement());
+        assertTrue(cursor.isNull());
+        cursor.exit();
+        assertTrue(cursor.isArray());
+        assertEquals(3, cursor.size());
+        assertTrue(cursor.findField("items"));
+        double total = 0;
+        assertTrue(cursor.enterArray());
+        while (cursor.nextElement()) {
+            assertTrue(cursor.enterObject());
+            assertTrue(cursor.findField("price"));
+            total += cursor.getDouble();
+            cursor.exit();
+        }
+        assertEquals(3.5, total, 0);
+        cursor.exit();
+        assertTrue(cursor.findField("text"));
+        assertEquals("caf\u00e9 \ud83d\ude00 \ud800 </script> \"q\"\n", cursor.getString());
+        cursor.reset();
+        assertTrue(cursor.enterObject());
+        List<String> keys = new ArrayList<String>();
+        while (cursor.nextElement()) {
+            keys.add(cursor.key());
+        }
+        assertEquals(9, keys.size());
+        assertEquals("name", keys.get(0));
+        assertEquals("text", keys.get(8));
+    }
+
+    @Test
+    public void testCursorValue() {
+        TapeCursor cursor = parse(DOCUMENT).cursor();
+        cursor.enterObject();
+        cursor.findField("nested");
+        assertEquals(system().parse(DOCUMENT)
+                .asObject()
+                .get("nested"), cursor.value());
+        cursor.findField("ratio");
+        assertEquals(0.25, cursor.value()
+                .doubleValue(), 0);
+    }
+
+    @Test
+    public void testCursorWrongType() {
+        TapeCursor cursor = parse(DOCUMENT).cursor();
+        cursor.enterObject();
+        cursor.findField("name");
+        assertFalse(cursor.isNumber());
+        boolean threwException = false;
+        try {
+            cursor.getDouble();
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        cursor.reset();
+        threwException = false;
+        try {
+            cursor.findField("name");
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        JsonObject object = parse("{\"a\":1,\"b\":{\"x\":[1,{\"y\":2}]},\"a\":{\"z\":[3]},\"c\":4,\"b\":5}").root()
+                .asObject();
+        assertEquals(3, object.size());
+        assertEquals("{\"a\":{\"z\":[3]},\"b\":5,\"c\":4}", object.toCompactJsonString());
+        assertEquals(3, (int) object.getObject("a")
+                .getArray("z")
+                .getInt(0));
+        TapeCursor cursor = parse("[{\"a\":1,\"a\":{\"b\":2}},3]").cursor();
+        cursor.enterArray();
+        cursor.nextElement();
+        assertEquals(1, cursor.size());
+        cursor.nextElement();
+        assertEquals(3L, cursor.getLong());
+    }
+
+    @Test
+    public void testFromValue() {
+        JsonValue value = system().parse(DOCUMENT);
+        JsonTape tape = JsonTape.fromValue(system(), value);
+        assertEquals(value.toCompactJsonString(), tape.root()
+                .toCompactJsonString());
+        assertEquals(value, tape.root());
+        assertEquals(tape.root(), value);
+    }
+
+    @Test
+    public void testEscapes() {
+        String json = "{\"a\\\"b\":\"tab\\there\",\"\\u00e9\":\"\\ud83d\\ude00 \\/\",\"plain\":\"\u00e9\"}";
+        JsonTape tape = parse(json);
+        assertEquals(system().parse(json), tape.root());
+        TapeCursor cursor = tape.cursor();
+        cursor.enterObject();
+        assertTrue(cursor.findField("a\"b"));
+        assertEquals("tab\there", cursor.getString());
+        assertTrue(cursor.findField("\u00e9"));
+        assertEquals("\ud83d\ude00 /", cursor.getString());
+        assertTrue(cursor.findField("plain"));
+        assertTrue(cursor.stringEquals("\u00e9"));
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 1000; ++i) {
+            sb.append(i > 0 ? "," : "");
+            sb.append("{\"key" + i + "\":" + i + ",\"shared\":" + i + "}");
+        }
+        sb.append("]");
+        JsonTape tape = JsonTape.parse(system(), new StringReader(sb.toString()));
+        assertEquals(system().parse(sb.toString()), tape.root());
+        TapeCursor cursor = tape.cursor();
+        cursor.enterArray();
+        int count = 0;
+        while (cursor.nextElement()) {
+            cursor.enterObject();
+            assertTrue(cursor.findField("key" + count));
+            assertEquals(count, cursor.getLong());
+            assertTrue(cursor.findField("shared"));
+            assertEquals(count, cursor.getLong());
+            cursor.exit();
+            ++count;
+        }
+        assertEquals(1000, count);
+        assertEquals(999, (int) tape.root()
+                .asArray()
+                .getObject(999)
+                .getInt("key999"));
+    }
+
+    @Test
+    public void testNumbers() {
+        String json = "[3,12345678,1e5,1.50,123456789012345678,12345678901234567890,1.0,-0,2.5e-3,1E400,"
+                + "0.1234567890123456789]";
+        JsonArray array = parse(json).root()
+                .asArray();
+        JsonArray heapArray = system().parse(json)
+                .asArray();
+        assertEquals(heapArray.toCompactJsonString(), array.toCompactJsonString());
+        assertEquals(heapArray, array);
+        TapeCursor cursor = parse(json).cursor();
+        cursor.enterArray();
+        for (int i = 0; cursor.nextElement(); ++i) {
+            assertEquals(heapArray.getDouble(i), cursor.getDouble(), 0);
+        }
+        cursor.reset();
+        cursor.enterArray();
+        cursor.nextElement();
+        cursor.nextElement();
+        assertEquals(12345678L, cursor.getLong());
+        cursor.nextElement();
+        cursor.nextElement();
+        cursor.nextElement();
+        assertEquals(123456789012345678L, cursor.getLong());
+    }
+
+    @Test
+    public void testParseErrors() {
+        String[] bad = {"", "{", "[1,]", "{\"a\" 1}", "[1 2]", "tru", "\"abc", "[1] 2", "{1:2}", "-", "1.", "[\"\\x\"]"};
+        for (String json : bad) {
+            boolean threwException = false;
+            try {
+                parse(json);
+            } catch (ItemscriptError e) {
+                threwException = true;
+            }
+            assertTrue(json, threwException);
+        }
+    }
+
+    @Test
+    public void testScalarRoot() {
+        assertTrue(parse("null").root()
+                .isNull());
+        assertEquals(5L, parse("5").cursor()
+                .getLong());
+        assertEquals("a", parse("\"a\"").root()
+                .stringValue());
+    }
+
+    @Test
+    public void testSchema() {
+        JsonObject object = parse(DOCUMENT).root()
+                .asObject();
+        Schema schema = new Schema(system());
+        schema.validate(schema.resolve(system().createObject()
+                .p("name", "string")
+                .p("count", "integer")
+                .p("flags", "array")), object);
+        boolean threwException = false;
+        try {
+            schema.validate(schema.resolve(system().createObject()
+                    .p("count", "string")), object);
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+    }
+
+    @Test
+    public void testTemplate() {
+        Template template = Template.create(system(), "{.foreach :items}{:name}={:price}{.join},{.end}");
+        assertEquals(template.interpretToValue(system().parse(DOCUMENT)), template.interpretToValue(parse(DOCUMENT)
+                .root()));
+        assertEquals("a=1.5,b=2", template.interpretToValue(parse(DOCUMENT).root())
+                .stringValue());
+    }
+
+    @Test
+    public void testViews() {
+        JsonObject object = parse(DOCUMENT).root()
+                .asObject();
+        assertEquals(system().parse(DOCUMENT), object);
+        assertEquals(object, system().parse(DOCUMENT));
+        assertEquals(system().parse(DOCUMENT), system().parse(object.toCompactJsonString()));
+        assertEquals("reference", object.getString("name"));
+        assertEquals("123456789012345678901234567890", object.get("big")
+                .toCompactJsonString());
+        assertNull(object.get("missing"));
+        assertEquals("x", object.getByPath("nested/m/1/1")
+                .stringValue());
+        JsonArray items = object.getArray("items");
+        assertEquals(2, items.size());
+        assertEquals("b", items.getObject(1)
+                .getString("name"));
+        assertEquals(1, items.indexOf(system().parse("{\"name\":\"b\",\"price\":2}")));
+        int count = 0;
+        for (JsonValue item : items) {
+            assertTrue(item.isObject());
+            ++count;
+        }
+        assertEquals(2, count);
+        boolean threwException = false;
+        try {
+            object.put("name", "changed");
+        } catch (UnsupportedOperationException e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        JsonObject copy = object.copy()
+                .asObject();
+        copy.put("name", "changed");
+        assertEquals("changed", copy.getString("name"));
+    }
+}
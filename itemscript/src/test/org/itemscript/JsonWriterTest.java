@@ -0,0 +1,137 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.JsonWriter;
+import org.junit.Test;
+
+public class JsonWriterTest extends ItemscriptTestBase {
+    final static String basePath = System.getProperty("user.dir") + "/src/test/org/itemscript/";
+
+    private String compact(JsonValue value) throws Exception {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.write(value);
+        writer.close();
+        return out.toString();
+    }
+
+    private String indented(JsonValue value) throws Exception {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.writeIndented(value);
+        writer.close();
+        return out.toString();
+    }
+
+    private String longString(int length) {
+        StringBuilder sb = new StringBuilder();
+        // A surrogate pair, a line separator and "</" in every 7 chars, so some land on the buffer boundary.
+        while (sb.length() < length) {
+            sb.append("\ud83d\ude00\u2028</\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        JsonArray array = system().createArray();
+        array.add(longString(20000));
+        array.add("\u00e9\u4e2d");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(Channels.newChannel(out));
+        writer.write(array);
+        writer.close();
+        assertEquals(array.toCompactJsonString(), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testEmptyContainers() throws Exception {
+        JsonObject object = system().createObject();
+        object.createObject("a");
+        object.createArray("b");
+        object.put("c", "");
+        assertEquals(object.toCompactJsonString(), compact(object));
+        assertEquals(object.toJsonString(), indented(object));
+        assertEquals("{}", compact(system().createObject()));
+        assertEquals("[]\n", indented(system().createArray()));
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        JsonObject object = system().createObject();
+        object.put("\"key\"", "a\\b\"c\b\f\n\r\t\u0001\u007f\u0085\u00a0\u2028\u20ac</script>/");
+        assertEquals(object.toCompactJsonString(), compact(object));
+        assertEquals(object.toJsonString(), indented(object));
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        JsonValue value = system().parseReader(new FileInputStream(basePath + "test.json"));
+        assertEquals(value.toCompactJsonString(), compact(value));
+        assertEquals(value.toJsonString(), indented(value));
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        JsonObject object = system().createObject();
+        object.put("long", longString(50000));
+        object.put("number", 1.5);
+        object.put("true", true);
+        object.put("null", system().createNull());
+        object.createArray("array")
+                .add("\u00e9");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        writer.write(object);
+        writer.writeIndented(object);
+        writer.close();
+        assertEquals(object.toCompactJsonString() + object.toJsonString(), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testScalars() throws Exception {
+        assertEquals("1.5", compact(system().createNumber(1.5)));
+        assertEquals("true", compact(system().createBoolean(true)));
+        assertEquals("null", compact(system().createNull()));
+        assertEquals("\"x\"", indented(system().createString("x")));
+        JsonValue number = system().parse("[12345678901234567890.25]");
+        assertEquals(number.toCompactJsonString(), compact(number));
+    }
+}
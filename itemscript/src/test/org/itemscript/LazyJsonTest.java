@@ -0,0 +1,202 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.util.ListIterator;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.LazyJsonCreator;
+import org.itemscript.standard.StandardConfig;
+import org.junit.Test;
+
+public class LazyJsonTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"b\":[1,2.5,\"x\",{\"c\":null}],\"a\":{\"d\":true,\"e\":\"caf\u00e9 \\\"\\u0041\\\"\"},"
+            + "\"f\":[],\"g\":{}}";
+    private JsonSystem lazySystem;
+
+    //@Override
+    protected void setUp() {
+        super.setUp();
+        lazySystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new LazyJsonCreator(system);
+            }
+        });
+    }
+
+    @Test
+    public void testEquality() {
+        JsonValue lazy = lazySystem.parse(DOCUMENT);
+        JsonValue eager = system().parse(DOCUMENT);
+        assertEquals(eager.toCompactJsonString(), system().parse(lazy.toCompactJsonString())
+                .toCompactJsonString());
+        assertEquals(lazySystem.parse(DOCUMENT), lazySystem.parse(eager.toCompactJsonString()));
+        JsonObject object = lazy.asObject();
+        assertEquals(4, object.size());
+        assertEquals("caf\u00e9 \"A\"", object.getObject("a")
+                .getString("e"));
+        assertEquals(2.5, object.getArray("b")
+                .getDouble(1));
+        assertTrue(object.getArray("b")
+                .getObject(3)
+                .getValue("c")
+                .isNull());
+        assertEquals("x", object.getByPath("b/2")
+                .stringValue());
+    }
+
+    @Test
+    public void testVerbatimText() {
+        JsonObject object = lazySystem.parse(DOCUMENT)
+                .asObject();
+        // Key order is kept because the text is copied from the source.
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+        String pretty = "{\n    \"b\" : [ 1, \"a b\" ],\n    \"a\" : { }\n}\n";
+        assertEquals("{\"b\":[1,\"a b\"],\"a\":{}}", lazySystem.parse(pretty)
+                .toCompactJsonString());
+        // Accessing without changing keeps the source text.
+        object.getObject("a")
+                .getString("e");
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+    }
+
+    @Test
+    public void testChanges() {
+        JsonObject object = lazySystem.parse(DOCUMENT)
+                .asObject();
+        JsonArray array = object.getArray("b");
+        String unchangedA = object.getObject("a")
+                .toCompactJsonString();
+        array.getObject(3)
+                .put("c", "changed");
+        assertEquals("changed", system().parse(object.toCompactJsonString())
+                .asObject()
+                .getByPath("b/3/c")
+                .stringValue());
+        assertEquals("[1,2.5,\"x\",{\"c\":\"changed\"}]", array.toCompactJsonString());
+        // Siblings that weren't changed are still copied from the source.
+        assertEquals(unchangedA, object.getObject("a")
+                .toCompactJsonString());
+        object.remove("f");
+        assertFalse(object.containsKey("f"));
+        assertFalse(system().parse(object.toCompactJsonString())
+                .asObject()
+                .containsKey("f"));
+    }
+
+    @Test
+    public void testChangesThroughViews() {
+        JsonObject object = lazySystem.parse(DOCUMENT)
+                .asObject();
+        object.keySet()
+                .remove("f");
+        ListIterator<JsonValue> iterator = object.getArray("b")
+                .listIterator();
+        iterator.next();
+        iterator.set(lazySystem.createNumber(10));
+        JsonObject reparsed = system().parse(object.toCompactJsonString())
+                .asObject();
+        assertFalse(reparsed.containsKey("f"));
+        assertEquals(10, (int) reparsed.getArray("b")
+                .getInt(0));
+    }
+
+    @Test
+    public void testCopy() {
+        JsonObject object = lazySystem.parse(DOCUMENT)
+                .asObject();
+        JsonObject copy = object.copy()
+                .asObject();
+        assertEquals(object, copy);
+        copy.getObject("a")
+                .put("d", false);
+        assertTrue(object.getObject("a")
+                .getBoolean("d"));
+        assertFalse(copy.getObject("a")
+                .getBoolean("d"));
+    }
+
+    @Test
+    public void testScalarsAndItems() {
+        assertEquals(3.0, lazySystem.parse(" 3 ")
+                .doubleValue());
+        assertEquals("x", lazySystem.parse("\"x\"")
+                .stringValue());
+        lazySystem.put("mem:/lazy", lazySystem.parse(DOCUMENT));
+        assertEquals("x", lazySystem.getArray("mem:/lazy#b")
+                .getString(2));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] bad = {"{\"a\":[1}", "[\"a]", "[1]]", "", "{} 1", "{\"a\":[1,tru],\"b\":1}", "[1 2]", "[1.]", "[-]",
+                "[+1]", "{1:2}", "[\"a\":1]", "[NaN]", "[TRUE]", "{\"a\"}", "[1,]", "[,1]", "[\"\\q\"]", "[\"\\u00g0\"]",
+                "{\"a\":1,}", "[1}", "{\"a\" 1}", "1 2", "[1e]", "[.5]"};
+        for (int i = 0; i < bad.length; ++i) {
+            try {
+                lazySystem.parse(bad[i]);
+                fail("Should have failed: " + bad[i]);
+            } catch (ItemscriptError e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTextNotCopied() {
+        // Text that would not be written the same way as the contents is not copied from the source.
+        String[] texts = {"{\"a\":1,\"a\":2}", "[01]", "[-007.5]", "{\"b\":[{\"\\u0061\":1}]}", "[[0],{\"x\":[00]}]",
+                "{\"Aa\":1,\"BB\":2}"};
+        for (int i = 0; i < texts.length; ++i) {
+            JsonValue lazy = lazySystem.parse(texts[i]);
+            JsonValue eager = system().parse(texts[i]);
+            assertEquals(texts[i], eager.toCompactJsonString(), lazy.toCompactJsonString());
+        }
+        JsonObject object = lazySystem.parse("{\"a\":1,\"a\":2}")
+                .asObject();
+        assertEquals("{\"a\":2}", object.toCompactJsonString());
+        assertEquals(1, object.size());
+        assertEquals("[1]", lazySystem.parse("[01]")
+                .toCompactJsonString());
+        // Containers next to one that cannot be copied still can be.
+        JsonArray array = lazySystem.parse("[{\"a\":1,\"a\":2}, [1, 2]]")
+                .asArray();
+        assertEquals("[1,2]", array.getArray(1)
+                .toCompactJsonString());
+        assertEquals("[{\"a\":2},[1,2]]", array.toCompactJsonString());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.Iterator;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.util.CanonicalJson;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.LazyJsonCreator;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+import org.junit.Test;
+
+public class NumericArrayTest extends ItemscriptTestBase {
+    private JsonSystem lazySystem;
+    private JsonSystem plainSystem;
+
+    private void assertSameText(String json) {
+        assertEquals(json, lazySystem.parse(json)
+                .toCompactJsonString());
+        assertEquals(plainSystem.parse(json)
+                .toCompactJsonString(), system().parse(json)
+                .toCompactJsonString());
+    }
+
+    //@Override
+    protected void setUp() {
+        super.setUp();
+        lazySystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new LazyJsonCreator(system);
+            }
+        });
+        plainSystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                StandardJsonCreator creator = new StandardJsonCreator(system);
+                creator.setNumericArrays(false);
+                return creator;
+            }
+        });
+    }
+
+    @Test
+    public void testDoubles() {
+        JsonArray array = system().parse("[1.5,-2.25,0.1,3]")
+                .asArray();
+        assertEquals(4, array.size());
+        assertEquals(0.1, array.getDouble(2));
+        assertEquals(3L, array.get(3)
+                .asNumber()
+                .toLong());
+        double[] doubles = array.toDoubleArray();
+        assertEquals(4, doubles.length);
+        assertEquals(-2.25, doubles[1], 0);
+        assertEquals(2.35, array.sum(), 1e-9);
+        assertEquals("[1.5,-2.25,0.1,3]", array.toCompactJsonString());
+    }
+
+    @Test
+    public void testEquals() {
+        JsonArray parsed = system().parse("[1,2.5,3]")
+                .asArray();
+        JsonArray built = system().createArray();
+        built.add("a");
+        built.remove(0);
+        built.add(1);
+        built.add(2.5);
+        built.add(3);
+        assertEquals(parsed, built);
+        assertEquals(built, parsed);
+        assertEquals(CanonicalJson.contentHash(parsed), CanonicalJson.contentHash(built));
+        assertEquals(1, parsed.indexOf(system().createNumber(2.5)));
+        assertTrue(parsed.contains(system().createNumber(3)));
+        assertFalse(parsed.contains(system().createString("3")));
+    }
+
+    @Test
+    public void testHandedOutNumbers() {
+        JsonArray array = system().parse("[1,-2,3]")
+                .asArray();
+        JsonValue value = array.get(1);
+        // Numbers kept as longs or doubles are handed out as copies, placed in the array the same way whichever
+        // way they are read, and which can be put into another container.
+        assertSame(array, value.parent());
+        assertEquals("1", value.key());
+        assertEquals("#1", value.fragment());
+        JsonValue[] handedOut = {array.getValue("1"), (JsonValue) array.toArray()[1], array.iterator()
+                .next(), array.toArray(new JsonValue[0])[1]};
+        for (int i = 0; i < handedOut.length; ++i) {
+            assertSame(array, handedOut[i].parent());
+        }
+        assertEquals("0", handedOut[2].key());
+        array.remove(0);
+        JsonObject object = system().createObject();
+        object.put("moved", value);
+        assertSame(object, value.parent());
+        object.put("copied", (JsonValue) array.toArray()[0]);
+        JsonValue added = system().createNumber(4);
+        array.add(added);
+        assertNull(added.parent());
+        object.put("added", added);
+        assertEquals("[-2,3,4]", array.toCompactJsonString());
+        assertEquals(system().parse("{\"moved\":-2,\"copied\":-2,\"added\":4}"), object);
+        // Once the array holds its values as they are, one of them can't be put anywhere else.
+        array.add("x");
+        try {
+            object.put("held", array.get(0));
+            fail("Should have failed");
+        } catch (ItemscriptError e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInsertAndRemove() {
+
+        JsonArray array = system().parse("[1,2,3]")
+                .asArray();
+        array.add(0, system().createNumber(0));
+        array.set(3, 4.5);
+        JsonValue removed = array.remove(1);
+        assertEquals(1L, removed.asNumber()
+                .toLong());
+        assertNull(removed.parent());
+        assertEquals("[0,2,4.5]", array.toCompactJsonString());
+        Iterator<JsonValue> iterator = array.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals("[2,4.5]", array.toCompactJsonString());
+    }
+
+    @Test
+    public void testLazy() {
+        JsonArray array = lazySystem.parse("[[10,20],[30.5]]")
+                .asArray();
+        assertEquals(30.0, array.getArray(0)
+                .sum(), 0);
+        assertEquals(30.5, array.getArray(1)
+                .toDoubleArray()[0], 0);
+    }
+
+    @Test
+    public void testLongs() {
+        JsonArray array = system().parse("[1,-2,9007199254740993]")
+                .asArray();
+        assertEquals(3, array.size());
+        JsonValue value = array.get(1);
+        assertSame(array, value.parent());
+        assertEquals("1", value.key());
+        assertEquals(-2, (int) array.getInt(1));
+        long[] longs = array.toLongArray();
+        assertEquals(9007199254740993L, longs[2]);
+        assertEquals("[1,-2,9007199254740993]", array.toCompactJsonString());
+        // A long too large to be written the same as a double can't be kept with doubles.
+        array.add(0.5);
+        assertEquals("[1,-2,9007199254740993,0.5]", array.toCompactJsonString());
+        assertEquals(9007199254740993L, array.toLongArray()[2]);
+    }
+
+    @Test
+    public void testNotNumbers() {
+        JsonArray array = system().parse("[1,\"a\"]")
+                .asArray();
+        assertEquals(1.0, array.getDouble(0));
+        boolean failed = false;
+        try {
+            array.toDoubleArray();
+        } catch (ItemscriptError e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    @Test
+    public void testPlainArrays() {
+        JsonArray array = plainSystem.parse("[1,2.5]")
+                .asArray();
+        assertSame(array.get(0), array.get(0));
+        assertEquals(3.5, array.sum(), 0);
+        assertEquals(2, array.toLongArray()[1]);
+        assertEquals(array, system().parse("[1,2.5]"));
+    }
+
+    @Test
+    public void testTextKept() {
+        // Numbers whose text would change if they were kept as longs or doubles.
+        assertSameText("[1.50,2]");
+        assertSameText("[1,1e2]");
+        assertSameText("[-0,0]");
+        assertSameText("[0.00001]");
+        assertSameText("[12345678.5]");
+        assertSameText("[12345678,0.5]");
+    }
+
+    @Test
+    public void testWiden() {
+        JsonArray array = system().parse("[1,2]")
+                .asArray();
+        JsonValue string = system().createString("x");
+        array.add(string);
+        assertSame(string, array.get(2));
+        assertSame(array.get(0), array.get(0));
+        assertEquals("[1,2,\"x\"]", array.toCompactJsonString());
+        array.set(2, 3);
+        assertEquals(6.0, array.sum(), 0);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.schema.Schema;
+import org.itemscript.standard.OffHeapDocument;
+import org.junit.Test;
+
+public class OffHeapDocumentTest extends ItemscriptTestBase {
+    final static String basePath = System.getProperty("user.dir") + "/src/test/org/itemscript/";
+    private static final String DOCUMENT = "{\"name\":\"reference\",\"count\":3,\"big\":123456789012345678901234567890,"
+            + "\"ratio\":0.25,\"one\":1.0,\"exp\":1e5,\"flags\":[true,false,null],\"nested\":{\"z\":[],\"a\":{},"
+            + "\"m\":[1,[2,\"x\"]]},\"text\":\"caf\u00e9 \ud83d\ude00 \ud800 </script> \\\"q\\\"\\n\"}";
+
+    private OffHeapDocument parse(String json) {
+        return OffHeapDocument.parse(system(), json);
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        JsonObject object = parse("{\"a\":1,\"b\":2,\"a\":3}").root()
+                .asObject();
+        assertEquals(2, object.size());
+        assertEquals(3, (int) object.getInt("a"));
+        assertEquals("{\"a\":3,\"b\":2}", object.toCompactJsonString());
+    }
+
+    @Test
+    public void testFromValue() {
+        JsonValue value = system().parse(DOCUMENT);
+        OffHeapDocument document = OffHeapDocument.fromValue(system(), value);
+        assertEquals(value.toCompactJsonString(), document.root()
+                .toCompactJsonString());
+        assertEquals(value, document.root());
+        assertEquals(document.root(), value);
+    }
+
+    @Test
+    public void testGet() {
+        JsonObject object = parse(DOCUMENT).root()
+                .asObject();
+        assertEquals("reference", object.getString("name"));
+        assertEquals(3, (int) object.getInt("count"));
+        assertEquals("123456789012345678901234567890", object.get("big")
+                .toCompactJsonString());
+        assertEquals(0.25, object.getDouble("ratio"), 0);
+        assertEquals(system().parse(DOCUMENT)
+                .asObject()
+                .get("one")
+                .toCompactJsonString(), object.get("one")
+                .toCompactJsonString());
+        assertEquals(100000.0, object.getDouble("exp"), 0);
+        assertNull(object.get("missing"));
+        assertFalse(object.containsKey("nam"));
+        assertTrue(object.getArray("flags")
+                .getBoolean(0));
+        assertTrue(object.getArray("flags")
+                .get(2)
+                .isNull());
+        assertEquals("x", object.getByPath("nested/m/1/1")
+                .stringValue());
+        assertEquals("caf\u00e9 \ud83d\ude00 \ud800 </script> \"q\"\n", object.getString("text"));
+        List<String> keys = new ArrayList<String>(object.getObject("nested")
+                .keySet());
+        assertEquals(3, keys.size());
+        assertEquals("z", keys.get(0));
+        assertEquals("a", keys.get(1));
+        assertEquals("m", keys.get(2));
+    }
+
+    @Test
+    public void testKeyLookup() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < 1000; ++i) {
+            sb.append(i > 0 ? "," : "");
+            sb.append("\"key" + (i * 7919 % 1000) + "\":" + i);
+        }
+        sb.append(",\"\u00e9\":-1,\"\ud83d\ude00\":-2,\"\uffff\":-3}");
+        JsonObject object = parse(sb.toString()).root()
+                .asObject();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i, (int) object.getInt("key" + (i * 7919 % 1000)));
+        }
+        assertEquals(-1, (int) object.getInt("\u00e9"));
+        assertEquals(-2, (int) object.getInt("\ud83d\ude00"));
+        assertEquals(-3, (int) object.getInt("\uffff"));
+        assertNull(object.get("key1000"));
+        assertNull(object.get("\ud83d"));
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        OffHeapDocument document = OffHeapDocument.parse(system(), new InputStreamReader(new FileInputStream(
+                basePath + "test.json"), "UTF-8"));
+        File file = File.createTempFile("itemscript", ".tape");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            document.write(out.getChannel());
+            out.close();
+            OffHeapDocument mapped = OffHeapDocument.map(system(), file);
+            assertEquals(document.byteSize(), mapped.byteSize());
+            assertEquals(document.root()
+                    .toCompactJsonString(), mapped.root()
+                    .toCompactJsonString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMemItem() {
+        system().put("mem:/OffHeapDocumentTest/reference", parse(DOCUMENT).root());
+        assertEquals("x", system().getString("mem:/OffHeapDocumentTest/reference#nested/m/1/1"));
+        JsonObject object = system().getObject("mem:/OffHeapDocumentTest/reference");
+        assertEquals("reference", object.getString("name"));
+        boolean threwException = false;
+        try {
+            system().put("mem:/OffHeapDocumentTest/reference#name", "changed");
+        } catch (UnsupportedOperationException e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        system().put("mem:/OffHeapDocumentTest/reference", "replaced");
+        assertEquals("replaced", system().getString("mem:/OffHeapDocumentTest/reference"));
+    }
+
+    @Test
+    public void testReadOnly() {
+        JsonObject object = parse(DOCUMENT).root()
+                .asObject();
+        boolean threwException = false;
+        try {
+            object.put("name", "changed");
+        } catch (UnsupportedOperationException e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        threwException = false;
+        try {
+            object.getArray("flags")
+                    .add("x");
+        } catch (UnsupportedOperationException e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        JsonObject copy = object.copy()
+                .asObject();
+        copy.put("name", "changed");
+        assertEquals("changed", copy.getString("name"));
+        assertEquals("reference", object.getString("name"));
+    }
+
+    @Test
+    public void testScalarRoot() {
+        assertEquals("a", parse("\"a\"").root()
+                .stringValue());
+        assertEquals(5L, (long) parse("5").root()
+                .longValue());
+    }
+
+    @Test
+    public void testSchema() {
+        JsonObject object = parse(DOCUMENT).root()
+                .asObject();
+        Schema schema = new Schema(system());
+        schema.validate(schema.resolve(system().createObject()
+                .p("name", "string")
+                .p("count", "integer")
+                .p("flags", "array")), object);
+        boolean threwException = false;
+        try {
+            schema.validate(schema.resolve(system().createObject()
+                    .p("count", "string")), object);
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+        JsonArray m = object.getObject("nested")
+                .getArray("m");
+        assertEquals(2, m.size());
+        assertEquals(1, m.indexOf(system().parse("[2,\"x\"]")));
+    }
+
+    @Test
+    public void testWrapRejectsOtherBytes() {
+        boolean threwException = false;
+        try {
+            OffHeapDocument.wrap(system(), ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+        } catch (ItemscriptError e) {
+            threwException = true;
+        }
+        assertTrue(threwException);
+    }
+
+    @Test
+    public void testWriteJson() throws Exception {
+        OffHeapDocument document = parse(DOCUMENT);
+        StringWriter writer = new StringWriter();
+        document.writeJson(writer);
+        // Heap objects don't always keep keys in document order, so compare the values, not the text.
+        assertEquals(system().parse(DOCUMENT), system().parse(writer.toString()));
+        assertEquals(-1, writer.toString()
+                .indexOf('\n'));
+        assertEquals(system().parse(DOCUMENT), system().parse(document.root()
+                .toJsonString()));
+        String text = "{\"text\":\"caf\u00e9 \ud83d\ude00 \ud800 </script> \\\"q\\\"\\n\"}";
+        writer = new StringWriter();
+        parse(text).writeJson(writer);
+        assertEquals(system().parse(text)
+                .toCompactJsonString(), writer.toString());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.parser.JsonParser;
+import org.itemscript.standard.parser.ParseException;
+import org.junit.Test;
+
+/**
+ * Checks that parsing creates little garbage beyond the values it returns, by comparing the bytes allocated while
+ * parsing a document with the bytes allocated while building the same values directly.
+ */
+public class ParserAllocationTest extends ItemscriptTestBase {
+    private static final int RECORDS = 2000;
+    private static final int ROUNDS = 20;
+    /**
+     * The most that parsing may allocate, as a multiple of the bytes allocated by building the same values.
+     */
+    private static final double MAX_RATIO = 1.25;
+
+    private long allocatedBytes(ThreadMXBean bean) {
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread()
+                .getId());
+    }
+
+    private JsonArray build() {
+        JsonArray array = system().createArray();
+        for (int i = 0; i < RECORDS; ++i) {
+            // New key strings, since the parser has to create them too.
+            JsonObject record = array.addObject();
+            record.put(new String("id"), i);
+            record.put(new String("score"), i * 0.25);
+            record.put(new String("ok"), i % 2 == 0);
+            JsonArray tags = record.createArray(new String("tags"));
+            tags.add(1);
+            tags.add(2);
+            tags.add(3);
+            tags.add(system().createNull());
+            record.put(new String("name"), "record " + i);
+        }
+        return array;
+    }
+
+    private String document() {
+        StringBuffer sb = new StringBuffer("[");
+        for (int i = 0; i < RECORDS; ++i) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append("{\"id\":" + i + ", \"score\":" + (i * 0.25) + ", \"ok\":" + (i % 2 == 0)
+                    + ", \"tags\":[1, 2, 3, null], \"name\":\"record " + i + "\"}");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    @Test
+    public void testAllocationPerKilobyte() throws IOException, ParseException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            // Allocation can't be measured on this JVM.
+            return;
+        }
+        String json = document();
+        JsonParser parser = new JsonParser(system());
+        assertEquals(build(), parser.parse(json));
+        long minParseBytes = Long.MAX_VALUE;
+        long minBuildBytes = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i) {
+            StringReader reader = new StringReader(json);
+            long start = allocatedBytes(bean);
+            JsonValue parsed = parser.parse(reader);
+            long parsedBytes = allocatedBytes(bean);
+            JsonValue built = build();
+            long builtBytes = allocatedBytes(bean);
+            assertNotNull(parsed);
+            assertNotNull(built);
+            minParseBytes = Math.min(minParseBytes, parsedBytes - start);
+            minBuildBytes = Math.min(minBuildBytes, builtBytes - parsedBytes);
+        }
+        long kilobytes = json.length() / 1024;
+        assertTrue("Parsing allocated " + (minParseBytes / kilobytes) + " bytes per KB, building the values took "
+                + (minBuildBytes / kilobytes), minParseBytes <= minBuildBytes * MAX_RATIO);
+    }
+}
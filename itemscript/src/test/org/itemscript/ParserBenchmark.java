@@ -0,0 +1,131 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.Util;
+import org.itemscript.standard.parser.JsonParser;
+import org.itemscript.standard.parser.StructuralIndexParser;
+import org.itemscript.standard.parser.Utf8JsonParser;
+
+/**
+ * Compares the throughput of the parse engines on the JSON files named on the command line; with no arguments, the
+ * JSON files in this directory are used.
+ * <p>
+ * Each file is parsed by {@link JsonParser} (the Yylex lexer), {@link Utf8JsonParser}, and
+ * {@link StructuralIndexParser}, both building values and validating only. Results are in megabytes of input per
+ * second.
+ * <p>
+ * Not a test: run it with <code>java test.org.itemscript.ParserBenchmark [file...]</code>.
+ */
+public class ParserBenchmark {
+    private static final long MIN_NANOS = 1000L * 1000 * 1000;
+
+    private interface Engine {
+        public void run(byte[] bytes, String text) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final JsonSystem system = new ItemscriptSystem(new StandardConfig());
+        File[] files;
+        if (args.length > 0) {
+            files = new File[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                files[i] = new File(args[i]);
+            }
+        } else {
+            files = new File(System.getProperty("user.dir") + "/src/test/org/itemscript/").listFiles();
+        }
+        final JsonParser parser = new JsonParser(system);
+        final Utf8JsonParser utf8Parser = new Utf8JsonParser(system);
+        final StructuralIndexParser indexParser = new StructuralIndexParser(system);
+        String[] names = {"Yylex", "Utf8JsonParser", "StructuralIndexParser", "StructuralIndexParser.validate"};
+        Engine[] engines = {new Engine() {
+            public void run(byte[] bytes, String text) throws Exception {
+                parser.parse((Reader) new StringReader(text));
+                parser.reset(null);
+            }
+        }, new Engine() {
+            public void run(byte[] bytes, String text) throws Exception {
+                utf8Parser.parse(bytes);
+            }
+        }, new Engine() {
+            public void run(byte[] bytes, String text) throws Exception {
+                indexParser.parse(bytes);
+            }
+        }, new Engine() {
+            public void run(byte[] bytes, String text) throws Exception {
+                indexParser.validate(bytes);
+            }
+        }};
+        for (int f = 0; f < files.length; ++f) {
+            if (!files[f].getName()
+                    .endsWith(".json")) {
+                continue;
+            }
+            byte[] bytes = Util.readStreamToByteArray(new FileInputStream(files[f]));
+            StringBuffer sb = new StringBuffer();
+            Reader reader = new InputStreamReader(new java.io.ByteArrayInputStream(bytes), "UTF-8");
+            char[] chars = new char[4096];
+            int n;
+            while ((n = reader.read(chars)) != -1) {
+                sb.append(chars, 0, n);
+            }
+            String text = sb.toString();
+            System.out.println(files[f].getName() + " (" + bytes.length + " bytes)");
+            for (int e = 0; e < engines.length; ++e) {
+                // Warm up for a second, then time as many runs as fit in another.
+                long warmUpStart = System.nanoTime();
+                while (System.nanoTime() - warmUpStart < MIN_NANOS) {
+                    engines[e].run(bytes, text);
+                }
+                long runs = 0;
+                long startTime = System.nanoTime();
+                long elapsed;
+                do {
+                    engines[e].run(bytes, text);
+                    ++runs;
+                    elapsed = System.nanoTime() - startTime;
+                } while (elapsed < MIN_NANOS);
+                double megabytesPerSecond = (double) bytes.length * runs / (elapsed / 1e9) / (1024 * 1024);
+                System.out.println("    " + names[e] + ": " + Math.round(megabytesPerSecond) + " MB/s");
+            }
+        }
+    }
+}
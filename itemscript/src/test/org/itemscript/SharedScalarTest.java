@@ -0,0 +1,205 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.Map;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonBoolean;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonItem;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+import org.junit.Test;
+
+public class SharedScalarTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"a\":[null,true,5,\"x\"],\"b\":false,\"c\":null,\"d\":{\"e\":7}}";
+    private JsonSystem unsharedSystem;
+
+    //@Override
+    protected void setUp() {
+        super.setUp();
+        unsharedSystem = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                StandardJsonCreator creator = new StandardJsonCreator(system);
+                creator.setSharedScalars(false);
+                return creator;
+            }
+        });
+    }
+
+    @Test
+    public void testCreate() {
+        assertSame(system().createNull(), system().createNull());
+        assertSame(system().createBoolean(true), system().createBoolean(true));
+        assertSame(system().createNumber(1023L), system().createNumber(1023L));
+        assertSame(system().createNumber(-128L), system().createNumber(-128L));
+        assertNotSame(system().createNumber(1024L), system().createNumber(1024L));
+        assertNotSame(system().createNumber(1.0), system().createNumber(1.0));
+        assertNotSame(unsharedSystem.createNull(), unsharedSystem.createNull());
+        assertNotSame(unsharedSystem.createBoolean(true), unsharedSystem.createBoolean(true));
+        assertNotSame(unsharedSystem.createNumber(5L), unsharedSystem.createNumber(5L));
+    }
+
+    @Test
+    public void testEntries() {
+        JsonObject object = system().parse(DOCUMENT)
+                .asObject();
+        for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue()
+                    .key());
+            assertSame(object, entry.getValue()
+                    .parent());
+        }
+        for (JsonValue value : object.values()) {
+            assertEquals(value, object.get(value.key()));
+        }
+        JsonArray array = object.getArray("a");
+        int i = 0;
+        for (JsonValue value : array) {
+            assertEquals(i++ + "", value.key());
+        }
+        assertEquals(system().parse(DOCUMENT), object);
+    }
+
+    @Test
+    public void testFrozen() {
+        JsonObject object = system().parse(DOCUMENT)
+                .asObject();
+        object.freeze();
+        // Reading a frozen object does not change it, so each read gets a new copy.
+        JsonValue c = object.get("c");
+        assertNotSame(c, object.get("c"));
+        assertEquals("c", c.key());
+        assertSame(object, c.parent());
+        JsonArray a = object.getArray("a");
+        assertNotSame(a.get(1), a.get(1));
+        assertEquals("1", a.get(1)
+                .key());
+        assertEquals(DOCUMENT, object.toCompactJsonString());
+    }
+
+    @Test
+    public void testItem() {
+        JsonItem item = system().createItem("mem:/SharedScalarTest", system().createNull());
+        assertSame(item, item.value()
+                .item());
+        assertTrue(system().createNull()
+                .item() == null);
+        JsonBoolean value = system().put("mem:/SharedScalarTest/b", true)
+                .value()
+                .asBoolean();
+        assertEquals("mem:/SharedScalarTest/b", value.item()
+                .source() + "");
+        JsonObject object = system().createObject();
+        system().createItem("mem:/SharedScalarTest/c", object);
+        assertEquals("#f", object.put("f", false)
+                .fragment());
+    }
+
+    @Test
+    public void testPosition() {
+        JsonObject object = system().parse(DOCUMENT)
+                .asObject();
+        JsonValue b = object.get("b");
+        assertEquals("b", b.key());
+        assertSame(object, b.parent());
+        assertEquals("#b", b.fragment());
+        // Reading the object does not change it, so each read gets a new copy.
+        assertNotSame(b, object.get("b"));
+        JsonArray array = object.getArray("a");
+        assertEquals("#a.0", array.get(0)
+                .fragment());
+        assertEquals("#a.1", array.get(1)
+                .fragment());
+        assertEquals("#a.2", array.get(2)
+                .fragment());
+        assertEquals("#d.e", object.getObject("d")
+                .get("e")
+                .fragment());
+        assertEquals(5, (int) array.getInt(2));
+        assertEquals(false, (boolean) object.getBoolean("b"));
+        assertTrue(object.hasBoolean("b"));
+    }
+
+    @Test
+    public void testPutInManyContainers() {
+        JsonValue shared = system().createNumber(3L);
+        JsonObject first = system().createObject();
+        JsonObject second = system().createObject();
+        JsonArray array = system().createArray();
+        first.put("x", shared);
+        second.put("y", shared);
+        array.add(system().createString("s"));
+        array.add(shared);
+        assertNull(shared.parent());
+        assertNull(shared.key());
+        assertEquals("#x", first.get("x")
+                .fragment());
+        assertEquals("#y", second.get("y")
+                .fragment());
+        assertEquals("#1", array.get(1)
+                .fragment());
+        array.add(0, system().createNull());
+        assertEquals("#2", array.get(2)
+                .fragment());
+        assertEquals("1", array.get(1)
+                .key());
+    }
+
+    @Test
+    public void testRemove() {
+        JsonObject object = system().parse(DOCUMENT)
+                .asObject();
+        JsonValue b = object.remove("b");
+        assertNull(b.parent());
+        assertNull(b.key());
+        // A copy handed out before the value was removed can be put somewhere else.
+        JsonValue c = object.get("c");
+        object.remove("c");
+        object.put("c", b);
+        assertEquals(false, (boolean) object.getBoolean("c"));
+        JsonArray other = system().createArray();
+        other.add(c);
+        assertSame(c, other.get(0));
+        JsonArray array = object.getArray("a");
+        JsonValue first = array.remove(0);
+        assertNull(first.parent());
+        assertEquals("0", array.get(0)
+                .key());
+        assertEquals("[true,5,\"x\"]", array.toCompactJsonString());
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.Iterator;
+import java.util.ListIterator;
+
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonItem;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.junit.Test;
+
+public class SnapshotTest extends ItemscriptTestBase {
+    private static final String DOCUMENT = "{\"a\":{\"b\":[1,2,{\"c\":\"x\"}],\"d\":true},\"e\":[1.5,2.5],\"f\":null}";
+
+    private JsonItem item() {
+        return system().createItem("mem:/SnapshotTest", system().parse(DOCUMENT));
+    }
+
+    @Test
+    public void testArrayChanges() {
+        JsonItem item = item();
+        JsonArray b = item.value()
+                .asObject()
+                .getObject("a")
+                .getArray("b");
+        item.snapshot();
+        b.set(0, 10);
+        item.snapshot();
+        b.add("z");
+        item.snapshot();
+        b.add(0, system().createString("first"));
+        item.snapshot();
+        b.remove(1);
+        b.remove(1);
+        item.snapshot();
+        assertEquals("[1,2,{\"c\":\"x\"}]", version(item, 0).getObject("a")
+                .getArray("b")
+                .toCompactJsonString());
+        assertEquals("[10,2,{\"c\":\"x\"}]", version(item, 1).getObject("a")
+                .getArray("b")
+                .toCompactJsonString());
+        assertEquals("[10,2,{\"c\":\"x\"},\"z\"]", version(item, 2).getObject("a")
+                .getArray("b")
+                .toCompactJsonString());
+        assertEquals("[\"first\",10,2,{\"c\":\"x\"},\"z\"]", version(item, 3).getObject("a")
+                .getArray("b")
+                .toCompactJsonString());
+        assertEquals("[\"first\",{\"c\":\"x\"},\"z\"]", version(item, 4).getObject("a")
+                .getArray("b")
+                .toCompactJsonString());
+    }
+
+    @Test
+    public void testCopyVersion() {
+        JsonItem item = item();
+        item.snapshot();
+        JsonObject copy = item.version(0)
+                .copy()
+                .asObject();
+        assertFalse(copy.isFrozen());
+        copy.getObject("a")
+                .put("d", false);
+        assertEquals(true, (boolean) item.version(0)
+                .asObject()
+                .getObject("a")
+                .getBoolean("d"));
+        assertEquals(false, (boolean) copy.getObject("a")
+                .getBoolean("d"));
+    }
+
+    @Test
+    public void testHashCollisions() {
+        // "Aa" and "BB" have the same String hash code.
+        JsonItem item = system().createItem("mem:/SnapshotTest", system().createObject());
+        JsonObject object = item.value()
+                .asObject();
+        object.put("Aa", 1);
+        object.put("BB", 2);
+        object.put("AaAa", 3);
+        object.put("BBBB", 4);
+        object.put("AaBB", 5);
+        item.snapshot();
+        object.remove("BB");
+        object.put("AaBB", 6);
+        item.snapshot();
+        object.remove("Aa");
+        item.snapshot();
+        assertEquals(system().parse("{\"Aa\":1,\"BB\":2,\"AaAa\":3,\"BBBB\":4,\"AaBB\":5}"), item.version(0));
+        assertEquals(system().parse("{\"Aa\":1,\"AaAa\":3,\"BBBB\":4,\"AaBB\":6}"), item.version(1));
+        assertEquals(system().parse("{\"AaAa\":3,\"BBBB\":4,\"AaBB\":6}"), item.version(2));
+    }
+
+    @Test
+    public void testManyValues() {
+        JsonItem item = system().createItem("mem:/SnapshotTest", system().createObject());
+        JsonObject object = item.value()
+                .asObject();
+        JsonArray array = system().createArray();
+        object.put("array", array);
+        for (int i = 0; i < 2000; ++i) {
+            object.put("key" + i, i);
+            array.add("value" + i);
+        }
+        item.snapshot();
+        for (int i = 0; i < 2000; i += 3) {
+            object.remove("key" + i);
+            array.set(i, i);
+        }
+        for (int i = 2000; i < 2100; ++i) {
+            array.add(i);
+        }
+        item.snapshot();
+        JsonObject first = version(item, 0);
+        JsonObject second = version(item, 1);
+        assertEquals(2001, first.size());
+        assertEquals(2001 - 667, second.size());
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(i, (int) first.getInt("key" + i));
+            assertEquals("value" + i, first.getArray("array")
+                    .getString(i));
+            if (i % 3 == 0) {
+                assertFalse(second.containsKey("key" + i));
+                assertEquals(i, (int) second.getArray("array")
+                        .getInt(i));
+            } else {
+                assertEquals(i, (int) second.getInt("key" + i));
+                assertEquals("value" + i, second.getArray("array")
+                        .getString(i));
+            }
+        }
+        assertEquals(2000, first.getArray("array")
+                .size());
+        assertEquals(2100, second.getArray("array")
+                .size());
+        assertEquals(object, second);
+    }
+
+    @Test
+    public void testNestedChange() {
+        JsonItem item = item();
+        item.snapshot();
+        item.value()
+                .asObject()
+                .getObject("a")
+                .getArray("b")
+                .getObject(2)
+                .put("c", "y");
+        item.value()
+                .asObject()
+                .remove("f");
+        item.snapshot();
+        assertEquals(system().parse(DOCUMENT), item.version(0));
+        assertEquals(system().parse("{\"a\":{\"b\":[1,2,{\"c\":\"y\"}],\"d\":true},\"e\":[1.5,2.5]}"),
+                item.version(1));
+        assertEquals(item.value(), item.version(1));
+    }
+
+    @Test
+    public void testNoSuchVersion() {
+        JsonItem item = item();
+        assertEquals(0, item.versionCount());
+        assertEquals(0, item.snapshot());
+        assertEquals(1, item.snapshot());
+        assertEquals(2, item.versionCount());
+        boolean failed = false;
+        try {
+            item.version(2);
+        } catch (ItemscriptError e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    @Test
+    public void testViewChanges() {
+        JsonItem item = item();
+        JsonObject value = item.value()
+                .asObject();
+        item.snapshot();
+        value.keySet()
+                .remove("f");
+        item.snapshot();
+        Iterator<JsonValue> values = value.getObject("a")
+                .values()
+                .iterator();
+        while (!values.next()
+                .isBoolean()) {}
+        values.remove();
+        item.snapshot();
+        ListIterator<JsonValue> iterator = value.getArray("e")
+                .listIterator();
+        iterator.next();
+        iterator.set(system().createNumber(0.5));
+        iterator.add(system().createNumber(1));
+        item.snapshot();
+        assertEquals(system().parse(DOCUMENT), version(item, 0));
+        assertFalse(version(item, 1).containsKey("f"));
+        assertTrue(version(item, 1).getObject("a")
+                .containsKey("d"));
+        assertFalse(version(item, 2).getObject("a")
+                .containsKey("d"));
+        assertEquals("[1.5,2.5]", version(item, 2).getArray("e")
+                .toCompactJsonString());
+        assertEquals("[0.5,1,2.5]", version(item, 3).getArray("e")
+                .toCompactJsonString());
+    }
+
+    @Test
+    public void testVersionsAreFrozen() {
+        JsonItem item = item();
+        item.snapshot();
+        JsonValue version = item.version(0);
+        assertTrue(version.isFrozen());
+        boolean failed = false;
+        try {
+            version.asObject()
+                    .put("g", 1);
+        } catch (ItemscriptError e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    private JsonObject version(JsonItem item, int version) {
+        return item.version(version)
+                .asObject();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.io.UnsupportedEncodingException;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonArray;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StandardJsonCreator;
+import org.itemscript.standard.Utf8JsonCreator;
+import org.itemscript.standard.parser.StringInterning;
+import org.junit.Test;
+
+public class StringInterningTest extends ItemscriptTestBase {
+    private static final int RECORDS = 500;
+
+    private String document() {
+        StringBuffer sb = new StringBuffer("[");
+        for (int i = 0; i < RECORDS; ++i) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"id\":" + i + ",\"status\":\"" + (i % 2 == 0 ? "active" : "caf\\u00e9")
+                    + "\",\"name\":\"record " + i + "\",\"d\\u00e9j\\u00e0\":true,"
+                    + "\"long\":\"a string value that is too long to be interned\"}");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    private String key(JsonObject object, String key) {
+        for (String objectKey : object.keySet()) {
+            if (objectKey.equals(key)) { return objectKey; }
+        }
+        return null;
+    }
+
+    private void checkShared(JsonArray records, boolean values) {
+        assertEquals(RECORDS, records.size());
+        JsonObject first = records.getObject(0);
+        JsonObject third = records.getObject(2);
+        assertSame(key(first, "status"), key(third, "status"));
+        assertSame(key(first, "d\u00e9j\u00e0"), key(records.getObject(1), "d\u00e9j\u00e0"));
+        assertEquals("active", third.getString("status"));
+        assertEquals("caf\u00e9", records.getObject(3)
+                .getString("status"));
+        if (values) {
+            assertSame(first.getString("status"), third.getString("status"));
+            assertSame(records.getObject(1)
+                    .getString("status"), records.getObject(3)
+                    .getString("status"));
+        } else {
+            assertNotSame(first.getString("status"), third.getString("status"));
+        }
+        // Too long to be interned.
+        assertNotSame(first.getString("long"), third.getString("long"));
+    }
+
+    private JsonSystem createSystem(final boolean utf8, final StringInterning interning) {
+        return new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                if (utf8) { return new Utf8JsonCreator(system, interning); }
+                return new StandardJsonCreator(system, interning);
+            }
+        });
+    }
+
+    @Test
+    public void testKeysOnly() {
+        StringInterning interning = new StringInterning(256);
+        JsonSystem system = createSystem(false, interning);
+        checkShared(system.parse(document())
+                .asArray(), false);
+        assertEquals(RECORDS * 5, interning.keyLookups());
+        assertTrue(interning.keyHitRate() > 0.99);
+        assertEquals(0, interning.valueLookups());
+    }
+
+    @Test
+    public void testStandard() {
+        StringInterning interning = new StringInterning(256, 256, 16);
+        JsonSystem system = createSystem(false, interning);
+        checkShared(system.parse(document())
+                .asArray(), true);
+        assertTrue(interning.keyHitRate() > 0.99);
+        assertEquals(RECORDS * 2, interning.valueLookups());
+        // Half the values are statuses, which repeat; the names don't.
+        assertTrue(interning.valueHitRate() > 0.49);
+        interning.resetStatistics();
+        assertEquals(0, interning.keyLookups());
+        system.parse(document());
+        assertEquals(1.0, interning.keyHitRate(), 0);
+        assertTrue(interning.valueHitRate() > 0.5);
+    }
+
+    @Test
+    public void testUtf8() throws UnsupportedEncodingException {
+        StringInterning interning = new StringInterning(256, 256, 16);
+        JsonSystem system = createSystem(true, interning);
+        checkShared(system.parseReader(document().getBytes("UTF-8"))
+                .asArray(), true);
+        assertEquals(RECORDS * 5, interning.keyLookups());
+        assertTrue(interning.keyHitRate() > 0.99);
+        assertEquals(RECORDS * 2, interning.valueLookups());
+        // The same parser, and so the same tables, are used for Strings and Readers.
+        assertEquals(system.parse(document()), system.parseReader(document().getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testNoInterning() {
+        JsonArray records = system().parse(document())
+                .asArray();
+        assertNotSame(records.getObject(0)
+                .getString("status"), records.getObject(2)
+                .getString("status"));
+    }
+}
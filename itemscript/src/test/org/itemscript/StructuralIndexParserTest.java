@@ -0,0 +1,230 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+
+package test.org.itemscript;
+
+import java.util.Random;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.StructuralIndexJsonCreator;
+import org.itemscript.standard.parser.ParseException;
+import org.itemscript.standard.parser.StructuralIndexParser;
+import org.itemscript.standard.parser.Utf8JsonParser;
+import org.junit.Test;
+
+public class StructuralIndexParserTest extends ItemscriptTestBase {
+    private JsonValue parseIndexed(String json) throws Exception {
+        return new StructuralIndexParser(system()).parse(json.getBytes("UTF-8"));
+    }
+
+    private void assertSameAsStandard(String json) throws Exception {
+        assertEquals(system().parse(json), parseIndexed(json));
+        new StructuralIndexParser(system()).validate(json.getBytes("UTF-8"));
+    }
+
+    private void assertParseFails(String json) throws Exception {
+        try {
+            parseIndexed(json);
+            fail("Expected a ParseException for: " + json);
+        } catch (ParseException e) {
+            // expected
+        }
+        try {
+            new StructuralIndexParser(system()).validate(json.getBytes("UTF-8"));
+            fail("Expected validation to fail for: " + json);
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScalars() throws Exception {
+        assertSameAsStandard("\"foo\"");
+        assertSameAsStandard("true");
+        assertSameAsStandard("false");
+        assertSameAsStandard("null");
+        assertSameAsStandard("123");
+        assertSameAsStandard("-0");
+        assertSameAsStandard("-1.5e10");
+        assertSameAsStandard("1E-3");
+        assertSameAsStandard("12345678901234567890");
+        assertSameAsStandard(" 0.1 ");
+    }
+
+    @Test
+    public void testContainers() throws Exception {
+        assertSameAsStandard("{}");
+        assertSameAsStandard("[]");
+        assertSameAsStandard(" { \"a\" : [ 1 , 2.5 , { \"b\" : null } ] , \"c\" : { } , \"d\" : [ ] }\r\n");
+        assertSameAsStandard("[[[[\"deep\"]]], {\"x\": {\"y\": {\"z\": true}}}]");
+        assertSameAsStandard("{\"brackets [ { : , } ] in a string\":\"[{:,}]\"}");
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        assertSameAsStandard("\"quote \\\" backslash \\\\ slash \\/ \\b\\f\\n\\r\\t\"");
+        assertSameAsStandard("\"\\u0041\\u00e9\\u20AC\"");
+        assertEquals("\u00e9\u20ac\ud834\udd1e", parseIndexed("\"\u00e9\u20ac\ud834\udd1e\"").stringValue());
+        assertEquals("\u00e9 mixed \n escapes \u20ac", parseIndexed("\"\u00e9 mixed \\n escapes \u20ac\"")
+                .stringValue());
+    }
+
+    @Test
+    public void testEscapesAcrossBlocks() throws Exception {
+        // Runs of backslashes of every length, ending at every offset around the 64-byte block boundary.
+        for (int padding = 50; padding < 70; ++padding) {
+            for (int run = 1; run <= 6; ++run) {
+                StringBuffer sb = new StringBuffer("[\"");
+                for (int i = 0; i < padding; ++i) {
+                    sb.append('x');
+                }
+                for (int i = 0; i < run; ++i) {
+                    sb.append("\\\\");
+                }
+                sb.append("\\\"\", [1,\"two\"]]");
+                assertSameAsStandard(sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testByteOrderMark() throws Exception {
+        byte[] bytes = new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '[', '1', ']'};
+        assertEquals(system().parse("[1]"), new StructuralIndexParser(system()).parse(bytes));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertParseFails("");
+        assertParseFails("   ");
+        assertParseFails("{");
+        assertParseFails("[1,]");
+        assertParseFails("[1 2]");
+        assertParseFails("{\"a\" 1}");
+        assertParseFails("{1:2}");
+        assertParseFails("{\"a\":1,}");
+        assertParseFails("tru");
+        assertParseFails("truex");
+        assertParseFails("[true\"x\"]");
+        assertParseFails("\"unterminated");
+        assertParseFails("\"bad escape \\x\"");
+        assertParseFails("\"bad unicode \\u12g4\"");
+        assertParseFails("1 2");
+        assertParseFails("1.");
+        assertParseFails("-");
+        assertParseFails("[1]]");
+        assertParseFails("[\u0001]");
+        try {
+            parseIndexed("{\n  \"a\" : ?\n}");
+            fail();
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(9, e.getColumn());
+        }
+    }
+
+    @Test
+    public void testRandomDocuments() throws Exception {
+        Random random = new Random(42);
+        StructuralIndexParser parser = new StructuralIndexParser(system());
+        Utf8JsonParser utf8Parser = new Utf8JsonParser(system());
+        for (int i = 0; i < 200; ++i) {
+            StringBuffer sb = new StringBuffer();
+            randomValue(random, sb, 0);
+            byte[] bytes = sb.toString()
+                    .getBytes("UTF-8");
+            assertEquals(utf8Parser.parse(bytes), parser.parse(bytes));
+        }
+    }
+
+    private void randomValue(Random random, StringBuffer sb, int depth) {
+        int kind = random.nextInt(depth > 4 ? 4 : 6);
+        String[] strings = {"", "a", "\\\\", "\\\"", "x\\\\\\\"y", "{[:,]}", "\u00e9\u20ac", "\\u0041 \\n"};
+        switch (kind) {
+            case 0 :
+                sb.append('"')
+                        .append(strings[random.nextInt(strings.length)])
+                        .append('"');
+                break;
+            case 1 :
+                sb.append(random.nextInt(2000) - 1000);
+                if (random.nextBoolean()) {
+                    sb.append(".25e-2");
+                }
+                break;
+            case 2 :
+                sb.append(random.nextBoolean() ? "true" : "null");
+                break;
+            case 3 :
+                sb.append("false");
+                break;
+            case 4 :
+                sb.append("[ ");
+                for (int i = random.nextInt(5); i > 0; --i) {
+                    randomValue(random, sb, depth + 1);
+                    if (i > 1) {
+                        sb.append(random.nextBoolean() ? "," : " ,\n");
+                    }
+                }
+                sb.append(']');
+                break;
+            default :
+                sb.append('{');
+                for (int i = random.nextInt(5); i > 0; --i) {
+                    sb.append("\"k" + i + strings[random.nextInt(strings.length)] + "\":");
+                    randomValue(random, sb, depth + 1);
+                    if (i > 1) {
+                        sb.append(',');
+                    }
+                }
+                sb.append(" }");
+        }
+    }
+
+    @Test
+    public void testCreator() throws Exception {
+        JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new StructuralIndexJsonCreator(system);
+            }
+        });
+        String json = "{\"a\":[1,2,{\"b\":\"c\"}]}";
+        assertEquals(system().parse(json), system.parseReader(json.getBytes("UTF-8")));
+        assertEquals(system().parse(json), system.parse(json));
+        StructuralIndexJsonCreator creator = new StructuralIndexJsonCreator(system);
+        assertTrue(creator.isValid(json.getBytes("UTF-8")));
+        assertFalse(creator.isValid("{\"a\":}".getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright  2010, Data Base Architects, Inc. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the names of Kalinda Software, DBA Software, Data Base Architects, Itemscript
+ *       nor the names of its contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * Author: Jacob Davies
+ */
+
+package test.org.itemscript;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+
+import org.itemscript.core.ItemscriptSystem;
+import org.itemscript.core.JsonSystem;
+import org.itemscript.core.exceptions.ItemscriptError;
+import org.itemscript.core.values.JsonCreator;
+import org.itemscript.core.values.JsonObject;
+import org.itemscript.core.values.JsonValue;
+import org.itemscript.standard.StandardConfig;
+import org.itemscript.standard.Util;
+import org.itemscript.standard.Utf8JsonCreator;
+import org.itemscript.standard.parser.ParseException;
+import org.itemscript.standard.parser.Utf8JsonParser;
+import org.junit.Test;
+
+public class Utf8JsonParserTest extends ItemscriptTestBase {
+    final static String basePath = System.getProperty("user.dir") + "/src/test/org/itemscript/";
+
+    private JsonValue parseUtf8(String json) throws Exception {
+        return new Utf8JsonParser(system()).parse(json.getBytes("UTF-8"));
+    }
+
+    private void assertSameAsStandard(String json) throws Exception {
+        assertEquals(system().parse(json), parseUtf8(json));
+    }
+
+    private void assertParseFails(String json) throws Exception {
+        try {
+            parseUtf8(json);
+            fail("Expected a ParseException for: " + json);
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScalars() throws Exception {
+        assertSameAsStandard("\"foo\"");
+        assertSameAsStandard("true");
+        assertSameAsStandard("false");
+        assertSameAsStandard("null");
+        assertSameAsStandard("123");
+        assertSameAsStandard("-0");
+        assertSameAsStandard("-1.5e10");
+        assertSameAsStandard("1E-3");
+        assertSameAsStandard("12345678901234567890");
+        assertSameAsStandard("0.1");
+        assertTrue(parseUtf8("null").isNull());
+    }
+
+    @Test
+    public void testContainers() throws Exception {
+        assertSameAsStandard("{}");
+        assertSameAsStandard("[]");
+        assertSameAsStandard(" { \"a\" : [ 1 , 2.5 , { \"b\" : null } ] , \"c\" : { } , \"d\" : [ ] }\r\n");
+        assertSameAsStandard("[[[[\"deep\"]]], {\"x\": {\"y\": {\"z\": true}}}]");
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        assertSameAsStandard("\"quote \\\" backslash \\\\ slash \\/ \\b\\f\\n\\r\\t\"");
+        assertSameAsStandard("\"\\u0041\\u00e9\\u20AC\"");
+        assertEquals("\u00e9\u20ac\ud834\udd1e", parseUtf8("\"\u00e9\u20ac\ud834\udd1e\"").stringValue());
+        assertEquals("\u00e9 mixed \n escapes \u20ac", parseUtf8("\"\u00e9 mixed \\n escapes \u20ac\"").stringValue());
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("\u00e9x");
+        }
+        assertEquals(sb.toString(), parseUtf8("\"" + sb + "\"").stringValue());
+    }
+
+    @Test
+    public void testMalformedUtf8() throws Exception {
+        byte[] bytes = new byte[] {'"', 'a', (byte) 0xC3, 'b', '"'};
+        assertEquals("a\ufffdb", new Utf8JsonParser(system()).parse(bytes)
+                .stringValue());
+    }
+
+    @Test
+    public void testByteOrderMark() throws Exception {
+        byte[] bytes = new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '[', '1', ']'};
+        assertEquals(system().parse("[1]"), new Utf8JsonParser(system()).parse(bytes));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertParseFails("");
+        assertParseFails("{");
+        assertParseFails("[1,]");
+        assertParseFails("{\"a\" 1}");
+        assertParseFails("{1:2}");
+        assertParseFails("tru");
+        assertParseFails("\"unterminated");
+        assertParseFails("\"bad escape \\x\"");
+        assertParseFails("1 2");
+        assertParseFails("1.");
+        assertParseFails("-");
+        try {
+            parseUtf8("{\n  \"a\" : ?\n}");
+            fail();
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(9, e.getColumn());
+        }
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        byte[] bytes = "xx{\"a\":[1,2]}yy".getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4);
+        assertEquals(system().parse("{\"a\":[1,2]}"), new Utf8JsonParser(system()).parse(buffer));
+        assertEquals(0, buffer.remaining());
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put("[1,2]".getBytes("UTF-8"));
+        direct.flip();
+        assertEquals(system().parse("[1,2]"), new Utf8JsonParser(system()).parse(direct));
+    }
+
+    @Test
+    public void testTestFiles() throws Exception {
+        String[] files = {"test.json", "test2.json", "test3.json", "cat.json", "dog.json", "unicode.json",
+                "validate.json", "templateContext.json", "templateContext2.json"};
+        for (int i = 0; i < files.length; ++i) {
+            byte[] bytes = Util.readStreamToByteArray(new FileInputStream(new File(basePath + files[i])));
+            JsonValue expected = system().parse(new String(bytes, "UTF-8"));
+            assertEquals(files[i], expected, new Utf8JsonParser(system()).parse(bytes));
+        }
+    }
+
+    @Test
+    public void testCreator() {
+        JsonSystem system = new ItemscriptSystem(new StandardConfig() {
+            //@Override
+            public JsonCreator createJsonCreator(JsonSystem system) {
+                return new Utf8JsonCreator(system);
+            }
+        });
+        JsonObject object = system.getObject("classpath:test/org/itemscript/unicode.json");
+        assertEquals(system().getObject("classpath:test/org/itemscript/unicode.json"), object);
+        assertEquals("bar", system.getString("file:" + basePath + "test.json#foo"));
+        assertEquals(system.parse("[1,\"a\"]"), system.parseReader(new ByteArrayInputStream("[1,\"a\"]".getBytes())));
+        try {
+            system.parseReader("[1,".getBytes());
+            fail();
+        } catch (ItemscriptError e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStandardCreatorAcceptsStreams() throws Exception {
+        assertEquals(system().parse("{\"a\":\"\u00e9\"}"), system().parseReader(new ByteArrayInputStream(
+                "{\"a\":\"\u00e9\"}".getBytes("UTF-8"))));
+    }
+}